@@ -0,0 +1,63 @@
+package com.abstratt.kirra.mdd.runtime;
+
+import static java.util.Arrays.asList;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.uml2.uml.Class;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Constraint;
+import org.eclipse.uml2.uml.Operation;
+
+import com.abstratt.kirra.mdd.core.KirraHelper;
+import com.abstratt.mdd.core.IRepository;
+import com.abstratt.mdd.core.util.AccessCapability;
+import com.abstratt.mdd.core.util.AccessControlUtils;
+
+/**
+ * The access constraints that apply to each role class, per entity,
+ * operation and set of capabilities, as declared in a repository. They
+ * depend only on the model, so they are resolved once per repository,
+ * leaving only the evaluation of the constraints to each request.
+ */
+class AccessControlTable {
+    private final IRepository repository;
+
+    private final List<Class> roleClasses;
+
+    private final Map<List<Object>, Map<Classifier, Map<AccessCapability, Constraint>>> constraints = new ConcurrentHashMap<>();
+
+    AccessControlTable(IRepository repository) {
+        this.repository = repository;
+        this.roleClasses = Collections.unmodifiableList(KirraHelper.getRoleEntities(KirraHelper.getApplicationPackages(repository
+                .getTopLevelPackages(null))));
+    }
+
+    IRepository getRepository() {
+        return repository;
+    }
+
+    List<Class> getRoleClasses() {
+        return roleClasses;
+    }
+
+    /**
+     * Returns the constraints, per role class, on the given capabilities over
+     * the given entity, or over the given operation of the entity.
+     * 
+     * @param operation
+     *            the operation, or <code>null</code> for the entity itself
+     */
+    Map<Classifier, Map<AccessCapability, Constraint>> getConstraintsPerRole(Classifier entity, Operation operation,
+            List<AccessCapability> capabilities) {
+        return constraints.computeIfAbsent(asList(entity, operation, capabilities), key -> {
+            Map<Classifier, Map<AccessCapability, Constraint>> resolved = operation == null ? AccessControlUtils
+                    .computeConstraintsPerRoleClass(roleClasses, capabilities, asList(entity)) : AccessControlUtils
+                    .computeConstraintsPerRoleClass(roleClasses, capabilities, asList(entity, operation));
+            return Collections.unmodifiableMap(resolved);
+        });
+    }
+}
@@ -93,13 +93,13 @@ import com.abstratt.mdd.core.runtime.types.PrimitiveType;
 import com.abstratt.mdd.core.runtime.types.StateMachineType;
 import com.abstratt.mdd.core.runtime.types.ValueConverter;
 import com.abstratt.mdd.core.util.AccessCapability;
-import com.abstratt.mdd.core.util.AccessControlUtils;
 import com.abstratt.mdd.core.util.AssociationUtils;
 import com.abstratt.mdd.core.util.FeatureUtils;
 import com.abstratt.mdd.core.util.MDDExtensionUtils;
 import com.abstratt.mdd.core.util.MDDUtil;
 import com.abstratt.mdd.core.util.ReceptionUtils;
 import com.abstratt.mdd.core.util.StateMachineUtils;
+import com.abstratt.nodestore.INodeKey;
 import com.abstratt.nodestore.NodeNotFoundException;
 import com.abstratt.nodestore.NodeStoreException;
 import com.abstratt.nodestore.NodeStoreNotFoundException;
@@ -145,6 +145,12 @@ public class KirraOnMDDRuntime implements KirraMDDConstants, Repository, Externa
 
     private static Log log = LogFactory.getLog(KirraOnMDDRuntime.class);
 
+    /**
+     * How many instances are loaded at a time when looking for those visible
+     * to the current user.
+     */
+    private static final int FILTERING_BATCH_SIZE = 100;
+
     private boolean validating = true;
     
     private boolean populating = false;
@@ -153,6 +159,8 @@ public class KirraOnMDDRuntime implements KirraMDDConstants, Repository, Externa
 
     private boolean filtering = false;
 
+    private AccessControlTable accessControl;
+
     private KirraOnMDDRuntime() {
     }
     
@@ -334,6 +342,40 @@ public class KirraOnMDDRuntime implements KirraMDDConstants, Repository, Externa
         convertedToRuntimeObject.clear();
     }
 
+    /**
+     * Does upfront what the first requests against a freshly loaded
+     * repository would otherwise do: builds the schema, resolves the access
+     * constraints for every entity (as needed for computing capabilities),
+     * and prepares execution plans for all activities.
+     * <p>
+     * The access control table and the execution plans are kept along with
+     * the copy of the repository loaded by the current resource, as they
+     * refer to its model elements. Other resources pooled for the same
+     * repository load copies of their own, and are only prepared by the
+     * first requests they serve.
+     * </p>
+     */
+    public void warmUp() {
+        AccessControlTable accessControl = getAccessControl();
+        List<AccessCapability> allCapabilities = asList(AccessCapability.values());
+        List<AccessCapability> instanceCallCapabilities = asList(AccessCapability.Call);
+        List<AccessCapability> instanceCrudCapabilities = asList(AccessCapability.Delete, AccessCapability.Update, AccessCapability.Read);
+        for (Entity entity : getAllEntities()) {
+            Class modelClass = getModelType(entity.getTypeRef(), Literals.CLASS);
+            if (modelClass == null)
+                continue;
+            accessControl.getConstraintsPerRole(modelClass, null, allCapabilities);
+            accessControl.getConstraintsPerRole(modelClass, null, instanceCrudCapabilities);
+            for (Operation action : KirraHelper.getEntityActions(modelClass))
+                accessControl.getConstraintsPerRole(modelClass, action, allCapabilities);
+            for (Operation query : KirraHelper.getQueries(modelClass))
+                accessControl.getConstraintsPerRole(modelClass, query, allCapabilities);
+            for (Operation action : KirraHelper.getInstanceActions(modelClass))
+                accessControl.getConstraintsPerRole(modelClass, action, instanceCallCapabilities);
+        }
+        getRuntime().prepareExecutionPlans();
+    }
+
     @Override
     public List<Entity> getAllEntities() {
         return getSchemaManagement().getAllEntities();
@@ -411,7 +453,7 @@ public class KirraOnMDDRuntime implements KirraMDDConstants, Repository, Externa
     	EntityCapabilities capabilities = new EntityCapabilities();
     	
     	RuntimeObject currentActor = getRuntime().getCurrentActor();
-    	List<Class> allRoleClasses = KirraHelper.getRoleEntities(KirraHelper.getApplicationPackages(getRepository().getTopLevelPackages(null)));
+    	AccessControlTable accessControl = getAccessControl();
 		List<RuntimeObject> actualRoles = getRuntime().getRolesForActor(currentActor);
     	List<Class> actualRoleClasses = actualRoles.stream().map(role -> (Class) role.getRuntimeClass().getModelClassifier()).collect(Collectors.toList());
     	
@@ -419,11 +461,8 @@ public class KirraOnMDDRuntime implements KirraMDDConstants, Repository, Externa
     	List<Operation> allStaticQueries = KirraHelper.getQueries((Class) runtimeClass.getModelClassifier());
     	
     	Function<Collection<Operation>, Map<String, List<String>>> computeOperationCapabilities = staticOperations -> staticOperations.stream().collect(toMap(action -> action.getName(), action -> {
-			Map<Classifier, Map<AccessCapability, Constraint>> actionConstraintsPerRole = AccessControlUtils.computeConstraintsPerRoleClass(
-					allRoleClasses, 
-					allCapabilities,
-					asList(runtimeClass.getModelClassifier(), action)
-				);
+			Map<Classifier, Map<AccessCapability, Constraint>> actionConstraintsPerRole = accessControl.getConstraintsPerRole(
+					runtimeClass.getModelClassifier(), action, allCapabilities);
     		boolean isCallAvailable = isCapabilityAvailable(runtimeClass.getClassObject(), AccessCapability.Call, actualRoleClasses, actionConstraintsPerRole);
     		return isCallAvailable ? asList(AccessCapability.Call.name()) : emptyList();
     	})); 
@@ -431,7 +470,7 @@ public class KirraOnMDDRuntime implements KirraMDDConstants, Repository, Externa
     	capabilities.setActions(computeOperationCapabilities.apply(allStaticActions));
     	capabilities.setQueries(computeOperationCapabilities.apply(allStaticQueries));
 		
-		Map<Classifier, Map<AccessCapability, Constraint>> explicitConstraintsPerRole = AccessControlUtils.computeConstraintsPerRoleClass(allRoleClasses, allCapabilities, asList(runtimeClass.getModelClassifier()));
+		Map<Classifier, Map<AccessCapability, Constraint>> explicitConstraintsPerRole = accessControl.getConstraintsPerRole(runtimeClass.getModelClassifier(), null, allCapabilities);
 		
 		Set<AccessCapability> enabledEntityCapabilities = computeActualCapabilities(runtimeClass.getClassObject(),
 				actualRoleClasses, asList(AccessCapability.Create, AccessCapability.List), explicitConstraintsPerRole);
@@ -446,39 +485,77 @@ public class KirraOnMDDRuntime implements KirraMDDConstants, Repository, Externa
     	RuntimeObject targetObject = findRuntimeObject(runtimeClass, objectId);
     	if (targetObject == null)
     		return null;
+    	return newInstanceCapabilitiesEvaluator(runtimeClass, getActualRoleClasses()).apply(targetObject);
+    }
+
+    /**
+     * Batch version of {@link #getInstanceCapabilities(TypeRef, String)}. The
+     * current user's roles and the applicable constraints are resolved once
+     * for all the given instances, which are loaded together. Instances that
+     * do not exist are left out.
+     * 
+     * @return the capabilities for each instance, keyed by object id (in the
+     *         given order)
+     */
+    public Map<String, InstanceCapabilities> getInstanceCapabilities(TypeRef entity, Collection<String> objectIds) {
+    	RuntimeClass runtimeClass = getRuntimeClass(entity.getNamespace(), entity.getTypeName(), Literals.CLASS);
+    	Function<RuntimeObject, InstanceCapabilities> evaluator = newInstanceCapabilitiesEvaluator(runtimeClass, getActualRoleClasses());
+    	Map<INodeKey, String> objectIdsByKey = new LinkedHashMap<INodeKey, String>();
+    	for (String objectId : objectIds)
+    		objectIdsByKey.put(runtimeClass.objectIdToKey(objectId), objectId);
+    	Map<String, InstanceCapabilities> result = new LinkedHashMap<String, InstanceCapabilities>();
+    	runtimeClass.getInstances(objectIdsByKey.keySet()).forEach((key, targetObject) -> result.put(objectIdsByKey.get(key), evaluator.apply(targetObject)));
+    	return result;
+    }
+
+    private List<Class> getActualRoleClasses() {
     	List<RuntimeObject> actualRoles = getRuntime().getRolesForActor(getRuntime().getCurrentActor());
-    	List<Class> actualRoleClasses = actualRoles.stream().map(role -> (Class) role.getRuntimeClass().getModelClassifier()).collect(Collectors.toList());
-    	List<Class> allRoleClasses = KirraHelper.getRoleEntities(KirraHelper.getApplicationPackages(getRepository().getTopLevelPackages(null)));    	
+    	return actualRoles.stream().map(role -> (Class) role.getRuntimeClass().getModelClassifier()).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a function computing the capabilities the current user (playing
+     * the given roles) has over instances of the given class. Only the
+     * constraints themselves are evaluated per instance.
+     */
+    private Function<RuntimeObject, InstanceCapabilities> newInstanceCapabilitiesEvaluator(RuntimeClass runtimeClass, List<Class> actualRoleClasses) {
+    	AccessControlTable accessControl = getAccessControl();
+    	Classifier modelClass = runtimeClass.getModelClassifier();
 
-    	InstanceCapabilities capabilities = new InstanceCapabilities();
-    	
     	// which actions can the current user perform?
-    	List<Operation> allInstanceActions = KirraHelper.getInstanceActions((Class) runtimeClass.getModelClassifier());
-    	
     	List<AccessCapability> instanceCallCapabilities = asList(AccessCapability.Call);
-    	Map<String, List<String>> availableActions = allInstanceActions.stream().collect(toMap(action -> action.getName(), action -> { 
-			Map<Classifier, Map<AccessCapability, Constraint>> actionConstraintsPerRole = AccessControlUtils.computeConstraintsPerRoleClass(
-				allRoleClasses, 
-				instanceCallCapabilities,
-				asList(runtimeClass.getModelClassifier(), action)
-			);
-    		boolean isCallAvailable = isCapabilityAvailable(targetObject, AccessCapability.Call, actualRoleClasses, actionConstraintsPerRole);
-    		return isCallAvailable ? asList(AccessCapability.Call.name()) : emptyList();
-    	}));
-    	capabilities.setActions(availableActions);
-    	
+    	Map<String, Map<Classifier, Map<AccessCapability, Constraint>>> actionConstraints = new LinkedHashMap<>();
+    	for (Operation action : KirraHelper.getInstanceActions((Class) modelClass))
+    		actionConstraints.put(action.getName(), accessControl.getConstraintsPerRole(modelClass, action, instanceCallCapabilities));
+
     	List<AccessCapability> instanceCrudCapabilities = asList(AccessCapability.Delete, AccessCapability.Update, AccessCapability.Read);
-		Map<Classifier, Map<AccessCapability, Constraint>> explicitConstraintsPerRole = AccessControlUtils.computeConstraintsPerRoleClass(
-    			allRoleClasses,
-    			instanceCrudCapabilities,
-    			asList(runtimeClass.getModelClassifier())
-			);
-    	Set<AccessCapability> enabledInstanceCapabilities = computeActualCapabilities(targetObject,
-				actualRoleClasses, instanceCrudCapabilities, explicitConstraintsPerRole);
-		capabilities.setInstance(enabledInstanceCapabilities.stream().map(it -> it.name()).collect(toList()));
-    	
-		return capabilities;
-    }
+		Map<Classifier, Map<AccessCapability, Constraint>> explicitConstraintsPerRole = accessControl.getConstraintsPerRole(
+    			modelClass, null, instanceCrudCapabilities);
+
+    	return targetObject -> {
+    		InstanceCapabilities capabilities = new InstanceCapabilities();
+    		Map<String, List<String>> availableActions = actionConstraints.entrySet().stream().collect(toMap(it -> it.getKey(), it -> {
+    			boolean isCallAvailable = isCapabilityAvailable(targetObject, AccessCapability.Call, actualRoleClasses, it.getValue());
+    			return isCallAvailable ? asList(AccessCapability.Call.name()) : emptyList();
+    		}));
+    		capabilities.setActions(availableActions);
+    		Set<AccessCapability> enabledInstanceCapabilities = computeActualCapabilities(targetObject,
+    				actualRoleClasses, instanceCrudCapabilities, explicitConstraintsPerRole);
+    		capabilities.setInstance(enabledInstanceCapabilities.stream().map(it -> it.name()).collect(toList()));
+    		return capabilities;
+    	};
+    }
+
+	/**
+	 * Returns the access constraints declared in the current repository,
+	 * resolved only once per repository.
+	 */
+	private AccessControlTable getAccessControl() {
+		IRepository repository = getRepository();
+		if (accessControl == null || accessControl.getRepository() != repository)
+			accessControl = new AccessControlTable(repository);
+		return accessControl;
+	}
 
 	private Set<AccessCapability> computeActualCapabilities(RuntimeObject targetObject,
 			List<Class> actualRoleClasses, List<AccessCapability> consideredCapabilities, Map<Classifier, Map<AccessCapability, Constraint>> explicitConstraintsPerRole) {
@@ -563,8 +640,45 @@ public class KirraOnMDDRuntime implements KirraMDDConstants, Repository, Externa
     @Override
     public List<Instance> getInstances(String namespace, String name, PageRequest pageRequest) {
         Class umlClass = (Class) getModelElement(namespace, name, Literals.CLASS);
-        List<RuntimeObject> allInstances = getRuntime().getAllInstances(umlClass, pageRequest.getIncludeSubtypes());
-        return filterValidInstances(allInstances, pageRequest.getDataProfile());
+        Number first = pageRequest.getFirst();
+        Number maximum = pageRequest.getMaximum();
+        long offset = first == null ? 0 : first.longValue();
+        Integer limit = maximum == null || maximum.intValue() <= 0 ? null : maximum.intValue();
+        if (!filtering) {
+            // only the requested page is loaded
+            List<RuntimeObject> page = getRuntime().getInstances(umlClass, null, true, offset, limit, pageRequest.getIncludeSubtypes());
+            return filterValidInstances(page, pageRequest.getDataProfile());
+        }
+        // pages are made of the instances the current user can see, so those
+        // are loaded a batch at a time until enough are found (or all at
+        // once, if they cannot be read from the node store anyway)
+        boolean includeSubtypes = pageRequest.getIncludeSubtypes();
+        Integer batchSize = getRuntime().canQueryStore(umlClass, includeSubtypes) ? FILTERING_BATCH_SIZE : null;
+        List<RuntimeObject> visible = new ArrayList<RuntimeObject>();
+        long skipped = 0;
+        long loaded = 0;
+        while (limit == null || visible.size() < limit) {
+            List<RuntimeObject> batch = getRuntime().getInstances(umlClass, null, true, loaded, batchSize, includeSubtypes);
+            loaded += batch.size();
+            for (RuntimeObject current : batch)
+                if (isVisible(current)) {
+                    if (skipped < offset)
+                        skipped++;
+                    else if (limit == null || visible.size() < limit)
+                        visible.add(current);
+                }
+            if (batchSize == null || batch.size() < batchSize)
+                break;
+        }
+        return convertInstances(visible, pageRequest.getDataProfile());
+    }
+
+    /**
+     * Counts the instances of the given entity, without loading them.
+     */
+    public long countInstances(String namespace, String name, boolean includeSubclasses) {
+        Class umlClass = (Class) getModelElement(namespace, name, Literals.CLASS);
+        return getRuntime().countInstances(umlClass, includeSubclasses);
     }
 
     @Override
@@ -852,15 +966,70 @@ public class KirraOnMDDRuntime implements KirraMDDConstants, Repository, Externa
     }
 
     protected List<Instance> filterValidInstances(Collection<? extends BasicType> allRuntimeObjects, DataProfile dataProfile) {
-        List<Instance> allInstances = new ArrayList<Instance>(allRuntimeObjects.size());
+        List<RuntimeObject> valid = new ArrayList<RuntimeObject>(allRuntimeObjects.size());
         for (BasicType current : allRuntimeObjects) {
             RuntimeObject currentRuntimeObject = (RuntimeObject) current;
-            if (!filtering || currentRuntimeObject.checkConstraints(MDDExtensionUtils.ACCESS_STEREOTYPE) == null)
-                allInstances.add((Instance) convertFromRuntimeObject(currentRuntimeObject, dataProfile));
+            if (!filtering || isVisible(currentRuntimeObject))
+                valid.add(currentRuntimeObject);
         }
+        return convertInstances(valid, dataProfile);
+    }
+
+    private boolean isVisible(RuntimeObject runtimeObject) {
+        return runtimeObject.checkConstraints(MDDExtensionUtils.ACCESS_STEREOTYPE) == null;
+    }
+
+    private List<Instance> convertInstances(List<RuntimeObject> valid, DataProfile dataProfile) {
+        prefetchRelated(valid, dataProfile);
+        List<Instance> allInstances = new ArrayList<Instance>(valid.size());
+        for (RuntimeObject current : valid)
+            allInstances.add((Instance) convertFromRuntimeObject(current, dataProfile));
         return allInstances;
     }
 
+    /**
+     * Loads ahead of time the related objects converting the given objects
+     * with the given profile will navigate to (and what converting those
+     * will navigate to), one relationship at a time, instead of one object
+     * at a time.
+     */
+    private void prefetchRelated(Collection<RuntimeObject> objects, DataProfile dataProfile) {
+        if (objects.isEmpty() || !EnumSet.of(DataProfile.Slim, DataProfile.Full).contains(dataProfile))
+            return;
+        Map<Classifier, List<RuntimeObject>> objectsByClass = new LinkedHashMap<Classifier, List<RuntimeObject>>();
+        for (RuntimeObject object : objects)
+            if (!object.isTuple())
+                objectsByClass.computeIfAbsent(object.getRuntimeClass().getModelClassifier(), it -> new ArrayList<RuntimeObject>()).add(object);
+        Collection<RuntimeObject> related = new LinkedHashSet<RuntimeObject>();
+        objectsByClass.forEach((modelClassifier, instances) -> {
+            for (org.eclipse.uml2.uml.Property relationship : getHydratedRelationships(modelClassifier))
+                related.addAll(getRuntime().prefetchRelated(instances, relationship));
+        });
+        prefetchRelated(related, dataProfile.lighter());
+    }
+
+    /**
+     * Returns the stored single-valued relationships
+     * {@link #convertFromRuntimeObject(RuntimeObject, DataProfile)} hydrates
+     * for instances of the given class (with a slim or full profile).
+     */
+    private Collection<org.eclipse.uml2.uml.Property> getHydratedRelationships(Classifier modelClassifier) {
+        Collection<org.eclipse.uml2.uml.Property> result = new LinkedHashSet<org.eclipse.uml2.uml.Property>();
+        for (org.eclipse.uml2.uml.Property property : KirraHelper.getPropertiesAndRelationships(modelClassifier))
+            if (KirraHelper.isEntity(property.getType()) && !property.isMultivalued() && !property.isDerived())
+                result.add(property);
+        for (Association association : AssociationUtils.allAssociations(modelClassifier))
+            for (org.eclipse.uml2.uml.Property property : association.getMemberEnds())
+                if (modelClassifier.conformsTo(property.getType())) {
+                    org.eclipse.uml2.uml.Property forwardReference = property.getOtherEnd();
+                    if (forwardReference != null && forwardReference.getOwningAssociation() == association && forwardReference.isNavigable()
+                            && KirraHelper.isEntity(forwardReference.getType()) && !forwardReference.isMultivalued()
+                            && !forwardReference.isDerived())
+                        result.add(forwardReference);
+                }
+        return result;
+    }
+
     protected IRepository getRepository() {
         return RepositoryService.DEFAULT.getCurrentResource().getFeature(IRepository.class);
     }
@@ -899,7 +1068,7 @@ public class KirraOnMDDRuntime implements KirraMDDConstants, Repository, Externa
             throw new KirraException("Operation '" + operation.getName() + "' is not available at this time or for this user", null, Kind.VALIDATION);
 
         try {
-            BasicType result = getRuntime().runOperation(null, target, operation, parameterSet, convertedArguments);
+            BasicType result = PhaseTimings.time(PhaseTimings.EXECUTION, () -> getRuntime().runOperation(null, target, operation, parameterSet, convertedArguments));
             if (result == null)
                 return Collections.emptyList();
             if (KirraHelper.isFinder(operation)) {
@@ -966,6 +1135,10 @@ public class KirraOnMDDRuntime implements KirraMDDConstants, Repository, Externa
     }
 
     private Tuple convertFromRuntimeObject(RuntimeObject source, DataProfile dataProfile) {
+        return PhaseTimings.time(PhaseTimings.CONVERSION, () -> basicConvertFromRuntimeObject(source, dataProfile));
+    }
+
+    private Tuple basicConvertFromRuntimeObject(RuntimeObject source, DataProfile dataProfile) {
         if (source == null)
             return null;
         final boolean first = convertedToInstance.isEmpty();
@@ -0,0 +1,82 @@
+package com.abstratt.kirra.mdd.runtime;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Tracks how long the current thread spends in each phase of serving a
+ * request (say, executing behavior, or converting objects), while tracking
+ * is on. Time spent in a phase nested in another occurrence of the same
+ * phase is only counted once.
+ */
+public class PhaseTimings {
+    public static final String EXECUTION = "execution";
+
+    public static final String CONVERSION = "conversion";
+
+    private static class Timings {
+        final Map<String, long[]> elapsed = new LinkedHashMap<String, long[]>();
+        final Map<String, int[]> depth = new LinkedHashMap<String, int[]>();
+    }
+
+    private static final ThreadLocal<Timings> timings = new ThreadLocal<Timings>();
+
+    /**
+     * Starts tracking phases for the current thread.
+     */
+    public static void start() {
+        timings.set(new Timings());
+    }
+
+    /**
+     * Stops tracking phases for the current thread, returning the time, in
+     * nanoseconds, spent in each phase since tracking started.
+     */
+    public static Map<String, Long> stop() {
+        Timings current = timings.get();
+        timings.remove();
+        if (current == null)
+            return Collections.emptyMap();
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        current.elapsed.forEach((phase, elapsed) -> result.put(phase, elapsed[0]));
+        return result;
+    }
+
+    public static boolean isTracking() {
+        return timings.get() != null;
+    }
+
+    /**
+     * Adds time, in nanoseconds, spent in the given phase, if tracking is on.
+     */
+    public static void add(String phase, long elapsed) {
+        Timings current = timings.get();
+        if (current != null)
+            current.elapsed.computeIfAbsent(phase, it -> new long[1])[0] += elapsed;
+    }
+
+    /**
+     * Runs the given code as the given phase.
+     */
+    public static <T> T time(String phase, Supplier<T> toRun) {
+        Timings current = timings.get();
+        if (current == null)
+            return toRun.get();
+        int[] depth = current.depth.computeIfAbsent(phase, it -> new int[1]);
+        if (depth[0]++ > 0)
+            try {
+                return toRun.get();
+            } finally {
+                depth[0]--;
+            }
+        long start = System.nanoTime();
+        try {
+            return toRun.get();
+        } finally {
+            depth[0]--;
+            add(phase, System.nanoTime() - start);
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.abstratt.kirra.tests.mdd.runtime;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -13,11 +15,16 @@ import org.eclipse.core.runtime.CoreException;
 
 import com.abstratt.kirra.Entity;
 import com.abstratt.kirra.Instance;
+import com.abstratt.kirra.InstanceManagement.DataProfile;
 import com.abstratt.kirra.InstanceRef;
 import com.abstratt.kirra.Relationship;
 import com.abstratt.kirra.Repository;
 import com.abstratt.kirra.mdd.core.KirraMDDCore;
 import com.abstratt.mdd.core.IRepository;
+import com.abstratt.mdd.core.runtime.RuntimeClass;
+import com.abstratt.mdd.core.runtime.RuntimeObject;
+import com.abstratt.mdd.core.util.FeatureUtils;
+import com.abstratt.nodestore.NodeStoreCalls;
 
 public class KirraMDDRuntimeRelationshipTests extends AbstractKirraMDDRuntimeTests {
 
@@ -282,6 +289,113 @@ public class KirraMDDRuntimeRelationshipTests extends AbstractKirraMDDRuntimeTes
         TestCase.assertEquals(createdClass3.getObjectId(), derived.get(1).getObjectId());
     }
 
+    public void testPrefetchRelated() throws CoreException {
+        parseAndCheck(sampleModel);
+        Repository kirra = getKirra();
+        List<String> objectIds = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            Instance newClass1 = new Instance("mypackage", "MyClass1");
+            newClass1.setRelated("myClass2", kirra.createInstance(new Instance("mypackage", "MyClass2")));
+            objectIds.add(kirra.createInstance(newClass1).getObjectId());
+        }
+        // one without a related object
+        objectIds.add(kirra.createInstance(new Instance("mypackage", "MyClass1")).getObjectId());
+        kirra.saveContext();
+        getRuntime().getCurrentContext().clearWorkingSet();
+
+        RuntimeClass runtimeClass = getRuntimeClass("mypackage::MyClass1");
+        org.eclipse.uml2.uml.Property property = FeatureUtils.findAttribute(runtimeClass.getModelClassifier(), "myClass2", false, true);
+        List<RuntimeObject> sources = new ArrayList<RuntimeObject>();
+        for (String objectId : objectIds)
+            sources.add(runtimeClass.getInstance(objectId));
+
+        NodeStoreCalls.start();
+        getRuntime().prefetchRelated(sources, property);
+        long prefetching = countCalls(NodeStoreCalls.stop());
+        NodeStoreCalls.start();
+        List<Collection<RuntimeObject>> prefetched = new ArrayList<Collection<RuntimeObject>>();
+        for (RuntimeObject source : sources)
+            prefetched.add(source.getRelated(property));
+        // every link (and related object) was already read
+        TestCase.assertEquals(0, countCalls(NodeStoreCalls.stop()));
+
+        getRuntime().getCurrentContext().getPrefetchedLinks().clear();
+        NodeStoreCalls.start();
+        List<Collection<RuntimeObject>> navigated = new ArrayList<Collection<RuntimeObject>>();
+        for (RuntimeObject source : sources)
+            navigated.add(source.getRelated(property));
+        long navigating = countCalls(NodeStoreCalls.stop());
+
+        TestCase.assertTrue(navigating + " calls", navigating >= sources.size());
+        TestCase.assertTrue(prefetching + " calls vs. " + navigating, prefetching < navigating);
+        TestCase.assertEquals(navigated, prefetched);
+        TestCase.assertEquals(1, prefetched.get(0).size());
+        TestCase.assertEquals(objectIds.size() - 1, prefetched.stream().filter(it -> !it.isEmpty()).count());
+        TestCase.assertTrue(prefetched.get(objectIds.size() - 1).isEmpty());
+    }
+
+    /**
+     * Listing instances hydrates their single-valued relationships with a
+     * fixed number of node store calls, no matter how many instances there
+     * are.
+     */
+    public void testListingHydratesRelationshipsInBulk() throws CoreException {
+        String model = "";
+        model += "package mypackage;\n";
+        model += "import base;\n";
+        model += "class Order\n";
+        model += "attribute number : Integer[0,1];\n";
+        model += "reference shipper : Shipper[0,1];\n";
+        model += "attribute customer : Customer[0,1];\n";
+        model += "end;\n";
+        model += "class Shipper\n";
+        model += "attribute name : String[0,1];\n";
+        model += "end;\n";
+        model += "class Customer\n";
+        model += "attribute name : String[0,1];\n";
+        model += "end;\n";
+        model += "association role Order.customer; role orders : Order[*]; end;\n";
+        model += "end.";
+        parseAndCheck(model);
+        Repository kirra = getKirra();
+
+        createOrders(kirra, 3);
+        long callsForFew = countListingCalls(kirra);
+        createOrders(kirra, 6);
+        long callsForMany = countListingCalls(kirra);
+        TestCase.assertEquals(callsForFew, callsForMany);
+
+        List<Instance> orders = kirra.getInstances("mypackage", "Order", DataProfile.Full, false);
+        TestCase.assertEquals(9, orders.size());
+        for (Instance order : orders) {
+            TestCase.assertNotNull(order.getSingleRelated("shipper"));
+            TestCase.assertNotNull(order.getSingleRelated("customer"));
+        }
+    }
+
+    private void createOrders(Repository kirra, int count) {
+        for (int i = 0; i < count; i++) {
+            Instance newOrder = new Instance("mypackage", "Order");
+            newOrder.setSingleRelated("shipper", kirra.createInstance(new Instance("mypackage", "Shipper")));
+            newOrder.setSingleRelated("customer", kirra.createInstance(new Instance("mypackage", "Customer")));
+            kirra.createInstance(newOrder);
+        }
+        kirra.saveContext();
+    }
+
+    private long countListingCalls(Repository kirra) {
+        // nothing read before is reused
+        getRuntime().getCurrentContext().clearWorkingSet();
+        getRuntime().getCurrentContext().getPrefetchedLinks().clear();
+        NodeStoreCalls.start();
+        kirra.getInstances("mypackage", "Order", DataProfile.Full, false);
+        return countCalls(NodeStoreCalls.stop());
+    }
+
+    private static long countCalls(Map<String, Long> calls) {
+        return calls.values().stream().mapToLong(it -> it).sum();
+    }
+
     /**
      * Regression test for bug #227.
      */
@@ -10,6 +10,7 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -28,9 +29,13 @@ import org.osgi.framework.ServiceRegistration;
 
 import com.abstratt.kirra.Instance;
 import com.abstratt.kirra.Operation;
+import com.abstratt.kirra.Relationship;
 import com.abstratt.kirra.Repository;
 import com.abstratt.kirra.auth.AuthenticationService;
+import com.abstratt.kirra.auth.CachingAuthenticationService;
+import com.abstratt.kirra.auth.DatabaseAuthenticationService;
 import com.abstratt.mdd.core.RepositoryService;
+import com.abstratt.mdd.core.runtime.Runtime;
 import com.abstratt.mdd.frontend.web.JsonHelper;
 import com.abstratt.resman.Resource;
 import com.abstratt.resman.Task;
@@ -347,6 +352,53 @@ public class KirraMDDRuntimeRestTests extends AbstractKirraRestV1Tests {
         TestCase.assertEquals(42L, values.get("attr2").asLong());
     }
 
+    public void testGetInstanceCapabilities() throws CoreException, IOException {
+        String model = "";
+        model += "package mypackage;\n";
+        model += "apply kirra;\n";
+        model += "import base;\n";
+        model += "role class User\n";
+        model += "    readonly id attribute username : String;\n";
+        model += "end;\n";
+        model += "class MyClass1\n";
+        model += "    attribute attr1 : String[0,1];\n";
+        model += "    operation action1();\n";
+        model += "    begin\n";
+        model += "        self.attr1 := \"done\";\n";
+        model += "    end;\n";
+        model += "end;\n";
+        model += "end.";
+
+        buildProjectAndLoadRepository(Collections.singletonMap("test.tuml", model.getBytes()), true);
+
+        List<String> objectIds = RepositoryService.DEFAULT.runTask(getRepositoryURI(), new Task<List<String>>() {
+            @Override
+            public List<String> run(Resource<?> resource) {
+                Repository repository = resource.getFeature(Repository.class);
+                List<String> objectIds = new LinkedList<String>();
+                for (int i = 0; i < 3; i++)
+                    objectIds.add(repository.createInstance(repository.newInstance("mypackage", "MyClass1")).getObjectId());
+                return objectIds;
+            }
+        });
+
+        URI capabilitiesURI = getWorkspaceBaseURI().resolve("instances/mypackage.MyClass1/capabilities");
+        String unknownId = "" + (Long.parseLong(objectIds.get(2)) + 100);
+        String requestedIds = objectIds.get(2) + "," + unknownId + "," + objectIds.get(0) + "," + objectIds.get(1);
+        ObjectNode capabilities = executeJsonMethod(200, new GetMethod(capabilitiesURI + "?ids=" + requestedIds));
+
+        // only the instances that exist, in the requested order
+        TestCase.assertEquals(Arrays.asList(objectIds.get(2), objectIds.get(0), objectIds.get(1)), IteratorUtils.toList(capabilities.fieldNames()));
+        for (String objectId : objectIds) {
+            JsonNode instanceCapabilities = capabilities.get(objectId);
+            TestCase.assertTrue(objectId, instanceCapabilities.get("actions").has("action1"));
+            TestCase.assertNotNull(objectId, instanceCapabilities.get("instance"));
+        }
+
+        ObjectNode noCapabilities = executeJsonMethod(200, new GetMethod(capabilitiesURI + "?ids="));
+        TestCase.assertEquals(0, noCapabilities.size());
+    }
+
     public void testGetInstanceList() throws CoreException, IOException {
         String model = "";
         model += "package mypackage;\n";
@@ -631,6 +683,57 @@ public class KirraMDDRuntimeRestTests extends AbstractKirraRestV1Tests {
     /**
      * Shows how a service that provides data can be accessed.
      */
+    public void testRunSuiteInParallel() throws CoreException, IOException {
+        String model = "";
+        model += "package mypackage;\n";
+        model += "apply kirra;\n";
+        model += "import base;\n";
+        model += "class MyClass1\n";
+        model += "    attribute attr1 : Integer;\n";
+        model += "end;\n";
+        model += "[Test]\n";
+        model += "class MyTests\n";
+        for (int i = 1; i <= 6; i++) {
+            model += "    [Test]\n";
+            model += "    operation test" + i + "() raises String;\n";
+            model += "    begin\n";
+            model += "        var created : MyClass1;\n";
+            model += "        created := new MyClass1;\n";
+            model += "        created.attr1 := " + i + ";\n";
+            // test cases running at the same time must not see each other's data
+            model += "        if (MyClass1 extent.size() > 1) then\n";
+            model += "            raise \"shared\";\n";
+            if (i % 3 == 0)
+                model += "        raise \"failed\";\n";
+            model += "    end;\n";
+        }
+        model += "end;\n";
+        model += "end.";
+        buildProjectAndLoadRepository(Collections.singletonMap("test.tuml", model.getBytes()), false);
+        URI sessionURI = getWorkspaceBaseURI();
+
+        String originalParallelism = System.setProperty("kirra.tests.parallelism", "3");
+        try {
+            for (int run = 0; run < 2; run++) {
+                ObjectNode suiteResult = (ObjectNode) executeJsonMethod(200, new PostMethod(sessionURI.resolve("tests").toString()));
+                ArrayNode results = (ArrayNode) suiteResult.get("results");
+                TestCase.assertEquals(6, results.size());
+                for (int i = 1; i <= 6; i++) {
+                    JsonNode result = results.get(i - 1);
+                    TestCase.assertEquals("test" + i, result.get("testCaseName").textValue());
+                    TestCase.assertEquals(i % 3 == 0 ? "Fail" : "Pass", result.get("testStatus").textValue());
+                }
+                TestCase.assertEquals(4, suiteResult.path("stats").path("passed").intValue());
+                TestCase.assertEquals(2, suiteResult.path("stats").path("failed").intValue());
+            }
+        } finally {
+            if (originalParallelism == null)
+                System.clearProperty("kirra.tests.parallelism");
+            else
+                System.setProperty("kirra.tests.parallelism", originalParallelism);
+        }
+    }
+
     public void testServiceDataAccess() throws CoreException, IOException {
         String source = "";
         source += "model tests;\n";
@@ -694,6 +797,84 @@ public class KirraMDDRuntimeRestTests extends AbstractKirraRestV1Tests {
         login(username, "pass");
     }
 
+    public void testCachedRolesAfterLinking() throws CoreException, IOException {
+        String model = "";
+        model += "package mypackage;\n";
+        model += "apply kirra;\n";
+        model += "import base;\n";
+        model += "role class Member\n";
+        model += "    attribute name : String[0,1];\n";
+        model += "end;\n";
+        model += "end.";
+        buildProjectAndLoadRepository(Collections.singletonMap("test.tuml", model.getBytes()), false);
+
+        final String username = getName() + "@foo.com";
+        final List<Instance> created = RepositoryService.DEFAULT.runTask(getRepositoryURI(), new Task<List<Instance>>() {
+            @Override
+            public List<Instance> run(Resource<?> resource) {
+                Repository repository = resource.getFeature(Repository.class);
+                Instance profile = repository.newInstance("userprofile", "UserProfile");
+                profile.setValue("username", username);
+                profile.setValue("password", "pass");
+                return Arrays.asList(repository.createInstance(profile), repository.createInstance(repository.newInstance("mypackage", "Member")));
+            }
+        });
+        final AtomicInteger lookups = new AtomicInteger();
+        final CachingAuthenticationService cache = new CachingAuthenticationService(new DatabaseAuthenticationService() {
+            @Override
+            public List<String> getRoleNames(String username) {
+                lookups.incrementAndGet();
+                return super.getRoleNames(username);
+            }
+        }, () -> getName(), 60000, 10);
+        // same as the REST API does
+        Runtime.ChangeListener listener = (runtime, changedClasses) -> {
+            if (com.abstratt.kirra.mdd.rest.Activator.affectsUsers(runtime, changedClasses))
+                cache.invalidate();
+        };
+        Runtime.addChangeListener(listener);
+        try {
+            TestCase.assertEquals(Collections.emptyList(), getRoleNames(cache, username));
+            TestCase.assertEquals(Collections.emptyList(), getRoleNames(cache, username));
+            TestCase.assertEquals(1, lookups.get());
+
+            linkRole(created.get(1), created.get(0), true);
+            TestCase.assertEquals(Arrays.asList("mypackage.Member"), getRoleNames(cache, username));
+            TestCase.assertEquals(Arrays.asList("mypackage.Member"), getRoleNames(cache, username));
+            TestCase.assertEquals(2, lookups.get());
+
+            linkRole(created.get(1), created.get(0), false);
+            TestCase.assertEquals(Collections.emptyList(), getRoleNames(cache, username));
+            TestCase.assertEquals(3, lookups.get());
+        } finally {
+            Runtime.removeChangeListener(listener);
+        }
+    }
+
+    private List<String> getRoleNames(final AuthenticationService authenticationService, final String username) throws CoreException {
+        return RepositoryService.DEFAULT.runTask(getRepositoryURI(), new Task<List<String>>() {
+            @Override
+            public List<String> run(Resource<?> resource) {
+                return authenticationService.getRoleNames(username);
+            }
+        });
+    }
+
+    private void linkRole(final Instance role, final Instance profile, final boolean link) throws CoreException {
+        RepositoryService.DEFAULT.runTask(getRepositoryURI(), new Task<Object>() {
+            @Override
+            public Object run(Resource<?> resource) {
+                Repository repository = resource.getFeature(Repository.class);
+                Relationship userProfile = repository.getEntity(role.getTypeRef()).getRelationship("userProfile");
+                if (link)
+                    repository.linkInstances(userProfile, role.getObjectId(), profile.getReference());
+                else
+                    repository.unlinkInstances(userProfile, role.getObjectId(), profile.getReference());
+                return null;
+            }
+        });
+    }
+
     @Override
     protected void tearDown() throws Exception {
         if (authenticatorRegistration != null)
@@ -14,6 +14,8 @@ public class AllRuntimeTests {
         suite.addTest(RuntimeObjectTests.suite());
         suite.addTest(RuntimeEnumerationTests.suite());
         suite.addTest(RuntimeControlTests.suite());
+        suite.addTest(ExecutionPlanTests.suite());
+        suite.addTest(CompiledExecutionPlanTests.suite());
         suite.addTest(RuntimeCollectionTests.suite());
         suite.addTest(RuntimeAssociationTests.suite());
         suite.addTest(RuntimeStateMachineTests.suite());
@@ -0,0 +1,59 @@
+package com.abstratt.mdd.core.tests.runtime;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.core.runtime.CoreException;
+
+import com.abstratt.mdd.core.runtime.ExecutionPlan;
+import com.abstratt.mdd.core.runtime.types.IntegerType;
+
+/**
+ * Runs the same tests as {@link ExecutionPlanTests}, but with activities
+ * compiled from the very first call, so they must produce the same results
+ * as when interpreted.
+ */
+public class CompiledExecutionPlanTests extends ExecutionPlanTests {
+
+    private static final String COMPILE_THRESHOLD = "mdd.runtime.compileThreshold";
+
+    public static Test suite() {
+        return new TestSuite(CompiledExecutionPlanTests.class);
+    }
+
+    private String originalThreshold;
+
+    public CompiledExecutionPlanTests(String name) {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        originalThreshold = System.setProperty(COMPILE_THRESHOLD, "0");
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            super.tearDown();
+        } finally {
+            if (originalThreshold == null)
+                System.clearProperty(COMPILE_THRESHOLD);
+            else
+                System.setProperty(COMPILE_THRESHOLD, originalThreshold);
+        }
+    }
+
+    public void testCompiled() throws CoreException {
+        parseAndCheck(ExecutionPlanTests.model);
+        TestCase.assertEquals(new IntegerType(55), runStaticOperation("tests::Simple", "sumTo", new IntegerType(10)));
+        TestCase.assertEquals(new IntegerType(-1), runStaticOperation("tests::Simple", "sign", new IntegerType(-5)));
+        TestCase.assertEquals(new IntegerType(0), runStaticOperation("tests::Simple", "safeIncrement", new IntegerType(-2)));
+        for (String operationName : new String[] { "sumTo", "sign", "safeIncrement", "increment" }) {
+            ExecutionPlan plan = getExecutionPlan(operationName);
+            TestCase.assertTrue(operationName, plan.isCompiled());
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.abstratt.mdd.core.tests.runtime;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.core.runtime.CoreException;
+
+import com.abstratt.mdd.core.runtime.ExecutionPlan;
+import com.abstratt.mdd.core.runtime.RuntimeRaisedException;
+import com.abstratt.mdd.core.runtime.types.IntegerType;
+
+/**
+ * Checks graphs for executing activities can be reused across calls.
+ */
+public class ExecutionPlanTests extends AbstractRuntimeTests {
+
+    public static Test suite() {
+        return new TestSuite(ExecutionPlanTests.class);
+    }
+
+    protected static String model = null;
+
+    static {
+        ExecutionPlanTests.model = "";
+        ExecutionPlanTests.model += "model tests;\n";
+        ExecutionPlanTests.model += "import mdd_types;\n";
+        ExecutionPlanTests.model += "class Simple\n";
+        ExecutionPlanTests.model += "  static operation twice(value : Integer) : Integer;\n";
+        ExecutionPlanTests.model += "  begin\n";
+        ExecutionPlanTests.model += "    return value * 2;\n";
+        ExecutionPlanTests.model += "  end;\n";
+        ExecutionPlanTests.model += "  static operation factorial(value : Integer) : Integer;\n";
+        ExecutionPlanTests.model += "  begin\n";
+        ExecutionPlanTests.model += "    var result : Integer;\n";
+        ExecutionPlanTests.model += "    result := 1;\n";
+        ExecutionPlanTests.model += "    if (value > 1) then\n";
+        ExecutionPlanTests.model += "      result := value * Simple#factorial(value - 1);\n";
+        ExecutionPlanTests.model += "    return result;\n";
+        ExecutionPlanTests.model += "  end;\n";
+        ExecutionPlanTests.model += "  static operation increment(value : Integer) : Integer raises String;\n";
+        ExecutionPlanTests.model += "  begin\n";
+        ExecutionPlanTests.model += "    if (value < 0) then\n";
+        ExecutionPlanTests.model += "      raise \"negative\";\n";
+        ExecutionPlanTests.model += "    return value + 1;\n";
+        ExecutionPlanTests.model += "  end;\n";
+        ExecutionPlanTests.model += "  static operation countDown(value : Integer) : Integer raises String;\n";
+        ExecutionPlanTests.model += "  begin\n";
+        ExecutionPlanTests.model += "    var result : Integer;\n";
+        ExecutionPlanTests.model += "    result := Simple#increment(value);\n";
+        ExecutionPlanTests.model += "    if (value > 0) then\n";
+        ExecutionPlanTests.model += "      result := Simple#countDown(value - 2);\n";
+        ExecutionPlanTests.model += "    return result;\n";
+        ExecutionPlanTests.model += "  end;\n";
+        ExecutionPlanTests.model += "  static operation sumTo(value : Integer) : Integer;\n";
+        ExecutionPlanTests.model += "  begin\n";
+        ExecutionPlanTests.model += "    var result : Integer;\n";
+        ExecutionPlanTests.model += "    var current : Integer;\n";
+        ExecutionPlanTests.model += "    result := 0;\n";
+        ExecutionPlanTests.model += "    current := value;\n";
+        ExecutionPlanTests.model += "    while (current > 0) do\n";
+        ExecutionPlanTests.model += "    begin\n";
+        ExecutionPlanTests.model += "      result := result + current;\n";
+        ExecutionPlanTests.model += "      current := current - 1;\n";
+        ExecutionPlanTests.model += "    end;\n";
+        ExecutionPlanTests.model += "    return result;\n";
+        ExecutionPlanTests.model += "  end;\n";
+        ExecutionPlanTests.model += "  static operation sign(value : Integer) : Integer;\n";
+        ExecutionPlanTests.model += "  begin\n";
+        ExecutionPlanTests.model += "    var result : Integer;\n";
+        ExecutionPlanTests.model += "    result := 0;\n";
+        ExecutionPlanTests.model += "    if (value > 0) then\n";
+        ExecutionPlanTests.model += "      result := 1;\n";
+        ExecutionPlanTests.model += "    if (value < 0) then\n";
+        ExecutionPlanTests.model += "      result := -1;\n";
+        ExecutionPlanTests.model += "    return result;\n";
+        ExecutionPlanTests.model += "  end;\n";
+        ExecutionPlanTests.model += "  static operation safeIncrement(value : Integer) : Integer;\n";
+        ExecutionPlanTests.model += "  begin\n";
+        ExecutionPlanTests.model += "    var result : Integer;\n";
+        ExecutionPlanTests.model += "    try\n";
+        ExecutionPlanTests.model += "      result := Simple#increment(value);\n";
+        ExecutionPlanTests.model += "    catch (e : String)\n";
+        ExecutionPlanTests.model += "      result := 0;\n";
+        ExecutionPlanTests.model += "    end;\n";
+        ExecutionPlanTests.model += "    return result;\n";
+        ExecutionPlanTests.model += "  end;\n";
+        ExecutionPlanTests.model += "  static operation countIncrements(value : Integer) : Integer;\n";
+        ExecutionPlanTests.model += "  begin\n";
+        ExecutionPlanTests.model += "    var succeeded : Integer;\n";
+        ExecutionPlanTests.model += "    var failed : Integer;\n";
+        ExecutionPlanTests.model += "    var current : Integer;\n";
+        ExecutionPlanTests.model += "    succeeded := 0;\n";
+        ExecutionPlanTests.model += "    failed := 0;\n";
+        ExecutionPlanTests.model += "    current := 0 - value;\n";
+        ExecutionPlanTests.model += "    while (current <= value) do\n";
+        ExecutionPlanTests.model += "    begin\n";
+        ExecutionPlanTests.model += "      try\n";
+        ExecutionPlanTests.model += "        if (Simple#increment(current) > 1) then\n";
+        ExecutionPlanTests.model += "          succeeded := succeeded + 1;\n";
+        ExecutionPlanTests.model += "      catch (e : String)\n";
+        ExecutionPlanTests.model += "        failed := failed + 1;\n";
+        ExecutionPlanTests.model += "      end;\n";
+        ExecutionPlanTests.model += "      current := current + 1;\n";
+        ExecutionPlanTests.model += "    end;\n";
+        ExecutionPlanTests.model += "    return succeeded * 100 + failed;\n";
+        ExecutionPlanTests.model += "  end;\n";
+        ExecutionPlanTests.model += "end;\n";
+        ExecutionPlanTests.model += "end.";
+    }
+
+    public ExecutionPlanTests(String name) {
+        super(name);
+    }
+
+    public void testRepeatedCalls() throws CoreException {
+        parseAndCheck(ExecutionPlanTests.model);
+        for (int i = 0; i < 20; i++)
+            TestCase.assertEquals(new IntegerType(i * 2), runStaticOperation("tests::Simple", "twice", new IntegerType(i)));
+        TestCase.assertEquals(20, getExecutionPlan("twice").getInvocations());
+    }
+
+    public void testRecursiveCalls() throws CoreException {
+        parseAndCheck(ExecutionPlanTests.model);
+        // deeper than the graphs kept idle, and then again reusing them
+        for (int i = 0; i < 2; i++) {
+            TestCase.assertEquals(new IntegerType(1), runStaticOperation("tests::Simple", "factorial", new IntegerType(1)));
+            TestCase.assertEquals(new IntegerType(3628800), runStaticOperation("tests::Simple", "factorial", new IntegerType(10)));
+            TestCase.assertEquals(new IntegerType(6), runStaticOperation("tests::Simple", "factorial", new IntegerType(3)));
+        }
+    }
+
+    public void testCallAfterException() throws CoreException {
+        parseAndCheck(ExecutionPlanTests.model);
+        for (int i = 0; i < 3; i++) {
+            TestCase.assertEquals(new IntegerType(i + 1), runStaticOperation("tests::Simple", "increment", new IntegerType(i)));
+            assertRaises("increment", -1);
+        }
+        TestCase.assertEquals(new IntegerType(1), runStaticOperation("tests::Simple", "increment", new IntegerType(0)));
+    }
+
+    public void testCallAfterNestedException() throws CoreException {
+        parseAndCheck(ExecutionPlanTests.model);
+        // odd values count down past zero, and fail a few calls deep
+        for (int i = 0; i < 3; i++) {
+            TestCase.assertEquals(new IntegerType(1), runStaticOperation("tests::Simple", "countDown", new IntegerType(8)));
+            assertRaises("countDown", 7);
+        }
+        TestCase.assertEquals(new IntegerType(1), runStaticOperation("tests::Simple", "countDown", new IntegerType(4)));
+        TestCase.assertEquals(new IntegerType(5), runStaticOperation("tests::Simple", "increment", new IntegerType(4)));
+    }
+
+    public void testLoops() throws CoreException {
+        parseAndCheck(ExecutionPlanTests.model);
+        for (int i = 0; i < 3; i++) {
+            TestCase.assertEquals(new IntegerType(0), runStaticOperation("tests::Simple", "sumTo", new IntegerType(0)));
+            TestCase.assertEquals(new IntegerType(1), runStaticOperation("tests::Simple", "sumTo", new IntegerType(1)));
+            TestCase.assertEquals(new IntegerType(55), runStaticOperation("tests::Simple", "sumTo", new IntegerType(10)));
+        }
+    }
+
+    public void testConditionals() throws CoreException {
+        parseAndCheck(ExecutionPlanTests.model);
+        for (int i = 0; i < 3; i++) {
+            TestCase.assertEquals(new IntegerType(1), runStaticOperation("tests::Simple", "sign", new IntegerType(5)));
+            TestCase.assertEquals(new IntegerType(0), runStaticOperation("tests::Simple", "sign", new IntegerType(0)));
+            TestCase.assertEquals(new IntegerType(-1), runStaticOperation("tests::Simple", "sign", new IntegerType(-5)));
+        }
+    }
+
+    public void testExceptionHandlers() throws CoreException {
+        parseAndCheck(ExecutionPlanTests.model);
+        for (int i = 0; i < 3; i++) {
+            TestCase.assertEquals(new IntegerType(3), runStaticOperation("tests::Simple", "safeIncrement", new IntegerType(2)));
+            TestCase.assertEquals(new IntegerType(0), runStaticOperation("tests::Simple", "safeIncrement", new IntegerType(-2)));
+        }
+    }
+
+    public void testExceptionHandlersInLoops() throws CoreException {
+        parseAndCheck(ExecutionPlanTests.model);
+        for (int i = 0; i < 3; i++) {
+            // from -3 to 3: 1 to 3 succeed, 0 is not counted, -3 to -1 fail
+            TestCase.assertEquals(new IntegerType(303), runStaticOperation("tests::Simple", "countIncrements", new IntegerType(3)));
+            TestCase.assertEquals(new IntegerType(0), runStaticOperation("tests::Simple", "countIncrements", new IntegerType(0)));
+        }
+    }
+
+    private void assertRaises(String operationName, long value) {
+        try {
+            runStaticOperation("tests::Simple", operationName, new IntegerType(value));
+            TestCase.fail("Should have failed");
+        } catch (RuntimeRaisedException e) {
+            // expected
+        }
+    }
+
+    protected ExecutionPlan getExecutionPlan(String operationName) {
+        for (ExecutionPlan plan : getRuntime().getExecutionPlans())
+            if (operationName.equals(plan.getActivity().getSpecification().getName()))
+                return plan;
+        TestCase.fail("No plan for " + operationName);
+        return null;
+    }
+}
@@ -6,6 +6,7 @@ import junit.framework.TestSuite;
 
 import org.eclipse.core.runtime.CoreException;
 
+import com.abstratt.mdd.core.runtime.ResultCache;
 import com.abstratt.mdd.core.runtime.RuntimeObject;
 import com.abstratt.mdd.core.runtime.types.BooleanType;
 import com.abstratt.mdd.core.runtime.types.IntegerType;
@@ -185,6 +186,36 @@ public class PrimitiveActionTests extends AbstractRuntimeTests {
         TestCase.assertEquals(BooleanType.FALSE, runOperation(targetObject, "getABoolean"));
     }
 
+    public void testDerivedAttributeMemoized() throws CoreException {
+        String source = "";
+        source += "model tests;\n";
+        source += "import base;\n";
+        source += "class Item\n";
+        source += "attribute value : Integer;\n";
+        // loads other objects while computing
+        source += "derived attribute positiveCount : Integer := { Item extent.select((i : Item) : Boolean { i.value > 0 }).size() };\n";
+        source += "end;\n";
+        source += "end.";
+        parseAndCheck(source);
+        RuntimeObject first = newInstance("tests::Item");
+        writeAttribute(first, "value", new IntegerType(1));
+        first.attach();
+        RuntimeObject second = newInstance("tests::Item");
+        writeAttribute(second, "value", new IntegerType(-1));
+        second.attach();
+        getRuntime().saveContext(false);
+        ResultCache cache = getRuntime().getCurrentContext().getResultCache();
+        long hits = cache.getHits();
+        TestCase.assertEquals(new IntegerType(1), readAttribute(first, "positiveCount"));
+        TestCase.assertEquals(hits, cache.getHits());
+        TestCase.assertEquals(new IntegerType(1), readAttribute(first, "positiveCount"));
+        TestCase.assertEquals(hits + 1, cache.getHits());
+        // changes drop memoized results
+        writeAttribute(first, "value", new IntegerType(-5));
+        TestCase.assertEquals(new IntegerType(0), readAttribute(first, "positiveCount"));
+        TestCase.assertEquals(hits + 1, cache.getHits());
+    }
+
     public void testReadWriteAttribute() throws CoreException {
         String behavior = "";
         behavior += "model tests;\n";
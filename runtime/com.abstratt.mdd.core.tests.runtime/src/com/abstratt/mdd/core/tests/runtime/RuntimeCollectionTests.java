@@ -5,8 +5,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -15,17 +18,20 @@ import junit.framework.TestSuite;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.uml2.uml.Classifier;
 import org.eclipse.uml2.uml.Operation;
+import org.eclipse.uml2.uml.Property;
 import org.junit.Assert;
 
 import com.abstratt.mdd.core.IRepository;
 import com.abstratt.mdd.core.runtime.RuntimeClass;
 import com.abstratt.mdd.core.runtime.RuntimeObject;
 import com.abstratt.mdd.core.runtime.types.BasicType;
+import com.abstratt.mdd.core.runtime.types.BooleanType;
 import com.abstratt.mdd.core.runtime.types.CollectionType;
 import com.abstratt.mdd.core.runtime.types.GroupingType;
 import com.abstratt.mdd.core.runtime.types.IntegerType;
 import com.abstratt.mdd.core.runtime.types.NumberType;
 import com.abstratt.mdd.core.runtime.types.RealType;
+import com.abstratt.mdd.core.runtime.types.StringType;
 
 public class RuntimeCollectionTests extends AbstractRuntimeTests {
 
@@ -56,6 +62,22 @@ public class RuntimeCollectionTests extends AbstractRuntimeTests {
         RuntimeCollectionTests.simpleModel += "end.";
     }
 
+    private static String customerModel = null;
+
+    static {
+        RuntimeCollectionTests.customerModel = "";
+        RuntimeCollectionTests.customerModel += "model store;\n";
+        RuntimeCollectionTests.customerModel += "import base;\n";
+        RuntimeCollectionTests.customerModel += "  class Customer\n";
+        RuntimeCollectionTests.customerModel += "    attribute name : String;\n";
+        RuntimeCollectionTests.customerModel += "    attribute vip : Boolean;\n";
+        RuntimeCollectionTests.customerModel += "    attribute region : Integer;\n";
+        RuntimeCollectionTests.customerModel += "  end;\n";
+        RuntimeCollectionTests.customerModel += "  class Partner specializes Customer\n";
+        RuntimeCollectionTests.customerModel += "  end;\n";
+        RuntimeCollectionTests.customerModel += "end.";
+    }
+
     public RuntimeCollectionTests(String name) {
         super(name);
     }
@@ -423,4 +445,206 @@ public class RuntimeCollectionTests extends AbstractRuntimeTests {
         result = (CollectionType) getRuntime().runOperation(null, selectionOperation);
         TestCase.assertEquals(2, result.getBackEnd().size());
     }
+
+    public void testExtentQueryBooleanAttribute() throws CoreException {
+        parseAndCheck(RuntimeCollectionTests.customerModel, buildExtentQueryDriver("Customer", "c.vip"));
+        createCustomers();
+        checkExtentQuery(0, "alice", "carol");
+    }
+
+    public void testExtentQueryEquals() throws CoreException {
+        parseAndCheck(RuntimeCollectionTests.customerModel,
+                buildExtentQueryDriver("Customer", "c.region == 2", "2 == c.region", "c.name == \"dave\"", "c.region == 3"));
+        createCustomers();
+        checkExtentQuery(0, "bob", "carol");
+        checkExtentQuery(1, "bob", "carol");
+        checkExtentQuery(2, "dave");
+        checkExtentQuery(3);
+    }
+
+    public void testExtentQueryAnd() throws CoreException {
+        parseAndCheck(RuntimeCollectionTests.customerModel,
+                buildExtentQueryDriver("Customer", "c.vip and (c.region == 1)", "(1 == c.region) and (c.name == \"dave\")"));
+        createCustomers();
+        checkExtentQuery(0, "alice");
+        checkExtentQuery(1, "dave");
+    }
+
+    public void testExtentQueryUnsupportedPredicates() throws CoreException {
+        // these cannot be answered by the node store, but must still work
+        parseAndCheck(RuntimeCollectionTests.customerModel, buildExtentQueryDriver("Customer", "c.region > 1", "not c.vip",
+                "c.vip or (c.region == 1)", "c.region == c.region", "(c.region == 1) and (c.region == 2)"));
+        createCustomers();
+        checkExtentQuery(0, "bob", "carol");
+        checkExtentQuery(1, "bob", "dave");
+        checkExtentQuery(2, "alice", "carol", "dave");
+        checkExtentQuery(3, "alice", "bob", "carol", "dave");
+        checkExtentQuery(4);
+    }
+
+    public void testExtentQuerySubclasses() throws CoreException {
+        parseAndCheck(RuntimeCollectionTests.customerModel, buildExtentQueryDriver("Partner", "c.vip", "c.region == 1"));
+        createCustomers();
+        checkExtentQuery(0, "carol");
+        checkExtentQuery(1, "dave");
+    }
+
+    public void testExtentQueryUnsavedChanges() throws CoreException {
+        parseAndCheck(RuntimeCollectionTests.customerModel, buildExtentQueryDriver("Customer", "c.vip"));
+        Map<String, RuntimeObject> customers = createCustomers();
+        checkExtentQuery(0, "alice", "carol");
+        // a new subclass instance not yet saved
+        newCustomer("store::Partner", "erin", true, 1);
+        checkExtentQuery(0, "alice", "carol", "erin");
+        getRuntime().saveContext(false);
+        checkExtentQuery(0, "alice", "carol", "erin");
+        // changes not yet saved
+        writeAttribute(customers.get("dave"), "vip", BooleanType.TRUE);
+        writeAttribute(customers.get("alice"), "vip", BooleanType.FALSE);
+        checkExtentQuery(0, "carol", "dave", "erin");
+        getRuntime().saveContext(false);
+        checkExtentQuery(0, "carol", "dave", "erin");
+    }
+
+    public void testExtentQueryAfterReading() throws CoreException {
+        parseAndCheck(RuntimeCollectionTests.customerModel, buildExtentQueryDriver("Customer", "c.vip"));
+        Map<String, RuntimeObject> customers = createCustomers();
+        // objects merely read do not prevent querying the node store
+        RuntimeObject alice = getRuntimeClass("store::Customer").getInstance(customers.get("alice").getKey());
+        TestCase.assertEquals(new StringType("alice"), readAttribute(alice, "name"));
+        TestCase.assertEquals(Collections.singleton(alice), getRuntime().getCurrentContext().getWorkingSet());
+        TestCase.assertEquals(IntegerType.fromValue(2), runStaticOperation("tests::TestDriver", "count0"));
+        // had the whole extent been read, all customers would now be in the working set
+        TestCase.assertEquals(Collections.singleton(alice), getRuntime().getCurrentContext().getWorkingSet());
+    }
+
+    public void testInstancePagesWithUnsavedChanges() throws CoreException {
+        parseAndCheck(RuntimeCollectionTests.customerModel);
+        Map<String, RuntimeObject> customers = createCustomers();
+        Classifier customerClass = getRuntimeClass("store::Customer").getModelClassifier();
+        Property name = customerClass.getAttribute("name", null);
+        // each class is paged through in turn
+        List<String> byId = Arrays.asList("alice", "bob", "carol", "dave");
+        List<String> byName = Arrays.asList("bob", "alice", "dave", "carol");
+        TestCase.assertEquals(byId, getPagedNames(customerClass, null, true));
+        TestCase.assertEquals(byName, getPagedNames(customerClass, name, false));
+        // with changes not yet saved, pages are computed in memory in the same order
+        writeAttribute(customers.get("carol"), "vip", BooleanType.FALSE);
+        newCustomer("store::Customer", "aaron", false, 1);
+        TestCase.assertEquals(Arrays.asList("alice", "bob", "aaron", "carol", "dave"), getPagedNames(customerClass, null, true));
+        TestCase.assertEquals(Arrays.asList("bob", "alice", "aaron", "dave", "carol"), getPagedNames(customerClass, name, false));
+    }
+
+    /**
+     * Builds a driver with operations applying each predicate to the given
+     * class extent (which is answered by the node store, if possible), and to
+     * the same extent returned by another operation (which is always
+     * interpreted).
+     */
+    private static String buildExtentQueryDriver(String className, String... predicates) {
+        String[][] operations = { { "select", className + "[*]" }, { "count", "Integer" }, { "exists", "Boolean" },
+                { "any", className + "[0,1]" } };
+        String source = "";
+        source += "model tests;\n";
+        source += "  import store;\n";
+        source += "  class TestDriver\n";
+        source += "    static operation allInstances() : " + className + "[*];\n";
+        source += "    begin\n";
+        source += "      return " + className + " extent;\n";
+        source += "    end;\n";
+        source += "    static operation countAll() : Integer;\n";
+        source += "    begin\n";
+        source += "      return " + className + " extent.size();\n";
+        source += "    end;\n";
+        source += "    static operation countAllInterpreted() : Integer;\n";
+        source += "    begin\n";
+        source += "      return TestDriver#allInstances().size();\n";
+        source += "    end;\n";
+        for (int i = 0; i < predicates.length; i++) {
+            String closure = "(c : " + className + ") : Boolean { " + predicates[i] + " }";
+            for (String[] operation : operations) {
+                source += "    static operation " + operation[0] + i + "() : " + operation[1] + ";\n";
+                source += "    begin\n";
+                source += "      return " + className + " extent." + operation[0] + "(" + closure + ");\n";
+                source += "    end;\n";
+                source += "    static operation " + operation[0] + i + "Interpreted() : " + operation[1] + ";\n";
+                source += "    begin\n";
+                source += "      return TestDriver#allInstances()." + operation[0] + "(" + closure + ");\n";
+                source += "    end;\n";
+            }
+        }
+        source += "  end;\n";
+        source += "end.\n";
+        return source;
+    }
+
+    /**
+     * Checks the results of the operations for the predicate with the given
+     * index are the expected ones, both when answered by the node store and
+     * when interpreted.
+     */
+    private void checkExtentQuery(int index, String... expected) {
+        Set<String> expectedNames = new HashSet<String>(Arrays.asList(expected));
+        for (String suffix : Arrays.asList("", "Interpreted")) {
+            String message = "predicate " + index + suffix;
+            TestCase.assertEquals(message, expectedNames, getNames(runStaticOperation("tests::TestDriver", "select" + index + suffix)));
+            TestCase.assertEquals(message, IntegerType.fromValue(expected.length),
+                    runStaticOperation("tests::TestDriver", "count" + index + suffix));
+            TestCase.assertEquals(message, BooleanType.fromValue(expected.length > 0),
+                    runStaticOperation("tests::TestDriver", "exists" + index + suffix));
+            RuntimeObject any = (RuntimeObject) runStaticOperation("tests::TestDriver", "any" + index + suffix);
+            if (expected.length == 0)
+                TestCase.assertNull(message, any);
+            else
+                TestCase.assertTrue(message, any != null && expectedNames.contains(readAttribute(any, "name").toString()));
+        }
+        TestCase.assertEquals(runStaticOperation("tests::TestDriver", "countAllInterpreted"),
+                runStaticOperation("tests::TestDriver", "countAll"));
+    }
+
+    /**
+     * Creates (and saves) customers named alice, bob, carol and dave. Of
+     * those, carol and dave are partners, alice and carol are VIPs, and alice
+     * and dave are in region 1 (the others, in region 2).
+     */
+    private Map<String, RuntimeObject> createCustomers() {
+        Map<String, RuntimeObject> customers = new LinkedHashMap<String, RuntimeObject>();
+        customers.put("alice", newCustomer("store::Customer", "alice", true, 1));
+        customers.put("bob", newCustomer("store::Customer", "bob", false, 2));
+        customers.put("carol", newCustomer("store::Partner", "carol", true, 2));
+        customers.put("dave", newCustomer("store::Partner", "dave", false, 1));
+        getRuntime().saveContext(false);
+        return customers;
+    }
+
+    private RuntimeObject newCustomer(String className, String name, boolean vip, long region) {
+        RuntimeObject customer = newInstance(className);
+        writeAttribute(customer, "name", new StringType(name));
+        writeAttribute(customer, "vip", BooleanType.fromValue(vip));
+        writeAttribute(customer, "region", IntegerType.fromValue(region));
+        customer.attach();
+        return customer;
+    }
+
+    /**
+     * Reads the names of all instances of the given class (and subclasses)
+     * in pages of one instance each.
+     */
+    private List<String> getPagedNames(Classifier baseClass, Property sortBy, boolean ascending) {
+        List<String> names = new ArrayList<String>();
+        for (long offset = 0;; offset++) {
+            List<RuntimeObject> page = getRuntime().getInstances(baseClass, sortBy, ascending, offset, 1, true);
+            if (page.isEmpty())
+                return names;
+            TestCase.assertEquals(1, page.size());
+            names.add(readAttribute(page.get(0), "name").toString());
+        }
+    }
+
+    private Set<String> getNames(Object instances) {
+        Set<String> names = new HashSet<String>();
+        for (Object instance : ((CollectionType) instances).getBackEnd())
+            names.add(readAttribute((RuntimeObject) instance, "name").toString());
+        return names;
+    }
 }
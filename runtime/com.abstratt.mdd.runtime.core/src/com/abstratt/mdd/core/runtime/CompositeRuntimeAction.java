@@ -2,6 +2,7 @@ package com.abstratt.mdd.core.runtime;
 
 import static com.abstratt.mdd.core.runtime.RuntimeActionState.READY;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -68,6 +69,49 @@ public abstract class CompositeRuntimeAction extends RuntimeAction {
         }
     }
 
+    @Override
+    public boolean compile() {
+        boolean compiled = true;
+        for (RuntimeAction subAction : subActions.values())
+            compiled &= subAction.compile();
+        return compiled;
+    }
+
+    /**
+     * Returns the order in which the given sub actions (and the sub actions
+     * feeding them) would be executed by
+     * {@link #executeContainedAction(RuntimeAction, ExecutionContext)},
+     * or <code>null</code> if that cannot be determined statically (for
+     * instance, due to object flows from other scopes).
+     */
+    protected List<RuntimeAction> computeSchedule(List<RuntimeAction> toExecute) {
+        List<RuntimeAction> schedule = new ArrayList<RuntimeAction>(toExecute.size());
+        Set<RuntimeAction> scheduled = new HashSet<RuntimeAction>();
+        for (RuntimeAction runtimeAction : toExecute)
+            if (!schedule(runtimeAction, schedule, scheduled, new HashSet<RuntimeAction>()))
+                return null;
+        return schedule;
+    }
+
+    private boolean schedule(RuntimeAction runtimeAction, List<RuntimeAction> schedule, Set<RuntimeAction> scheduled, Set<RuntimeAction> pending) {
+        if (scheduled.contains(runtimeAction))
+            return true;
+        if (!pending.add(runtimeAction))
+            // a cycle
+            return false;
+        for (RuntimeAction source : runtimeAction.getSourceActions()) {
+            if (source == this)
+                // fed by this action's own object nodes
+                continue;
+            if (source.getParent() != this || !schedule(source, schedule, scheduled, pending))
+                return false;
+        }
+        pending.remove(runtimeAction);
+        scheduled.add(runtimeAction);
+        schedule.add(runtimeAction);
+        return true;
+    }
+
     @Override
     public RuntimeObjectNode findRuntimeObjectNode(ObjectNode node) {
         RuntimeObjectNode found = getRuntimeObjectNode(node);
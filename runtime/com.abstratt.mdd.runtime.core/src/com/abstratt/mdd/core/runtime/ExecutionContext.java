@@ -8,6 +8,7 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.uml2.uml.Action;
@@ -18,6 +19,7 @@ import org.eclipse.uml2.uml.Variable;
 import com.abstratt.mdd.core.runtime.types.BasicType;
 import com.abstratt.mdd.core.util.ActivityUtils;
 import com.abstratt.mdd.core.util.MDDExtensionUtils;
+import com.abstratt.nodestore.INodeStoreCatalog;
 import com.abstratt.nodestore.NodeReference;
 import com.abstratt.pluginutils.LogUtils;
 
@@ -263,6 +265,17 @@ public class ExecutionContext {
 
     private Boolean readOnly;
 
+    private ResultCache resultCache = new ResultCache();
+
+    private PrefetchedLinks prefetchedLinks = new PrefetchedLinks();
+
+    /**
+     * Qualified names of the classes with instances saved or deleted in the
+     * current transaction, reported to {@link Runtime.ChangeListener}s once
+     * it commits.
+     */
+    private Set<String> changedClasses = new LinkedHashSet<String>();
+
     public ExecutionContext(Runtime runtime) {
         this.runtime = runtime;
         this.id = ExecutionContext.globalId++;
@@ -295,8 +308,17 @@ public class ExecutionContext {
     }
 
     public void commitWorkingSet(Collection<RuntimeObject> objectsToCommit) {
-        for (RuntimeObject toCommit : objectsToCommit)
-            toCommit.save();
+        // lets the node store send all the changes in as few round trips as possible
+        INodeStoreCatalog catalog = runtime.getNodeStoreCatalog();
+        catalog.beginBatch();
+        boolean success = false;
+        try {
+            for (RuntimeObject toCommit : objectsToCommit)
+                toCommit.save();
+            success = true;
+        } finally {
+            catalog.endBatch(success);
+        }
     }
 
     public String computeStackTrace() {
@@ -332,13 +354,14 @@ public class ExecutionContext {
             Assert.isTrue(this.workingSet.isEmpty(), "Working set is not empty");
             this.readOnly = readOnly;
             this.dirty = false;
+            this.changedClasses = new LinkedHashSet<String>();
         } else {
             Assert.isTrue(readOnly || !this.readOnly, "Attempt to change the context from R/O to R/W");
         }
         LogUtils.debug(Runtime.ID, () -> "entered context level: " + level);
         if (newTransaction)
             // even for read-only contexts we use transactions, for consistent reads
-            runtime.getNodeStoreCatalog().beginTransaction();
+            runtime.getNodeStoreCatalog().beginTransaction(readOnly);
         return newTransaction;
     }
 
@@ -389,6 +412,17 @@ public class ExecutionContext {
         return result;
     }
 
+    /**
+     * Returns whether any objects of the given class have changes not yet
+     * saved. Objects that were merely read do not count.
+     */
+    public boolean hasUnsavedObjects(RuntimeClass runtimeClass) {
+        for (RuntimeObject current : workingSet.values())
+            if (current.hasUnsavedChanges() && current.getMetaClass().equals(runtimeClass))
+                return true;
+        return false;
+    }
+
     public Collection<RuntimeObject> getWorkingSet() {
         return new HashSet<RuntimeObject>(workingSet.values());
     }
@@ -410,21 +444,54 @@ public class ExecutionContext {
             runtime.getNodeStoreCatalog().clearCaches();
             level--;
             if (level == 0) {
+                LogUtils.debug(Runtime.ID, () -> "result cache: " + resultCache.getHits() + " hits, " + resultCache.getMisses() + " misses");
+                resultCache.clear();
+                LogUtils.debug(Runtime.ID, () -> "prefetched links: " + prefetchedLinks.getHits() + " hits");
+                prefetchedLinks.clear();
                 boolean rollback = !success || readOnly;
                 // only set while a context is active
                 readOnly = null;
                 clearWorkingSet();
                 clearEventQueue();
-                if (!rollback)
+                Set<String> changed = changedClasses;
+                changedClasses = new LinkedHashSet<String>();
+                if (!rollback) {
                     runtime.getNodeStoreCatalog().commitTransaction();
-                else
+                    if (!changed.isEmpty())
+                        runtime.fireChanged(changed);
+                } else
                     runtime.getNodeStoreCatalog().abortTransaction();
             }
         }
     }
 
+    /**
+     * Notes that the given object was written to (or deleted from) its node
+     * store, or linked to (or unlinked from) another object.
+     */
+    void noteChanged(RuntimeObject runtimeObject) {
+        changedClasses.add(runtimeObject.getRuntimeClass().getModelClassifier().getQualifiedName());
+    }
+
     public void markDirty() {
         this.dirty = true;
+        resultCache.clear();
+        prefetchedLinks.clear();
+    }
+
+    /**
+     * Returns the results of derivations and constraints computed so far in
+     * this context.
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Returns the links read ahead of time so far in this context.
+     */
+    public PrefetchedLinks getPrefetchedLinks() {
+        return prefetchedLinks;
     }
 
     /**
@@ -465,6 +532,8 @@ public class ExecutionContext {
     }
 
     public void removeFromWorkingSet(RuntimeObject runtimeObject) {
+        resultCache.clear();
+        prefetchedLinks.clear();
         if (this.workingSet != null)
             this.workingSet.remove(runtimeObject.nodeReference());
     }
@@ -518,6 +587,11 @@ public class ExecutionContext {
         return this.events = new ArrayList<RuntimeEvent>();
     }
 
+    /**
+     * Objects are added to the working set as they are read, so memoized
+     * results are left alone here. Changes drop them (see
+     * {@link #markDirty()}).
+     */
     private RuntimeObject installIntoWorkingSet(RuntimeObject runtimeObject) {
         return this.workingSet.put(runtimeObject.nodeReference(), runtimeObject);
     }
@@ -0,0 +1,134 @@
+package com.abstratt.mdd.core.runtime;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.eclipse.uml2.uml.Action;
+import org.eclipse.uml2.uml.Activity;
+
+import com.abstratt.mdd.core.util.ActivityUtils;
+import com.abstratt.pluginutils.LogUtils;
+
+/**
+ * The runtime action graphs for executing an activity. Building a graph
+ * (creating the runtime actions and object nodes, and wiring the object
+ * flows between them) is much more expensive than executing it, so graphs
+ * are reset and reused for later calls instead of being rebuilt every time.
+ * <p>
+ * A graph is only in use by one call at a time, so recursive calls get
+ * graphs of their own.
+ * </p>
+ * <p>
+ * Activities called often enough are compiled: the order their actions run in
+ * is computed once (see {@link RuntimeAction#compile()}), instead of being
+ * worked out on every call. Actions whose order cannot be determined
+ * statically keep being interpreted.
+ * </p>
+ */
+public class ExecutionPlan {
+    /**
+     * How many idle graphs are kept around per activity.
+     */
+    private static final int MAX_IDLE = 4;
+
+    private final Activity activity;
+
+    /**
+     * How many calls the activity takes to get compiled. A negative value
+     * disables compilation. Read when the plan is created, so it can be
+     * changed for newly loaded models.
+     */
+    private final int compileThreshold = Integer.getInteger("mdd.runtime.compileThreshold", 50);
+
+    private final Action rootAction;
+
+    private final Deque<RuntimeAction> idle = new ArrayDeque<RuntimeAction>(MAX_IDLE);
+
+    private final Set<RuntimeAction> compiledGraphs = Collections.newSetFromMap(new WeakHashMap<RuntimeAction, Boolean>());
+
+    private long invocations;
+
+    private boolean compiled;
+
+    private boolean fullyCompiled;
+
+    ExecutionPlan(Activity activity) {
+        this.activity = activity;
+        this.rootAction = ActivityUtils.getRootAction(activity);
+    }
+
+    /**
+     * Returns a graph ready for execution, building one if none is idle.
+     */
+    RuntimeAction acquire(Runtime runtime) {
+        invocations++;
+        if (!compiled && compileThreshold >= 0 && invocations > compileThreshold) {
+            compiled = true;
+            // graphs built so far are not compiled
+            idle.clear();
+        }
+        RuntimeAction graph = idle.poll();
+        if (graph != null)
+            return graph;
+        graph = runtime.createAction(rootAction, null);
+        if (compiled) {
+            boolean allCompiled = graph.compile();
+            if (compiledGraphs.isEmpty()) {
+                fullyCompiled = allCompiled;
+                LogUtils.debug(Runtime.ID, () -> "Compiled " + activity.getQualifiedName() + " after " + (invocations - 1) + " calls"
+                        + (fullyCompiled ? "" : " (partially)"));
+            }
+            compiledGraphs.add(graph);
+        }
+        return graph;
+    }
+
+    /**
+     * Builds a graph ahead of the first call, unless one is already idle.
+     */
+    void prepare(Runtime runtime) {
+        if (rootAction != null && idle.isEmpty())
+            idle.push(runtime.createAction(rootAction, null));
+    }
+
+    /**
+     * Returns a graph that completed execution, so it can be reused.
+     */
+    void release(RuntimeAction graph) {
+        if (compiled && !compiledGraphs.contains(graph))
+            // built before this plan was compiled
+            return;
+        graph.reset(true);
+        if (idle.size() < MAX_IDLE)
+            idle.push(graph);
+    }
+
+    public Activity getActivity() {
+        return activity;
+    }
+
+    /**
+     * Returns how many times the activity was called.
+     */
+    public long getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * Returns whether the activity was called often enough to be compiled.
+     */
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Returns whether all actions in the activity run compiled. Only
+     * meaningful once the activity has been compiled.
+     */
+    public boolean isFullyCompiled() {
+        return fullyCompiled;
+    }
+}
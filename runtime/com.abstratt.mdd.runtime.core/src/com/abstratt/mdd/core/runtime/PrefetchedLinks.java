@@ -0,0 +1,49 @@
+package com.abstratt.mdd.core.runtime;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.abstratt.nodestore.NodeReference;
+
+/**
+ * References to related objects read ahead of time for many objects at once
+ * (see {@link Runtime#prefetchRelated(Collection, org.eclipse.uml2.uml.Property)}),
+ * so navigating a relationship from each of those objects later does not
+ * need a node store call per object.
+ * <p>
+ * All references are dropped whenever anything changes in the context (see
+ * {@link ExecutionContext#markDirty()}) or any link is created or removed.
+ * </p>
+ */
+public class PrefetchedLinks {
+    private final Map<NodeReference, Map<String, Collection<NodeReference>>> links = new HashMap<>();
+
+    private long hits;
+
+    /**
+     * Returns the references to the objects in the given store related to
+     * the given object via the given property, or <code>null</code> if they
+     * were not prefetched.
+     */
+    public Collection<NodeReference> get(NodeReference source, String property, String relatedStoreName) {
+        Map<String, Collection<NodeReference>> sourceLinks = links.get(source);
+        Collection<NodeReference> related = sourceLinks == null ? null : sourceLinks.get(property + '@' + relatedStoreName);
+        if (related != null)
+            hits++;
+        return related;
+    }
+
+    void put(NodeReference source, String property, String relatedStoreName, Collection<NodeReference> related) {
+        links.computeIfAbsent(source, it -> new HashMap<>()).put(property + '@' + relatedStoreName, related);
+    }
+
+    public void clear() {
+        if (!links.isEmpty())
+            links.clear();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+}
@@ -0,0 +1,65 @@
+package com.abstratt.mdd.core.runtime;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.eclipse.uml2.uml.NamedElement;
+
+/**
+ * Remembers the values of derived properties and the results of constraints
+ * computed for objects in an execution context, so reading the same
+ * derivation or checking the same constraint again does not run it again.
+ * <p>
+ * As derivations may depend on any other objects, all results are dropped
+ * whenever anything changes in the context (see
+ * {@link ExecutionContext#markDirty()}).
+ * </p>
+ */
+public class ResultCache {
+    private final Map<RuntimeObject, Map<NamedElement, Object>> results = new IdentityHashMap<>();
+
+    /**
+     * Bumped on every change, so results computed while something changed
+     * are not kept.
+     */
+    private long generation;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * Returns the result for the given feature (a derived property or a
+     * constraint) of the given object, computing it only if not known yet.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(RuntimeObject target, NamedElement feature, Supplier<T> computation) {
+        Map<NamedElement, Object> targetResults = results.get(target);
+        if (targetResults != null && targetResults.containsKey(feature)) {
+            hits++;
+            return (T) targetResults.get(feature);
+        }
+        misses++;
+        long startGeneration = generation;
+        T result = computation.get();
+        if (startGeneration == generation)
+            results.computeIfAbsent(target, it -> new HashMap<>()).put(feature, result);
+        return result;
+    }
+
+    public void clear() {
+        generation++;
+        if (!results.isEmpty())
+            results.clear();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+}
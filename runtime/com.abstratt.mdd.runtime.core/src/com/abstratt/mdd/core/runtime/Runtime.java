@@ -4,15 +4,20 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.eclipse.core.runtime.Assert;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
 import org.eclipse.uml2.uml.Action;
 import org.eclipse.uml2.uml.Activity;
 import org.eclipse.uml2.uml.Class;
@@ -47,6 +52,7 @@ import com.abstratt.mdd.core.util.MDDExtensionUtils;
 import com.abstratt.nodestore.INode;
 import com.abstratt.nodestore.INodeKey;
 import com.abstratt.nodestore.INodeStoreCatalog;
+import com.abstratt.nodestore.NodeOrdering;
 import com.abstratt.nodestore.NodeReference;
 import com.abstratt.pluginutils.LogUtils;
 
@@ -59,6 +65,32 @@ public class Runtime {
         S run();
     }
 
+    /**
+     * Notified after a transaction that changed instances of some classes
+     * commits.
+     */
+    public static interface ChangeListener {
+        /**
+         * @param runtime
+         *            the runtime the transaction ran in
+         * @param changedClasses
+         *            qualified names of the classes with instances created,
+         *            changed or deleted, or <code>null</code> if any data may
+         *            have changed (for instance, the stores were zapped)
+         */
+        void changed(Runtime runtime, Set<String> changedClasses);
+    }
+
+    private static final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<ChangeListener>();
+
+    public static void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    public static void removeChangeListener(ChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
     public static Runtime get() {
         if (!RepositoryService.isValidContext())
             return null;
@@ -83,6 +115,9 @@ public class Runtime {
     // a cache of classifier hierarchies
     private Map<Classifier, Collection<Classifier>> hierarchies = new LinkedHashMap<>();
 
+    // reusable runtime action graphs for the activities run so far
+    private Map<Activity, ExecutionPlan> executionPlans = new LinkedHashMap<>();
+
     private ExecutionContext context;
 
     private ActorSelector actorSelector;
@@ -135,6 +170,83 @@ public class Runtime {
                 currentClass -> getRuntimeClass(currentClass).findInstances(criteria, null));
     }
 
+    /**
+     * Same as {@link #findInstances(Classifier, Map, boolean)}, but returns at
+     * most the given number of instances of each class.
+     */
+    public List<RuntimeObject> findInstances(final Classifier baseClass, Map<Property, List<BasicType>> criteria, Integer limit, boolean includeSubclasses) {
+        return collectInstancesFromHierarchy(baseClass, includeSubclasses,
+                currentClass -> getRuntimeClass(currentClass).findInstances(criteria, limit));
+    }
+
+    /**
+     * Counts the instances matching the given criteria, without loading them.
+     */
+    public long countInstances(final Classifier baseClass, Map<Property, List<BasicType>> criteria, boolean includeSubclasses) {
+        return streamHierarchy(baseClass, includeSubclasses).mapToLong(it -> getRuntimeClass(it).countInstances(criteria)).sum();
+    }
+
+    /**
+     * Returns whether instances of the given class can be queried directly
+     * from the node store. That is not the case when some of them have
+     * changes yet to be saved.
+     */
+    public boolean canQueryStore(final Classifier baseClass, boolean includeSubclasses) {
+        if (!(getMetaClass(baseClass) instanceof RuntimeClass))
+            return false;
+        return streamHierarchy(baseClass, includeSubclasses).noneMatch(it -> context.hasUnsavedObjects(getRuntimeClass(it)));
+    }
+
+    /**
+     * Returns a page of the instances of the given class, ordered by the
+     * given property (or by id, if none is given). Only the requested page is
+     * loaded. With subclasses, classes are paged through one after the
+     * other, so the ordering applies within each class.
+     * <p>
+     * If there are unsaved changes to instances of the class, the whole
+     * extent is read and sorted in memory instead, in the same order.
+     * </p>
+     * 
+     * @param limit
+     *            the maximum number of instances to return, or
+     *            <code>null</code> for no limit
+     */
+    public List<RuntimeObject> getInstances(Classifier baseClass, Property sortBy, boolean ascending, long offset, Integer limit,
+            boolean includeSubclasses) {
+        if (!canQueryStore(baseClass, includeSubclasses)) {
+            Comparator<RuntimeObject> ordering = sortBy == null ? Comparator.comparing(RuntimeObject::getKey, NodeOrdering.byKey(ascending))
+                    : Comparator.comparing(RuntimeObject::getNode, NodeOrdering.byProperty(sortBy.getName(), ascending));
+            Stream<RuntimeObject> all = streamHierarchy(baseClass, includeSubclasses)
+                    .flatMap(it -> getAllInstances(it).stream().sorted(ordering)).skip(offset);
+            return (limit == null ? all : all.limit(limit)).collect(Collectors.toList());
+        }
+        List<RuntimeObject> page = new ArrayList<RuntimeObject>();
+        long toSkip = offset;
+        for (Classifier current : streamHierarchy(baseClass, includeSubclasses).collect(Collectors.toList())) {
+            if (limit != null && page.size() >= limit)
+                break;
+            RuntimeClass runtimeClass = getRuntimeClass(current);
+            Collection<RuntimeObject> found = runtimeClass.getInstances(sortBy, ascending, toSkip, limit == null ? null : limit - page.size());
+            if (!found.isEmpty())
+                toSkip = 0;
+            else if (toSkip > 0)
+                // the offset goes past this class' instances
+                toSkip -= runtimeClass.countInstances(Collections.emptyMap());
+            page.addAll(found);
+        }
+        return page;
+    }
+
+    /**
+     * Counts the instances of the given class, without loading them unless
+     * there are unsaved changes to any of them.
+     */
+    public long countInstances(Classifier baseClass, boolean includeSubclasses) {
+        if (!canQueryStore(baseClass, includeSubclasses))
+            return getAllInstances(baseClass, includeSubclasses).size();
+        return countInstances(baseClass, Collections.emptyMap(), includeSubclasses);
+    }
+
     protected List<RuntimeObject> collectInstancesFromHierarchy(Classifier baseClass, boolean includeSubclasses,
             Function<Classifier, Collection<RuntimeObject>> collector) {
         Stream<Classifier> classes = streamHierarchy(baseClass, includeSubclasses);
@@ -227,6 +339,15 @@ public class Runtime {
     public INodeStoreCatalog getNodeStoreCatalog() {
         return nodeStoreCatalog;
     }
+
+    void fireChanged(Set<String> changedClasses) {
+        for (ChangeListener listener : changeListeners)
+            try {
+                listener.changed(this, changedClasses);
+            } catch (RuntimeException e) {
+                LogUtils.logError(ID, "Error notifying change listener", e);
+            }
+    }
     
     public IBlobStoreCatalog getBlobStoreCatalog() {
         return blobStoreCatalog;
@@ -236,6 +357,28 @@ public class Runtime {
         return getInstance(ConnectorUtils.findProvidingClassifier(port));
     }
 
+    /**
+     * Returns the execution plans for the activities run so far, which tell
+     * how often each activity was called, and whether it was compiled.
+     */
+    public Collection<ExecutionPlan> getExecutionPlans() {
+        return Collections.unmodifiableCollection(executionPlans.values());
+    }
+
+    /**
+     * Builds execution plans for all activities in the repository's own
+     * packages ahead of their first call, so that cost is not paid by the
+     * first requests served.
+     */
+    public void prepareExecutionPlans() {
+        for (org.eclipse.uml2.uml.Package ownPackage : repository.getOwnPackages(null))
+            for (TreeIterator<EObject> contents = ownPackage.eAllContents(); contents.hasNext();) {
+                EObject current = contents.next();
+                if (current instanceof Activity && ActivityUtils.getBodyNode((Activity) current) != null)
+                    executionPlans.computeIfAbsent((Activity) current, it -> new ExecutionPlan(it)).prepare(this);
+            }
+    }
+
     public IRepository getRepository() {
         return repository;
     }
@@ -279,6 +422,7 @@ public class Runtime {
 
     public void prime() {
         nodeStoreCatalog.prime();
+        fireChanged(null);
     }
     
     public MetaClass<?> getMetaClass(Classifier classifier) {
@@ -308,7 +452,8 @@ public class Runtime {
             }
             // the actual root node (corresponding to the utmost begin...end) is
             // the only node of the main node
-            RuntimeAction runtimeBody = createAction(ActivityUtils.getRootAction(behavior), null);
+            ExecutionPlan plan = executionPlans.computeIfAbsent(behavior, it -> new ExecutionPlan(it));
+            RuntimeAction runtimeBody = plan.acquire(this);
             try {
                 runtimeBody.execute(this.context);
             } catch (NullPointerException npe) {
@@ -317,6 +462,8 @@ public class Runtime {
             } catch (ActivityFinishedException e) {
                 // activity execution finished
             }
+            // graphs abandoned by exceptions are not reused
+            plan.release(runtimeBody);
             // return value
             Variable returnVariable = main.getVariable("", null);
             return returnVariable != null ? context.getVariableValue(returnVariable) : null;
@@ -374,6 +521,7 @@ public class Runtime {
     	getCurrentContext().clearEventQueue();
         nodeStoreCatalog.zap();
         blobStoreCatalog.zap();
+        fireChanged(null);
     }
 
     private BasicType basicRunOperation(BasicType target, Operation operation, ParameterSet parameterSet, BasicType... arguments) {
@@ -409,11 +557,54 @@ public class Runtime {
 		return result;
 	}
 
+	/**
+	 * Returns the instances with the given references, loading all instances
+	 * of the same class at once.
+	 */
 	public Collection<RuntimeObject> getInstances(Collection<NodeReference> relatedNodeRefs) {
-		return relatedNodeRefs.stream().map(this::getRuntimeObject).collect(Collectors.toList());
+		Map<String, List<INodeKey>> keysByStore = new LinkedHashMap<String, List<INodeKey>>();
+		for (NodeReference ref : relatedNodeRefs)
+			keysByStore.computeIfAbsent(ref.getStoreName(), it -> new ArrayList<INodeKey>()).add(ref.getKey());
+		Map<NodeReference, RuntimeObject> found = new LinkedHashMap<NodeReference, RuntimeObject>();
+		keysByStore.forEach((storeName, keys) -> getRuntimeClass(RuntimeClass.fromStoreNameToClassifierName(storeName)).getInstances(keys)
+				.forEach((key, instance) -> found.put(new NodeReference(storeName, key), instance)));
+		return relatedNodeRefs.stream().map(found::get).collect(Collectors.toList());
+	}
+
+	/**
+	 * Reads the objects related to each of the given objects via the given
+	 * relationship, with a node store call per class involved (instead of one
+	 * per object), so navigating the relationship from any of the given
+	 * objects later in this context needs no node store calls.
+	 * 
+	 * @return the related objects loaded
+	 */
+	public Collection<RuntimeObject> prefetchRelated(Collection<RuntimeObject> sources, Property property) {
+		if (property.isDerived() || sources.isEmpty())
+			return Collections.emptyList();
+		ExecutionContext context = getCurrentContext();
+		// same as navigating would do
+		context.commitWorkingSet();
+		Map<RuntimeClass, List<INodeKey>> keysByClass = new LinkedHashMap<RuntimeClass, List<INodeKey>>();
+		for (RuntimeObject source : sources)
+			if (source.isPersisted() && source.isActive())
+				keysByClass.computeIfAbsent(source.getRuntimeClass(), it -> new ArrayList<INodeKey>()).add(source.nodeKey());
+		Collection<RuntimeObject> loaded = new LinkedHashSet<RuntimeObject>();
+		keysByClass.forEach((sourceClass, keys) -> loaded.addAll(collectInstancesFromHierarchy((Classifier) property.getType(), true,
+				relatedType -> prefetchRelated(sourceClass, keys, property, relatedType))));
+		return loaded;
 	}
 
-	private RuntimeObject getRuntimeObject(NodeReference ref) {
-		return getRuntimeClass(RuntimeClass.fromStoreNameToClassifierName(ref.getStoreName())).getInstance(ref.getKey());
+	private Collection<RuntimeObject> prefetchRelated(RuntimeClass sourceClass, List<INodeKey> keys, Property property, Classifier relatedType) {
+		String relatedStoreName = getRuntimeClass(relatedType).getNodeStoreName();
+		Map<INodeKey, Collection<NodeReference>> related = sourceClass.getNodeStore().getRelatedNodeReferences(keys, property.getName(),
+				relatedStoreName);
+		Collection<NodeReference> allRelated = new LinkedHashSet<NodeReference>();
+		related.forEach((key, refs) -> {
+			getCurrentContext().getPrefetchedLinks().put(new NodeReference(sourceClass.getNodeStoreName(), key), property.getName(),
+					relatedStoreName, refs);
+			allRelated.addAll(refs);
+		});
+		return getInstances(allRelated).stream().filter(it -> it != null).collect(Collectors.toList());
 	}
 }
@@ -105,6 +105,18 @@ public abstract class RuntimeAction {
         return getRuntimeObjectNode(node);
     }
 
+    /**
+     * Prepares this action for being executed many times (see
+     * {@link ExecutionPlan}).
+     * 
+     * @return <code>true</code> if this action and all actions under it can
+     *         run compiled, <code>false</code> if some of them will still be
+     *         interpreted
+     */
+    public boolean compile() {
+        return true;
+    }
+
     public List<RuntimeObjectNode> getInputs() {
         List outputPins = getStaticInputs();
         List<RuntimeObjectNode> runtimeInputPins = new ArrayList<RuntimeObjectNode>(outputPins.size());
@@ -2,7 +2,10 @@ package com.abstratt.mdd.core.runtime;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.eclipse.emf.ecore.EClass;
 import org.eclipse.uml2.uml.Action;
 
 public class RuntimeActionFactory {
@@ -12,29 +15,36 @@ public class RuntimeActionFactory {
 
     private static RuntimeActionFactory instance = new RuntimeActionFactory();
 
+    // runtime action constructors, per kind of action
+    private Map<EClass, Constructor<? extends RuntimeAction>> constructors = new ConcurrentHashMap<EClass, Constructor<? extends RuntimeAction>>();
+
     private RuntimeActionFactory() {
         // this is a singleton
     }
 
-    @SuppressWarnings("unchecked")
     public RuntimeAction createRuntimeAction(Action descriptor, CompositeRuntimeAction parent) {
+        try {
+            return constructors.computeIfAbsent(descriptor.eClass(), it -> findConstructor(descriptor)).newInstance(descriptor, parent);
+        } catch (InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getTargetException());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Constructor<? extends RuntimeAction> findConstructor(Action descriptor) {
         Class<? extends RuntimeAction> runtimeActionClass;
         try {
             String runtimeActionClassName = getClassName(descriptor);
             runtimeActionClass = (Class<? extends RuntimeAction>) Class.forName(runtimeActionClassName);
-            Constructor<? extends RuntimeAction> constructor = runtimeActionClass
-                    .getConstructor(Action.class, CompositeRuntimeAction.class);
-            return constructor.newInstance(descriptor, parent);
+            return runtimeActionClass.getConstructor(Action.class, CompositeRuntimeAction.class);
         } catch (ClassNotFoundException e) {
             throw new RuntimeException(e);
-        } catch (InstantiationException e) {
-            throw new RuntimeException(e);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
         } catch (NoSuchMethodException e) {
             throw new RuntimeException(e);
-        } catch (InvocationTargetException e) {
-            throw new RuntimeException(e.getTargetException());
         }
     }
 
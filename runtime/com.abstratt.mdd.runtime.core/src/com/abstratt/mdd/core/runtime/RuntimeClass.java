@@ -1,5 +1,6 @@
 package com.abstratt.mdd.core.runtime;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -25,6 +26,7 @@ import com.abstratt.blobstore.IBlobStoreCatalog;
 import com.abstratt.mdd.core.runtime.types.BasicType;
 import com.abstratt.mdd.core.runtime.types.CollectionType;
 import com.abstratt.mdd.core.util.StateMachineUtils;
+import com.abstratt.nodestore.INode;
 import com.abstratt.nodestore.INodeKey;
 import com.abstratt.nodestore.INodeStore;
 import com.abstratt.nodestore.INodeStoreCatalog;
@@ -92,7 +94,10 @@ public class RuntimeClass implements MetaClass<RuntimeObject> {
     public final Collection<RuntimeObject> getAllInstances() {
         if (!this.isPersistable())
             return Collections.emptySet();
-        Collection<RuntimeObject> fromDB = nodesToRuntimeObjects(getNodeStore().getNodeKeys());
+        Map<INodeKey, INode> nodes = new LinkedHashMap<INodeKey, INode>();
+        for (INode node : getNodeStore().getNodes())
+            nodes.put(node.getKey(), node);
+        Collection<RuntimeObject> fromDB = new LinkedHashSet<RuntimeObject>(toRuntimeObjects(nodes.keySet(), nodes).values());
         fromDB.addAll(getRuntime().getCurrentContext().getWorkingObjects(this));
         return fromDB;
     }
@@ -106,6 +111,30 @@ public class RuntimeClass implements MetaClass<RuntimeObject> {
     }
 
     Collection<RuntimeObject> findInstances(Map<Property, List<BasicType>> criteria, Integer limit) {
+        INodeStore nodeStore = getNodeStore();
+        Collection<INodeKey> filtered = nodeStore.filter(toNodeCriteria(criteria), limit);
+        Collection<RuntimeObject> runtimeObjects = nodesToRuntimeObjects(filtered);
+        return runtimeObjects;
+    }
+
+    long countInstances(Map<Property, List<BasicType>> criteria) {
+        if (!this.isPersistable())
+            return 0;
+        return getNodeStore().count(toNodeCriteria(criteria));
+    }
+
+    /**
+     * Loads a page of the (saved) instances of this class, ordered by the
+     * given property, or by id if none is given.
+     */
+    Collection<RuntimeObject> getInstances(Property sortBy, boolean ascending, long offset, Integer limit) {
+        if (!this.isPersistable())
+            return Collections.emptyList();
+        String sortKey = sortBy == null ? null : sortBy.getName();
+        return nodesToRuntimeObjects(getNodeStore().filter(Collections.emptyMap(), sortKey, ascending, offset, limit));
+    }
+
+    private Map<String, Collection<Object>> toNodeCriteria(Map<Property, List<BasicType>> criteria) {
         Map<String, Collection<Object>> nodeCriteria = new LinkedHashMap<String, Collection<Object>>();
         for (Entry<Property, List<BasicType>> entry : criteria.entrySet()) {
             Collection<Object> values = new LinkedHashSet<Object>();
@@ -116,10 +145,7 @@ public class RuntimeClass implements MetaClass<RuntimeObject> {
             }
             nodeCriteria.put(entry.getKey().getName(), values);
         }
-        INodeStore nodeStore = getNodeStore();
-        Collection<INodeKey> filtered = nodeStore.filter(nodeCriteria, limit);
-        Collection<RuntimeObject> runtimeObjects = nodesToRuntimeObjects(filtered);
-        return runtimeObjects;
+        return nodeCriteria;
     }
 
     public RuntimeObject findOneInstance(Map<Property, List<BasicType>> criteria) {
@@ -139,6 +165,17 @@ public class RuntimeClass implements MetaClass<RuntimeObject> {
         return getOrLoadInstance(objectIdToKey(objectId));
     }
 
+    /**
+     * Returns the instances with the given keys, loading from the node store
+     * all those not in the working set at once. Keys for which no active
+     * instance exists are left out.
+     * 
+     * @return the instances found, keyed by the given keys (in the same order)
+     */
+    public Map<INodeKey, RuntimeObject> getInstances(Collection<INodeKey> keys) {
+        return toRuntimeObjects(keys, null);
+    }
+
     public final Classifier getModelClassifier() {
         return classifier;
     }
@@ -266,6 +303,8 @@ public class RuntimeClass implements MetaClass<RuntimeObject> {
 
         if (persistent && !runtime.getCurrentContext().isReadOnly()) {
             newObject = new RuntimeObject(this, getNodeStoreCatalog().newNode(getNodeStoreName()));
+            // derivations over the extent may no longer hold
+            runtime.getCurrentContext().getResultCache().clear();
         } else
             newObject = new RuntimeObject(this);
         if (initDefaults)
@@ -314,16 +353,45 @@ public class RuntimeClass implements MetaClass<RuntimeObject> {
     }
 
     protected Collection<RuntimeObject> nodesToRuntimeObjects(Collection<INodeKey> keys) {
-        Collection<RuntimeObject> result = new LinkedHashSet<RuntimeObject>();
+        return new LinkedHashSet<RuntimeObject>(getInstances(keys).values());
+    }
+
+    /**
+     * Maps the given keys to runtime objects. Objects in the working set are
+     * used as they are (they may have unsaved changes). The other objects
+     * are built from the given nodes, or, if <code>null</code>, from nodes
+     * loaded from the node store.
+     */
+    private Map<INodeKey, RuntimeObject> toRuntimeObjects(Collection<INodeKey> keys, Map<INodeKey, INode> nodes) {
+        ExecutionContext context = getRuntime().getCurrentContext();
+        Map<INodeKey, RuntimeObject> working = new LinkedHashMap<INodeKey, RuntimeObject>();
+        List<INodeKey> toLoad = new ArrayList<INodeKey>();
+        for (INodeKey key : keys) {
+            RuntimeObject existing = context.getWorkingObject(new NodeReference(getNodeStoreName(), key));
+            if (existing != null)
+                working.put(key, existing);
+            else
+                toLoad.add(key);
+        }
+        if (nodes == null)
+            nodes = toLoad.isEmpty() ? Collections.emptyMap() : getNodeStore().getNodes(toLoad);
+        Map<INodeKey, RuntimeObject> result = new LinkedHashMap<INodeKey, RuntimeObject>();
         for (INodeKey key : keys) {
-            RuntimeObject loaded = getInstance(key);
-            if (loaded != null)
-                result.add(loaded);
+            RuntimeObject instance = working.get(key);
+            if (instance == null) {
+                INode node = nodes.get(key);
+                if (node == null)
+                    continue;
+                instance = createRuntimeObject(key);
+                instance.load(node);
+            } else if (!instance.isActive())
+                continue;
+            result.put(key, instance);
         }
         return result;
     }
 
-    protected IntegerKey objectIdToKey(String objectId) {
+    public IntegerKey objectIdToKey(String objectId) {
         return new IntegerKey(Long.parseLong(objectId));
     }
 
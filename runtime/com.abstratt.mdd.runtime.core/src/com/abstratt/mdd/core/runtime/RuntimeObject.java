@@ -193,8 +193,10 @@ public class RuntimeObject extends StructuredRuntimeObject {
 
     public void destroy() {
         ensureActive();
-        if (isPersisted)
+        if (isPersisted) {
             getNodeStore().deleteNode(this.getKey());
+            getCurrentContext().noteChanged(this);
+        }
         getCurrentContext().removeFromWorkingSet(this);
         this.setKey(null);
         this.inMemoryState = null;
@@ -448,6 +450,9 @@ public class RuntimeObject extends StructuredRuntimeObject {
 
         List<BasicType> argumentValues = new ArrayList<BasicType>();
         List<Parameter> constraintParameters = FeatureUtils.getInputParameters(toExecute.getOwnedParameters());
+        if (constraintParameters.isEmpty() && parameterSet == null && isPersistable)
+            // only depends on the state of the objects involved
+            return getCurrentContext().getResultCache().get(this, constraint, () -> runConstraint(constraint, toExecute, null, argumentValues));
         if (!constraintParameters.isEmpty()) {
             if (argumentsPerParameter == null)
                 throw new IllegalArgumentException();
@@ -457,6 +462,10 @@ public class RuntimeObject extends StructuredRuntimeObject {
                 argumentValues.add(argumentsPerParameter.get(inputParameter.getName()));
             }
         }
+        return runConstraint(constraint, toExecute, parameterSet, argumentValues);
+    }
+
+    private boolean runConstraint(Constraint constraint, Activity toExecute, ParameterSet parameterSet, List<BasicType> argumentValues) {
         Object behaviorResult = getRuntime().runBehavior(this, constraint.getName(), toExecute, parameterSet, 
                 argumentValues.toArray(new BasicType[0]));
         boolean result = behaviorResult != null && ((BooleanType) behaviorResult).isTrue();
@@ -479,6 +488,14 @@ public class RuntimeObject extends StructuredRuntimeObject {
         return isPersisted;
     }
 
+    /**
+     * Returns whether this object is new or has been modified since it was
+     * last saved.
+     */
+    public boolean hasUnsavedChanges() {
+        return isActive() && (!isPersisted() || isDirty());
+    }
+
     public boolean isTopLevel() {
         return getNode().isTopLevel();
     }
@@ -505,8 +522,10 @@ public class RuntimeObject extends StructuredRuntimeObject {
         for (RuntimeObject peer : peers)
             peer.attach();
         prepareForLinking();
+        linksChanged();
         getNodeStore().linkMultipleNodes(RuntimeObject.this.getKey(), end.getName(),
                 RuntimeObject.this.nodeReferences(peers), true);
+        noteLinked(peers);
     }
 
     /**
@@ -523,11 +542,13 @@ public class RuntimeObject extends StructuredRuntimeObject {
         this.attach();
         other.attach();
         prepareForLinking();
+        linksChanged();
         if (end.isMultivalued()) {
             getNodeStore().linkMultipleNodes(getKey(), end.getName(), Arrays.asList(other.nodeReference()), false);
         } else {
             getNodeStore().linkNodes(getKey(), end.getName(), other.nodeReference());
         }
+        noteLinked(Collections.singleton(other));
     }
 
     public void load() {
@@ -536,6 +557,17 @@ public class RuntimeObject extends StructuredRuntimeObject {
         markClear();
     }
 
+    /**
+     * Loads this object from its node, already read from the node store.
+     */
+    void load(INode node) {
+        Assert.isTrue(isPersisted && inMemoryState == null);
+        ensureActive();
+        inMemoryState = node;
+        attach();
+        markClear();
+    }
+
     public BasicType runBehavioralFeature(BehavioralFeature behavioralFeature, ParameterSet parameterSet, BasicType... arguments) {
         Operation asOperation = (Operation) (behavioralFeature instanceof Operation ? behavioralFeature : null);
         // try to run behavior defined for operation (if any)
@@ -587,6 +619,7 @@ public class RuntimeObject extends StructuredRuntimeObject {
             isPersisted = true;
             attach();
         }
+        getCurrentContext().noteChanged(this);
         inMemoryState = null;
         markClear();
         return true;
@@ -633,7 +666,18 @@ public class RuntimeObject extends StructuredRuntimeObject {
 
     public void unlink(Property end, RuntimeObject other) {
         prepareForLinking();
+        linksChanged();
         getNodeStore().unlinkNodes(getKey(), end.getName(), other.nodeReference());
+        noteLinked(Collections.singleton(other));
+    }
+
+    /**
+     * Links are changes to the objects on both ends.
+     */
+    private void noteLinked(Collection<RuntimeObject> peers) {
+        getCurrentContext().noteChanged(this);
+        for (RuntimeObject peer : peers)
+            getCurrentContext().noteChanged(peer);
     }
 
     protected Constraint checkConstraints(List<Constraint> constraints, ParameterSet parameterSet, Map<String, BasicType> arguments) {
@@ -650,6 +694,12 @@ public class RuntimeObject extends StructuredRuntimeObject {
     }
 
     protected BasicType derivedValue(Property property) {
+        if (isPersistable)
+            return getCurrentContext().getResultCache().get(this, property, () -> computeDerivedValue(property));
+        return computeDerivedValue(property);
+    }
+
+    private BasicType computeDerivedValue(Property property) {
         try {
             return RuntimeUtils.extractValueFromSpecification(this, property.getDefaultValue());
         } catch (ModelExecutionException e) {
@@ -719,6 +769,8 @@ public class RuntimeObject extends StructuredRuntimeObject {
     }
 
     protected void markDirty() {
+        // derivations may depend on any object
+        getCurrentContext().getResultCache().clear();
         if (isPersistable) {
             isDirty = true;
             getCurrentContext().markDirty();
@@ -829,8 +881,10 @@ public class RuntimeObject extends StructuredRuntimeObject {
         Assert.isLegal(!property.isDerived());
         RuntimeClass relatedEntity = getRuntime().getRuntimeClass(relatedInstanceType);
         String relatedStoreNodeName = relatedEntity.getNodeStore().getName();
-        Collection<NodeReference> relatedNodeRefs = getNodeStore().getRelatedNodeReferences(getKey(), property.getName(),
+        Collection<NodeReference> relatedNodeRefs = getCurrentContext().getPrefetchedLinks().get(nodeReference(), property.getName(),
                 relatedStoreNodeName);
+        if (relatedNodeRefs == null)
+            relatedNodeRefs = getNodeStore().getRelatedNodeReferences(getKey(), property.getName(), relatedStoreNodeName);
 //        List<INodeKey> nodeKeys = relatedNodeRefs.stream().map(it -> it.getKey()).collect(Collectors.toList());
 		return getCurrentContext().getRuntime().getInstances(relatedNodeRefs);
     }
@@ -956,6 +1010,16 @@ public class RuntimeObject extends StructuredRuntimeObject {
         commitAll();
     }
 
+    /**
+     * Links are about to change, so links loaded ahead of time and results
+     * computed from them can no longer be relied on. Only writes should call
+     * this, as calling it on reads would keep anything from being cached.
+     */
+    private void linksChanged() {
+        getCurrentContext().getPrefetchedLinks().clear();
+        getCurrentContext().getResultCache().clear();
+    }
+
     protected BasicType readPort(Port port) {
         return runtimeClass.getRuntime().getProviderInstance(port);
     }
@@ -0,0 +1,280 @@
+package com.abstratt.mdd.core.runtime.action;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.uml2.uml.Action;
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.ActivityNode;
+import org.eclipse.uml2.uml.AddVariableValueAction;
+import org.eclipse.uml2.uml.CallOperationAction;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.InputPin;
+import org.eclipse.uml2.uml.OutputPin;
+import org.eclipse.uml2.uml.Parameter;
+import org.eclipse.uml2.uml.Property;
+import org.eclipse.uml2.uml.ReadExtentAction;
+import org.eclipse.uml2.uml.ReadStructuralFeatureAction;
+import org.eclipse.uml2.uml.ReadVariableAction;
+import org.eclipse.uml2.uml.StructuredActivityNode;
+import org.eclipse.uml2.uml.ValueSpecification;
+import org.eclipse.uml2.uml.ValueSpecificationAction;
+import org.eclipse.uml2.uml.Variable;
+
+import com.abstratt.mdd.core.runtime.ExecutionContext;
+import com.abstratt.mdd.core.runtime.Runtime;
+import com.abstratt.mdd.core.runtime.RuntimeObject;
+import com.abstratt.mdd.core.runtime.RuntimeUtils;
+import com.abstratt.mdd.core.runtime.types.BasicType;
+import com.abstratt.mdd.core.runtime.types.BooleanType;
+import com.abstratt.mdd.core.runtime.types.CollectionType;
+import com.abstratt.mdd.core.runtime.types.IntegerType;
+import com.abstratt.mdd.core.util.ActivityUtils;
+import com.abstratt.mdd.core.util.MDDExtensionUtils;
+import com.abstratt.mdd.core.util.TypeUtils;
+
+/**
+ * A collection operation applied directly to a class extent that can be
+ * answered by the node store, without loading the whole extent. For instance,
+ * <code>Customer extent.select(c : Customer { c.vip })</code> only loads VIP
+ * customers, and <code>Customer extent.count(...)</code> loads no customers
+ * at all.
+ * <p>
+ * Supported operations are <code>select</code>, <code>count</code>,
+ * <code>exists</code>, <code>any</code> and <code>size</code>. Supported
+ * predicates are boolean attributes, comparisons of attributes with
+ * constants, and conjunctions of those.
+ * </p>
+ */
+class ExtentQuery {
+    private static final Set<String> SUPPORTED_OPERATIONS = new HashSet<String>(Arrays.asList("select", "count", "exists", "any", "size"));
+
+    /**
+     * Returns the query the given call can be replaced with, or
+     * <code>null</code> if the call is not a supported operation on the
+     * extent read by a {@link ReadExtentAction} (and by nothing else).
+     */
+    static ExtentQuery build(CallOperationAction call) {
+        String operation = call.getOperation().getName();
+        if (call.getOperation().isStatic() || !SUPPORTED_OPERATIONS.contains(operation) || call.getTarget() == null)
+            return null;
+        OutputPin extent = getSource(call.getTarget());
+        if (extent == null || !(extent.getOwner() instanceof ReadExtentAction) || extent.getOutgoings().size() != 1)
+            return null;
+        Map<Property, List<BasicType>> criteria = new LinkedHashMap<Property, List<BasicType>>();
+        if (!"size".equals(operation)) {
+            if (call.getArguments().size() != 1)
+                return null;
+            OutputPin closureReference = getSource(call.getArguments().get(0));
+            if (closureReference == null || !(closureReference.getOwner() instanceof ValueSpecificationAction))
+                return null;
+            ValueSpecification closureSpec = ((ValueSpecificationAction) closureReference.getOwner()).getValue();
+            if (!ActivityUtils.isBehaviorReference(closureSpec))
+                return null;
+            criteria = new PredicateTranslator((Activity) ActivityUtils.resolveBehaviorReference(closureSpec)).translate();
+            if (criteria == null || criteria.isEmpty())
+                return null;
+        }
+        return new ExtentQuery((ReadExtentAction) extent.getOwner(), operation, criteria);
+    }
+
+    private static OutputPin getSource(InputPin pin) {
+        if (pin.getIncomings().size() != 1)
+            return null;
+        ActivityNode source = pin.getIncomings().get(0).getSource();
+        return source instanceof OutputPin ? (OutputPin) source : null;
+    }
+
+    private final ReadExtentAction extentAction;
+
+    private final String operation;
+
+    private final Map<Property, List<BasicType>> criteria;
+
+    private ExtentQuery(ReadExtentAction extentAction, String operation, Map<Property, List<BasicType>> criteria) {
+        this.extentAction = extentAction;
+        this.operation = operation;
+        this.criteria = criteria;
+    }
+
+    /**
+     * Returns whether the node store can answer this query. It cannot if
+     * there are changes to instances of the class yet to be saved, in which
+     * case the operation must be run against the actual extent (see
+     * {@link #readExtent(ExecutionContext)}).
+     */
+    boolean canRun(ExecutionContext context) {
+        return context.getRuntime().canQueryStore(extentAction.getClassifier(), true);
+    }
+
+    BasicType run(ExecutionContext context) {
+        Runtime runtime = context.getRuntime();
+        Classifier classifier = extentAction.getClassifier();
+        switch (operation) {
+        case "size":
+        case "count":
+            return IntegerType.fromValue(runtime.countInstances(classifier, criteria, true));
+        case "exists":
+            return BooleanType.fromValue(!runtime.findInstances(classifier, criteria, 1, true).isEmpty());
+        case "any":
+            List<RuntimeObject> found = runtime.findInstances(classifier, criteria, 1, true);
+            return found.isEmpty() ? null : found.get(0);
+        default:
+            return CollectionType.createCollectionFor(extentAction.getResult(), runtime.findInstances(classifier, criteria, true));
+        }
+    }
+
+    /**
+     * Reads the entire extent, as {@link RuntimeReadExtentAction} would.
+     */
+    CollectionType readExtent(ExecutionContext context) {
+        Classifier classifier = extentAction.getClassifier();
+        List<? extends BasicType> allInstances = context.getRuntime().getMetaClass(classifier).getAllInstances(classifier, true);
+        return CollectionType.createCollectionFor(extentAction.getResult(), allInstances);
+    }
+
+    /**
+     * Translates the predicate in a closure into node store criteria.
+     */
+    private static class PredicateTranslator {
+        private final Activity closure;
+        private final Set<Action> translated = new HashSet<Action>();
+        private Variable parameterVariable;
+
+        PredicateTranslator(Activity closure) {
+            this.closure = closure;
+        }
+
+        /**
+         * Returns the criteria, or <code>null</code> if the closure does
+         * anything other than computing a supported predicate.
+         */
+        Map<Property, List<BasicType>> translate() {
+            List<Parameter> parameters = ActivityUtils.getClosureInputParameters(closure);
+            if (parameters.size() != 1)
+                return null;
+            StructuredActivityNode main = ActivityUtils.getBodyNode(closure);
+            parameterVariable = main.getVariable(parameters.get(0).getName(), null);
+            Variable returnVariable = main.getVariable("", null);
+            if (parameterVariable == null || returnVariable == null)
+                return null;
+            Set<Action> actions = new HashSet<Action>();
+            if (!collectActions(ActivityUtils.getRootAction(closure), actions))
+                return null;
+            AddVariableValueAction result = null;
+            for (Action action : actions)
+                if (action instanceof AddVariableValueAction && ((AddVariableValueAction) action).getVariable() == returnVariable) {
+                    if (result != null)
+                        return null;
+                    result = (AddVariableValueAction) action;
+                }
+            if (result == null)
+                return null;
+            translated.add(result);
+            Map<Property, List<BasicType>> criteria = new LinkedHashMap<Property, List<BasicType>>();
+            if (!translatePredicate(getSource(result.getValue()), criteria))
+                return null;
+            // anything else the closure does would be skipped
+            return translated.equals(actions) ? criteria : null;
+        }
+
+        /**
+         * Collects the actions in the given action, which can only be nested
+         * in plain blocks.
+         */
+        private boolean collectActions(Action action, Set<Action> actions) {
+            if (!(action instanceof StructuredActivityNode)) {
+                actions.add(action);
+                return true;
+            }
+            StructuredActivityNode block = (StructuredActivityNode) action;
+            if (MDDExtensionUtils.isCast(block) || MDDExtensionUtils.isObjectInitialization(block) || !block.getHandlers().isEmpty()
+                    || !ActivityUtils.getActionInputs(block).isEmpty() || !ActivityUtils.getActionOutputs(block).isEmpty())
+                return false;
+            for (ActivityNode node : block.getNodes())
+                if (node instanceof Action && !collectActions((Action) node, actions))
+                    return false;
+            return true;
+        }
+
+        private boolean translatePredicate(OutputPin value, Map<Property, List<BasicType>> criteria) {
+            if (value == null)
+                return false;
+            Action action = (Action) value.getOwner();
+            if (action instanceof ReadStructuralFeatureAction) {
+                Property attribute = translateAttribute(value);
+                return attribute != null && isBoolean(attribute) && addCriterion(criteria, attribute, BooleanType.TRUE);
+            }
+            if (!(action instanceof CallOperationAction))
+                return false;
+            CallOperationAction call = (CallOperationAction) action;
+            if (call.getTarget() == null || call.getArguments().size() != 1)
+                return false;
+            translated.add(call);
+            OutputPin target = getSource(call.getTarget());
+            OutputPin argument = getSource(call.getArguments().get(0));
+            switch (call.getOperation().getName()) {
+            case "and":
+                return translatePredicate(target, criteria) && translatePredicate(argument, criteria);
+            case "equals":
+                Property attribute = translateAttribute(target);
+                BasicType constant = translateConstant(argument);
+                if (attribute == null || constant == null) {
+                    attribute = translateAttribute(argument);
+                    constant = translateConstant(target);
+                }
+                return attribute != null && constant != null && addCriterion(criteria, attribute, constant);
+            }
+            return false;
+        }
+
+        /**
+         * Translates a read of a stored, single-valued attribute of the
+         * closure parameter.
+         */
+        private Property translateAttribute(OutputPin value) {
+            if (value == null || !(value.getOwner() instanceof ReadStructuralFeatureAction))
+                return null;
+            ReadStructuralFeatureAction read = (ReadStructuralFeatureAction) value.getOwner();
+            if (!(read.getStructuralFeature() instanceof Property))
+                return null;
+            Property property = (Property) read.getStructuralFeature();
+            if (property.isStatic() || property.isDerived() || property.isMultivalued() || property.getAssociation() != null)
+                return null;
+            OutputPin object = getSource(read.getObject());
+            if (object == null || !(object.getOwner() instanceof ReadVariableAction)
+                    || ((ReadVariableAction) object.getOwner()).getVariable() != parameterVariable)
+                return null;
+            translated.add(read);
+            translated.add((Action) object.getOwner());
+            return property;
+        }
+
+        private BasicType translateConstant(OutputPin value) {
+            if (value == null || !(value.getOwner() instanceof ValueSpecificationAction))
+                return null;
+            ValueSpecificationAction valueAction = (ValueSpecificationAction) value.getOwner();
+            if (ActivityUtils.isBehaviorReference(valueAction.getValue()))
+                return null;
+            BasicType constant = RuntimeUtils.extractValueFromSpecification(valueAction.getValue());
+            if (constant == null || constant instanceof CollectionType)
+                return null;
+            translated.add(valueAction);
+            return constant;
+        }
+
+        private boolean isBoolean(Property attribute) {
+            return attribute.getType() != null && TypeUtils.makeTypeName("Boolean").equals(attribute.getType().getQualifiedName());
+        }
+
+        private boolean addCriterion(Map<Property, List<BasicType>> criteria, Property attribute, BasicType value) {
+            // conflicting criteria on the same attribute are not supported
+            return criteria.putIfAbsent(attribute, Collections.singletonList(value)) == null;
+        }
+    }
+}
@@ -18,10 +18,26 @@ import com.abstratt.mdd.core.runtime.types.BooleanType;
 import com.abstratt.mdd.core.util.TypeUtils;
 
 public class RuntimeCallOperationAction extends RuntimeAction {
+    private ExtentQuery extentQuery;
+
+    private boolean extentQueryBuilt;
+
     public RuntimeCallOperationAction(Action instance, CompositeRuntimeAction parent) {
         super(instance, parent);
     }
 
+    /**
+     * Returns the query this call can be answered with, if it is a supported
+     * operation on a class extent (see {@link ExtentQuery}).
+     */
+    ExtentQuery getExtentQuery() {
+        if (!extentQueryBuilt) {
+            extentQuery = ExtentQuery.build((CallOperationAction) getInstance());
+            extentQueryBuilt = true;
+        }
+        return extentQuery;
+    }
+
     @Override
     public void executeBehavior(ExecutionContext context) {
         CallOperationAction instance = (CallOperationAction) getInstance();
@@ -32,6 +48,15 @@ public class RuntimeCallOperationAction extends RuntimeAction {
         final Operation operation = instance.getOperation();
         BasicType target = null;
         OutputPin resultPin = instance.getResults().isEmpty() ? null : instance.getResults().get(0);
+        if (getExtentQuery() != null) {
+            // the extent was not actually read (see RuntimeReadExtentAction)
+            getRuntimeObjectNode(instance.getTarget()).getValue();
+            BasicType result = extentQuery.canRun(context) ? extentQuery.run(context)
+                    : context.getRuntime().runOperation(extentQuery.readExtent(context), operation, arguments.toArray(new BasicType[0]));
+            if (resultPin != null)
+                addResultValue(resultPin, result);
+            return;
+        }
         if (!operation.isStatic()) {
             target = getRuntimeObjectNode(instance.getTarget()).getValue();
             if (target == null) {
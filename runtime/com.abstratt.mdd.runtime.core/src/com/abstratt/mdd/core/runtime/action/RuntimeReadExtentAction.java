@@ -1,5 +1,6 @@
 package com.abstratt.mdd.core.runtime.action;
 
+import java.util.Collections;
 import java.util.List;
 
 import org.eclipse.uml2.uml.Action;
@@ -10,6 +11,7 @@ import com.abstratt.mdd.core.runtime.CompositeRuntimeAction;
 import com.abstratt.mdd.core.runtime.Constants;
 import com.abstratt.mdd.core.runtime.ExecutionContext;
 import com.abstratt.mdd.core.runtime.RuntimeAction;
+import com.abstratt.mdd.core.runtime.RuntimeObjectFlow;
 import com.abstratt.mdd.core.runtime.types.BasicType;
 import com.abstratt.mdd.core.runtime.types.CollectionType;
 
@@ -21,8 +23,25 @@ public class RuntimeReadExtentAction extends RuntimeAction implements Constants
     @Override
     public void executeBehavior(ExecutionContext context) {
         ReadExtentAction instance = (ReadExtentAction) getInstance();
+        if (isQueriedByConsumer()) {
+            // the only consumer queries the node store instead
+            addResultValue(instance.getResult(), CollectionType.createCollectionFor(instance.getResult(), Collections.<BasicType> emptySet()));
+            return;
+        }
         Classifier classifier = instance.getClassifier();
         List<? extends BasicType> allInstances = context.getRuntime().getMetaClass(classifier).getAllInstances(classifier, true);
         addResultValue(instance.getResult(), CollectionType.createCollectionFor(instance.getResult(), allInstances));
     }
+
+    /**
+     * Returns whether this extent is only used by an operation that can be
+     * answered by the node store (see {@link ExtentQuery}).
+     */
+    private boolean isQueriedByConsumer() {
+        List<RuntimeObjectFlow> outgoing = getRuntimeObjectNode(((ReadExtentAction) getInstance()).getResult()).getOutgoing();
+        if (outgoing.size() != 1)
+            return false;
+        RuntimeAction consumer = outgoing.get(0).getTarget().getAction();
+        return consumer instanceof RuntimeCallOperationAction && ((RuntimeCallOperationAction) consumer).getExtentQuery() != null;
+    }
 }
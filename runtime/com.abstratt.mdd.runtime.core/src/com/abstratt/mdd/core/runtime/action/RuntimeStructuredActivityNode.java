@@ -1,5 +1,6 @@
 package com.abstratt.mdd.core.runtime.action;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -19,6 +20,7 @@ import org.eclipse.uml2.uml.Variable;
 import com.abstratt.mdd.core.runtime.CompositeRuntimeAction;
 import com.abstratt.mdd.core.runtime.ExecutionContext;
 import com.abstratt.mdd.core.runtime.RuntimeAction;
+import com.abstratt.mdd.core.runtime.RuntimeActionState;
 import com.abstratt.mdd.core.runtime.RuntimeClass;
 import com.abstratt.mdd.core.runtime.RuntimeObject;
 import com.abstratt.mdd.core.runtime.RuntimeObjectNode;
@@ -29,10 +31,31 @@ import com.abstratt.mdd.core.util.MDDExtensionUtils;
 import com.abstratt.mdd.core.util.MDDUtil;
 
 public class RuntimeStructuredActivityNode extends CompositeRuntimeAction {
+    /**
+     * Once compiled, the order in which sub actions are executed.
+     */
+    private List<RuntimeAction> schedule;
+
     public RuntimeStructuredActivityNode(Action actionNode, CompositeRuntimeAction parent) {
         super(actionNode, parent);
     }
 
+    @Override
+    public boolean compile() {
+        boolean compiled = super.compile();
+        StructuredActivityNode instance = (StructuredActivityNode) this.getInstance();
+        if (MDDExtensionUtils.isCast(instance) || MDDExtensionUtils.isObjectInitialization(instance))
+            // no sub actions to execute
+            return compiled;
+        Set<ExecutableNode> handlerBodies = getHandlerBodies(instance);
+        List<RuntimeAction> toExecute = new ArrayList<RuntimeAction>();
+        for (ActivityNode each : MDDUtil.filterByClass(instance.getNodes(), Literals.ACTION))
+            if (!handlerBodies.contains(each))
+                toExecute.add(this.getRuntimeAction((Action) each));
+        schedule = computeSchedule(toExecute);
+        return compiled && schedule != null;
+    }
+
     @Override
     public void executeBehavior(ExecutionContext context) {
         StructuredActivityNode instance = (StructuredActivityNode) this.getInstance();
@@ -74,9 +97,7 @@ public class RuntimeStructuredActivityNode extends CompositeRuntimeAction {
             addResultValue(result, created);
             return;
         }
-        Set<ExecutableNode> handlerBodies = new HashSet<ExecutableNode>();
-        for (ExceptionHandler exceptionHandler : instance.getHandlers())
-            handlerBodies.add(exceptionHandler.getHandlerBody());
+        Set<ExecutableNode> handlerBodies = getHandlerBodies(instance);
         context.newScope(instance);
         try {
             List<Variable> variables = instance.getVariables();
@@ -89,17 +110,8 @@ public class RuntimeStructuredActivityNode extends CompositeRuntimeAction {
                 if (inputVar != null)
                     context.setVariableValue(inputVar, getRuntimeObjectNode(inputPin).consumeValue());
             }
-            List<ActivityNode> children = MDDUtil.filterByClass(instance.getNodes(), Literals.ACTION);
-            int toExecute = children.size();
-            do {
-                for (ActivityNode each : children) {
-                    Action subAction = (Action) each;
-                    RuntimeAction runtimeAction = this.getRuntimeAction(subAction);
-                    // skip handler bodies from normal subaction execution
-                    if (!handlerBodies.contains(runtimeAction.getInstance()))
-                        toExecute -= this.executeContainedAction(runtimeAction, context);
-                }
-            } while (toExecute > 0);
+            if (schedule == null || !executeSchedule(context))
+                interpret(instance, handlerBodies, context);
             if (instance.isMustIsolate())
                 context.saveContext(true);
         } catch (RuntimeRaisedException rre) {
@@ -118,4 +130,42 @@ public class RuntimeStructuredActivityNode extends CompositeRuntimeAction {
             context.dropScope();
         }
     }
+
+    /**
+     * Executes the sub actions in the order computed at compilation time.
+     * Returns <code>false</code> if some action is found not to be ready when
+     * its turn comes, so the remaining actions need to be interpreted.
+     */
+    private boolean executeSchedule(ExecutionContext context) {
+        for (RuntimeAction runtimeAction : schedule) {
+            if (runtimeAction.getState() != RuntimeActionState.READY)
+                return false;
+            runtimeAction.execute(context);
+        }
+        return true;
+    }
+
+    private void interpret(StructuredActivityNode instance, Set<ExecutableNode> handlerBodies, ExecutionContext context) {
+        List<ActivityNode> children = MDDUtil.filterByClass(instance.getNodes(), Literals.ACTION);
+        int toExecute = 0;
+        for (ActivityNode each : children)
+            if (!this.getRuntimeAction((Action) each).isComplete())
+                toExecute++;
+        while (toExecute > 0) {
+            for (ActivityNode each : children) {
+                Action subAction = (Action) each;
+                RuntimeAction runtimeAction = this.getRuntimeAction(subAction);
+                // skip handler bodies from normal subaction execution
+                if (!handlerBodies.contains(runtimeAction.getInstance()))
+                    toExecute -= this.executeContainedAction(runtimeAction, context);
+            }
+        }
+    }
+
+    private Set<ExecutableNode> getHandlerBodies(StructuredActivityNode instance) {
+        Set<ExecutableNode> handlerBodies = new HashSet<ExecutableNode>();
+        for (ExceptionHandler exceptionHandler : instance.getHandlers())
+            handlerBodies.add(exceptionHandler.getHandlerBody());
+        return handlerBodies;
+    }
 }
\ No newline at end of file
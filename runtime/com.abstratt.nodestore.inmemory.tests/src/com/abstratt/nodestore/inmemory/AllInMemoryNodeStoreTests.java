@@ -0,0 +1,15 @@
+package com.abstratt.nodestore.inmemory;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class AllInMemoryNodeStoreTests {
+    public static Test suite() {
+        TestSuite suite = new TestSuite(AllInMemoryNodeStoreTests.class.getName());
+        suite.addTest(BinarySnapshotTests.suite());
+        suite.addTest(CopyOnWriteMapTests.suite());
+        suite.addTest(CopyOnWriteSetTests.suite());
+        return suite;
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.abstratt.nodestore.inmemory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.abstratt.nodestore.BasicNode;
+import com.abstratt.nodestore.INode;
+import com.abstratt.nodestore.INodeKey;
+import com.abstratt.nodestore.IntegerKey;
+import com.abstratt.nodestore.NodeReference;
+import com.google.gson.Gson;
+
+public class BinarySnapshotTests extends TestCase {
+
+    private static final Gson GSON = InMemoryNodeStore.SNAPSHOT_GSON;
+
+    public static Test suite() {
+        return new TestSuite(BinarySnapshotTests.class);
+    }
+
+    public BinarySnapshotTests(String name) {
+        super(name);
+    }
+
+    public void testRoundTrip() throws IOException {
+        Map<String, Object> values = newValues();
+        values.put("null", null);
+        BasicNode node = new BasicNode("mypackage.MyClass1", new IntegerKey(1L));
+        node.setProperties(values);
+        Map<String, Collection<NodeReference>> related = newRelated();
+        node.setRelated(related);
+        BasicNode child = new BasicNode("mypackage.MyStruct", (INodeKey) null);
+        child.setProperties(Collections.<String, Object> singletonMap("string", "child"));
+        node.setChildren(Collections.<String, Collection<INode>> singletonMap("parts", Arrays.<INode> asList(child)));
+        BasicNode empty = new BasicNode("mypackage.MyClass1", new IntegerKey(2L));
+
+        BinarySnapshot.Contents read = roundTrip(new BinarySnapshot.Contents("mypackage.MyClass1", 2, Arrays.<INode> asList(node, empty)));
+        TestCase.assertEquals("mypackage.MyClass1", read.entityName);
+        TestCase.assertEquals(2, read.keys);
+        TestCase.assertEquals(2, read.nodes.size());
+        INode readNode = read.nodes.iterator().next();
+        TestCase.assertEquals(node.getKey(), readNode.getKey());
+        TestCase.assertEquals(node.getStoreName(), readNode.getStoreName());
+        Map<String, Object> readValues = readNode.getProperties();
+        TestCase.assertEquals(values.keySet(), readValues.keySet());
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            Object expected = asInJson(entry.getValue());
+            TestCase.assertEquals(entry.getKey(), expected, readValues.get(entry.getKey()));
+            if (expected != null)
+                // read back with the same type as from JSON
+                TestCase.assertEquals(entry.getKey(), expected.getClass(), readValues.get(entry.getKey()).getClass());
+        }
+        TestCase.assertEquals(Double.valueOf(Long.MIN_VALUE), readValues.get("long"));
+        TestCase.assertEquals(Double.valueOf(Integer.MAX_VALUE), readValues.get("integer"));
+        TestCase.assertEquals("1969-07-20", readValues.get("localDate"));
+        TestCase.assertEquals(related.keySet(), readNode.getRelated().keySet());
+        for (Map.Entry<String, Collection<NodeReference>> entry : related.entrySet())
+            TestCase.assertEquals(entry.getKey(), entry.getValue(), readNode.getRelated().get(entry.getKey()));
+        Collection<INode> readChildren = readNode.getChildren().get("parts");
+        TestCase.assertEquals(1, readChildren.size());
+        INode readChild = readChildren.iterator().next();
+        TestCase.assertNull(readChild.getKey());
+        TestCase.assertEquals("mypackage.MyStruct", readChild.getStoreName());
+        TestCase.assertEquals("child", readChild.getProperties().get("string"));
+        INode readEmpty = read.nodes.toArray(new INode[0])[1];
+        TestCase.assertEquals(empty.getKey(), readEmpty.getKey());
+        TestCase.assertTrue(readEmpty.getProperties().isEmpty());
+        TestCase.assertTrue(readEmpty.getRelated().isEmpty());
+        TestCase.assertTrue(readEmpty.getChildren().isEmpty());
+    }
+
+    public void testSameValuesAsJson() throws IOException {
+        BasicNode node = new BasicNode("mypackage.MyClass1", new IntegerKey(1L));
+        node.setProperties(newValues());
+        node.setRelated(newRelated());
+        BasicNode other = new BasicNode("mypackage.MyClass1", new IntegerKey(3L));
+        other.setProperties(Collections.<String, Object> singletonMap("long", 5L));
+        InMemoryNodeStore store = new InMemoryNodeStore(new BinarySnapshot.Contents("mypackage.MyClass1", 3, Arrays.<INode> asList(node, other)));
+
+        File binaryFile = File.createTempFile("snapshot", ".bin");
+        File jsonFile = File.createTempFile("snapshot", ".json");
+        try {
+            store.writeSnapshot(binaryFile, true);
+            store.writeSnapshot(jsonFile, false);
+            TestCase.assertTrue(BinarySnapshot.isBinary(binaryFile));
+            TestCase.assertFalse(BinarySnapshot.isBinary(jsonFile));
+            InMemoryNodeStore fromBinary = InMemoryNodeStore.readSnapshot(binaryFile);
+            InMemoryNodeStore fromJson = InMemoryNodeStore.readSnapshot(jsonFile);
+            TestCase.assertEquals(fromJson.getNodeKeys(), fromBinary.getNodeKeys());
+            for (INodeKey key : fromJson.getNodeKeys()) {
+                INode binaryNode = fromBinary.getNode(key);
+                INode jsonNode = fromJson.getNode(key);
+                Set<String> propertyNames = new HashSet<String>(jsonNode.getProperties().keySet());
+                propertyNames.addAll(binaryNode.getProperties().keySet());
+                for (String propertyName : propertyNames) {
+                    Object jsonValue = jsonNode.getProperties().get(propertyName);
+                    Object binaryValue = binaryNode.getProperties().get(propertyName);
+                    TestCase.assertEquals(propertyName, jsonValue, binaryValue);
+                    if (jsonValue != null)
+                        TestCase.assertEquals(propertyName, jsonValue.getClass(), binaryValue.getClass());
+                }
+                TestCase.assertEquals(jsonNode.getRelated(), binaryNode.getRelated());
+            }
+        } finally {
+            TestCase.assertTrue(binaryFile.delete());
+            TestCase.assertTrue(jsonFile.delete());
+        }
+    }
+
+    public void testJsonFallback() throws IOException {
+        BasicNode node = new BasicNode("mypackage.MyClass1", new IntegerKey(1L));
+        node.setProperties(Collections.<String, Object> singletonMap("list", Arrays.asList("a", "b")));
+        BinarySnapshot.Contents read = roundTrip(new BinarySnapshot.Contents("mypackage.MyClass1", 1, Arrays.<INode> asList(node)));
+        TestCase.assertEquals(Arrays.asList("a", "b"), read.nodes.iterator().next().getProperties().get("list"));
+    }
+
+    public void testEmpty() throws IOException {
+        BinarySnapshot.Contents read = roundTrip(new BinarySnapshot.Contents("mypackage.MyClass1", 0, Collections.<INode> emptyList()));
+        TestCase.assertEquals("mypackage.MyClass1", read.entityName);
+        TestCase.assertTrue(read.nodes.isEmpty());
+    }
+
+    public void testTruncated() throws IOException {
+        BasicNode node = new BasicNode("mypackage.MyClass1", new IntegerKey(1L));
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "foo"));
+        node.setRelated(Collections.<String, Collection<NodeReference>> singletonMap("other",
+                Arrays.asList(new NodeReference("mypackage.MyClass2", new IntegerKey(2L)))));
+        File file = File.createTempFile("snapshot", ".bin");
+        try {
+            BinarySnapshot.write(file, new BinarySnapshot.Contents("mypackage.MyClass1", 1, Arrays.<INode> asList(node)), GSON);
+            long length = file.length();
+            // every byte is needed
+            for (long truncated = length - 1; truncated >= 4; truncated--) {
+                try (RandomAccessFile toTruncate = new RandomAccessFile(file, "rw")) {
+                    toTruncate.setLength(truncated);
+                }
+                TestCase.assertTrue(BinarySnapshot.isBinary(file));
+                assertCorrupt(file);
+            }
+        } finally {
+            TestCase.assertTrue(file.delete());
+        }
+    }
+
+    public void testCorrupt() throws IOException {
+        File file = File.createTempFile("snapshot", ".bin");
+        try {
+            // not a binary snapshot
+            Files.write(file.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+            TestCase.assertFalse(BinarySnapshot.isBinary(file));
+            assertCorrupt(file);
+            // unsupported version
+            Files.write(file.toPath(), snapshotBytes(2));
+            assertCorrupt(file);
+            // a dictionary larger than the file
+            Files.write(file.toPath(), snapshotBytes(1, 0xFF, 0xFF, 0xFF, 0xFF, 0x07));
+            assertCorrupt(file);
+            // a name not in the dictionary
+            Files.write(file.toPath(), snapshotBytes(1, 0, 5, 0, 0));
+            assertCorrupt(file);
+            // an unknown value tag: one node, with key 1, one property named
+            // "a", tagged 99
+            Files.write(file.toPath(), snapshotBytes(1, 1, 1, 'a', 1, 1, 1, 3, 1, 1, 1, 99, 0, 0));
+            assertCorrupt(file);
+        } finally {
+            TestCase.assertTrue(file.delete());
+        }
+    }
+
+    private static Map<String, Object> newValues() {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        values.put("string", "caf\u00e9");
+        values.put("emptyString", "");
+        values.put("long", Long.MIN_VALUE);
+        values.put("negativeLong", -42L);
+        values.put("integer", Integer.MAX_VALUE);
+        values.put("negativeInteger", -7);
+        values.put("double", -1.5d);
+        values.put("true", true);
+        values.put("false", false);
+        values.put("localDate", LocalDate.of(1969, 7, 20));
+        values.put("localTime", LocalTime.of(23, 59, 59, 999999999));
+        values.put("localDateTime", LocalDateTime.of(2001, 2, 3, 4, 5, 6, 7));
+        values.put("date", new Date(-86400000L));
+        return values;
+    }
+
+    private static Map<String, Collection<NodeReference>> newRelated() {
+        Map<String, Collection<NodeReference>> related = new LinkedHashMap<String, Collection<NodeReference>>();
+        related.put("single", Arrays.asList(new NodeReference("mypackage.MyClass2", new IntegerKey(3L))));
+        related.put("many", Arrays.asList(new NodeReference("mypackage.MyClass1", new IntegerKey(1L)),
+                new NodeReference("mypackage.MyClass2", new IntegerKey(4L))));
+        related.put("none", Collections.<NodeReference> emptyList());
+        return related;
+    }
+
+    /**
+     * Returns the given value as read back from a JSON snapshot.
+     */
+    private static Object asInJson(Object value) {
+        return value == null ? null : GSON.fromJson(GSON.toJson(value), Object.class);
+    }
+
+    private static byte[] snapshotBytes(int... contents) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write('K');
+        bytes.write('N');
+        bytes.write('S');
+        bytes.write('B');
+        for (int current : contents)
+            bytes.write(current);
+        return bytes.toByteArray();
+    }
+
+    private static void assertCorrupt(File file) {
+        try {
+            BinarySnapshot.read(file, GSON);
+            TestCase.fail("Should have failed reading " + file.length() + " bytes");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static BinarySnapshot.Contents roundTrip(BinarySnapshot.Contents contents) throws IOException {
+        File file = File.createTempFile("snapshot", ".bin");
+        try {
+            BinarySnapshot.write(file, contents, GSON);
+            TestCase.assertTrue(BinarySnapshot.isBinary(file));
+            return BinarySnapshot.read(file, GSON);
+        } finally {
+            // nothing holds on to the file once read
+            TestCase.assertTrue(file.delete());
+        }
+    }
+}
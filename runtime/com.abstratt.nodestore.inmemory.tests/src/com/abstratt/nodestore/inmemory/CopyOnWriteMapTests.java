@@ -0,0 +1,103 @@
+package com.abstratt.nodestore.inmemory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class CopyOnWriteMapTests extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(CopyOnWriteMapTests.class);
+    }
+
+    public CopyOnWriteMapTests(String name) {
+        super(name);
+    }
+
+    public void testChangesKeptApart() {
+        Map<String, Integer> base = newBase();
+        Map<String, Integer> copy = new CopyOnWriteMap<>(base);
+        TestCase.assertEquals(base, copy);
+        TestCase.assertEquals(Integer.valueOf(1), copy.put("a", 10));
+        TestCase.assertEquals(Integer.valueOf(2), copy.remove("b"));
+        TestCase.assertNull(copy.put("d", 4));
+        TestCase.assertNull(copy.remove("e"));
+        TestCase.assertEquals(Integer.valueOf(10), copy.get("a"));
+        TestCase.assertFalse(copy.containsKey("b"));
+        TestCase.assertNull(copy.get("b"));
+        TestCase.assertEquals(Integer.valueOf(4), copy.get("d"));
+        TestCase.assertEquals(3, copy.size());
+        // the base map is untouched
+        TestCase.assertEquals(newBase(), base);
+    }
+
+    public void testIterationOrder() {
+        Map<String, Integer> copy = new CopyOnWriteMap<>(newBase());
+        copy.put("d", 4);
+        copy.put("b", 20);
+        copy.remove("a");
+        // changed keys keep their position, added ones come last
+        TestCase.assertEquals(Arrays.asList("b", "c", "d"), new ArrayList<>(copy.keySet()));
+        TestCase.assertEquals(Arrays.asList(20, 3, 4), new ArrayList<>(copy.values()));
+        TestCase.assertEquals(3, copy.entrySet().size());
+    }
+
+    public void testRemoveAndPutBack() {
+        Map<String, Integer> copy = new CopyOnWriteMap<>(newBase());
+        copy.remove("a");
+        copy.put("a", 10);
+        copy.put("d", 4);
+        copy.remove("d");
+        TestCase.assertEquals(3, copy.size());
+        TestCase.assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(copy.keySet()));
+        TestCase.assertEquals(Integer.valueOf(10), copy.get("a"));
+        TestCase.assertFalse(copy.containsKey("d"));
+    }
+
+    public void testLayers() {
+        Map<String, Integer> base = newBase();
+        CopyOnWriteMap<String, Integer> first = new CopyOnWriteMap<>(base);
+        first.put("a", 10);
+        first.remove("c");
+        CopyOnWriteMap<String, Integer> second = new CopyOnWriteMap<>(first);
+        second.put("c", 30);
+        second.remove("a");
+        TestCase.assertEquals(1, first.getLayers());
+        TestCase.assertEquals(2, second.getLayers());
+        TestCase.assertTrue(first.isChanged("a"));
+        TestCase.assertFalse(second.isChanged("a"));
+        TestCase.assertTrue(second.isChanged("c"));
+        Map<String, Integer> expected = new LinkedHashMap<>();
+        expected.put("b", 2);
+        expected.put("c", 30);
+        TestCase.assertEquals(expected, second);
+        TestCase.assertEquals(Arrays.asList("b", "c"), new ArrayList<>(second.keySet()));
+        // lower layers are untouched
+        TestCase.assertEquals(Arrays.asList("a", "b"), new ArrayList<>(first.keySet()));
+        TestCase.assertEquals(newBase(), base);
+    }
+
+    public void testNullValues() {
+        Map<String, Integer> copy = new CopyOnWriteMap<>(newBase());
+        try {
+            copy.put("a", null);
+            TestCase.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        TestCase.assertEquals(Integer.valueOf(1), copy.get("a"));
+    }
+
+    private static Map<String, Integer> newBase() {
+        Map<String, Integer> base = new LinkedHashMap<>();
+        base.put("a", 1);
+        base.put("b", 2);
+        base.put("c", 3);
+        return base;
+    }
+}
@@ -0,0 +1,62 @@
+package com.abstratt.nodestore.inmemory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class CopyOnWriteSetTests extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(CopyOnWriteSetTests.class);
+    }
+
+    public CopyOnWriteSetTests(String name) {
+        super(name);
+    }
+
+    public void testChangesKeptApart() {
+        Set<String> base = newBase();
+        Set<String> copy = new CopyOnWriteSet<>(base);
+        TestCase.assertEquals(base, copy);
+        TestCase.assertFalse(copy.add("a"));
+        TestCase.assertTrue(copy.add("d"));
+        TestCase.assertTrue(copy.remove("b"));
+        TestCase.assertFalse(copy.remove("b"));
+        TestCase.assertFalse(copy.remove("e"));
+        TestCase.assertEquals(3, copy.size());
+        TestCase.assertTrue(copy.contains("d"));
+        TestCase.assertFalse(copy.contains("b"));
+        TestCase.assertEquals(Arrays.asList("a", "c", "d"), new ArrayList<>(copy));
+        // the base set is untouched
+        TestCase.assertEquals(newBase(), base);
+    }
+
+    public void testRemoveAndAddBack() {
+        Set<String> copy = new CopyOnWriteSet<>(newBase());
+        TestCase.assertTrue(copy.remove("a"));
+        TestCase.assertTrue(copy.add("a"));
+        TestCase.assertTrue(copy.add("d"));
+        TestCase.assertTrue(copy.remove("d"));
+        TestCase.assertEquals(3, copy.size());
+        TestCase.assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(copy));
+    }
+
+    public void testLayers() {
+        Set<String> first = new CopyOnWriteSet<>(newBase());
+        first.remove("a");
+        Set<String> second = new CopyOnWriteSet<>(first);
+        second.add("a");
+        second.remove("c");
+        TestCase.assertEquals(Arrays.asList("b", "a"), new ArrayList<>(second));
+        TestCase.assertEquals(Arrays.asList("b", "c"), new ArrayList<>(first));
+    }
+
+    private static Set<String> newBase() {
+        return new LinkedHashSet<>(Arrays.asList("a", "b", "c"));
+    }
+}
@@ -0,0 +1,392 @@
+package com.abstratt.nodestore.inmemory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.abstratt.nodestore.BasicNode;
+import com.abstratt.nodestore.INode;
+import com.abstratt.nodestore.INodeKey;
+import com.abstratt.nodestore.IntegerKey;
+import com.abstratt.nodestore.NodeReference;
+import com.google.gson.Gson;
+
+/**
+ * A compact binary encoding for store snapshots. Snapshots in this format
+ * start with a header, followed by a dictionary holding every property,
+ * relationship and store name used, then the nodes. Names are written as
+ * indexes into the dictionary, and keys and numbers as variable-length
+ * integers. Property values are written with a tag for their type.
+ *
+ * Values are read back as a JSON snapshot (or the journal) would give them:
+ * numbers as doubles, and dates and times as strings. That way, stores hold
+ * the same values whatever the format their snapshot was written in.
+ *
+ * Values of types not known here are written as JSON.
+ */
+class BinarySnapshot {
+	private static final byte[] MAGIC = { 'K', 'N', 'S', 'B' };
+
+	private static final int VERSION = 1;
+
+	private static final int NULL = 0;
+	private static final int STRING = 1;
+	private static final int LONG = 2;
+	private static final int INTEGER = 3;
+	private static final int DOUBLE = 4;
+	private static final int TRUE = 5;
+	private static final int FALSE = 6;
+	private static final int LOCAL_DATE = 7;
+	private static final int LOCAL_TIME = 8;
+	private static final int LOCAL_DATE_TIME = 9;
+	private static final int DATE = 10;
+	private static final int JSON = 11;
+
+	/**
+	 * The contents of a snapshot.
+	 */
+	static class Contents {
+		final String entityName;
+		final long keys;
+		final Collection<INode> nodes;
+
+		Contents(String entityName, long keys, Collection<INode> nodes) {
+			this.entityName = entityName;
+			this.keys = keys;
+			this.nodes = nodes;
+		}
+	}
+
+	/**
+	 * Returns whether the given file holds a snapshot in this format.
+	 */
+	static boolean isBinary(File file) throws IOException {
+		if (file.length() < MAGIC.length)
+			return false;
+		byte[] header = new byte[MAGIC.length];
+		try (InputStream in = new FileInputStream(file)) {
+			return in.read(header) == header.length && Arrays.equals(MAGIC, header);
+		}
+	}
+
+	static void write(File file, Contents contents, Gson gson) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			new Writer(out, gson).write(contents);
+		}
+	}
+
+	/**
+	 * Reads the snapshot in the given file. Fails with an
+	 * {@link IOException} if the file is truncated or corrupt.
+	 */
+	static Contents read(File file, Gson gson) throws IOException {
+		// not mapped, as a mapped file cannot be replaced or deleted on some
+		// platforms until the mapping is garbage collected
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		try {
+			return new Reader(buffer, gson).read(file);
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt snapshot: " + file, e);
+		}
+	}
+
+	private static class Writer {
+		private final DataOutputStream out;
+		private final Gson gson;
+		private final Map<String, Integer> dictionary = new LinkedHashMap<>();
+
+		Writer(DataOutputStream out, Gson gson) {
+			this.out = out;
+			this.gson = gson;
+		}
+
+		void write(Contents contents) throws IOException {
+			intern(contents.entityName);
+			contents.nodes.forEach(it -> collectNames(it));
+			out.write(MAGIC);
+			writeVarLong(VERSION);
+			writeVarLong(dictionary.size());
+			for (String name : dictionary.keySet())
+				writeString(name);
+			writeName(contents.entityName);
+			writeVarLong(contents.keys);
+			writeVarLong(contents.nodes.size());
+			for (INode node : contents.nodes)
+				writeNode(node);
+		}
+
+		private void intern(String name) {
+			if (name != null)
+				dictionary.computeIfAbsent(name, it -> dictionary.size());
+		}
+
+		private void collectNames(INode node) {
+			intern(node.getStoreName());
+			node.getProperties(true).keySet().forEach(it -> intern(it));
+			node.getRelated().forEach((relationship, references) -> {
+				intern(relationship);
+				references.forEach(it -> intern(it.getStoreName()));
+			});
+			node.getChildren().forEach((role, children) -> {
+				intern(role);
+				children.forEach(it -> collectNames(it));
+			});
+		}
+
+		private void writeNode(INode node) throws IOException {
+			writeKey(node.getKey());
+			writeName(node.getStoreName());
+			Map<String, Object> properties = node.getProperties(true);
+			writeVarLong(properties.size());
+			for (Map.Entry<String, Object> property : properties.entrySet()) {
+				writeName(property.getKey());
+				writeValue(property.getValue());
+			}
+			Map<String, Collection<NodeReference>> related = node.getRelated();
+			writeVarLong(related.size());
+			for (Map.Entry<String, Collection<NodeReference>> relationship : related.entrySet()) {
+				writeName(relationship.getKey());
+				writeVarLong(relationship.getValue().size());
+				for (NodeReference reference : relationship.getValue()) {
+					writeName(reference.getStoreName());
+					writeKey(reference.getKey());
+				}
+			}
+			Map<String, Collection<INode>> children = node.getChildren();
+			writeVarLong(children.size());
+			for (Map.Entry<String, Collection<INode>> role : children.entrySet()) {
+				writeName(role.getKey());
+				writeVarLong(role.getValue().size());
+				for (INode child : role.getValue())
+					writeNode(child);
+			}
+		}
+
+		private void writeValue(Object value) throws IOException {
+			if (value == null) {
+				out.write(NULL);
+			} else if (value instanceof String) {
+				out.write(STRING);
+				writeString((String) value);
+			} else if (value instanceof Long) {
+				out.write(LONG);
+				writeVarLong(zigZag((Long) value));
+			} else if (value instanceof Integer) {
+				out.write(INTEGER);
+				writeVarLong(zigZag((Integer) value));
+			} else if (value instanceof Double) {
+				out.write(DOUBLE);
+				out.writeDouble((Double) value);
+			} else if (value instanceof Boolean) {
+				out.write(((Boolean) value) ? TRUE : FALSE);
+			} else if (value instanceof LocalDate) {
+				out.write(LOCAL_DATE);
+				writeVarLong(zigZag(((LocalDate) value).toEpochDay()));
+			} else if (value instanceof LocalTime) {
+				out.write(LOCAL_TIME);
+				writeVarLong(((LocalTime) value).toNanoOfDay());
+			} else if (value instanceof LocalDateTime) {
+				out.write(LOCAL_DATE_TIME);
+				writeVarLong(zigZag(((LocalDateTime) value).toLocalDate().toEpochDay()));
+				writeVarLong(((LocalDateTime) value).toLocalTime().toNanoOfDay());
+			} else if (value instanceof Date) {
+				out.write(DATE);
+				writeVarLong(zigZag(((Date) value).getTime()));
+			} else {
+				out.write(JSON);
+				writeString(gson.toJson(value));
+			}
+		}
+
+		private void writeKey(INodeKey key) throws IOException {
+			// 0 means no key
+			writeVarLong(key == null ? 0 : zigZag(((IntegerKey) key).getValue()) + 1);
+		}
+
+		private void writeName(String name) throws IOException {
+			// 0 means no name
+			writeVarLong(name == null ? 0 : dictionary.get(name) + 1);
+		}
+
+		private void writeString(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(bytes.length);
+			out.write(bytes);
+		}
+
+		private void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				out.write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			out.write((int) value);
+		}
+
+		private static long zigZag(long value) {
+			return (value << 1) ^ (value >> 63);
+		}
+	}
+
+	private static class Reader {
+		private final ByteBuffer in;
+		private final Gson gson;
+		private String[] dictionary;
+
+		Reader(ByteBuffer in, Gson gson) {
+			this.in = in;
+			this.gson = gson;
+		}
+
+		Contents read(File file) throws IOException {
+			byte[] header = new byte[MAGIC.length];
+			in.get(header);
+			if (!Arrays.equals(MAGIC, header))
+				throw new IOException("Not a binary snapshot: " + file);
+			long version = readVarLong();
+			if (version != VERSION)
+				throw new IOException("Unsupported snapshot version " + version + ": " + file);
+			dictionary = new String[readCount()];
+			for (int i = 0; i < dictionary.length; i++)
+				dictionary[i] = readString();
+			String entityName = readName();
+			long keys = readVarLong();
+			int nodeCount = readCount();
+			List<INode> nodes = new ArrayList<>(nodeCount);
+			for (int i = 0; i < nodeCount; i++)
+				nodes.add(readNode());
+			return new Contents(entityName, keys, nodes);
+		}
+
+		private INode readNode() throws IOException {
+			INodeKey key = readKey();
+			BasicNode node = new BasicNode(readName(), key);
+			int propertyCount = readCount();
+			Map<String, Object> properties = new LinkedHashMap<>(propertyCount * 2);
+			for (int i = 0; i < propertyCount; i++)
+				properties.put(readName(), readValue());
+			node.setProperties(properties);
+			int relationshipCount = readCount();
+			Map<String, Collection<NodeReference>> related = new LinkedHashMap<>(relationshipCount * 2);
+			for (int i = 0; i < relationshipCount; i++) {
+				String relationship = readName();
+				int referenceCount = readCount();
+				List<NodeReference> references = new ArrayList<>(referenceCount);
+				for (int j = 0; j < referenceCount; j++)
+					references.add(new NodeReference(readName(), readKey()));
+				related.put(relationship, references);
+			}
+			node.setRelated(related);
+			int roleCount = readCount();
+			Map<String, Collection<INode>> children = new LinkedHashMap<>(roleCount * 2);
+			for (int i = 0; i < roleCount; i++) {
+				String role = readName();
+				int childCount = readCount();
+				List<INode> roleChildren = new ArrayList<>(childCount);
+				for (int j = 0; j < childCount; j++)
+					roleChildren.add(readNode());
+				children.put(role, roleChildren);
+			}
+			node.setChildren(children);
+			return node;
+		}
+
+		private Object readValue() throws IOException {
+			int tag = in.get();
+			switch (tag) {
+			case NULL:
+				return null;
+			case STRING:
+				return readString();
+			case LONG:
+				return (double) unZigZag(readVarLong());
+			case INTEGER:
+				return (double) (int) unZigZag(readVarLong());
+			case DOUBLE:
+				return in.getDouble();
+			case TRUE:
+				return true;
+			case FALSE:
+				return false;
+			case LOCAL_DATE:
+				return asJsonString(LocalDate.ofEpochDay(unZigZag(readVarLong())));
+			case LOCAL_TIME:
+				return asJsonString(LocalTime.ofNanoOfDay(readVarLong()));
+			case LOCAL_DATE_TIME:
+				LocalDate date = LocalDate.ofEpochDay(unZigZag(readVarLong()));
+				return asJsonString(LocalDateTime.of(date, LocalTime.ofNanoOfDay(readVarLong())));
+			case DATE:
+				return asJsonString(new Date(unZigZag(readVarLong())));
+			case JSON:
+				return gson.fromJson(readString(), Object.class);
+			}
+			throw new IOException("Unknown value tag: " + tag);
+		}
+
+		/**
+		 * Returns the string the given value is written as in JSON.
+		 */
+		private String asJsonString(Object value) {
+			return gson.toJsonTree(value).getAsString();
+		}
+
+		private INodeKey readKey() {
+			long encoded = readVarLong();
+			return encoded == 0 ? null : new IntegerKey(unZigZag(encoded - 1));
+		}
+
+		private String readName() {
+			int index = (int) readVarLong();
+			return index == 0 ? null : dictionary[index - 1];
+		}
+
+		private String readString() throws IOException {
+			byte[] bytes = new byte[readCount()];
+			in.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Reads a count of elements (or bytes) that follow. As each takes at
+		 * least a byte, counts beyond what is left are rejected, so corrupt
+		 * counts do not cause huge allocations.
+		 */
+		private int readCount() throws IOException {
+			long count = readVarLong();
+			if (count < 0 || count > in.remaining())
+				throw new IOException("Invalid count: " + count);
+			return (int) count;
+		}
+
+		private long readVarLong() {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				byte current = in.get();
+				value |= (long) (current & 0x7F) << shift;
+				if ((current & 0x80) == 0)
+					return value;
+			}
+			throw new IllegalStateException("Variable-length integer too long");
+		}
+
+		private static long unZigZag(long value) {
+			return (value >>> 1) ^ -(value & 1);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.abstratt.nodestore.inmemory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The committed state of the stores in a catalog, shared by all catalogs (and
+ * transactions) using the same files.
+ *
+ * Every commit produces a new version of the stores it changed. Older
+ * versions are kept (see {@link InMemoryNodeStore#asOf(long)}) for as long as
+ * a transaction that started before they were replaced is still active, so
+ * each transaction keeps reading the state as it was when it started (see
+ * {@link InMemoryNodeStore#forgetPrevious()}).
+ * Reading never requires holding the lock commits hold.
+ */
+class CommittedState {
+	/**
+	 * The latest committed version of each store loaded so far.
+	 */
+	private final Map<String, InMemoryNodeStore> latest = new ConcurrentHashMap<>();
+
+	/**
+	 * The number of active transactions per snapshot version.
+	 */
+	private final TreeMap<Long, Integer> activeSnapshots = new TreeMap<>();
+
+	private volatile long version;
+
+	InMemoryNodeStore getLatest(String storeName) {
+		return latest.get(storeName);
+	}
+
+	void setLatest(String storeName, InMemoryNodeStore store) {
+		latest.put(storeName, store);
+	}
+
+	long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Starts a new version. Callers must hold this object's lock.
+	 */
+	long nextVersion() {
+		return version + 1;
+	}
+
+	/**
+	 * Makes the given version (as returned by {@link #nextVersion()})
+	 * visible to transactions starting from now on.
+	 */
+	void setVersion(long version) {
+		this.version = version;
+	}
+
+	/**
+	 * Registers a transaction reading the current version, and returns that
+	 * version.
+	 */
+	long openSnapshot() {
+		synchronized (activeSnapshots) {
+			long snapshot = version;
+			activeSnapshots.merge(snapshot, 1, Integer::sum);
+			return snapshot;
+		}
+	}
+
+	void closeSnapshot(long snapshot) {
+		synchronized (activeSnapshots) {
+			activeSnapshots.computeIfPresent(snapshot, (key, count) -> count == 1 ? null : count - 1);
+		}
+	}
+
+	/**
+	 * Drops store versions no active transaction can read anymore.
+	 */
+	void prune() {
+		long oldest;
+		synchronized (activeSnapshots) {
+			oldest = activeSnapshots.isEmpty() ? version : activeSnapshots.firstKey();
+		}
+		latest.values().forEach(it -> it.asOf(oldest).forgetPrevious());
+	}
+}
@@ -0,0 +1,119 @@
+package com.abstratt.nodestore.inmemory;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A map that starts out with the contents of another map, but keeps its own
+ * changes apart, so the other map is never modified. Creating one costs the
+ * same no matter how large the other map is.
+ *
+ * Keys keep their position in the other map, keys added here come last. Null
+ * values are not supported.
+ */
+class CopyOnWriteMap<K, V> extends AbstractMap<K, V> {
+	private final Map<K, V> base;
+
+	/**
+	 * Values put here, either for new keys or replacing values in the base map.
+	 */
+	private final Map<K, V> changed = new LinkedHashMap<>();
+
+	/**
+	 * Keys in the base map removed here.
+	 */
+	private final Set<Object> removed = new HashSet<>();
+
+	private final int layers;
+
+	private int size;
+
+	CopyOnWriteMap(Map<K, V> base) {
+		this.base = base;
+		this.size = base.size();
+		this.layers = base instanceof CopyOnWriteMap ? ((CopyOnWriteMap<K, V>) base).layers + 1 : 1;
+	}
+
+	/**
+	 * Returns how many maps lookups may have to go through, not counting the
+	 * innermost one.
+	 */
+	int getLayers() {
+		return layers;
+	}
+
+	/**
+	 * Returns whether the value for the given key was put in this map (as
+	 * opposed to being shared with the base map).
+	 */
+	boolean isChanged(Object key) {
+		return changed.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public V get(Object key) {
+		V value = changed.get(key);
+		if (value != null || removed.contains(key))
+			return value;
+		return base.get(key);
+	}
+
+	@Override
+	public V put(K key, V value) {
+		Validate.isTrue(value != null);
+		V previous = get(key);
+		changed.put(key, value);
+		removed.remove(key);
+		if (previous == null)
+			size++;
+		return previous;
+	}
+
+	@Override
+	public V remove(Object key) {
+		V previous = get(key);
+		if (previous == null)
+			return null;
+		changed.remove(key);
+		if (base.containsKey(key))
+			removed.add(key);
+		size--;
+		return previous;
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return new AbstractSet<Entry<K, V>>() {
+			@Override
+			public Iterator<Entry<K, V>> iterator() {
+				Stream<Entry<K, V>> kept = base.entrySet().stream().filter(it -> !removed.contains(it.getKey()))
+						.map(it -> new SimpleImmutableEntry<>(it.getKey(), changed.getOrDefault(it.getKey(), it.getValue())));
+				Stream<Entry<K, V>> added = changed.entrySet().stream().filter(it -> !base.containsKey(it.getKey()));
+				return Stream.concat(kept, added).iterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
@@ -0,0 +1,69 @@
+package com.abstratt.nodestore.inmemory;
+
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * A set that starts out with the elements of another set, but keeps its own
+ * changes apart, so the other set is never modified (see
+ * {@link CopyOnWriteMap}).
+ */
+class CopyOnWriteSet<E> extends AbstractSet<E> {
+	private final Set<E> base;
+
+	/**
+	 * Elements added here that are not in the base set.
+	 */
+	private final Set<E> added = new LinkedHashSet<>();
+
+	/**
+	 * Elements in the base set removed here.
+	 */
+	private final Set<Object> removed = new HashSet<>();
+
+	private int size;
+
+	CopyOnWriteSet(Set<E> base) {
+		this.base = base;
+		this.size = base.size();
+	}
+
+	@Override
+	public boolean contains(Object element) {
+		return added.contains(element) || (!removed.contains(element) && base.contains(element));
+	}
+
+	@Override
+	public boolean add(E element) {
+		if (contains(element))
+			return false;
+		if (!removed.remove(element))
+			added.add(element);
+		size++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object element) {
+		if (!contains(element))
+			return false;
+		if (!added.remove(element))
+			removed.add(element);
+		size--;
+		return true;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return Stream.concat(base.stream().filter(it -> !removed.contains(it)), added.stream()).iterator();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+}
@@ -1,25 +1,37 @@
 package com.abstratt.nodestore.inmemory;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
@@ -34,13 +46,17 @@ import com.abstratt.kirra.Entity;
 import com.abstratt.kirra.Relationship;
 import com.abstratt.kirra.Relationship.Style;
 import com.abstratt.kirra.TypeRef;
+import com.abstratt.kirra.TypeRef.TypeKind;
 import com.abstratt.nodestore.BasicNode;
 import com.abstratt.nodestore.INode;
 import com.abstratt.nodestore.INodeKey;
 import com.abstratt.nodestore.INodeStore;
 import com.abstratt.nodestore.INodeStoreCatalog;
 import com.abstratt.nodestore.IntegerKey;
+import com.abstratt.nodestore.NodeOrdering;
 import com.abstratt.nodestore.NodeReference;
+import com.abstratt.nodestore.NodeStoreCalls;
+import com.abstratt.nodestore.NodeStoreConflictException;
 import com.abstratt.nodestore.NodeStoreException;
 import com.abstratt.nodestore.NodeStoreValidationException;
 import com.abstratt.pluginutils.LogUtils;
@@ -58,6 +74,35 @@ import com.google.gson.JsonSerializer;
 import com.google.gson.reflect.TypeToken;
 
 public class InMemoryNodeStore implements INodeStore, Cloneable {
+
+	/**
+	 * The changes made by one commit, as recorded in the journal.
+	 */
+	private static class JournalRecord {
+		List<INode> updated = new ArrayList<>();
+		List<INodeKey> deleted = new ArrayList<>();
+		long keys;
+	}
+
+	/** Kinds of calls recorded with {@link NodeStoreCalls}. */
+	static final String READ_CALL = "memory.read";
+	static final String WRITE_CALL = "memory.write";
+
+	static final Gson SNAPSHOT_GSON = createGson(true);
+
+	private static final Gson JOURNAL_GSON = createGson(false);
+
+	/**
+	 * The format new snapshots are written in, either "json" (the default) or
+	 * "binary". Snapshots in either format can always be read.
+	 */
+	private static final boolean BINARY_SNAPSHOTS = "binary".equals(System.getProperty("nodestore.snapshot.format", "json"));
+
+	/**
+	 * How many layers of changes (see {@link CopyOnWriteMap}) nodes and
+	 * indexes can be read through before they are copied into a single map.
+	 */
+	private static final int MAX_LAYERS = 8;
 	
 	private Map<INodeKey, INode> nodes = new LinkedHashMap<>();
 	
@@ -68,41 +113,184 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 	// transient so it is not serialized
 	private transient boolean dirty;
 
+	/**
+	 * Nodes created or modified since constraints were last validated.
+	 */
+	private transient Set<INodeKey> touched = new LinkedHashSet<>();
+
+	/**
+	 * Nodes created, modified or deleted since the store was last saved.
+	 */
+	private transient Set<INodeKey> unsaved = new LinkedHashSet<>();
+
+	/**
+	 * For each property indexed so far (unique properties, and properties
+	 * used as filter criteria), the nodes holding each value. Properties are
+	 * only indexed on first use.
+	 */
+	private transient Map<String, Map<Object, Set<INodeKey>>> propertyIndex;
+
+	/**
+	 * For each relationship, the nodes referring to each other node. Built on first use.
+	 */
+	private transient Map<String, Map<NodeReference, Set<INodeKey>>> referenceIndex;
+
+	/**
+	 * For each ordering used so far (a property, or null for the key, and a
+	 * direction), the keys of all nodes in that order. Built on first use, and
+	 * dropped whenever nodes change.
+	 */
+	private transient Map<List<Object>, List<INodeKey>> sortIndex;
+
+	/**
+	 * The committed store this store was derived from, if any.
+	 */
+	private transient InMemoryNodeStore origin;
+
+	/**
+	 * Whether this store still shares its nodes with its origin, which
+	 * means no changes were made to it. Committed stores are never changed.
+	 */
+	private transient boolean shared;
+
+	/**
+	 * Nodes that were already copied from the origin, and so can be modified
+	 * in place.
+	 */
+	private transient Set<INodeKey> copied = new HashSet<>();
+
+	/**
+	 * For committed stores, the version that made this the latest state of
+	 * the store (see {@link CommittedState}).
+	 */
+	private transient long version;
+
+	/**
+	 * For committed stores, the state of the store before the commit that
+	 * produced this one, if still needed by any transaction.
+	 */
+	private transient volatile InMemoryNodeStore previous;
+
+	/**
+	 * For committed stores, the nodes the commit that produced this one
+	 * changed. <code>null</code> if not known (stores read from disk).
+	 */
+	private transient Set<INodeKey> written;
+
 	private InMemoryNodeStore(TypeRef typeRef) {
         Validate.isTrue(typeRef != null);
         this.entityName = typeRef;
         this.dirty = false;
 	}
+
+	/**
+	 * Creates a store holding the given snapshot contents.
+	 */
+	InMemoryNodeStore(BinarySnapshot.Contents contents) {
+		this(new TypeRef(contents.entityName, TypeKind.Entity));
+		keys.set(contents.keys);
+		contents.nodes.forEach(it -> nodes.put(it.getKey(), it));
+	}
 	
 	boolean isDirty() {
 		return dirty;
 	}
 
 	static InMemoryNodeStore load(InMemoryNodeStoreCatalog catalog, TypeRef typeRef) {
+		File storePath = catalog.getStorePath(typeRef).getAbsoluteFile();
+		StoreJournal journal = new StoreJournal(storePath);
 		try {
-			File storePath = catalog.getStorePath(typeRef).getAbsoluteFile();
-			LogUtils.debug(InMemoryNodeStoreActivator.BUNDLE_NAME, "Loading data from " + storePath);
-			byte[] contentArray = FileUtils.readFileToByteArray(storePath);
-			ByteArrayInputStream contents = new ByteArrayInputStream(contentArray);
-			InMemoryNodeStore fromJson = getGson().fromJson(new InputStreamReader(contents, StandardCharsets.UTF_8), InMemoryNodeStore.class);
-			if (fromJson == null) {
-				LogUtils.logError(InMemoryNodeStoreActivator.BUNDLE_NAME, "Could not load JSON object from " + storePath, null);
-				throw new IllegalStateException("Could not load store contents for " + typeRef);
+			synchronized (journal.getLock()) {
+				InMemoryNodeStore loaded = read(storePath, journal);
+				if (loaded == null)
+					// no file
+					loaded = new InMemoryNodeStore(typeRef);
+				journal.markKnown();
+				return loaded;
 			}
-			LogUtils.debug(InMemoryNodeStoreActivator.BUNDLE_NAME, "Loaded data from " + storePath);
-			fromJson.clearDirty();
-			return fromJson;
-		} catch (FileNotFoundException e) {
-			// no file
-			return new InMemoryNodeStore(typeRef);
 		} catch (IOException e) {
 			throw new NodeStoreException("Error loading " + typeRef, e);
 		}
-		
 	}
 
-	private static Gson getGson() {
-		GsonBuilder gsonBuilder = new GsonBuilder().setPrettyPrinting().excludeFieldsWithModifiers(Modifier.STATIC, Modifier.TRANSIENT);
+	/**
+	 * Reads the snapshot in the given file, and replays any changes journaled
+	 * since. Returns <code>null</code> if there is no snapshot.
+	 */
+	private static InMemoryNodeStore read(File storePath, StoreJournal journal) throws IOException {
+		if (!storePath.isFile())
+			return null;
+		LogUtils.debug(InMemoryNodeStoreActivator.BUNDLE_NAME, "Loading data from " + storePath);
+		InMemoryNodeStore loaded = readSnapshot(storePath);
+		journal.replay(record -> loaded.replay(JOURNAL_GSON.fromJson(record, JournalRecord.class)));
+		LogUtils.debug(InMemoryNodeStoreActivator.BUNDLE_NAME, "Loaded data from " + storePath);
+		loaded.clearDirty();
+		return loaded;
+	}
+
+	/**
+	 * Reads the snapshot in the given file, in either format.
+	 */
+	static InMemoryNodeStore readSnapshot(File storePath) throws IOException {
+		return BinarySnapshot.isBinary(storePath) ? readBinary(storePath) : readJson(storePath);
+	}
+
+	private static InMemoryNodeStore readJson(File storePath) throws IOException {
+		InMemoryNodeStore fromJson;
+		try (Reader contents = new InputStreamReader(new BufferedInputStream(new FileInputStream(storePath)), StandardCharsets.UTF_8)) {
+			fromJson = SNAPSHOT_GSON.fromJson(contents, InMemoryNodeStore.class);
+		}
+		if (fromJson == null) {
+			LogUtils.logError(InMemoryNodeStoreActivator.BUNDLE_NAME, "Could not load JSON object from " + storePath, null);
+			throw new IllegalStateException("Could not load store contents from " + storePath);
+		}
+		// Gson does not run field initializers
+		fromJson.touched = new LinkedHashSet<>();
+		fromJson.unsaved = new LinkedHashSet<>();
+		fromJson.copied = new HashSet<>();
+		return fromJson;
+	}
+
+	private static InMemoryNodeStore readBinary(File storePath) throws IOException {
+		return new InMemoryNodeStore(BinarySnapshot.read(storePath, SNAPSHOT_GSON));
+	}
+
+	private void replay(JournalRecord record) {
+		record.updated.forEach(it -> nodes.put(it.getKey(), it));
+		record.deleted.forEach(it -> nodes.remove(it));
+		keys.set(Math.max(keys.get(), record.keys));
+	}
+
+	/**
+	 * Folds the journal for the given store file into a new snapshot.
+	 */
+	private static void compact(File storeFile) {
+		StoreJournal journal = new StoreJournal(storeFile);
+		try {
+			synchronized (journal.getLock()) {
+				if (!journal.exists())
+					return;
+				InMemoryNodeStore current = read(storeFile, journal);
+				if (current == null)
+					// store was removed in the meantime
+					return;
+				LogUtils.debug(InMemoryNodeStoreActivator.BUNDLE_NAME, "Compacting " + storeFile);
+				boolean known = journal.isKnown();
+				current.writeSnapshot(storeFile);
+				journal.delete();
+				if (known)
+					// same contents, no need for readers to reload
+					journal.markKnown();
+			}
+		} catch (IOException e) {
+			throw new NodeStoreException("Error compacting " + storeFile, e);
+		}
+	}
+
+	private static Gson createGson(boolean pretty) {
+		GsonBuilder gsonBuilder = new GsonBuilder().excludeFieldsWithModifiers(Modifier.STATIC, Modifier.TRANSIENT);
+		if (pretty)
+			gsonBuilder.setPrettyPrinting();
 		gsonBuilder.registerTypeAdapter(INodeKey.class, new JsonDeserializer<INodeKey>() {
 			@Override
 			public INodeKey deserialize(JsonElement arg0, Type arg1, JsonDeserializationContext arg2)
@@ -128,23 +316,75 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 		return getCatalog().getStorePath(entityName).getAbsoluteFile();
 	}
 	
+	/**
+	 * Saves the changes made to this store. Only the nodes that changed are
+	 * written (to the journal), unless there is no snapshot yet.
+	 */
 	void save() {
 		if (!isDirty())
 			return;
 		TypeRef typeRef = entityName;
 		try {
 			File storeFile = getStoreFile();
-			LogUtils.debug(InMemoryNodeStoreActivator.BUNDLE_NAME, "Saving data to " + storeFile);
-			FileUtils.forceMkdir(storeFile.getParentFile());
-			String asString = getGson().toJson(this);
-			FileUtils.write(storeFile, asString);
+			StoreJournal journal = new StoreJournal(storeFile);
+			synchronized (journal.getLock()) {
+				if (!storeFile.isFile()) {
+					LogUtils.debug(InMemoryNodeStoreActivator.BUNDLE_NAME, "Saving data to " + storeFile);
+					writeSnapshot(storeFile);
+					journal.delete();
+				} else if (!unsaved.isEmpty()) {
+					LogUtils.debug(InMemoryNodeStoreActivator.BUNDLE_NAME, "Journaling " + unsaved.size() + " changes to " + storeFile);
+					journal.append(JOURNAL_GSON.toJson(newJournalRecord()));
+				}
+				journal.markKnown();
+			}
+			unsaved.clear();
 			clearDirty();
 			LogUtils.debug(InMemoryNodeStoreActivator.BUNDLE_NAME, "Saved data to " + storeFile);
+			if (journal.needsCompaction())
+				journal.scheduleCompaction(() -> compact(storeFile));
 		} catch (IOException e) {
 			throw new NodeStoreException("Error saving " + typeRef, e);
 		}
 	}
 
+	private JournalRecord newJournalRecord() {
+		JournalRecord record = new JournalRecord();
+		unsaved.forEach(key -> {
+			INode node = nodes.get(key);
+			if (node == null)
+				record.deleted.add(key);
+			else
+				record.updated.add(node);
+		});
+		record.keys = keys.get();
+		return record;
+	}
+
+	/**
+	 * Writes the entire store to the given file. The file is replaced
+	 * atomically, so readers never see a partially written snapshot, and is
+	 * on disk by the time this returns, so the journal can be deleted.
+	 */
+	private void writeSnapshot(File storeFile) throws IOException {
+		writeSnapshot(storeFile, BINARY_SNAPSHOTS);
+	}
+
+	void writeSnapshot(File storeFile, boolean binary) throws IOException {
+		FileUtils.forceMkdir(storeFile.getParentFile());
+		File tempFile = new File(storeFile.getPath() + ".tmp");
+		if (binary)
+			BinarySnapshot.write(tempFile, new BinarySnapshot.Contents(entityName.getFullName(), keys.get(), nodes.values()), SNAPSHOT_GSON);
+		else
+			try (Writer writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(tempFile)), StandardCharsets.UTF_8)) {
+				SNAPSHOT_GSON.toJson(this, writer);
+			}
+		// or else the move may be persisted before the contents
+		StoreJournal.force(tempFile.toPath());
+		Files.move(tempFile.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		StoreJournal.forceDirectory(storeFile.getAbsoluteFile().getParentFile().toPath());
+	}
+
 	private void clearDirty() {
 		if (dirty)
 			dirty = false;
@@ -157,24 +397,242 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 
 	@Override
 	public INodeKey createNode(INode node) {
+		NodeStoreCalls.record(WRITE_CALL);
 		INodeKey newKey = node.getKey() == null ? generateKey() : node.getKey();
 		Map<String, Object> properties = node.getProperties();
 		getEntity().getProperties().stream().filter(it -> it.isUnique() && it.isAutoGenerated()).forEach(it -> properties.computeIfAbsent(it.getName(), key -> newKey.toString()));
 		node.setProperties(properties);
-		nodes.put(newKey, node.clone());
+		INode created = node.clone();
+		ensurePrivate();
+		INode previous = nodes.put(newKey, created);
+		copied.add(newKey);
+		updateIndexes(newKey, previous, created);
+		touch(newKey);
 		makeDirty();
 		return newKey;
 	}
 
+	private void touch(INodeKey key) {
+		touched.add(key);
+		unsaved.add(key);
+	}
+
+	private void updateIndexes(INodeKey key, INode previous, INode current) {
+		sortIndex = null;
+		if (propertyIndex != null)
+			propertyIndex.forEach((property, index) -> reindexProperty(index, property, key, previous, current));
+		if (referenceIndex != null)
+			updateReferenceIndex(key, getRelated(previous), getRelated(current));
+	}
+
+	/**
+	 * Reindexes the references held by a node. Only relationships whose
+	 * references changed are touched.
+	 */
+	private void updateReferenceIndex(INodeKey key, Map<String, Collection<NodeReference>> previous, Map<String, Collection<NodeReference>> current) {
+		if (referenceIndex == null)
+			return;
+		previous.forEach((relationship, references) -> {
+			if (!references.equals(current.get(relationship)))
+				references.forEach(it -> removeFromIndex(referenceIndex.get(relationship), it, key));
+		});
+		current.forEach((relationship, references) -> {
+			if (!references.equals(previous.get(relationship)))
+				references.forEach(it -> addToIndex(referenceIndex.computeIfAbsent(relationship, k -> new LinkedHashMap<>()), it, key));
+		});
+	}
+
+	private static <V> void addToIndex(Map<V, Set<INodeKey>> index, V value, INodeKey key) {
+		Set<INodeKey> holders = index.get(value);
+		if (holders == null)
+			index.put(value, holders = new LinkedHashSet<>());
+		else
+			holders = getHoldersForUpdate(index, value, holders);
+		holders.add(key);
+	}
+
+	private static <V> void removeFromIndex(Map<V, Set<INodeKey>> index, V value, INodeKey key) {
+		if (index == null)
+			return;
+		Set<INodeKey> holders = index.get(value);
+		if (holders == null || !holders.contains(key))
+			return;
+		if (holders.size() == 1)
+			index.remove(value);
+		else
+			getHoldersForUpdate(index, value, holders).remove(key);
+	}
+
+	/**
+	 * Returns the holders of the given value, ready to be modified. Holders
+	 * still shared with the index the given one was derived from are copied
+	 * first (only their changes are, see {@link CopyOnWriteSet}).
+	 */
+	private static <V> Set<INodeKey> getHoldersForUpdate(Map<V, Set<INodeKey>> index, V value, Set<INodeKey> holders) {
+		if (!(index instanceof CopyOnWriteMap) || ((CopyOnWriteMap<V, Set<INodeKey>>) index).isChanged(value))
+			return holders;
+		Set<INodeKey> copy = new CopyOnWriteSet<>(holders);
+		index.put(value, copy);
+		return copy;
+	}
+
+	private static boolean canDeriveFrom(Map<?, ?> index) {
+		return !(index instanceof CopyOnWriteMap) || ((CopyOnWriteMap<?, ?>) index).getLayers() < MAX_LAYERS;
+	}
+
+	/**
+	 * Returns the store this store can derive its indexes from, which has the
+	 * same nodes except for those in {@link #getChangedKeys(InMemoryNodeStore)}:
+	 * for views, the committed store they were derived from, for committed
+	 * stores, the previous version, if still known.
+	 */
+	private InMemoryNodeStore getIndexBase() {
+		if (origin != null)
+			return origin;
+		return written == null ? null : previous;
+	}
+
+	/**
+	 * Returns the nodes that differ between this store and the given store
+	 * (as returned by {@link #getIndexBase()}).
+	 */
+	private Set<INodeKey> getChangedKeys(InMemoryNodeStore indexBase) {
+		return indexBase == origin ? unsaved : written;
+	}
+
+	private Map<Object, Set<INodeKey>> getPropertyIndex(String property) {
+		if (shared)
+			return origin.getCommittedPropertyIndex(property);
+		if (propertyIndex == null)
+			propertyIndex = new LinkedHashMap<>();
+		Map<Object, Set<INodeKey>> index = propertyIndex.get(property);
+		if (index == null) {
+			InMemoryNodeStore base = getIndexBase();
+			Map<Object, Set<INodeKey>> baseIndex = base == null ? null : base == origin ? base.getCommittedPropertyIndex(property) : base.getCachedPropertyIndex(property);
+			Map<Object, Set<INodeKey>> newIndex;
+			if (baseIndex != null && canDeriveFrom(baseIndex)) {
+				// only the nodes changed since need indexing
+				newIndex = new CopyOnWriteMap<>(baseIndex);
+				getChangedKeys(base).forEach(key -> reindexProperty(newIndex, property, key, base.basicGetNode(key), nodes.get(key)));
+			} else {
+				newIndex = new LinkedHashMap<>();
+				nodes.forEach((key, node) -> reindexProperty(newIndex, property, key, null, node));
+			}
+			propertyIndex.put(property, index = newIndex);
+		}
+		return index;
+	}
+
+	private static void reindexProperty(Map<Object, Set<INodeKey>> index, String property, INodeKey key, INode previous, INode current) {
+		if (previous != null && previous.isPropertySet(property))
+			removeFromIndex(index, previous.getProperties(true).get(property), key);
+		if (current != null && current.isPropertySet(property))
+			addToIndex(index, current.getProperties(true).get(property), key);
+	}
+
+	private synchronized Map<Object, Set<INodeKey>> getCommittedPropertyIndex(String property) {
+		return getPropertyIndex(property);
+	}
+
+	private synchronized Map<Object, Set<INodeKey>> getCachedPropertyIndex(String property) {
+		return propertyIndex == null ? null : propertyIndex.get(property);
+	}
+
+	private Map<String, Map<NodeReference, Set<INodeKey>>> getReferenceIndex() {
+		if (shared)
+			return origin.getCommittedReferenceIndex();
+		if (referenceIndex == null) {
+			InMemoryNodeStore base = getIndexBase();
+			Map<String, Map<NodeReference, Set<INodeKey>>> baseIndex = base == null ? null : base == origin ? base.getCommittedReferenceIndex() : base.getCachedReferenceIndex();
+			referenceIndex = new LinkedHashMap<>();
+			if (baseIndex != null && baseIndex.values().stream().allMatch(InMemoryNodeStore::canDeriveFrom)) {
+				// only the nodes changed since need indexing
+				baseIndex.forEach((relationship, index) -> referenceIndex.put(relationship, new CopyOnWriteMap<>(index)));
+				getChangedKeys(base).forEach(key -> updateReferenceIndex(key, getRelated(base.basicGetNode(key)), getRelated(nodes.get(key))));
+			} else
+				nodes.forEach((key, node) -> updateReferenceIndex(key, Collections.emptyMap(), node.getRelated()));
+		}
+		return referenceIndex;
+	}
+
+	private static Map<String, Collection<NodeReference>> getRelated(INode node) {
+		return node == null ? Collections.emptyMap() : node.getRelated();
+	}
+
+	private synchronized Map<String, Map<NodeReference, Set<INodeKey>>> getCommittedReferenceIndex() {
+		return getReferenceIndex();
+	}
+
+	private synchronized Map<String, Map<NodeReference, Set<INodeKey>>> getCachedReferenceIndex() {
+		return referenceIndex;
+	}
+
+	private List<INodeKey> getSortedKeys(String sortKey, boolean ascending) {
+		if (shared)
+			return origin.getCommittedSortedKeys(sortKey, ascending);
+		if (sortIndex == null)
+			sortIndex = new HashMap<>();
+		return sortIndex.computeIfAbsent(Arrays.asList(sortKey, ascending), it -> {
+			InMemoryNodeStore base = getIndexBase();
+			List<INodeKey> baseKeys = base == null ? null : base == origin ? base.getCommittedSortedKeys(sortKey, ascending) : base.getCachedSortedKeys(sortKey, ascending);
+			if (baseKeys != null) {
+				// only the nodes changed since need sorting
+				Comparator<INodeKey> ordering = sortKey == null ? NodeOrdering.byKey(ascending) : Comparator.comparing(nodes::get, NodeOrdering.byProperty(sortKey, ascending));
+				return mergeSorted(baseKeys, getChangedKeys(base), ordering);
+			}
+			Stream<INodeKey> sorted = sortKey == null ? nodes.keySet().stream().sorted(NodeOrdering.byKey(ascending))
+					: nodes.values().stream().sorted(NodeOrdering.byProperty(sortKey, ascending)).map(node -> node.getKey());
+			return sorted.collect(Collectors.toList());
+		});
+	}
+
+	/**
+	 * Merges the keys of the nodes in this store that changed (which are
+	 * sorted here) into the given sorted keys, which may include changed
+	 * nodes at their former positions.
+	 */
+	private List<INodeKey> mergeSorted(List<INodeKey> sortedKeys, Set<INodeKey> changed, Comparator<INodeKey> ordering) {
+		List<INodeKey> changedKeys = changed.stream().filter(nodes::containsKey).sorted(ordering).collect(Collectors.toList());
+		List<INodeKey> merged = new ArrayList<>(sortedKeys.size() + changedKeys.size());
+		int next = 0;
+		for (INodeKey key : sortedKeys) {
+			if (changed.contains(key))
+				continue;
+			while (next < changedKeys.size() && ordering.compare(changedKeys.get(next), key) < 0)
+				merged.add(changedKeys.get(next++));
+			merged.add(key);
+		}
+		merged.addAll(changedKeys.subList(next, changedKeys.size()));
+		return merged;
+	}
+
+	private synchronized List<INodeKey> getCommittedSortedKeys(String sortKey, boolean ascending) {
+		return getSortedKeys(sortKey, ascending);
+	}
+
+	private synchronized List<INodeKey> getCachedSortedKeys(String sortKey, boolean ascending) {
+		return sortIndex == null ? null : sortIndex.get(Arrays.asList(sortKey, ascending));
+	}
+
+	/**
+	 * Returns the keys of the nodes in this store that refer to the given
+	 * node via the given relationship.
+	 */
+	Set<INodeKey> getReferringKeys(String relationshipName, NodeReference referred) {
+		return getReferenceIndex().getOrDefault(relationshipName, Collections.emptyMap()).getOrDefault(referred, Collections.emptySet());
+	}
+
 	private void makeDirty() {
 		dirty = true;
 	}
 
 	@Override
 	public void deleteNode(INodeKey key) {
+		NodeStoreCalls.record(WRITE_CALL);
 		INode node = basicGetNode(key);
 		if (node == null)
 			return;
+		ensurePrivate();
 		makeDirty();
 		NodeReference thisRef = new NodeReference(getName(), key);
 		
@@ -194,37 +652,36 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 				getCatalog().getStore(entity.getTypeRef()).updateReferences(incomingRelationships, thisRef);
 		});
 		nodes.remove(key);
+		touched.remove(key);
+		unsaved.add(key);
+		updateIndexes(key, node, null);
 	}
 	
 	private void removeOrphans(List<Relationship> relationships, NodeReference removedReference) {
-		List<INode> toDelete = nodes.values().stream().filter(node -> {
-			Map<String, Collection<NodeReference>> related = node.getRelated();
-			return relationships.stream().anyMatch(relationship ->
-				related.getOrDefault(relationship.getName(), Collections.emptyList()).contains(removedReference)
-			);
-		}).collect(Collectors.toList());
-		toDelete.forEach(it -> deleteNode(it.getKey()));
+		Set<INodeKey> toDelete = new LinkedHashSet<>();
+		relationships.forEach(relationship -> toDelete.addAll(getReferringKeys(relationship.getName(), removedReference)));
+		toDelete.forEach(it -> deleteNode(it));
 	}	
 
 	private void updateReferences(List<Relationship> relationships, NodeReference removedReference) {
 		makeDirty();
-		nodes.values().forEach(node -> {
-			Map<String, Collection<NodeReference>> related = node.getRelated();
-			relationships.forEach(relationship -> {
-				Collection<NodeReference> links = related.get(relationship.getName());
-                if (links != null && links.contains(removedReference))
-                    if (links.remove(removedReference) && relationship.isRequired())
-                        throw new NodeStoreValidationException("Relationship " + relationship.getName() + " is required by " + NodeReference.toString(getName(), node.getKey()));
-
+		relationships.forEach(relationship -> {
+			List<INodeKey> referring = new ArrayList<>(getReferringKeys(relationship.getName(), removedReference));
+			referring.forEach(key -> {
+				INode node = getNodeForUpdate(key);
+				Map<String, Collection<NodeReference>> previous = node.getRelated();
+				Map<String, Collection<NodeReference>> related = node.getRelated();
+				touch(key);
+				if (related.get(relationship.getName()).remove(removedReference) && relationship.isRequired())
+					throw new NodeStoreValidationException("Relationship " + relationship.getName() + " is required by " + NodeReference.toString(getName(), key));
+				node.setRelated(related);
+				updateReferenceIndex(key, previous, related);
 			});
-			node.setRelated(related);
 		});
 	}
 
 	private void deleteChildren(NodeReference thisRef, Relationship oppositeRel, InMemoryNodeStore oppositeStore) {
-		Stream<INode> toDelete = oppositeStore.nodes.values().stream().filter((candidate) ->
-			candidate.getRelated().getOrDefault(oppositeRel.getName(), Collections.emptyList()).contains(thisRef)
-		);
+		List<INode> toDelete = oppositeStore.getReferringKeys(oppositeRel.getName(), thisRef).stream().map(it -> oppositeStore.nodes.get(it)).collect(Collectors.toList());
 		toDelete.forEach(it -> {
 			// remove reference from child to avoid infinite loop
 		    it.getRelated().remove(oppositeRel.getName());
@@ -260,28 +717,237 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 
 	@Override
 	public INode getNode(INodeKey key) {
+		NodeStoreCalls.record(READ_CALL);
 		return Optional.ofNullable(nodes.get(key)).map(it -> it.clone()).orElse(null);
 	}
 
 	@Override
 	public Collection<INodeKey> getNodeKeys() {
+		NodeStoreCalls.record(READ_CALL);
 		return nodes.keySet();
 	}
 
 	@Override
 	public Collection<INode> getNodes() {
+		NodeStoreCalls.record(READ_CALL);
 		return nodes.values().stream().map(it -> it.clone()).collect(Collectors.toList());
 	}
+
+	@Override
+	public Map<INodeKey, INode> getNodes(Collection<INodeKey> keys) {
+		NodeStoreCalls.record(READ_CALL);
+		Map<INodeKey, INode> result = new LinkedHashMap<INodeKey, INode>();
+		for (INodeKey key : keys) {
+			INode node = nodes.get(key);
+			if (node != null)
+				result.put(key, node.clone());
+		}
+		return result;
+	}
 	
 	@Override
 	public void updateNode(INode node) {
-		nodes.put(node.getKey(), node.clone());
+		NodeStoreCalls.record(WRITE_CALL);
+		INode updated = node.clone();
+		ensurePrivate();
+		INode previous = nodes.put(node.getKey(), updated);
+		copied.add(node.getKey());
+		updateIndexes(node.getKey(), previous, updated);
+		touch(node.getKey());
 		makeDirty();
 	}
 
 	INode basicGetNode(INodeKey key) {
 		return nodes.get(key);
 	}
+
+	/**
+	 * Returns the node with the given key, ready to be modified in place.
+	 * Nodes still shared with the committed state are copied first.
+	 */
+	private INode getNodeForUpdate(INodeKey key) {
+		ensurePrivate();
+		INode node = nodes.get(key);
+		if (node != null && copied.add(key)) {
+			node = node.clone();
+			nodes.put(key, node);
+		}
+		return node;
+	}
+
+	/**
+	 * Stops sharing nodes with the committed state. Changes to the map are
+	 * kept on top of the committed one (see {@link CopyOnWriteMap}), and
+	 * nodes are copied as they are modified. Indexes are derived from the
+	 * committed store's as they are needed.
+	 */
+	private void ensurePrivate() {
+		if (!shared)
+			return;
+		nodes = new CopyOnWriteMap<>(nodes);
+		shared = false;
+	}
+
+	/**
+	 * Returns a new store sharing this (committed) store's nodes, for use by
+	 * a single transaction.
+	 */
+	InMemoryNodeStore newView() {
+		InMemoryNodeStore view = shallowCopy();
+		view.origin = this;
+		view.shared = true;
+		view.resetTransientState();
+		return view;
+	}
+
+	/**
+	 * Ensures the changes made to this store do not overwrite changes other
+	 * transactions committed since this store was derived from its origin.
+	 * 
+	 * @param latest the latest committed version of this store
+	 * @throws NodeStoreConflictException if any node changed here was also
+	 * changed by another transaction
+	 */
+	void checkConflicts(InMemoryNodeStore latest) {
+		if (latest == null || latest == origin || unsaved.isEmpty())
+			return;
+		Set<INodeKey> changedElsewhere = latest.getChangedSince(origin);
+		if (changedElsewhere == null)
+			throw new NodeStoreConflictException("Changes to " + entityName + " conflict with changes made by another transaction");
+		List<INodeKey> conflicting = unsaved.stream().filter(it -> changedElsewhere.contains(it)).collect(Collectors.toList());
+		if (!conflicting.isEmpty())
+			throw new NodeStoreConflictException("Changes to " + entityName + " " + conflicting + " conflict with changes made by another transaction");
+	}
+
+	/**
+	 * Returns the nodes changed by the commits since the given (older)
+	 * version of this store, or <code>null</code> if that cannot be known.
+	 */
+	private Set<INodeKey> getChangedSince(InMemoryNodeStore older) {
+		Set<INodeKey> changed = new HashSet<>();
+		for (InMemoryNodeStore current = this; current != older; current = current.previous) {
+			if (current == null || current.written == null)
+				return null;
+			changed.addAll(current.written);
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns a new committed store with the changes made to this store, on
+	 * top of the latest committed version of this store. Neither this store
+	 * nor the latest one are changed, and nothing is saved yet (see
+	 * {@link #save()} and {@link #published(InMemoryNodeStore)}).
+	 * 
+	 * Conflicts must have been checked before (see
+	 * {@link #checkConflicts(InMemoryNodeStore)}).
+	 */
+	InMemoryNodeStore newVersion(InMemoryNodeStore latest, long version) {
+		InMemoryNodeStore committed;
+		if (latest == null || latest == origin) {
+			committed = shallowCopy();
+		} else {
+			// other transactions committed changes to other nodes since
+			committed = latest.shallowCopy();
+			committed.nodes = new CopyOnWriteMap<>(latest.nodes);
+			unsaved.forEach(key -> {
+				INode node = nodes.get(key);
+				if (node == null)
+					committed.nodes.remove(key);
+				else
+					committed.nodes.put(key, node);
+			});
+			committed.keys.accumulateAndGet(keys.get(), Math::max);
+			committed.propertyIndex = null;
+			committed.referenceIndex = null;
+			committed.sortIndex = null;
+		}
+		committed.origin = null;
+		committed.shared = false;
+		committed.touched = new LinkedHashSet<>();
+		committed.unsaved = new LinkedHashSet<>(unsaved);
+		committed.copied = new HashSet<>();
+		committed.written = new HashSet<>(unsaved);
+		if (committed.nodes instanceof CopyOnWriteMap && ((CopyOnWriteMap<INodeKey, INode>) committed.nodes).getLayers() > MAX_LAYERS)
+			// so reads do not go through too many layers
+			committed.nodes = new LinkedHashMap<>(committed.nodes);
+		committed.dirty = true;
+		committed.previous = latest;
+		committed.version = version;
+		return committed;
+	}
+
+	/**
+	 * Makes this store go back to sharing its nodes with the given new
+	 * committed version (as returned by
+	 * {@link #newVersion(InMemoryNodeStore, long)}), once published.
+	 */
+	void published(InMemoryNodeStore committed) {
+		nodes = committed.nodes;
+		origin = committed;
+		shared = true;
+		resetTransientState();
+	}
+
+	/**
+	 * Makes this store, just read from disk, a new version replacing the
+	 * given one.
+	 */
+	void replace(InMemoryNodeStore latest, long version) {
+		this.previous = latest;
+		this.version = version;
+	}
+
+	/**
+	 * Returns the version of this committed store the given snapshot sees.
+	 */
+	InMemoryNodeStore asOf(long snapshot) {
+		InMemoryNodeStore current = this;
+		while (current.version > snapshot) {
+			InMemoryNodeStore older = current.previous;
+			if (older == null)
+				break;
+			current = older;
+		}
+		return current;
+	}
+
+	/**
+	 * Lets older versions of this store be collected.
+	 */
+	void forgetPrevious() {
+		previous = null;
+	}
+
+	boolean isShared() {
+		return shared;
+	}
+
+	/**
+	 * Returns whether the store files were not changed since last read or
+	 * written by this process.
+	 */
+	boolean isCurrent() {
+		return new StoreJournal(getStoreFile()).isKnown();
+	}
+
+	private void resetTransientState() {
+		touched = new LinkedHashSet<>();
+		unsaved = new LinkedHashSet<>();
+		copied = new HashSet<>();
+		propertyIndex = null;
+		referenceIndex = null;
+		sortIndex = null;
+		dirty = false;
+	}
+
+	private InMemoryNodeStore shallowCopy() {
+		try {
+			return (InMemoryNodeStore) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
 	
 	@Override
 	public Collection<INodeKey> getRelatedNodeKeys(INodeKey key, String relationshipName, String relatedNodeStoreName) {
@@ -291,6 +957,7 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 	
 	@Override
 	public Collection<INode> getRelatedNodes(INodeKey key, String relationshipName, String relatedNodeStoreName) {
+		NodeStoreCalls.record(READ_CALL);
 		INode node = basicGetNode(key);
 		if (node == null)
 			return Collections.emptyList();
@@ -306,22 +973,19 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 		Relationship oppositeRel = getCatalog().getMetadata().getOpposite(relationship);
 		
 		NodeReference thisRef = new NodeReference(getName(), key);
-		return otherStore.nodes.values().stream().filter(other -> { 
-			Map<String, Collection<NodeReference>> otherRelated = other.getRelated();
-			Collection<NodeReference> found = otherRelated.get(oppositeRel.getName());
-			if (found == null)
-				return false;
-			return found.contains(thisRef); 
-		}).collect(Collectors.toList());
+		return otherStore.getReferringKeys(oppositeRel.getName(), thisRef).stream().map(it -> otherStore.nodes.get(it).clone()).collect(Collectors.toList());
 	}
 
 	@Override
 	public void linkMultipleNodes(INodeKey key, String relationshipName, Collection<NodeReference> newRelated, boolean replace) {
+		NodeStoreCalls.record(WRITE_CALL);
 		makeDirty();
-		INode node = basicGetNode(key);
+		touch(key);
 		Entity entity = getEntity();
 		Relationship relationship = entity.getRelationship(relationshipName);
 		if (relationship.isPrimary()) {
+			INode node = getNodeForUpdate(key);
+			Map<String, Collection<NodeReference>> previous = node.getRelated();
 			Map<String, Collection<NodeReference>> allRelated = node.getRelated();
 			Collection<NodeReference> existing = allRelated.get(relationshipName);
 			if (existing != null && !replace)
@@ -329,6 +993,7 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 			else
 				allRelated.put(relationshipName, newRelated);
 			node.setRelated(allRelated);
+			updateReferenceIndex(key, previous, allRelated);
 		} else {
 			newRelated.forEach(it -> {
 				INodeStore otherStore = getCatalog().getStore(it.getStoreName());
@@ -344,14 +1009,18 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 
 	@Override
 	public void linkNodes(INodeKey key, String relationshipName, NodeReference related) {
+		NodeStoreCalls.record(WRITE_CALL);
 		makeDirty();
-		INode node = basicGetNode(key);
+		touch(key);
 		Entity entity = getEntity();
 		Relationship relationship = entity.getRelationship(relationshipName);
 		if (relationship.isPrimary()) {
+			INode node = getNodeForUpdate(key);
+			Map<String, Collection<NodeReference>> previous = node.getRelated();
 			Map<String, Collection<NodeReference>> allRelated = node.getRelated();
 			allRelated.put(relationshipName, Arrays.asList(related));
 			node.setRelated(allRelated);
+			updateReferenceIndex(key, previous, allRelated);
 		} else {
 			getCatalog().getStore(related.getStoreName()).linkNodes(related.getKey(), relationship.getOpposite(), new NodeReference(getName(), key));
 		}
@@ -359,13 +1028,16 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 
 	@Override
 	public void unlinkNodes(INodeKey key, String relationshipName, NodeReference toRemove) {
+		NodeStoreCalls.record(WRITE_CALL);
 		makeDirty();
-		INode node = basicGetNode(key);
+		touch(key);
 		Entity entity = getEntity();
 		Relationship relationship = entity.getRelationship(relationshipName);
 		TypeRef relationshipType = relationship.getTypeRef();
 		INodeStore otherStore = getCatalog().getStore(getStoreName(relationshipType));
 		if (relationship.isPrimary()) {
+			INode node = getNodeForUpdate(key);
+			Map<String, Collection<NodeReference>> previous = node.getRelated();
 			Map<String, Collection<NodeReference>> allRelated = node.getRelated();
 			Collection<NodeReference> existing = allRelated.computeIfAbsent(relationshipName, k -> Collections.emptyList());
 			if (existing.contains(toRemove)) {
@@ -374,6 +1046,7 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 			}
 			allRelated.put(relationshipName, existing);
 			node.setRelated(allRelated);
+			updateReferenceIndex(key, previous, allRelated);
 			switch (relationship.getStyle()) {
     			case CHILD:
     			    otherStore.deleteNode(toRemove.getKey());
@@ -401,16 +1074,57 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 
 	@Override
 	public Collection<INodeKey> filter(Map<String, Collection<Object>> nodeCriteria, Integer limit) {
-		Collection<INode> values = nodes.values();
-		return values.stream().filter(node -> {
-			Map<String, Object> properties = node.getProperties();
+		NodeStoreCalls.record(READ_CALL);
+		// only nodes matching the most selective criteria need to be checked
+		Collection<INodeKey> candidates = nodes.keySet();
+		for (Entry<String, Collection<Object>> criteria : nodeCriteria.entrySet()) {
+			Collection<INodeKey> indexed = lookUp(criteria.getKey(), criteria.getValue());
+			if (indexed.size() < candidates.size())
+				candidates = indexed;
+		}
+		Stream<INodeKey> matching = candidates.stream().filter(key -> {
+			INode node = nodes.get(key);
+			Map<String, Object> properties = node.getProperties(true);
 			Map<String, Collection<NodeReference>> relationships = node.getRelated();
 			return nodeCriteria.entrySet().stream().allMatch(criteria -> {
 				String criteriaKey = criteria.getKey();
 				Collection<Object> criteriaValue = criteria.getValue();
 				return doesPropertyMatch(properties, criteriaKey, criteriaValue) || doesRelationshipMatch(relationships, criteriaKey, criteriaValue);
 			});
-		}).map(it -> it.getKey()).collect(Collectors.toList());
+		});
+		if (limit != null && limit > 0)
+			matching = matching.limit(limit);
+		return matching.collect(Collectors.toList());
+	}
+
+	@Override
+	public List<INodeKey> filter(Map<String, Collection<Object>> nodeCriteria, String sortKey, boolean ascending, long offset, Integer limit) {
+		NodeStoreCalls.record(READ_CALL);
+		// walks the nodes in order, stopping as soon as the page is full
+		Stream<INodeKey> page = getSortedKeys(sortKey, ascending).stream();
+		if (!nodeCriteria.isEmpty()) {
+			Set<INodeKey> matching = new HashSet<>(filter(nodeCriteria, null));
+			page = page.filter(matching::contains);
+		}
+		page = page.skip(offset);
+		if (limit != null)
+			page = page.limit(limit);
+		return page.collect(Collectors.toList());
+	}
+
+	/**
+	 * Returns the keys of the nodes that have any of the given values for the
+	 * given property or relationship.
+	 */
+	private Collection<INodeKey> lookUp(String criteriaKey, Collection<Object> criteriaValue) {
+		Set<INodeKey> found = new LinkedHashSet<>();
+		if (getEntity().getRelationship(criteriaKey) != null) {
+			criteriaValue.stream().filter(it -> it instanceof NodeReference).forEach(it -> found.addAll(getReferringKeys(criteriaKey, (NodeReference) it)));
+		} else {
+			Map<Object, Set<INodeKey>> index = getPropertyIndex(criteriaKey);
+			criteriaValue.forEach(it -> found.addAll(index.getOrDefault(it, Collections.emptySet())));
+		}
+		return found;
 	}
 
 	private boolean doesRelationshipMatch(Map<String, Collection<NodeReference>> relationships, String criteriaKey,
@@ -432,16 +1146,31 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 			clone = (InMemoryNodeStore) super.clone();
 			clone.keys = new AtomicLong(keys.get());
 			clone.nodes = nodes.values().stream().map(it -> it.clone()).collect(Collectors.toMap(it -> it.getKey(), it -> it));
+			clone.touched = new LinkedHashSet<>(touched);
+			clone.unsaved = new LinkedHashSet<>(unsaved);
+			clone.copied = new HashSet<>(clone.nodes.keySet());
+			clone.shared = false;
+			clone.previous = null;
+			clone.propertyIndex = null;
+			clone.referenceIndex = null;
+			clone.sortIndex = null;
 			return clone;
 		} catch (CloneNotSupportedException e) {
 			throw new IllegalStateException(e);
 		}
 	}
 
+	/**
+	 * Validates the nodes created or modified since the last validation. 
+	 */
 	public void validateConstraints() {
+		if (touched.isEmpty())
+			return;
 		Entity entity = getEntity();
-		Map<String, Set<Object>> foundValues = new LinkedHashMap<>();
-		nodes.values().forEach(it -> {
+		Collection<INodeKey> toValidate = new LinkedList<>(touched);
+		// if validation fails, the transaction is doomed anyway
+		touched.clear();
+		toValidate.stream().map(it -> nodes.get(it)).filter(it -> it != null).forEach(it -> {
 			Map<String, Object> values = it.getProperties();
 			Map<String, Collection<NodeReference>> links = it.getRelated();
 			entity.getProperties().forEach(property -> {
@@ -452,8 +1181,8 @@ public class InMemoryNodeStore implements INodeStore, Cloneable {
 				}
 				if (property.isUnique()) {
 					if (values.containsKey(property.getName())) {
-						Set<Object> existingValues = foundValues.computeIfAbsent(property.getName(), key -> new LinkedHashSet<>());
-						if (!existingValues.add(newValue))
+						Set<INodeKey> holders = getPropertyIndex(property.getName()).getOrDefault(newValue, Collections.emptySet());
+						if (holders.size() > 1)
 							throw new NodeStoreValidationException("Value must be unique: " + entity.getLabel() + "/" + property.getLabel() + " (" + newValue + ")");
 					}
 				}
@@ -2,18 +2,19 @@ package com.abstratt.nodestore.inmemory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.Validate;
 
-import com.abstratt.kirra.Entity;
 import com.abstratt.kirra.SchemaManagement;
 import com.abstratt.kirra.TypeRef;
 import com.abstratt.kirra.TypeRef.TypeKind;
@@ -23,6 +24,7 @@ import com.abstratt.nodestore.INodeKey;
 import com.abstratt.nodestore.INodeStore;
 import com.abstratt.nodestore.INodeStoreCatalog;
 import com.abstratt.nodestore.NodeReference;
+import com.abstratt.nodestore.NodeStoreConflictException;
 import com.abstratt.pluginutils.LogUtils;
 
 /**
@@ -48,6 +50,21 @@ public class InMemoryNodeStoreCatalog implements INodeStoreCatalog {
 
     private Map<String, Map<String, InMemoryNodeStore>> storeSet = Collections.synchronizedMap(new LinkedHashMap<>());
 
+    /**
+     * The committed state of the stores under each catalog path. Committed
+     * stores are never modified, transactions work on views of them (see
+     * {@link InMemoryNodeStore#newView()}).
+     */
+    private static final Map<File, CommittedState> committedStates = new ConcurrentHashMap<>();
+
+    /**
+     * The committed state the current transaction reads from, and the
+     * version it reads.
+     */
+    private CommittedState snapshotState;
+
+    private long snapshot;
+
 	private boolean readOnly;
 
 	private String environment;
@@ -68,10 +85,55 @@ public class InMemoryNodeStoreCatalog implements INodeStoreCatalog {
         clean.forEach(it -> getStoreSet().remove(it));
     }
 
+    /**
+     * Commits the changes made to all stores as a single new version. Fails
+     * with a {@link NodeStoreConflictException}, committing nothing, if
+     * another transaction committed changes to any of the same nodes since
+     * this transaction started.
+     */
     @Override
     public void commitTransaction() {
         System.out.println("commitTransaction: " + getCatalogPath());
-		getStoreSet().values().forEach(it -> it.save());
+        CommittedState state = getCommittedState();
+        Map<String, InMemoryNodeStore> changed = new LinkedHashMap<>();
+        getStoreSet().forEach((name, store) -> {
+            if (!store.isShared())
+                changed.put(name, store);
+        });
+        try {
+            synchronized (state) {
+                // check all stores before saving any
+                changed.forEach((name, store) -> store.checkConflicts(state.getLatest(name)));
+                long version = state.nextVersion();
+                Map<String, InMemoryNodeStore> newVersions = new LinkedHashMap<>();
+                changed.forEach((name, store) -> newVersions.put(name, store.newVersion(state.getLatest(name), version)));
+                // save all stores before publishing any, so a failure leaves
+                // none of the new versions visible
+                newVersions.values().forEach(it -> it.save());
+                newVersions.forEach((name, committed) -> {
+                    state.setLatest(name, committed);
+                    changed.get(name).published(committed);
+                });
+                if (!changed.isEmpty()) {
+                    state.setVersion(version);
+                    state.prune();
+                }
+            }
+        } finally {
+            closeSnapshot();
+            // stores are only kept during transactions (see beginTransaction)
+            storeSet.remove(environment);
+        }
+    }
+
+    private CommittedState getCommittedState() {
+        return committedStates.computeIfAbsent(getCatalogPath().getAbsoluteFile(), it -> new CommittedState());
+    }
+
+    private void closeSnapshot() {
+        if (snapshotState != null)
+            snapshotState.closeSnapshot(snapshot);
+        snapshotState = null;
     }
     
 	public Map<String, InMemoryNodeStore> getStoreSet() {
@@ -89,12 +151,16 @@ public class InMemoryNodeStoreCatalog implements INodeStoreCatalog {
 			throw new RuntimeException(e);
 		}
     	getStoreSet().clear();
+    	closeSnapshot();
+    	snapshotState = getCommittedState();
+    	snapshot = snapshotState.openSnapshot();
     }
     
     @Override
     public void abortTransaction() {
         System.out.println("abortTransaction: " + getCatalogPath());
-    	getStoreSet().clear();
+    	storeSet.remove(environment);
+    	closeSnapshot();
     }
 
     @Override
@@ -141,12 +207,39 @@ public class InMemoryNodeStoreCatalog implements INodeStoreCatalog {
     	Map<String, InMemoryNodeStore> environmentStoreSet = getStoreSet();
 		InMemoryNodeStore store = environmentStoreSet.get(sanitizedStoreName);
     	if (store == null) {
-    		store = loadStore(sanitizedStoreName);
+    		store = getCommittedStore(sanitizedStoreName).newView();
     		environmentStoreSet.put(sanitizedStoreName, store);
     	}
 		return store;
     }
 
+    /**
+     * Returns the committed store as seen by the current transaction (or the
+     * latest one, if no transaction is active).
+     */
+    private InMemoryNodeStore getCommittedStore(String storeName) {
+    	CommittedState state = getCommittedState();
+    	InMemoryNodeStore latest = state.getLatest(storeName);
+    	if (latest == null || !latest.isCurrent()) {
+    		synchronized (state) {
+    			latest = state.getLatest(storeName);
+    			if (latest == null || !latest.isCurrent()) {
+    				InMemoryNodeStore loaded = loadStore(storeName);
+    				if (latest != null) {
+    					// files changed elsewhere, what was read is a new version
+    					long version = state.nextVersion();
+    					loaded.replace(latest, version);
+    					state.setLatest(storeName, loaded);
+    					state.setVersion(version);
+    				} else
+    					state.setLatest(storeName, loaded);
+    				latest = loaded;
+    			}
+    		}
+    	}
+    	return snapshotState == state ? latest.asOf(snapshot) : latest;
+    }
+
 	private InMemoryNodeStore loadStore(String storeName) {
 		LogUtils.debug(InMemoryNodeStoreActivator.BUNDLE_NAME, "Loading store " + storeName + " from " + this);
 		return InMemoryNodeStore.load(this, new TypeRef(storeName, TypeKind.Entity));
@@ -178,24 +271,34 @@ public class InMemoryNodeStoreCatalog implements INodeStoreCatalog {
 		return resolved;
     }
 
+    /**
+     * Validates the nodes touched since the last validation. Stores that were
+     * not even loaded cannot have been touched, so they are skipped.
+     */
     @Override
     public void validateConstraints() {
-        for (Entity entity : this.metadata.getAllEntities()) {
-			InMemoryNodeStore store = getStore(entity.getTypeRef());
-			if (store == null)
-				System.out.println("No store found for " + entity.getTypeRef());
-			else
-				store.validateConstraints();
-		}
+        new ArrayList<>(getStoreSet().values()).forEach(store -> store.validateConstraints());
     }
 
     @Override
     public void zap() {
         // zap should not require metadata (repository may not be available)
     	FileUtils.deleteQuietly(getCatalogPath());
+    	committedStates.remove(getCatalogPath().getAbsoluteFile());
     	getStoreSet().clear();
     }
 
+    /**
+     * Discards all data in the given environment, for all catalogs. Meant for
+     * environments only used for a while, such as those test cases run in.
+     * The environment should no longer be in use by any catalog.
+     */
+    public static void dropEnvironment(String environment) {
+        File environmentPath = new File(REPOSITORY_ROOT, environment).getAbsoluteFile();
+        committedStates.keySet().removeIf(it -> environmentPath.equals(it.getParentFile()));
+        FileUtils.deleteQuietly(environmentPath);
+    }
+
     public void setReadOnly(boolean readOnly) {
         this.readOnly = readOnly;
     }
@@ -203,4 +306,8 @@ public class InMemoryNodeStoreCatalog implements INodeStoreCatalog {
 	public void setEnvironment(String environment) {
 		this.environment = environment;
 	}
+
+	public String getEnvironment() {
+		return environment;
+	}
 }
@@ -0,0 +1,190 @@
+package com.abstratt.nodestore.inmemory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.FileUtils;
+
+import com.abstratt.pluginutils.LogUtils;
+
+/**
+ * An append-only log of the changes made to a store since its snapshot was
+ * last written. Each line records the changes made by one commit.
+ *
+ * Once a journal grows larger than its snapshot, it is folded into a new
+ * snapshot by a background thread (compaction).
+ */
+class StoreJournal {
+	/**
+	 * Whether appends (and snapshots replacing the journal) are forced to disk
+	 * before a commit completes.
+	 */
+	private static final boolean FSYNC = Boolean.parseBoolean(System.getProperty("nodestore.journal.fsync", "true"));
+
+	/**
+	 * Size (in bytes) a journal must reach before it is considered for compaction.
+	 */
+	private static final long COMPACTION_THRESHOLD = Long.getLong("nodestore.journal.compactionThreshold", 1024 * 1024);
+
+	private static final Map<File, Object> locks = new ConcurrentHashMap<>();
+
+	private static final Set<File> pendingCompactions = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The state of each store's files when last read or written by this
+	 * process.
+	 */
+	private static final Map<File, String> knownVersions = new ConcurrentHashMap<>();
+
+	private static final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "Node store compaction");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final File snapshotFile;
+
+	private final File journalFile;
+
+	StoreJournal(File snapshotFile) {
+		this.snapshotFile = snapshotFile.getAbsoluteFile();
+		this.journalFile = new File(this.snapshotFile.getPath() + ".journal");
+	}
+
+	/**
+	 * The lock to hold while reading or writing either the snapshot or the
+	 * journal.
+	 */
+	Object getLock() {
+		return locks.computeIfAbsent(snapshotFile, it -> new Object());
+	}
+
+	/**
+	 * Identifies the current state of the snapshot and journal files, so
+	 * changes made to them elsewhere can be detected.
+	 */
+	private String getVersion() {
+		return snapshotFile.lastModified() + ":" + snapshotFile.length() + ":" + journalFile.length();
+	}
+
+	/**
+	 * Records the current state of the files as known to this process.
+	 */
+	void markKnown() {
+		knownVersions.put(snapshotFile, getVersion());
+	}
+
+	/**
+	 * Returns whether the files are still in the state last recorded with
+	 * {@link #markKnown()}.
+	 */
+	boolean isKnown() {
+		return getVersion().equals(knownVersions.get(snapshotFile));
+	}
+
+	boolean exists() {
+		return journalFile.isFile();
+	}
+
+	void append(String record) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+			out.write((record + '\n').getBytes(StandardCharsets.UTF_8));
+			if (FSYNC)
+				out.getChannel().force(false);
+		}
+	}
+
+	/**
+	 * Feeds all records in the journal to the given consumer, in the order
+	 * they were appended. A damaged last record (one that was being appended
+	 * when the process died) is ignored.
+	 */
+	void replay(Consumer<String> consumer) throws IOException {
+		if (!exists())
+			return;
+		List<String> records = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine())
+				if (!line.isEmpty())
+					records.add(line);
+		}
+		for (int i = 0; i < records.size(); i++)
+			try {
+				consumer.accept(records.get(i));
+			} catch (RuntimeException e) {
+				if (i < records.size() - 1)
+					throw e;
+				LogUtils.logWarning(InMemoryNodeStoreActivator.BUNDLE_NAME, "Ignoring incomplete journal record in " + journalFile, e);
+			}
+	}
+
+	void delete() {
+		FileUtils.deleteQuietly(journalFile);
+	}
+
+	/**
+	 * Forces the contents of the given file to disk, so it can replace a
+	 * snapshot without risking an empty or partial one after a crash.
+	 */
+	static void force(Path file) throws IOException {
+		if (!FSYNC)
+			return;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Forces the entries of the given directory to disk, so a file moved into
+	 * it stays there after a crash. Not supported on some platforms, where the
+	 * move has to be trusted.
+	 */
+	static void forceDirectory(Path directory) {
+		if (!FSYNC)
+			return;
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// directories cannot be opened on Windows
+		}
+	}
+
+	boolean needsCompaction() {
+		long journalSize = journalFile.length();
+		return journalSize > COMPACTION_THRESHOLD && journalSize > snapshotFile.length();
+	}
+
+	/**
+	 * Schedules the given compaction to run in the background, unless one is
+	 * already pending for this journal.
+	 */
+	void scheduleCompaction(Runnable compaction) {
+		if (!pendingCompactions.add(journalFile))
+			return;
+		compactor.submit(() -> {
+			try {
+				compaction.run();
+			} catch (RuntimeException e) {
+				LogUtils.logError(InMemoryNodeStoreActivator.BUNDLE_NAME, "Error compacting " + journalFile, e);
+			} finally {
+				pendingCompactions.remove(journalFile);
+			}
+		});
+	}
+}
@@ -0,0 +1,247 @@
+package com.abstratt.nodestore.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.Validate;
+
+import com.abstratt.pluginutils.LogUtils;
+
+/**
+ * A bounded pool of physical connections obtained from a datasource.
+ *
+ * At most <code>maxSize</code> connections are ever open at the same time.
+ * Idle connections are validated before being handed out, and idle
+ * connections in excess of <code>minIdle</code> are closed once they have
+ * been idle for longer than <code>idleTimeout</code>.
+ */
+public class ConnectionPool {
+    private static class IdleConnection {
+        final Connection connection;
+        final long idleSince;
+
+        IdleConnection(Connection connection) {
+            this.connection = connection;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    private static final String ID = ConnectionPool.class.getPackage().getName();
+
+    private final DataSource dataSource;
+    private final int minIdle;
+    private final int maxSize;
+    private final long idleTimeout;
+    private final long borrowTimeout;
+    private final int validationTimeout;
+
+    private final Semaphore permits;
+    private final Deque<IdleConnection> idle = new LinkedList<IdleConnection>();
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+
+    /**
+     * @param dataSource
+     *            where physical connections come from
+     * @param minIdle
+     *            number of idle connections that are never evicted
+     * @param maxSize
+     *            maximum number of connections open at any time
+     * @param idleTimeout
+     *            how long (in ms) an idle connection may be kept around
+     * @param borrowTimeout
+     *            how long (in ms) to wait for a connection to become available
+     * @param validationTimeout
+     *            how long (in seconds) to wait for a connection to be validated
+     */
+    public ConnectionPool(DataSource dataSource, int minIdle, int maxSize, long idleTimeout, long borrowTimeout, int validationTimeout) {
+        Validate.isTrue(dataSource != null);
+        Validate.isTrue(maxSize > 0, "Pool size must be positive");
+        Validate.isTrue(minIdle >= 0 && minIdle <= maxSize, "Invalid minimum idle count: " + minIdle);
+        this.dataSource = dataSource;
+        this.minIdle = minIdle;
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+        this.borrowTimeout = borrowTimeout;
+        this.validationTimeout = validationTimeout;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Obtains a connection from the pool, blocking if the pool is exhausted.
+     * Connections obtained must be given back with
+     * {@link #giveBack(Connection, boolean)}.
+     */
+    public Connection borrow() throws SQLException {
+        long start = System.currentTimeMillis();
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timed out waiting for a connection (pool size: " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        totalWaitTime.addAndGet(System.currentTimeMillis() - start);
+        boolean success = false;
+        try {
+            Connection connection = takeIdle();
+            if (connection == null) {
+                connection = dataSource.getConnection();
+                created.incrementAndGet();
+            }
+            borrowed.incrementAndGet();
+            success = true;
+            return connection;
+        } finally {
+            if (!success)
+                permits.release();
+        }
+    }
+
+    /**
+     * Returns a connection to the pool. Broken connections are discarded.
+     */
+    public void giveBack(Connection connection, boolean broken) {
+        try {
+            if (broken || connection.isClosed()) {
+                discard(connection);
+                return;
+            }
+            synchronized (idle) {
+                idle.addFirst(new IdleConnection(connection));
+            }
+            evictExpired();
+        } catch (SQLException e) {
+            discard(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes all idle connections. Connections currently in use are closed
+     * as they are given back only if broken.
+     */
+    public void shutdown() {
+        synchronized (idle) {
+            while (!idle.isEmpty())
+                discard(idle.removeFirst().connection);
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyed.get();
+    }
+
+    public long getBorrowedCount() {
+        return borrowed.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailures.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * Total time (in ms) callers spent waiting for a connection.
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime.get();
+    }
+
+    @Override
+    public String toString() {
+        return "active: " + getActiveCount() + " - idle: " + getIdleCount() + " - waiting: " + getWaitingCount() + " - created: "
+                + getCreatedCount() + " - destroyed: " + getDestroyedCount() + " - borrowed: " + getBorrowedCount()
+                + " - validation failures: " + getValidationFailureCount() + " - timeouts: " + getTimeoutCount();
+    }
+
+    private Connection takeIdle() {
+        while (true) {
+            IdleConnection candidate;
+            synchronized (idle) {
+                if (idle.isEmpty())
+                    return null;
+                candidate = idle.removeFirst();
+            }
+            if (isValid(candidate.connection))
+                return candidate.connection;
+            validationFailures.incrementAndGet();
+            discard(candidate.connection);
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(validationTimeout);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        while (true) {
+            IdleConnection oldest;
+            synchronized (idle) {
+                if (idle.size() <= minIdle || now - idle.peekLast().idleSince < idleTimeout)
+                    return;
+                oldest = idle.removeLast();
+            }
+            discard(oldest.connection);
+        }
+    }
+
+    private void discard(Connection connection) {
+        destroyed.incrementAndGet();
+        StatementCache.forget(connection);
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LogUtils.logWarning(ID, "Error closing pooled connection", e);
+        }
+    }
+}
@@ -2,7 +2,6 @@ package com.abstratt.nodestore.jdbc;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
@@ -14,84 +13,161 @@ import com.abstratt.pluginutils.ConfigUtils;
 /**
  * Provides connections from a datasource. If a connection is required multiple
  * times in a thread, all requests end up with the same connection (only one
- * connection in use per thread).
+ * connection in use per thread). Different threads get different connections,
+ * so concurrent requests against the same catalog do not interfere with each
+ * other.
  *
  * Connections must be held for as little as possible, and be returned when no
  * longer in use.
+ *
+ * If pooling is enabled (KIRRA_DATABASE_POOL_ENABLED), connections come from
+ * a {@link ConnectionPool} shared by all providers, otherwise a new physical
+ * connection is opened for every transaction.
  */
 public class ConnectionProvider {
-    private Connection connection;
-    private AtomicInteger level = new AtomicInteger();
+    /**
+     * The connection bound to the current thread, and how many times it has
+     * been acquired without being released.
+     */
+    private static class Binding {
+        Connection connection;
+        int level;
+    }
+
+    private static ConnectionPool sharedPool;
+
+    private ThreadLocal<Binding> binding = new ThreadLocal<Binding>() {
+        @Override
+        protected Binding initialValue() {
+            return new Binding();
+        }
+    };
+    private ThreadLocal<Boolean> readOnly = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
     private DataSource dataSource;
+    private ConnectionPool pool;
     private String databaseName;
-    private boolean readOnly;
 
     public ConnectionProvider() {
-        PGSimpleDataSource pgDataSource = new PGSimpleDataSource();
         // TODO need a way to pass properties into node store factory
         databaseName = ConfigUtils.get("KIRRA_DATABASE_NAME", "cloudfier");
-        pgDataSource.setDatabaseName(databaseName);
+        if (Boolean.parseBoolean(ConfigUtils.get("KIRRA_DATABASE_POOL_ENABLED", "false")))
+            this.pool = getSharedPool();
+        else
+            this.dataSource = createDataSource();
+    }
+
+    private static synchronized ConnectionPool getSharedPool() {
+        if (sharedPool == null) {
+            int minIdle = Integer.parseInt(ConfigUtils.get("KIRRA_DATABASE_POOL_MIN_IDLE", "2"));
+            int maxSize = Integer.parseInt(ConfigUtils.get("KIRRA_DATABASE_POOL_MAX_SIZE", "20"));
+            long idleTimeout = Long.parseLong(ConfigUtils.get("KIRRA_DATABASE_POOL_IDLE_TIMEOUT", "300000"));
+            long borrowTimeout = Long.parseLong(ConfigUtils.get("KIRRA_DATABASE_POOL_BORROW_TIMEOUT", "30000"));
+            int validationTimeout = Integer.parseInt(ConfigUtils.get("KIRRA_DATABASE_POOL_VALIDATION_TIMEOUT", "5"));
+            sharedPool = new ConnectionPool(createDataSource(), minIdle, maxSize, idleTimeout, borrowTimeout, validationTimeout);
+        }
+        return sharedPool;
+    }
+
+    private static DataSource createDataSource() {
+        PGSimpleDataSource pgDataSource = new PGSimpleDataSource();
+        pgDataSource.setDatabaseName(ConfigUtils.get("KIRRA_DATABASE_NAME", "cloudfier"));
         String username = ConfigUtils.get("KIRRA_DATABASE_USERNAME", "cloudfier");
         pgDataSource.setUser(username);
         String password = ConfigUtils.get("KIRRA_DATABASE_PASSWORD", "cloudfier");
-		pgDataSource.setPassword(password);
-        this.dataSource = pgDataSource;
+        pgDataSource.setPassword(password);
+        return pgDataSource;
     }
 
     public Connection acquireConnection() throws SQLException {
-        // System.out.println("acquireConnection - " + level.get());
-        boolean firstRequest = level.getAndIncrement() == 0;
-        Validate.isTrue(connection == null == firstRequest, "First? " + firstRequest);
+        Binding current = binding.get();
+        boolean firstRequest = current.level == 0;
+        Validate.isTrue(current.connection == null == firstRequest, "First? " + firstRequest);
         if (firstRequest) {
-            connection = dataSource.getConnection();
-            connection.setAutoCommit(false);
-            connection.setReadOnly(readOnly);
+            Connection newConnection = pool != null ? pool.borrow() : dataSource.getConnection();
+            try {
+                newConnection.setAutoCommit(false);
+                newConnection.setReadOnly(readOnly.get());
+            } catch (SQLException e) {
+                dispose(newConnection, true);
+                throw e;
+            }
+            current.connection = newConnection;
         }
-        return connection;
+        current.level++;
+        return current.connection;
     }
 
     public void commit() throws SQLException {
-        Validate.isTrue(this.connection != null);
+        Connection connection = binding.get().connection;
+        Validate.isTrue(connection != null);
         JDBCNodeStore.logSQLStatement(databaseName + " - committing ");
-        this.connection.commit();
+        connection.commit();
     }
 
     public boolean hasConnection() {
-        return level.get() > 0;
+        return binding.get().level > 0;
+    }
+
+    /**
+     * Returns the pool connections come from, or <code>null</code> if
+     * pooling is not enabled.
+     */
+    public ConnectionPool getPool() {
+        return pool;
     }
 
     public void releaseConnection(boolean success) throws SQLException {
-        // System.out.println("releaseConnection - " + level.get());
-        if (level.get() == 0) {
-            Validate.isTrue(this.connection == null);
+        Binding current = binding.get();
+        if (current.level == 0) {
+            Validate.isTrue(current.connection == null);
             // someone being overly zealous
+            binding.remove();
             return;
         }
-        Validate.isTrue(level.get() > 0);
-        boolean lastRelease = level.decrementAndGet() == 0;
+        boolean lastRelease = --current.level == 0;
         if (lastRelease) {
+            boolean broken = true;
             try {
                 if (success) {
                     commit();
                 } else {
                     rollback();
                 }
+                broken = false;
             } finally {
-                Connection tmpConnection = this.connection;
-                this.connection = null;
-                tmpConnection.close();
+                Connection tmpConnection = current.connection;
+                binding.remove();
+                dispose(tmpConnection, broken);
             }
         }
     }
 
     public void rollback() throws SQLException {
-        Validate.isTrue(this.connection != null);
+        Connection connection = binding.get().connection;
+        Validate.isTrue(connection != null);
         JDBCNodeStore.logSQLStatement(databaseName + " - rolling back");
-        this.connection.rollback();
+        connection.rollback();
     }
 
+    /**
+     * Sets whether connections acquired by the current thread from now on
+     * should be read-only.
+     */
     public void setReadOnly(boolean readOnly) {
-        this.readOnly = readOnly;
+        this.readOnly.set(readOnly);
     }
 
-}
\ No newline at end of file
+    private void dispose(Connection connection, boolean broken) throws SQLException {
+        if (pool != null) {
+            pool.giveBack(connection, broken);
+        } else {
+            StatementCache.forget(connection);
+            connection.close();
+        }
+    }
+}
@@ -35,6 +35,7 @@ import com.abstratt.nodestore.INodeStoreCatalog;
 import com.abstratt.nodestore.IntegerKey;
 import com.abstratt.nodestore.NodeNotFoundException;
 import com.abstratt.nodestore.NodeReference;
+import com.abstratt.nodestore.NodeStoreCalls;
 import com.abstratt.nodestore.NodeStoreException;
 import com.abstratt.pluginutils.LogUtils;
 
@@ -90,14 +91,22 @@ public class JDBCNodeStore implements INodeStore {
     }
 
     static <T> List<T> loadMany(ConnectionProvider provider, final IResultHandler<T> handler, final List<String> statements) {
+        List<SQLStatement> sqlStatements = new ArrayList<SQLStatement>(statements.size());
+        for (String string : statements)
+            sqlStatements.add(new SQLStatement(string, false));
+        return JDBCNodeStore.loadManyStatements(provider, handler, sqlStatements);
+    }
+
+    static <T> List<T> loadManyStatements(ConnectionProvider provider, final IResultHandler<T> handler, final List<SQLStatement> statements) {
         try {
             return JDBCNodeStore.runWithConnection(provider, new ConnectionRunnable<List<T>>() {
                 @Override
                 public List<T> run(Connection connection) throws SQLException {
                     List<T> results = new ArrayList<T>();
-                    for (String string : statements) {
-                        JDBCNodeStore.logSQLStatement(string);
-                        PreparedStatement prepared = connection.prepareStatement(string);
+                    for (SQLStatement statement : statements) {
+                        JDBCNodeStore.logSQLStatement(statement.toString());
+                        NodeStoreCalls.record(QUERY_CALL);
+                        PreparedStatement prepared = JDBCNodeStore.prepare(connection, statement, false);
                         try {
                             ResultSet rs = prepared.executeQuery();
                             try {
@@ -107,7 +116,7 @@ public class JDBCNodeStore implements INodeStore {
                                 rs.close();
                             }
                         } finally {
-                            prepared.close();
+                            JDBCNodeStore.release(statement, prepared);
                         }
                     }
                     return results;
@@ -120,10 +129,38 @@ public class JDBCNodeStore implements INodeStore {
     }
 
     static <T> T loadOne(ConnectionProvider provider, IResultHandler<T> handler, String statement) {
-        List<T> results = JDBCNodeStore.loadMany(provider, handler, Arrays.asList(statement));
+        return JDBCNodeStore.loadOne(provider, handler, new SQLStatement(statement, false));
+    }
+
+    static <T> T loadOne(ConnectionProvider provider, IResultHandler<T> handler, SQLStatement statement) {
+        List<T> results = JDBCNodeStore.loadManyStatements(provider, handler, Arrays.asList(statement));
         return results.isEmpty() ? null : results.get(0);
     }
 
+    /**
+     * Prepares the given statement, binding any parameters. Parameterized
+     * statements are reused across invocations on the same connection.
+     */
+    static PreparedStatement prepare(Connection connection, SQLStatement statement, boolean returnKeys) throws SQLException {
+        PreparedStatement prepared;
+        if (statement.isParameterized())
+            prepared = StatementCache.prepare(connection, statement.string, returnKeys);
+        else
+            prepared = connection.prepareStatement(statement.string, returnKeys ? Statement.RETURN_GENERATED_KEYS
+                    : Statement.NO_GENERATED_KEYS);
+        statement.bind(prepared);
+        return prepared;
+    }
+
+    /**
+     * Counterpart to {@link #prepare(Connection, SQLStatement, boolean)}.
+     * Cached statements are left open.
+     */
+    static void release(SQLStatement statement, PreparedStatement prepared) throws SQLException {
+        if (!statement.isParameterized())
+            prepared.close();
+    }
+
     static void logSQLStatement(String string) {
         if (JDBCNodeStore.DEBUG_SQL)
             System.out.println("***" + string);
@@ -153,13 +190,10 @@ public class JDBCNodeStore implements INodeStore {
                     int rowsAffected = 0;
                     List<String> sqlStatements = new ArrayList<String>();
                     for (SQLStatement statement : statements) {
-                        JDBCNodeStore.logSQLStatement(statement.string);
-                        sqlStatements.add(statement.string);
-                        PreparedStatement prepared = connection.prepareStatement(statement.string,
-                                returnKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
-                        if (statement.parameters != null)
-                            for (int i = 0; i < statement.parameters.size(); i++)
-                                prepared.setObject(i, statement.parameters.get(i));
+                        JDBCNodeStore.logSQLStatement(statement.toString());
+                        sqlStatements.add(statement.toString());
+                        NodeStoreCalls.record(UPDATE_CALL);
+                        PreparedStatement prepared = JDBCNodeStore.prepare(connection, statement, returnKeys);
                         try {
                             rowsAffected += prepared.executeUpdate();
                             if (returnKeys) {
@@ -172,7 +206,7 @@ public class JDBCNodeStore implements INodeStore {
                                 }
                             }
                         } finally {
-                            prepared.close();
+                            JDBCNodeStore.release(statement, prepared);
                         }
                     }
                     if (changeExpected && rowsAffected == 0) {
@@ -184,16 +218,20 @@ public class JDBCNodeStore implements INodeStore {
                 }
             });
         } catch (SQLException e) {
-            String message = "Error performing update: " + e.getMessage();
-            if ("23503".equals(e.getSQLState()))
-                message = "dependant records exist (on deletion) or required records are missing (on update/insert)";
-            else if ("23505".equals(e.getSQLState()))
-                message = "property does not admit duplicates";
-            throw new NodeStoreException(message, e);
+            throw JDBCNodeStore.toNodeStoreException(e);
         }
 
     }
 
+    static NodeStoreException toNodeStoreException(SQLException e) {
+        String message = "Error performing update: " + e.getMessage();
+        if ("23503".equals(e.getSQLState()))
+            message = "dependant records exist (on deletion) or required records are missing (on update/insert)";
+        else if ("23505".equals(e.getSQLState()))
+            message = "property does not admit duplicates";
+        return new NodeStoreException(message, e);
+    }
+
     /**
      * Runs a runnable with a connection. Acquires/releases it automatically.
      */
@@ -211,8 +249,26 @@ public class JDBCNodeStore implements INodeStore {
 
     static final boolean DEBUG_SQL = Boolean.getBoolean("debug.sql");
 
+    /**
+     * The kinds of calls reported to {@link NodeStoreCalls}.
+     */
+    static final String QUERY_CALL = "sql.query";
+    static final String UPDATE_CALL = "sql.update";
+    static final String BATCH_CALL = "sql.batch";
+
+    /**
+     * How many nodes are loaded by a single query when loading nodes by key.
+     */
+    private static final int MAX_KEYS_PER_QUERY = 1000;
+
     private Entity clazz;
 
+    /**
+     * Whether writes to this store must not be reordered within a batch, as
+     * the table has unique constraints.
+     */
+    private boolean orderedWrites;
+
     private JDBCNodeStoreCatalog catalog;
     
     private LoadKeyHandler loadKeyHandler;
@@ -230,6 +286,7 @@ public class JDBCNodeStore implements INodeStore {
         this.clazz = schema.getEntity(typeRef);
         this.loadKeyHandler = new LoadKeyHandler();
         Validate.isTrue(clazz != null, typeRef.toString());
+        this.orderedWrites = clazz.getProperties().stream().anyMatch(it -> it.isUnique());
         this.connectionProvider = connectionProvider;
     }
 
@@ -239,20 +296,25 @@ public class JDBCNodeStore implements INodeStore {
 
     @Override
     public boolean containsNode(INodeKey key) {
-        return !loadMany(loadKeyHandler, getGenerator().generateSelectOne(getStoreClass(), keyToId(key))).isEmpty();
+        return loadOne(loadKeyHandler, getGenerator().generateSelectOneStatement(getStoreClass(), keyToId(key))) != null;
     }
 
     @Override
     public INodeKey createNode(INode node) {
-        List<INodeKey> result = perform(
-                getGenerator().generateInsert(getStoreClass(), node.getProperties(), collectAllReferences(node), keyToId(node.getKey())),
-                true, true);
+        SQLStatement statement = getGenerator().generateInsertStatement(getStoreClass(), node.getProperties(),
+                collectAllReferences(node), keyToId(node.getKey()));
+        basicGetCatalog().touched(getName(), keyToId(node.getKey()));
+        // can only defer the insert if we already know the key
+        if (node.getKey() != null && batch(statement))
+            return node.getKey();
+        List<INodeKey> result = perform(statement, true, true);
         return result.isEmpty() ? null : result.get(0);
     }
 
     @Override
     public void deleteNode(INodeKey key) {
-        perform(getGenerator().generateDelete(getStoreClass(), keyToId(key)), false, true);
+        perform(getGenerator().generateDeleteStatement(getStoreClass(), keyToId(key)), false, true);
+        basicGetCatalog().deleted(getName());
     }
 
     @Override
@@ -267,7 +329,17 @@ public class JDBCNodeStore implements INodeStore {
 
     @Override
     public INode getNode(final INodeKey key) {
-        return loadOne(new LoadNodeHandler(), getGenerator().generateSelectOne(getStoreClass(), keyToId(key)).get(0));
+        NodeCache nodeCache = basicGetCatalog().getNodeCache();
+        if (nodeCache == null)
+            return loadOne(new LoadNodeHandler(), getGenerator().generateSelectOneStatement(getStoreClass(), keyToId(key)));
+        INode cached = nodeCache.get(getName(), key);
+        if (cached != null)
+            return cached;
+        long generation = nodeCache.getGeneration(getName());
+        INode loaded = loadOne(new LoadNodeHandler(), getGenerator().generateSelectOneStatement(getStoreClass(), keyToId(key)));
+        if (loaded != null)
+            nodeCache.put(getName(), generation, loaded);
+        return loaded;
     }
 
     @Override
@@ -277,7 +349,34 @@ public class JDBCNodeStore implements INodeStore {
     
     @Override
     public Collection<INodeKey> filter(Map<String, Collection<Object>> criteria, Integer limit) {
-        return loadMany(loadKeyHandler, getGenerator().generateSelectSome(getStoreClass(), criteria, limit));
+        SQLStatement statement = getGenerator().generateSelectSomeStatement(getStoreClass(), toDBCriteria(criteria), limit);
+        basicGetCatalog().flushBatch();
+        return JDBCNodeStore.loadManyStatements(connectionProvider, loadKeyHandler, Arrays.asList(statement));
+    }
+
+    @Override
+    public List<INodeKey> filter(Map<String, Collection<Object>> criteria, String sortKey, boolean ascending, long offset, Integer limit) {
+        SQLStatement statement = getGenerator().generateSelectPageStatement(getStoreClass(), toDBCriteria(criteria), sortKey, ascending,
+                offset, limit);
+        basicGetCatalog().flushBatch();
+        return JDBCNodeStore.loadManyStatements(connectionProvider, loadKeyHandler, Arrays.asList(statement));
+    }
+
+    @Override
+    public long count(Map<String, Collection<Object>> criteria) {
+        Number count = loadOne(new LoadSingleValueHandler<Number>(), getGenerator().generateCountStatement(getStoreClass(), toDBCriteria(criteria)));
+        return count == null ? 0 : count.longValue();
+    }
+
+    private Map<String, Collection<Object>> toDBCriteria(Map<String, Collection<Object>> criteria) {
+        Map<String, Collection<Object>> dbCriteria = new LinkedHashMap<String, Collection<Object>>();
+        for (Entry<String, Collection<Object>> entry : criteria.entrySet()) {
+            Collection<Object> values = new ArrayList<Object>(entry.getValue().size());
+            for (Object value : entry.getValue())
+                values.add(value instanceof NodeReference ? keyToId(((NodeReference) value).getKey()) : value);
+            dbCriteria.put(entry.getKey(), values);
+        }
+        return dbCriteria;
     }
     
     @Override
@@ -285,24 +384,69 @@ public class JDBCNodeStore implements INodeStore {
         return loadMany(new LoadNodeHandler(), getGenerator().generateSelectAll(getStoreClass()));
     }
 
+    @Override
+    public Map<INodeKey, INode> getNodes(Collection<INodeKey> keys) {
+        Map<INodeKey, INode> found = new HashMap<INodeKey, INode>();
+        NodeCache nodeCache = basicGetCatalog().getNodeCache();
+        List<Long> missing = new ArrayList<Long>(keys.size());
+        for (INodeKey key : keys) {
+            INode cached = nodeCache == null ? null : nodeCache.get(getName(), key);
+            if (cached != null)
+                found.put(key, cached);
+            else
+                missing.add(keyToId(key));
+        }
+        long generation = nodeCache == null ? 0 : nodeCache.getGeneration(getName());
+        for (int start = 0; start < missing.size(); start += MAX_KEYS_PER_QUERY) {
+            List<Long> chunk = missing.subList(start, Math.min(start + MAX_KEYS_PER_QUERY, missing.size()));
+            List<INode> loaded = loadMany(new LoadNodeHandler(), getGenerator().generateSelectManyStatement(getStoreClass(), chunk));
+            for (INode node : loaded) {
+                found.put(node.getKey(), node);
+                if (nodeCache != null)
+                    nodeCache.put(getName(), generation, node);
+            }
+        }
+        Map<INodeKey, INode> result = new LinkedHashMap<INodeKey, INode>();
+        for (INodeKey key : keys)
+            if (found.containsKey(key))
+                result.put(key, found.get(key));
+        return result;
+    }
+
     @Override
     public java.util.Collection<INodeKey> getRelatedNodeKeys(INodeKey key, String relationship, String relatedNodeStoreName) {
-//        Map<INodeKey, List<INodeKey>> relationshipCache = relatedNodeKeys.get(relationship);
-//        if (relationshipCache == null)
-//            relatedNodeKeys.put(relationship, relationshipCache = new LinkedHashMap<INodeKey, List<INodeKey>>());
-//        List<INodeKey> nodeRelationshipCache = relationshipCache.get(key);
-//        if (nodeRelationshipCache != null)
-//            return nodeRelationshipCache;
-        Relationship attribute = clazz.getRelationship(relationship);
-        TypeRef otherEntityTypeRef = new TypeRef(relatedNodeStoreName, TypeKind.Entity);
-        List<INodeKey> relatedNodeKeys = loadMany(loadKeyHandler, getGenerator().generateSelectRelatedKeys(attribute, otherEntityTypeRef, keyToId(key)));
-        //relationshipCache.put(key, relatedNodeKeys);
-        return relatedNodeKeys;
+        return loadRelated(Arrays.asList(key), relationship, relatedNodeStoreName, loadKeyHandler).get(key);
+    }
+
+    @Override
+    public Collection<NodeReference> getRelatedNodeReferences(INodeKey key, String relationship, String relatedNodeStoreName) {
+        return getRelatedNodeReferences(Arrays.asList(key), relationship, relatedNodeStoreName).get(key);
     }
 
-	@Override
-	public java.util.Collection<INode> getRelatedNodes(INodeKey key, String relationship, String relatedNodeStoreName) {
-        throw new UnsupportedOperationException();
+    @Override
+    public Map<INodeKey, Collection<NodeReference>> getRelatedNodeReferences(Collection<INodeKey> keys, String relationship,
+            String relatedNodeStoreName) {
+        Map<INodeKey, List<INodeKey>> relatedKeys = loadRelated(keys, relationship, relatedNodeStoreName, loadKeyHandler);
+        Map<INodeKey, Collection<NodeReference>> result = new LinkedHashMap<INodeKey, Collection<NodeReference>>();
+        for (Entry<INodeKey, List<INodeKey>> entry : relatedKeys.entrySet()) {
+            List<NodeReference> references = new ArrayList<NodeReference>(entry.getValue().size());
+            for (INodeKey relatedKey : entry.getValue())
+                references.add(new NodeReference(relatedNodeStoreName, relatedKey));
+            result.put(entry.getKey(), references);
+        }
+        return result;
+    }
+
+    @Override
+    public java.util.Collection<INode> getRelatedNodes(INodeKey key, String relationship, String relatedNodeStoreName) {
+        return getRelatedNodes(Arrays.asList(key), relationship, relatedNodeStoreName).get(key);
+    }
+
+    @Override
+    public Map<INodeKey, Collection<INode>> getRelatedNodes(Collection<INodeKey> keys, String relationship, String relatedNodeStoreName) {
+        JDBCNodeStore relatedStore = basicGetCatalog().getStore(relatedNodeStoreName);
+        return new LinkedHashMap<INodeKey, Collection<INode>>(loadRelated(keys, relationship, relatedNodeStoreName,
+                relatedStore.new LoadNodeHandler()));
     }
 
     public INodeKey idToKey(Long id) {
@@ -317,6 +461,7 @@ public class JDBCNodeStore implements INodeStore {
         if (related.size() > 1 && !relationship.isMultiple())
             throw new NodeStoreException("Relationship " + relationshipName + " accepts only one related instance");
         perform(getGenerator().generateSetRelated(relationship, keyToId(key), collectReferences(related), replace), false, true);
+        touched(key, related);
     }
 
     @Override
@@ -325,6 +470,7 @@ public class JDBCNodeStore implements INodeStore {
         if (related == null && relationship.isRequired())
             throw new NodeStoreException("Relationship " + relationshipName + " is required");
         perform(getGenerator().generateSetRelated(relationship, keyToId(key), Arrays.asList(keyToId(related.getKey())), false), false, true);
+        touched(key, Arrays.asList(related));
     }
 
     @Override
@@ -333,12 +479,16 @@ public class JDBCNodeStore implements INodeStore {
         TypeRef thisTypeRef = new TypeRef(this.getName(), TypeKind.Entity);
 		perform(getGenerator().generateRemoveRelated(clazz.getRelationship(relationship), thisTypeRef, keyToId(key), otherEntityTypeRef, keyToId(related.getKey())), false,
                 true);
+        touched(key, Arrays.asList(related));
     }
 
     @Override
     public void updateNode(INode node) {
-        perform(getGenerator().generateUpdate(getStoreClass(), node.getProperties(), collectAllReferences(node), keyToId(node.getKey())),
-                false, true);
+        SQLStatement statement = getGenerator().generateUpdateStatement(getStoreClass(), node.getProperties(),
+                collectAllReferences(node), keyToId(node.getKey()));
+        basicGetCatalog().touched(getName(), keyToId(node.getKey()));
+        if (!batch(statement))
+            perform(statement, false, true);
     }
 
     protected JDBCNodeStoreCatalog basicGetCatalog() {
@@ -349,10 +499,66 @@ public class JDBCNodeStore implements INodeStore {
         return key == null ? null : ((IntegerKey) key).getInnerKey();
     }
 
-    <T> T loadOne(IResultHandler<T> handler, String statement) {
+    <T> T loadOne(IResultHandler<T> handler, SQLStatement statement) {
+        basicGetCatalog().flushBatch();
         return JDBCNodeStore.loadOne(this.connectionProvider, handler, statement);
     }
 
+    /**
+     * Loads whatever the given handler produces for the objects related to
+     * any of the given nodes, with a single query.
+     * 
+     * @return the results for each of the given keys, in the same order
+     */
+    private <T> Map<INodeKey, List<T>> loadRelated(Collection<INodeKey> keys, String relationship, String relatedNodeStoreName,
+            IResultHandler<T> handler) {
+        Map<INodeKey, List<T>> result = new LinkedHashMap<INodeKey, List<T>>();
+        for (INodeKey key : keys)
+            result.put(key, new ArrayList<T>());
+        if (keys.isEmpty())
+            return result;
+        Relationship attribute = clazz.getRelationship(relationship);
+        TypeRef otherEntityTypeRef = new TypeRef(relatedNodeStoreName, TypeKind.Entity);
+        List<Long> ids = new ArrayList<Long>(result.size());
+        for (INodeKey key : result.keySet())
+            ids.add(keyToId(key));
+        boolean keysOnly = handler == loadKeyHandler;
+        SQLStatement statement = getGenerator().generateSelectRelatedStatement(attribute, otherEntityTypeRef, ids, keysOnly, true);
+        basicGetCatalog().flushBatch();
+        List<Object[]> rows = JDBCNodeStore.loadManyStatements(connectionProvider, new IResultHandler<Object[]>() {
+            @Override
+            public Object[] handle(ResultSet rs) throws SQLException {
+                return new Object[] { idToKey(rs.getLong(SQLGenerator.SOURCE_KEY_COLUMN)), handler.handle(rs) };
+            }
+        }, Arrays.asList(statement));
+        for (Object[] row : rows)
+            result.get(row[0]).add((T) row[1]);
+        return result;
+    }
+
+    /**
+     * Records that both ends of a link were touched, so they get validated.
+     */
+    private void touched(INodeKey key, Collection<NodeReference> related) {
+        basicGetCatalog().touched(getName(), keyToId(key));
+        for (NodeReference reference : related)
+            basicGetCatalog().touched(reference.getStoreName(), keyToId(reference.getKey()));
+    }
+
+    /**
+     * Adds the given statement to the current batch, if any.
+     * 
+     * @return whether the statement was batched
+     */
+    private boolean batch(SQLStatement statement) {
+        WriteBatch batch = basicGetCatalog().getBatch();
+        if (batch == null)
+            return false;
+        statement.changeExpected = true;
+        batch.add(statement, orderedWrites);
+        return true;
+    }
+
     private Map<String, Collection<Long>> collectAllReferences(INode node) {
         Map<String, Collection<Long>> references = new HashMap<String, Collection<Long>>();
         for (Entry<String, Collection<NodeReference>> entry : node.getRelated().entrySet())
@@ -408,17 +614,22 @@ public class JDBCNodeStore implements INodeStore {
     }
 
     private <T> List<T> loadMany(IResultHandler<T> handler, List<String> generateSelectAll) {
+        basicGetCatalog().flushBatch();
         return JDBCNodeStore.loadMany(connectionProvider, handler, generateSelectAll);
     }
 
+    private <T> List<T> loadMany(IResultHandler<T> handler, SQLStatement statement) {
+        basicGetCatalog().flushBatch();
+        return JDBCNodeStore.loadManyStatements(connectionProvider, handler, Arrays.asList(statement));
+    }
+
     private List<INodeKey> perform(List<String> statements, boolean returnKeys, boolean changeExpected) {
+        basicGetCatalog().flushBatch();
         return JDBCNodeStore.perform(connectionProvider, statements, returnKeys, changeExpected);
     }
 
-	@Override
-	public Collection<NodeReference> getRelatedNodeReferences(INodeKey key, String relationship,
-			String relatedNodeStoreName) {
-		// TODO Auto-generated method stub
-		return null;
-	}
+    private List<INodeKey> perform(SQLStatement statement, boolean returnKeys, boolean changeExpected) {
+        basicGetCatalog().flushBatch();
+        return JDBCNodeStore.performStatements(connectionProvider, Arrays.asList(statement), returnKeys, changeExpected);
+    }
 }
@@ -5,12 +5,13 @@ import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.Validate;
 
@@ -43,7 +44,66 @@ public class JDBCNodeStoreCatalog implements INodeStoreCatalog {
 
     private ConnectionProvider connectionProvider;
 
-    private Map<String, JDBCNodeStore> stores = new LinkedHashMap<String, JDBCNodeStore>();
+    private Map<String, JDBCNodeStore> stores = new ConcurrentHashMap<String, JDBCNodeStore>();
+
+    /**
+     * Nodes shared with other catalogs for the same schema, or
+     * <code>null</code> if node caching is disabled.
+     */
+    private final NodeCache nodeCache;
+
+    /**
+     * Whether the current thread's transaction was started as read-only.
+     */
+    private ThreadLocal<Boolean> readOnlyTransaction = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
+    /**
+     * What the current thread changed since constraints were last validated.
+     */
+    private static class ChangeSet {
+        /**
+         * Ids of objects created or modified, per store.
+         */
+        final Map<String, Set<Long>> touched = new HashMap<String, Set<Long>>();
+        /**
+         * Stores objects were deleted from.
+         */
+        final Set<String> deletedFrom = new HashSet<String>();
+    }
+
+    private ThreadLocal<ChangeSet> changes = new ThreadLocal<ChangeSet>() {
+        @Override
+        protected ChangeSet initialValue() {
+            return new ChangeSet();
+        }
+    };
+
+    /**
+     * What the current thread changed since its transaction began. Unlike
+     * {@link #changes}, this is not consumed by validation, as it is needed
+     * for invalidating cached nodes once the transaction commits.
+     */
+    private ThreadLocal<ChangeSet> dirty = new ThreadLocal<ChangeSet>() {
+        @Override
+        protected ChangeSet initialValue() {
+            return new ChangeSet();
+        }
+    };
+
+    /**
+     * Writes collected on the current thread while a batch is active.
+     */
+    private ThreadLocal<WriteBatch> batch = new ThreadLocal<WriteBatch>() {
+        @Override
+        protected WriteBatch initialValue() {
+            return new WriteBatch();
+        }
+    };
 
     public JDBCNodeStoreCatalog(String name, SchemaManagement schema) {
         Validate.isTrue(schema != null);
@@ -51,19 +111,49 @@ public class JDBCNodeStoreCatalog implements INodeStoreCatalog {
         this.metadata = schema;
         this.generator = new SQLGenerator(name, schema);
         this.connectionProvider = new ConnectionProvider();
+        this.nodeCache = NodeCache.forCatalog(name);
     }
 
     @Override
     public void abortTransaction() {
-        if (!connectionProvider.hasConnection())
+        batch.remove();
+        changes.remove();
+        readOnlyTransaction.remove();
+        if (!connectionProvider.hasConnection()) {
+            dirty.remove();
             return;
+        }
         try {
             connectionProvider.releaseConnection(false);
         } catch (SQLException e) {
             throw new NodeStoreException("Error rolling back changes: " + e.getMessage());
+        } finally {
+            if (!connectionProvider.hasConnection())
+                dirty.remove();
         }
     }
 
+    @Override
+    public void beginBatch() {
+        batch.get().enter();
+    }
+
+    @Override
+    public void endBatch(boolean flush) {
+        WriteBatch current = batch.get();
+        if (!current.leave())
+            return;
+        batch.remove();
+        if (flush)
+            flush(current);
+    }
+
+    @Override
+    public void beginTransaction(boolean readOnly) {
+        beginTransaction();
+        readOnlyTransaction.set(readOnly);
+    }
+
     @Override
     public void beginTransaction() {
         try {
@@ -76,7 +166,7 @@ public class JDBCNodeStoreCatalog implements INodeStoreCatalog {
     }
 
     public void clearCache() {
-        this.stores = new LinkedHashMap<String, JDBCNodeStore>();
+        this.stores = new ConcurrentHashMap<String, JDBCNodeStore>();
     }
 
     @Override
@@ -87,13 +177,45 @@ public class JDBCNodeStoreCatalog implements INodeStoreCatalog {
 
     @Override
     public void commitTransaction() {
+        changes.remove();
+        readOnlyTransaction.remove();
         try {
             connectionProvider.releaseConnection(true);
         } catch (SQLException e) {
             throw new NodeStoreException("Error committing changes: " + e.getMessage());
+        } finally {
+            // only the outermost commit actually commits
+            if (!connectionProvider.hasConnection()) {
+                ChangeSet committed = dirty.get();
+                dirty.remove();
+                invalidate(committed);
+            }
         }
     }
 
+    /**
+     * Drops cached nodes the given changes may have made stale. Deletions
+     * may cascade to other stores, so they drop everything.
+     */
+    private void invalidate(ChangeSet changed) {
+        if (nodeCache == null)
+            return;
+        if (!changed.deletedFrom.isEmpty())
+            nodeCache.invalidateAll();
+        else
+            nodeCache.invalidate(changed.touched.keySet());
+    }
+
+    /**
+     * Returns the node cache to serve reads from in the current transaction,
+     * or <code>null</code> if nodes should be loaded from the database. Only
+     * read-only transactions use the cache, as a transaction that writes
+     * must see its own changes.
+     */
+    NodeCache getNodeCache() {
+        return readOnlyTransaction.get() ? nodeCache : null;
+    }
+
     @Override
     public INodeStore createStore(String name) {
         return getStore(name);
@@ -123,13 +245,9 @@ public class JDBCNodeStoreCatalog implements INodeStoreCatalog {
     }
 
     @Override
-    public INodeStore getStore(String name) {
-        JDBCNodeStore existing = stores.get(name);
-        if (existing != null)
-            return existing;
-        JDBCNodeStore newStore = new JDBCNodeStore(this, getConnectionProvider(), metadata, new TypeRef(name, TypeKind.Entity));
-        stores.put(name, newStore);
-        return newStore;
+    public JDBCNodeStore getStore(String name) {
+        return stores.computeIfAbsent(name,
+                it -> new JDBCNodeStore(this, getConnectionProvider(), metadata, new TypeRef(it, TypeKind.Entity)));
     }
 
     @Override
@@ -181,6 +299,8 @@ public class JDBCNodeStoreCatalog implements INodeStoreCatalog {
         }
         List<String> creationStatements = generator.generateFullCreateSchema(findAllPackages());
         JDBCNodeStore.perform(connectionProvider, creationStatements, false, false);
+        if (nodeCache != null)
+            nodeCache.invalidateAll();
     }
 
     @Override
@@ -189,12 +309,34 @@ public class JDBCNodeStoreCatalog implements INodeStoreCatalog {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Validates only what was touched since the last validation. Only
+     * relationships kept in mapping tables are checked here, anything else
+     * (required and unique values, foreign keys) is enforced by the database
+     * constraints.
+     */
     @Override
     public void validateConstraints() {
+        flushBatch();
+        ChangeSet changeSet = changes.get();
+        changes.remove();
+        if (changeSet.touched.isEmpty() && changeSet.deletedFrom.isEmpty())
+            return;
         for (Entity entity : this.metadata.getAllEntities()) {
+            Set<Long> touchedIds = changeSet.touched.get(entity.getTypeRef().toString());
             List<Relationship> relationships = entity.getRelationships();
             for (Relationship relationship : relationships) {
-                List<String> stmts = generator.generateValidate(relationship);
+                if (relationship.isDerived() || !generator.isMappingTableRelationship(relationship))
+                    continue;
+                Collection<Long> toValidate;
+                if (changeSet.deletedFrom.contains(relationship.getTypeRef().toString()))
+                    // the related objects are gone, so we can't tell which objects were affected
+                    toValidate = null;
+                else if (touchedIds != null)
+                    toValidate = touchedIds;
+                else
+                    continue;
+                List<String> stmts = generator.generateValidate(relationship, toValidate);
                 for (String statement : stmts) {
                     Number count = JDBCNodeStore
                             .<Number> loadOne(connectionProvider, new JDBCNodeStore.LoadSingleValueHandler(), statement);
@@ -210,6 +352,60 @@ public class JDBCNodeStoreCatalog implements INodeStoreCatalog {
     public void zap() {
         // zap should not require metadata (repository may not be available)
         JDBCNodeStore.perform(connectionProvider, generator.generateDropSchema(false), false, false);
+        if (nodeCache != null)
+            nodeCache.invalidateAll();
+    }
+
+    /**
+     * Records that the given object was created or modified, so it gets
+     * validated.
+     */
+    void touched(String storeName, Long id) {
+        if (id == null)
+            return;
+        changes.get().touched.computeIfAbsent(storeName, it -> new HashSet<Long>()).add(id);
+        dirty.get().touched.computeIfAbsent(storeName, it -> new HashSet<Long>()).add(id);
+    }
+
+    /**
+     * Records that objects were deleted from the given store.
+     */
+    void deleted(String storeName) {
+        changes.get().deletedFrom.add(storeName);
+        dirty.get().deletedFrom.add(storeName);
+    }
+
+    /**
+     * Returns the batch writes on the current thread should be added to, or
+     * <code>null</code> if writes are not being batched.
+     */
+    WriteBatch getBatch() {
+        WriteBatch current = batch.get();
+        return current.isActive() ? current : null;
+    }
+
+    /**
+     * Performs any writes batched so far on the current thread, so they are
+     * visible to whatever comes next.
+     */
+    void flushBatch() {
+        WriteBatch current = batch.get();
+        if (!current.isEmpty())
+            flush(current);
+    }
+
+    private void flush(WriteBatch toFlush) {
+        try {
+            JDBCNodeStore.runWithConnection(connectionProvider, new ConnectionRunnable<Void>() {
+                @Override
+                public Void run(Connection connection) throws SQLException {
+                    toFlush.flush(connection);
+                    return null;
+                }
+            });
+        } catch (SQLException e) {
+            throw JDBCNodeStore.toNodeStoreException(e);
+        }
     }
 
     protected SQLGenerator newSQLGenerator() {
@@ -224,6 +420,14 @@ public class JDBCNodeStoreCatalog implements INodeStoreCatalog {
         return connectionProvider;
     }
 
+    /**
+     * Returns the connection pool backing this catalog, or <code>null</code>
+     * if connection pooling is not enabled.
+     */
+    public ConnectionPool getConnectionPool() {
+        return connectionProvider.getPool();
+    }
+
     public void setReadOnly(boolean readOnly) {
         this.connectionProvider.setReadOnly(readOnly);
     }
@@ -0,0 +1,104 @@
+package com.abstratt.nodestore.jdbc;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.abstratt.nodestore.INode;
+import com.abstratt.nodestore.INodeKey;
+
+/**
+ * Nodes recently loaded by read-only transactions, shared by all catalogs
+ * (and threads) using the same schema, so frequently read objects are not
+ * loaded from the database over and over.
+ *
+ * Each store keeps at most {@link #MAX_NODES} nodes, evicting the least
+ * recently used ones. The cache is disabled (the default) if that is zero.
+ *
+ * A store's nodes are dropped whenever a transaction that changed it
+ * commits. To avoid caching a node that was loaded before such a commit but
+ * is only added after it, callers take a {@link #getGeneration(String)
+ * generation} before loading a node and pass it when adding it.
+ */
+class NodeCache {
+    private static final int MAX_NODES = Integer.getInteger("nodestore.jdbc.nodeCacheSize", 0);
+
+    private static final Map<String, NodeCache> caches = new ConcurrentHashMap<String, NodeCache>();
+
+    /**
+     * Returns the cache for the given catalog, or <code>null</code> if
+     * caching is disabled.
+     */
+    static NodeCache forCatalog(String catalogName) {
+        if (MAX_NODES <= 0)
+            return null;
+        return caches.computeIfAbsent(catalogName, it -> new NodeCache());
+    }
+
+    private final Map<String, StoreCache> stores = new ConcurrentHashMap<String, StoreCache>();
+
+    private static class StoreCache {
+        private final AtomicLong generation = new AtomicLong();
+
+        private final Map<INodeKey, INode> nodes = new LinkedHashMap<INodeKey, INode>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<INodeKey, INode> eldest) {
+                return size() > MAX_NODES;
+            }
+        };
+    }
+
+    private StoreCache getStoreCache(String storeName) {
+        return stores.computeIfAbsent(storeName, it -> new StoreCache());
+    }
+
+    /**
+     * Returns a copy of the cached node, or <code>null</code> if the node is
+     * not cached.
+     */
+    INode get(String storeName, INodeKey key) {
+        StoreCache storeCache = getStoreCache(storeName);
+        INode cached;
+        synchronized (storeCache) {
+            cached = storeCache.nodes.get(key);
+        }
+        return cached == null ? null : cached.clone();
+    }
+
+    long getGeneration(String storeName) {
+        return getStoreCache(storeName).generation.get();
+    }
+
+    /**
+     * Caches a copy of the given node, loaded after the given generation was
+     * obtained, unless the store was invalidated since.
+     */
+    void put(String storeName, long generation, INode node) {
+        StoreCache storeCache = getStoreCache(storeName);
+        synchronized (storeCache) {
+            if (storeCache.generation.get() == generation)
+                storeCache.nodes.put(node.getKey(), node.clone());
+        }
+    }
+
+    /**
+     * Drops all nodes cached for the given stores.
+     */
+    void invalidate(Collection<String> storeNames) {
+        for (String storeName : storeNames) {
+            StoreCache storeCache = getStoreCache(storeName);
+            synchronized (storeCache) {
+                storeCache.generation.incrementAndGet();
+                storeCache.nodes.clear();
+            }
+        }
+    }
+
+    void invalidateAll() {
+        invalidate(stores.keySet());
+    }
+}
@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -43,6 +44,12 @@ import com.abstratt.kirra.TypeRef.TypeKind;
  */
 public class SQLGenerator {
 
+    /**
+     * The column holding the id of the context object in queries generated
+     * by {@link #generateSelectRelatedStatement(Relationship, TypeRef, Collection, boolean, boolean)}.
+     */
+    public static final String SOURCE_KEY_COLUMN = "__source__";
+
     public static boolean isMappingTableRelationship(SchemaManagement metadata, Relationship element) {
         Validate.isTrue(!element.isDerived());
         Relationship opposite = metadata.getOpposite(element);
@@ -140,9 +147,13 @@ public class SQLGenerator {
 
 
     public List<String> generateDelete(Entity clazz, long id) {
-    	List<String> statements = new ArrayList<>();
-    	statements.add("delete from " + modelToSchemaName(clazz) + " where id = " + id + ";");
-		return statements;
+        return Arrays.asList(toLiteralSQL(generateDeleteStatement(clazz, id)));
+    }
+
+    public SQLStatement generateDeleteStatement(Entity clazz, long id) {
+        SQLStatement statement = new SQLStatement();
+        statement.string = "delete from " + modelToSchemaName(clazz) + " where id = " + parameter(statement, id, Types.BIGINT) + ";";
+        return statement;
     }
 
     public List<String> generateDropSchema(boolean required) {
@@ -158,6 +169,12 @@ public class SQLGenerator {
     }
 
     public List<String> generateInsert(Entity clazz, Map<String, Object> values, Map<String, Collection<Long>> references, Long id) {
+        return Arrays.asList(toLiteralSQL(generateInsertStatement(clazz, values, references, id)));
+    }
+
+    public SQLStatement generateInsertStatement(Entity clazz, Map<String, Object> values, Map<String, Collection<Long>> references,
+            Long id) {
+        SQLStatement statement = new SQLStatement();
         String stmt = "insert into " + modelToSchemaName(clazz) + " (id";
         for (DataElement property : getProperties(clazz))
             stmt += ", " + modelToSchemaName(property);
@@ -169,10 +186,10 @@ public class SQLGenerator {
         if (id == null)
             stmt += "nextval('" + catalogName + ".sequence')";
         else
-            stmt += id;
+            stmt += parameter(statement, id, Types.BIGINT);
 
         for (Property property : getProperties(clazz)) {
-            String dbValue = property.isAutoGenerated() ? "nextval('" + catalogName + ".sequence')" : toDBValue(
+            String dbValue = property.isAutoGenerated() ? "nextval('" + catalogName + ".sequence')" : parameter(statement,
                     values.get(property.getName()), property.getTypeRef());
             stmt += ", " + dbValue;
         }
@@ -181,12 +198,12 @@ public class SQLGenerator {
                 Collection<Long> singleRef = references.get(relationship.getName());
                 Long fkValue = singleRef == null || singleRef.isEmpty() ? null : singleRef.iterator().next();
                 fkValue = (fkValue == null && relationship.isRequired()) ? ((Long) (-1L)) : fkValue;
-                stmt += ", " + fkValue;
+                stmt += ", " + parameter(statement, fkValue, Types.BIGINT);
             }
         }
         stmt += ");";
-
-        return Arrays.asList(stmt);
+        statement.string = stmt;
+        return statement;
     }
 
     public List<String> generateRemoveRelated(Relationship myRelationship, TypeRef thisType, Long thisId, TypeRef relatedType, Long otherId) {
@@ -228,36 +245,116 @@ public class SQLGenerator {
     
 
     public List<String> generateSelectSome(Entity clazz, Map<String, Collection<Object>> criteria, Integer limit) {
-        String stmt = generateSelect(clazz);
-        stmt += " where ";
+        return Arrays.asList(toLiteralSQL(generateSelectSomeStatement(clazz, criteria, limit)));
+    }
+
+    /**
+     * Generates a query selecting the rows matching all the given criteria.
+     * Criteria are keyed by property or relationship name, and relationship
+     * criteria values are expected to be ids.
+     */
+    public SQLStatement generateSelectSomeStatement(Entity clazz, Map<String, Collection<Object>> criteria, Integer limit) {
+        SQLStatement statement = new SQLStatement();
+        String stmt = generateSelect(clazz) + generateWhere(statement, clazz, criteria);
+        if (limit != null)
+            stmt += " LIMIT " + limit;
+        stmt += ";";
+        statement.string = stmt;
+        return statement;
+    }
+
+    /**
+     * Generates a query selecting a page of the keys of the rows matching all
+     * the given criteria, ordered by the given property (or by id, if none is
+     * given). Ties are broken by id, so pages are stable.
+     */
+    public SQLStatement generateSelectPageStatement(Entity clazz, Map<String, Collection<Object>> criteria, String sortKey,
+            boolean ascending, long offset, Integer limit) {
+        SQLStatement statement = new SQLStatement();
+        String stmt = generateSelect(clazz, null, true) + generateWhere(statement, clazz, criteria);
+        String direction = ascending ? "" : " desc";
+        Property sortProperty = sortKey == null ? null : clazz.getProperty(sortKey);
+        if (sortProperty != null && isPersistable(sortProperty))
+            stmt += " order by " + modelToSchemaName(sortProperty) + direction + " nulls last, id" + direction;
+        else
+            stmt += " order by id" + direction;
+        if (limit != null)
+            stmt += " LIMIT " + limit;
+        if (offset > 0)
+            stmt += " OFFSET " + offset;
+        stmt += ";";
+        statement.string = stmt;
+        return statement;
+    }
+
+    /**
+     * Generates a query counting the rows matching all the given criteria.
+     */
+    public SQLStatement generateCountStatement(Entity clazz, Map<String, Collection<Object>> criteria) {
+        SQLStatement statement = new SQLStatement();
+        statement.string = "select count(*) from " + modelToSchemaName(clazz) + generateWhere(statement, clazz, criteria) + ";";
+        return statement;
+    }
+
+    /**
+     * Generates a where clause (with a leading space) requiring all the given
+     * criteria, or an empty string if there are none.
+     */
+    private String generateWhere(SQLStatement statement, Entity clazz, Map<String, Collection<Object>> criteria) {
         List<String> terms = new ArrayList<String>();
         for (Entry<String, Collection<Object>> entry : criteria.entrySet()) {
-            if (entry.getValue().size() == 1) {
-                Object singleValue = entry.getValue().iterator().next();
-                terms.add(entry.getKey() + " = " + (singleValue instanceof String ? ("'" + singleValue + "'") : singleValue));
-            } else if (entry.getValue().size() == 2) {
-                Collection<Object> multipleValues = entry.getValue();
-                String in = entry.getKey() + " in (";
+            String column;
+            Integer jdbcType;
+            Property property = clazz.getProperty(entry.getKey());
+            Relationship relationship = property == null ? clazz.getRelationship(entry.getKey()) : null;
+            if (property != null) {
+                column = modelToSchemaName(property);
+                jdbcType = getJDBCType(property.getTypeRef());
+            } else if (relationship != null) {
+                column = generateSelfToOppositeFK(relationship);
+                jdbcType = Types.BIGINT;
+            } else {
+                column = escape(entry.getKey());
+                jdbcType = null;
+            }
+            Collection<Object> values = entry.getValue();
+            if (values.isEmpty()) {
+                // nothing can match
+                terms.add("false");
+            } else if (values.size() == 1) {
+                Object singleValue = values.iterator().next();
+                terms.add(column + " = " + parameter(statement, toParameterValue(singleValue, jdbcType), jdbcType));
+            } else {
                 List<String> items = new ArrayList<String>();
-                for (Object value : multipleValues)
-                    items.add(value instanceof String ? ("'" + value + "'") : (String) value);
-                in += StringUtils.join(items, ", ");
-                in += ")";
-                terms.add(in);
+                for (Object value : values)
+                    items.add(parameter(statement, toParameterValue(value, jdbcType), jdbcType));
+                terms.add(column + " in (" + StringUtils.join(items, ", ") + ")");
             }
         }
-        stmt += StringUtils.join(terms, " and ");
-        if (limit != null)
-            stmt += " LIMIT " + limit;
-        stmt += ";";
-        return Arrays.asList(stmt);
+        return terms.isEmpty() ? "" : " where " + StringUtils.join(terms, " and ");
     }
 
-
     public List<String> generateSelectOne(Entity clazz, long key) {
-        String stmt = generateSelect(clazz);
-        stmt += " where id = " + key + ";";
-        return Arrays.asList(stmt);
+        return Arrays.asList(toLiteralSQL(generateSelectOneStatement(clazz, key)));
+    }
+
+    public SQLStatement generateSelectOneStatement(Entity clazz, long key) {
+        SQLStatement statement = new SQLStatement();
+        statement.string = generateSelect(clazz) + " where id = " + parameter(statement, key, Types.BIGINT) + ";";
+        return statement;
+    }
+
+    /**
+     * Generates a query that loads the instances with the given keys.
+     */
+    public SQLStatement generateSelectManyStatement(Entity clazz, Collection<Long> keys) {
+        Validate.isTrue(!keys.isEmpty());
+        SQLStatement statement = new SQLStatement();
+        List<String> items = new ArrayList<String>(keys.size());
+        for (Long key : keys)
+            items.add(parameter(statement, key, Types.BIGINT));
+        statement.string = generateSelect(clazz) + " where id in (" + StringUtils.join(items, ", ") + ");";
+        return statement;
     }
     
     /**
@@ -276,19 +373,61 @@ public class SQLGenerator {
      * @param key the id of the current object
      */
     public List<String> generateSelectRelatedKeys(Relationship myRelationship, TypeRef otherEntityRef, long key) {
+        return Arrays.asList(toLiteralSQL(generateSelectRelatedStatement(myRelationship, otherEntityRef, Arrays.asList(key), true,
+                false)));
+    }
+
+    /**
+     * Generates a SQL query that returns the objects related to any of the
+     * given context objects through the given relationship, in a single
+     * round trip (joining via the mapping table or the foreign key, as
+     * appropriate).
+     * 
+     * @param myRelationship the relationship to traverse
+     * @param otherEntityRef the type of the related objects (useful in polymorphic associations)
+     * @param keys the ids of the context objects
+     * @param keysOnly whether to select only the related ids, or all of the related objects' columns
+     * @param withSourceKey whether to also select the id of the context object each row is related to (as {@link #SOURCE_KEY_COLUMN})
+     */
+    public SQLStatement generateSelectRelatedStatement(Relationship myRelationship, TypeRef otherEntityRef, Collection<Long> keys,
+            boolean keysOnly, boolean withSourceKey) {
+        Validate.isTrue(!keys.isEmpty());
         Relationship otherEnd = metadata.getOpposite(myRelationship);
         Entity contextEntity = metadata.getEntity(myRelationship.getOwner());
         Entity otherEntity = metadata.getEntity(otherEntityRef);
-        if (otherEnd == null) {
-            if (myRelationship.isMultiple())
-                return generateSelectManyRelatedKeysViaMappingTable(myRelationship, key, otherEnd, contextEntity);
-            return generateSelectOneRelatedKey(myRelationship, key, otherEnd, otherEntity, contextEntity);
+        SQLStatement statement = new SQLStatement();
+        String stmt;
+        String sourceKey;
+        if (isMappingTableRelationship(myRelationship)) {
+            String mappingTableName = getMappingTableName(contextEntity, myRelationship, otherEnd);
+            stmt = generateSelectViaMappingTable(contextEntity, myRelationship, otherEnd, keysOnly);
+            sourceKey = escape(mappingTableName) + "." + generateSelfToOppositeFK(otherEnd);
+        } else if (myRelationship.isMultiple()) {
+            stmt = generateSelect(otherEntity, null, keysOnly);
+            sourceKey = generateSelfToOppositeFK(otherEnd);
+        } else {
+            Relationship sourceRelationship = myRelationship.isNavigable() ? otherEnd : myRelationship;
+            Relationship targetRelationship = myRelationship.isNavigable() ? myRelationship : otherEnd;
+            stmt = generateSelect(otherEntity, modelToSchemaName(myRelationship), keysOnly);
+            stmt += " join " + tableName(contextEntity.getEntityNamespace(), contextEntity.getName())
+                    + asAlias(generateSelfToOppositeFK(otherEnd));
+            stmt += " on " + modelToSchemaName(targetRelationship) + ".id";
+            stmt += " = " + generateSelfToOppositeFK(sourceRelationship) + '.' + modelToSchemaName(targetRelationship);
+            sourceKey = generateSelfToOppositeFK(otherEnd) + ".id";
         }
-        if (isMappingTableRelationship(myRelationship))
-            return generateSelectManyRelatedKeysViaMappingTable(myRelationship, key, otherEnd, contextEntity);
-        if (myRelationship.isMultiple())
-            return generateSelectManyRelatedDirectlyKeys(key, otherEnd, otherEntity);
-        return generateSelectOneRelatedKey(myRelationship, key, otherEnd, otherEntity, contextEntity);
+        if (withSourceKey)
+            stmt = "select " + sourceKey + " as " + SOURCE_KEY_COLUMN + ", " + StringUtils.removeStart(stmt, "select ");
+        stmt += " where " + sourceKey;
+        if (keys.size() == 1) {
+            stmt += " = " + parameter(statement, keys.iterator().next(), Types.BIGINT);
+        } else {
+            List<String> items = new ArrayList<String>(keys.size());
+            for (Long key : keys)
+                items.add(parameter(statement, key, Types.BIGINT));
+            stmt += " in (" + StringUtils.join(items, ", ") + ")";
+        }
+        statement.string = stmt + ";";
+        return statement;
     }
 
     public List<String> generateSetRelated(Relationship myRelationship, long targetKey, Collection<Long> relatedKeys,
@@ -384,24 +523,47 @@ public class SQLGenerator {
     }
 
     public List<String> generateUpdate(Entity clazz, Map<String, Object> values, Map<String, Collection<Long>> references, Long id) {
+        return Arrays.asList(toLiteralSQL(generateUpdateStatement(clazz, values, references, id)));
+    }
+
+    public SQLStatement generateUpdateStatement(Entity clazz, Map<String, Object> values, Map<String, Collection<Long>> references,
+            Long id) {
+        SQLStatement statement = new SQLStatement();
         String stmt = "update " + modelToSchemaName(clazz) + " set ";
         for (Property property : getProperties(clazz))
             if (!property.isAutoGenerated())
-                stmt += modelToSchemaName(property) + " = " + toDBValue(values.get(property.getName()), property.getTypeRef()) + ", ";
+                stmt += modelToSchemaName(property) + " = " + parameter(statement, values.get(property.getName()), property.getTypeRef())
+                        + ", ";
         for (Relationship relationship : getRelationships(clazz)) {
             if (!isMappingTableRelationship(relationship)) {
                 Collection<Long> singleRef = references.get(relationship.getName());
                 stmt += generateSelfToOppositeFK(relationship) + " = "
-                        + (singleRef == null || singleRef.isEmpty() ? null : singleRef.iterator().next()) + ", ";
+                        + parameter(statement, singleRef == null || singleRef.isEmpty() ? null : singleRef.iterator().next(), Types.BIGINT)
+                        + ", ";
             }
         }
         stmt = stmt.substring(0, stmt.length() - 2);
-        stmt += " where id = " + id + ";";
-        return Arrays.asList(stmt);
+        stmt += " where id = " + parameter(statement, id, Types.BIGINT) + ";";
+        statement.string = stmt;
+        return statement;
     }
 
     public List<String> generateValidate(Relationship relationship) {
+        return generateValidate(relationship, null);
+    }
+
+    /**
+     * Generates queries that return a row if the given relationship is
+     * violated.
+     * 
+     * @param relationship the relationship to validate
+     * @param ids if not <code>null</code>, validation is limited to the context objects with these ids
+     */
+    public List<String> generateValidate(Relationship relationship, Collection<Long> ids) {
         Validate.isTrue(relationship != null);
+        Validate.isTrue(ids == null || !ids.isEmpty());
+        String restriction = ids == null ? "" : (" and " + generateOppositeToSelfFK(metadata.getOpposite(relationship)) + ".id in ("
+                + StringUtils.join(ids, ", ") + ")");
         if (relationship.isDerived() || !relationship.isNavigable())
             return Collections.emptyList();
         List<String> statements = new ArrayList<String>();
@@ -419,7 +581,7 @@ public class SQLGenerator {
                     statement += " left join " + tableName(context.getEntityNamespace(), mappingTableName) + asAlias(mappingTableAlias);
                     statement += " on " + mappingTableAlias + "." + generateOppositeToSelfFK(otherEnd);
                     statement += " = " + thisAlias + ".id";
-                    statement += " where " + mappingTableAlias + "." + otherAlias + " is null;";
+                    statement += " where " + mappingTableAlias + "." + otherAlias + " is null" + restriction + ";";
                     statements.add(statement);
                 }
             } else {
@@ -429,7 +591,7 @@ public class SQLGenerator {
                     statement += " left join " + tableName(otherEntity.getEntityNamespace(), otherEntity.getName()) + asAlias(otherAlias);
                     statement += " on " + otherAlias + ".id";
                     statement += " = " + thisAlias + '.' + modelToSchemaName(relationship);
-                    statement += " where " + otherAlias + ".id is null;";
+                    statement += " where " + otherAlias + ".id is null" + restriction + ";";
                     statements.add(statement);
                 }
             }
@@ -444,7 +606,7 @@ public class SQLGenerator {
             return Types.BIGINT;
         if ("Double".equals(name))
             return Types.NUMERIC;
-        if ("String".equals(name) || "Memo".equals(name))
+        if ("String".equals(name) || "Memo".equals(name) || "Email".equals(name))
             return Types.VARCHAR;
         if ("Boolean".equals(name))
             return Types.BOOLEAN;
@@ -623,10 +785,10 @@ public class SQLGenerator {
         return Arrays.asList(unlinkStmt);
     }
 
-    private String generateSelectKeysViaMappingTable(Entity context, Relationship myRelationship, Relationship otherEnd) {
+    private String generateSelectViaMappingTable(Entity context, Relationship myRelationship, Relationship otherEnd, boolean keysOnly) {
         Entity otherEntity = metadata.getEntity(myRelationship.getTypeRef());
         String otherAlias = modelToSchemaName(myRelationship);
-        String statement = generateSelect(otherEntity, otherAlias, true);
+        String statement = generateSelect(otherEntity, otherAlias, keysOnly);
         String mappingTableName = getMappingTableName(context, myRelationship, otherEnd);
         String mappingTableAlias = escape(mappingTableName);
         statement += " join " + tableName(context.getEntityNamespace(), mappingTableName) + asAlias(mappingTableAlias);
@@ -635,34 +797,6 @@ public class SQLGenerator {
         return statement;
     }
 
-    private List<String> generateSelectManyRelatedDirectlyKeys(long key, Relationship otherEnd, Entity clazz) {
-        String stmt = generateSelect(clazz, null, true);
-        stmt += " where " + generateSelfToOppositeFK(otherEnd) + " = " + key + ";";
-        return Arrays.asList(stmt);
-    }
-
-    private List<String> generateSelectManyRelatedKeysViaMappingTable(Relationship myRelationship, long key, Relationship otherEnd,
-            Entity contextEntity) {
-        String mappingTableName = getMappingTableName(contextEntity, myRelationship, otherEnd);
-        String stmt = generateSelectKeysViaMappingTable(contextEntity, myRelationship, otherEnd);
-        stmt += " where " + escape(mappingTableName) + "." + generateSelfToOppositeFK(otherEnd) + " = " + key + ";";
-        return Arrays.asList(stmt);
-    }
-
-    private List<String> generateSelectOneRelatedKey(Relationship myRelationship, long key, Relationship otherEnd, Entity otherEntity,
-            Entity contextEntity) {
-        Relationship sourceRelationship = myRelationship.isNavigable() ? otherEnd : myRelationship;
-        Relationship targetRelationship = myRelationship.isNavigable() ? myRelationship : otherEnd;
-
-        String statement = generateSelect(otherEntity, modelToSchemaName(myRelationship), true);
-        statement += " join " + tableName(contextEntity.getEntityNamespace(), contextEntity.getName())
-                + asAlias(generateSelfToOppositeFK(otherEnd));
-        statement += " on " + modelToSchemaName(targetRelationship) + ".id";
-        statement += " = " + generateSelfToOppositeFK(sourceRelationship) + '.' + modelToSchemaName(targetRelationship);
-        statement += " where " + generateSelfToOppositeFK(otherEnd) + ".id = " + key + ";";
-        return Arrays.asList(statement);
-    }
-
     private Collection<? extends String> generateUniqueConstraints(Entity contextEntity, Property uniqueProperty) {
         Validate.isTrue(uniqueProperty.isUnique());
 
@@ -724,15 +858,59 @@ public class SQLGenerator {
         return result;
     }
 
-    private String toDBValue(Object value, TypeRef type) {
+    /**
+     * Adds a parameter to the given statement, returning the placeholder to
+     * use in its place.
+     */
+    private String parameter(SQLStatement statement, Object value, Integer jdbcType) {
+        statement.addParameter(value, jdbcType);
+        return "?";
+    }
+
+    private String parameter(SQLStatement statement, Object value, TypeRef type) {
+        int jdbcType = getJDBCType(type);
+        return parameter(statement, toParameterValue(value, jdbcType), jdbcType);
+    }
+
+    private Object toParameterValue(Object value, Integer jdbcType) {
+        if (value == null || jdbcType == null)
+            return value;
+        switch (jdbcType) {
+        case Types.VARCHAR:
+            // enumeration literals and the like
+            return value.toString();
+        case Types.DATE:
+            return value instanceof Date ? new java.sql.Date(((Date) value).getTime()) : value;
+        default:
+            return value;
+        }
+    }
+
+    /**
+     * Renders the given parameterized statement as plain SQL, with parameter
+     * values inlined as literals.
+     */
+    public String toLiteralSQL(SQLStatement statement) {
+        Iterator<Object> values = statement.getParameters().iterator();
+        StringBuilder result = new StringBuilder(statement.string.length());
+        boolean quoted = false;
+        for (char c : statement.string.toCharArray()) {
+            if (c == '\'')
+                quoted = !quoted;
+            if (c == '?' && !quoted)
+                result.append(toDBLiteral(values.next()));
+            else
+                result.append(c);
+        }
+        return result.toString();
+    }
+
+    private String toDBLiteral(Object value) {
         if (value == null)
-            return null;
-        if (type.getKind() == TypeKind.Enumeration)
-            return "'" + sanitizeStringValue(value.toString()) + "'";
-        String name = type.getTypeName();
-        if ("String".equals(name) || "Memo".equals(name))
+            return "null";
+        if (value instanceof String)
             return "'" + sanitizeStringValue((String) value) + "'";
-        if ("Date".equals(name))
+        if (value instanceof Date)
             return "'" + new SimpleDateFormat("yyyy-MM-dd").format((Date) value) + "'";
         return "" + value;
     }
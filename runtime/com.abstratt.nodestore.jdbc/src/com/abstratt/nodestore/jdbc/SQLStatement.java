@@ -1,19 +1,69 @@
 package com.abstratt.nodestore.jdbc;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class SQLStatement {
     String string;
     boolean changeExpected;
     List<Object> parameters;
+    /**
+     * The JDBC type for each parameter, <code>null</code> if unknown.
+     */
+    List<Integer> parameterTypes;
 
     public SQLStatement(String string, boolean changeExpected) {
         this.string = string;
         this.changeExpected = changeExpected;
     }
 
+    /**
+     * Creates a statement that takes parameters, which are added via
+     * {@link #addParameter(Object, Integer)} as the statement is generated.
+     */
+    SQLStatement() {
+        this.parameters = new ArrayList<Object>();
+        this.parameterTypes = new ArrayList<Integer>();
+    }
+
+    void addParameter(Object value, Integer jdbcType) {
+        parameters.add(value);
+        parameterTypes.add(jdbcType);
+    }
+
+    void bind(PreparedStatement prepared) throws SQLException {
+        if (parameters == null)
+            return;
+        for (int i = 0; i < parameters.size(); i++) {
+            Object value = parameters.get(i);
+            Integer jdbcType = parameterTypes.get(i);
+            if (value == null)
+                prepared.setNull(i + 1, jdbcType == null ? Types.NULL : jdbcType);
+            else if (jdbcType == null)
+                prepared.setObject(i + 1, value);
+            else
+                prepared.setObject(i + 1, value, jdbcType);
+        }
+    }
+
+    public boolean isParameterized() {
+        return parameters != null;
+    }
+
+    public String getString() {
+        return string;
+    }
+
+    public List<Object> getParameters() {
+        return parameters == null ? Collections.emptyList() : Collections.unmodifiableList(parameters);
+    }
+
     @Override
     public String toString() {
-        return string + " - " + parameters;
+        return parameters == null || parameters.isEmpty() ? string : (string + " - " + parameters);
     }
-}
\ No newline at end of file
+}
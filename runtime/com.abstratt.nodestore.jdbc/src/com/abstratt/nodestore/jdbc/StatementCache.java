@@ -0,0 +1,77 @@
+package com.abstratt.nodestore.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.abstratt.pluginutils.LogUtils;
+
+/**
+ * Keeps prepared statements around for as long as the connection they were
+ * prepared on is alive, so statements with the same shape are parsed (and
+ * planned) only once per connection.
+ *
+ * Only parameterized statements should be cached, as statements with inlined
+ * values will rarely be seen again. Cached statements must not be closed by
+ * callers. Whoever closes a connection must call {@link #forget(Connection)}.
+ */
+class StatementCache {
+    private static final int MAX_STATEMENTS = Integer.getInteger("nodestore.jdbc.statementCacheSize", 200);
+
+    private static final Map<Connection, StatementCache> caches = new IdentityHashMap<Connection, StatementCache>();
+
+    static PreparedStatement prepare(Connection connection, String sql, boolean returnKeys) throws SQLException {
+        StatementCache cache;
+        synchronized (caches) {
+            cache = caches.computeIfAbsent(connection, it -> new StatementCache());
+        }
+        return cache.get(connection, sql, returnKeys);
+    }
+
+    /**
+     * Drops any statements cached for the given connection (which is about to
+     * be closed, closing the statements as well).
+     */
+    static void forget(Connection connection) {
+        synchronized (caches) {
+            caches.remove(connection);
+        }
+    }
+
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= MAX_STATEMENTS)
+                return false;
+            close(eldest.getValue());
+            return true;
+        }
+    };
+
+    private PreparedStatement get(Connection connection, String sql, boolean returnKeys) throws SQLException {
+        String cacheKey = (returnKeys ? "K:" : "N:") + sql;
+        PreparedStatement existing = statements.get(cacheKey);
+        if (existing != null && !existing.isClosed()) {
+            existing.clearParameters();
+            return existing;
+        }
+        PreparedStatement prepared = connection.prepareStatement(sql,
+                returnKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+        statements.put(cacheKey, prepared);
+        return prepared;
+    }
+
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            LogUtils.logWarning(StatementCache.class.getPackage().getName(), "Error closing cached statement", e);
+        }
+    }
+}
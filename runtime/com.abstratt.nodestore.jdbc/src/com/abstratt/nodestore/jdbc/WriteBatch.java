@@ -0,0 +1,126 @@
+package com.abstratt.nodestore.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.abstratt.nodestore.NodeNotFoundException;
+import com.abstratt.nodestore.NodeStoreCalls;
+import com.abstratt.pluginutils.LogUtils;
+
+/**
+ * Collects write statements so they can be sent to the database in bulk.
+ * Statements are grouped by shape (so, by table and kind of operation), and
+ * each group is sent with a single JDBC batch.
+ *
+ * Grouping changes the order statements are performed in, which is fine as
+ * foreign key constraints are only checked on commit. Unique constraints,
+ * however, are checked right away, so statements that must keep their order
+ * (say, freeing a unique value before another row takes it) are only grouped
+ * with the statements right before them.
+ */
+class WriteBatch {
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("nodestore.jdbc.maxBatchSize", 500);
+
+    private final List<List<SQLStatement>> pending = new ArrayList<List<SQLStatement>>();
+    private final Map<String, List<SQLStatement>> unorderedGroups = new HashMap<String, List<SQLStatement>>();
+    private List<SQLStatement> lastOrderedGroup;
+    private int level;
+    private int size;
+
+    /**
+     * Adds a statement to this batch.
+     * 
+     * @param ordered
+     *            whether the statement must be performed after any ordered
+     *            statements added before it
+     */
+    void add(SQLStatement statement, boolean ordered) {
+        List<SQLStatement> group;
+        if (!ordered)
+            group = unorderedGroups.computeIfAbsent(statement.string, it -> newGroup());
+        else if (lastOrderedGroup != null && lastOrderedGroup.get(0).string.equals(statement.string))
+            group = lastOrderedGroup;
+        else
+            group = lastOrderedGroup = newGroup();
+        group.add(statement);
+        size++;
+    }
+
+    private List<SQLStatement> newGroup() {
+        List<SQLStatement> group = new ArrayList<SQLStatement>();
+        pending.add(group);
+        return group;
+    }
+
+    /**
+     * Returns whether this is the outermost batch.
+     */
+    boolean leave() {
+        return --level == 0;
+    }
+
+    void enter() {
+        level++;
+    }
+
+    boolean isActive() {
+        return level > 0;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        pending.clear();
+        unorderedGroups.clear();
+        lastOrderedGroup = null;
+        size = 0;
+    }
+
+    /**
+     * Sends all pending statements on the given connection.
+     */
+    void flush(Connection connection) throws SQLException {
+        try {
+            for (List<SQLStatement> group : pending)
+                for (int start = 0; start < group.size(); start += MAX_BATCH_SIZE)
+                    execute(connection, group.subList(start, Math.min(group.size(), start + MAX_BATCH_SIZE)));
+        } finally {
+            clear();
+        }
+    }
+
+    private void execute(Connection connection, List<SQLStatement> group) throws SQLException {
+        SQLStatement first = group.get(0);
+        JDBCNodeStore.logSQLStatement(first.string + " - batch of " + group.size());
+        NodeStoreCalls.record(JDBCNodeStore.BATCH_CALL);
+        PreparedStatement prepared = first.isParameterized() ? StatementCache.prepare(connection, first.string, false) : connection
+                .prepareStatement(first.string, Statement.NO_GENERATED_KEYS);
+        try {
+            for (SQLStatement statement : group) {
+                statement.bind(prepared);
+                prepared.addBatch();
+            }
+            int[] counts = prepared.executeBatch();
+            for (int i = 0; i < counts.length; i++)
+                if (counts[i] == 0 && group.get(i).changeExpected) {
+                    LogUtils.logWarning(getClass().getPackage().getName(), "Statement expected to perform a change: \n"
+                            + group.get(i), null);
+                    throw new NodeNotFoundException();
+                }
+        } finally {
+            if (first.isParameterized())
+                // cached statement, leave it clean
+                prepared.clearBatch();
+            else
+                prepared.close();
+        }
+    }
+}
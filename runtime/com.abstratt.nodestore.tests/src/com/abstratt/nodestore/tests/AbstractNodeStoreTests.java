@@ -1,10 +1,13 @@
 package com.abstratt.nodestore.tests;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -17,6 +20,8 @@ import com.abstratt.mdd.core.tests.runtime.AbstractRuntimeTests;
 import com.abstratt.nodestore.INode;
 import com.abstratt.nodestore.INodeKey;
 import com.abstratt.nodestore.INodeStore;
+import com.abstratt.nodestore.NodeStoreCalls;
+import com.abstratt.nodestore.NodeStoreException;
 
 public abstract class AbstractNodeStoreTests extends AbstractRuntimeTests {
     private final static String library = "package datatypes;\n" + "primitive Integer;\n" + "primitive String;\n" + "primitive Boolean;\n"
@@ -77,6 +82,17 @@ public abstract class AbstractNodeStoreTests extends AbstractRuntimeTests {
         model += "attribute attr2 : String[0,1];\n";
         model += "attribute attr3 : Date[0,1];\n";
         model += "end;\n";
+        model += "[Entity]class MyClass2\n";
+        model += "id attribute code : String;\n";
+        model += "end;\n";
+        model += "[Entity]class MyClass3\n";
+        model += "attribute name : String[0,1];\n";
+        model += "attribute myClass4s : MyClass4[*];\n";
+        model += "end;\n";
+        model += "[Entity]class MyClass4\n";
+        model += "attribute name : String[0,1];\n";
+        model += "end;\n";
+        model += "association role MyClass3.myClass4s; navigable role myClass3 : MyClass3[0,1]; end;\n";
         model += "end.";
         parseAndCheck(model, AbstractNodeStoreTests.library);
     }
@@ -114,6 +130,97 @@ public abstract class AbstractNodeStoreTests extends AbstractRuntimeTests {
         TestCase.assertEquals(values, loaded.getProperties());
     }
 
+    public void testCallsCounted() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass1");
+        INodeKey key = store.createNode(getCatalog().newNode("mypackage.MyClass1"));
+        NodeStoreCalls.start();
+        TestCase.assertNotNull(store.getNode(key));
+        Map<String, Long> calls = NodeStoreCalls.stop();
+        TestCase.assertFalse(calls.isEmpty());
+        for (Long count : calls.values())
+            TestCase.assertTrue(count > 0);
+        // no longer counting
+        store.getNode(key);
+        TestCase.assertTrue(NodeStoreCalls.stop().isEmpty());
+    }
+
+    public void testBatchedWrites() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass1");
+        INode existing = getCatalog().newNode("mypackage.MyClass1");
+        INodeKey existingKey = store.createNode(existing);
+        existing = store.getNode(existingKey);
+        existing.setProperties(Collections.<String, Object> singletonMap("attr2", "updated"));
+        INode node1 = getCatalog().newNode("mypackage.MyClass1");
+        node1.setProperties(Collections.<String, Object> singletonMap("attr2", "foo"));
+        INode node2 = getCatalog().newNode("mypackage.MyClass1");
+        node2.setProperties(Collections.<String, Object> singletonMap("attr2", "bar"));
+        getCatalog().beginBatch();
+        INodeKey key1;
+        INodeKey key2;
+        try {
+            key1 = store.createNode(node1);
+            key2 = store.createNode(node2);
+            store.updateNode(existing);
+        } finally {
+            getCatalog().endBatch(true);
+        }
+        // keys are known even if the insert was deferred
+        TestCase.assertEquals(node1.getKey(), key1);
+        TestCase.assertEquals(node2.getKey(), key2);
+        TestCase.assertEquals("foo", store.getNode(key1).getProperties().get("attr2"));
+        TestCase.assertEquals("bar", store.getNode(key2).getProperties().get("attr2"));
+        TestCase.assertEquals("updated", store.getNode(existingKey).getProperties().get("attr2"));
+    }
+
+    public void testUniqueValues() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass2");
+        INode node1 = getCatalog().newNode("mypackage.MyClass2");
+        node1.setProperties(Collections.<String, Object> singletonMap("code", "A"));
+        store.createNode(node1);
+        getCatalog().validateConstraints();
+        INode node2 = getCatalog().newNode("mypackage.MyClass2");
+        node2.setProperties(Collections.<String, Object> singletonMap("code", "B"));
+        INodeKey key2 = store.createNode(node2);
+        getCatalog().validateConstraints();
+        node2 = store.getNode(key2);
+        node2.setProperties(Collections.<String, Object> singletonMap("code", "A"));
+        try {
+            // depending on the store, may be caught right away or only on validation
+            store.updateNode(node2);
+            getCatalog().validateConstraints();
+            TestCase.fail();
+        } catch (NodeStoreException e) {
+            // expected
+        }
+    }
+
+    public void testBatchedUniqueValues() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass2");
+        INode existing = getCatalog().newNode("mypackage.MyClass2");
+        existing.setProperties(Collections.<String, Object> singletonMap("code", "A"));
+        INodeKey existingKey = store.createNode(existing);
+        getCatalog().validateConstraints();
+        existing = store.getNode(existingKey);
+        existing.setProperties(Collections.<String, Object> singletonMap("code", "Z"));
+        INode node1 = getCatalog().newNode("mypackage.MyClass2");
+        node1.setProperties(Collections.<String, Object> singletonMap("code", "B"));
+        INode node2 = getCatalog().newNode("mypackage.MyClass2");
+        node2.setProperties(Collections.<String, Object> singletonMap("code", "A"));
+        getCatalog().beginBatch();
+        try {
+            store.createNode(node1);
+            // frees "A" for the next insert, which must not be performed first
+            store.updateNode(existing);
+            store.createNode(node2);
+        } finally {
+            getCatalog().endBatch(true);
+        }
+        getCatalog().validateConstraints();
+        TestCase.assertEquals("Z", store.getNode(existingKey).getProperties().get("code"));
+        TestCase.assertEquals("B", store.getNode(node1.getKey()).getProperties().get("code"));
+        TestCase.assertEquals("A", store.getNode(node2.getKey()).getProperties().get("code"));
+    }
+
     public void testDeleteNode() {
         INodeStore store = getCatalog().createStore("mypackage.MyClass1");
         INode node = getCatalog().newNode("mypackage.MyClass1");
@@ -123,6 +230,56 @@ public abstract class AbstractNodeStoreTests extends AbstractRuntimeTests {
         TestCase.assertNull(store.getNode(key));
     }
 
+    public void testFilter() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass1");
+        INode node1 = getCatalog().newNode("mypackage.MyClass1");
+        node1.setProperties(Collections.<String, Object> singletonMap("attr2", "foo"));
+        INodeKey key1 = store.createNode(node1);
+        INode node2 = getCatalog().newNode("mypackage.MyClass1");
+        node2.setProperties(Collections.<String, Object> singletonMap("attr2", "bar"));
+        INodeKey key2 = store.createNode(node2);
+        INode node3 = getCatalog().newNode("mypackage.MyClass1");
+        node3.setProperties(Collections.<String, Object> singletonMap("attr2", "foo"));
+        INodeKey key3 = store.createNode(node3);
+        Map<String, Collection<Object>> criteria = Collections.<String, Collection<Object>> singletonMap("attr2",
+                Collections.<Object> singleton("foo"));
+        TestCase.assertEquals(new HashSet<INodeKey>(Arrays.asList(key1, key3)), new HashSet<INodeKey>(store.filter(criteria, null)));
+        // changes are seen by later queries
+        node1 = store.getNode(key1);
+        node1.setProperties(Collections.<String, Object> singletonMap("attr2", "bar"));
+        store.updateNode(node1);
+        node2 = store.getNode(key2);
+        node2.setProperties(Collections.<String, Object> singletonMap("attr2", "foo"));
+        store.updateNode(node2);
+        TestCase.assertEquals(new HashSet<INodeKey>(Arrays.asList(key2, key3)), new HashSet<INodeKey>(store.filter(criteria, null)));
+        store.deleteNode(key3);
+        TestCase.assertEquals(Arrays.asList(key2), store.filter(criteria, null));
+    }
+
+    public void testFilterPage() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass1");
+        List<INodeKey> keys = new ArrayList<INodeKey>();
+        for (String value : Arrays.asList("c", "a", "b", "a")) {
+            INode node = getCatalog().newNode("mypackage.MyClass1");
+            node.setProperties(Collections.<String, Object> singletonMap("attr2", value));
+            keys.add(store.createNode(node));
+        }
+        Map<String, Collection<Object>> noCriteria = Collections.<String, Collection<Object>> emptyMap();
+        TestCase.assertEquals(keys.subList(1, 3), store.filter(noCriteria, null, true, 1, 2));
+        TestCase.assertEquals(Arrays.asList(keys.get(3), keys.get(2)), store.filter(noCriteria, null, false, 0, 2));
+        TestCase.assertEquals(Arrays.asList(keys.get(1), keys.get(3), keys.get(2), keys.get(0)),
+                store.filter(noCriteria, "attr2", true, 0, null));
+        TestCase.assertEquals(Arrays.asList(keys.get(0)), store.filter(noCriteria, "attr2", false, 0, 1));
+        Map<String, Collection<Object>> criteria = Collections.<String, Collection<Object>> singletonMap("attr2",
+                Collections.<Object> singleton("a"));
+        TestCase.assertEquals(Arrays.asList(keys.get(3)), store.filter(criteria, null, true, 1, null));
+        TestCase.assertEquals(4, store.count(noCriteria));
+        TestCase.assertEquals(2, store.count(criteria));
+        // changes are seen by later pages
+        store.deleteNode(keys.get(1));
+        TestCase.assertEquals(Arrays.asList(keys.get(3), keys.get(2)), store.filter(noCriteria, "attr2", true, 0, 2));
+    }
+
     public void testFactory() {
         INodeStore created = getCatalog().createStore("mypackage.MyClass1");
         TestCase.assertNotNull(created);
@@ -165,6 +322,20 @@ public abstract class AbstractNodeStoreTests extends AbstractRuntimeTests {
         TestCase.assertEquals(key2, loaded.iterator().next().getKey());
     }
 
+    public void testGetNodesByKey() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass1");
+        INodeKey key1 = store.createNode(getCatalog().newNode("mypackage.MyClass1"));
+        INodeKey key2 = store.createNode(getCatalog().newNode("mypackage.MyClass1"));
+        INodeKey key3 = store.createNode(getCatalog().newNode("mypackage.MyClass1"));
+        store.deleteNode(key2);
+        Map<INodeKey, INode> loaded = store.getNodes(Arrays.asList(key3, key2, key1));
+        // missing nodes are left out, order is preserved
+        TestCase.assertEquals(Arrays.asList(key3, key1), new ArrayList<INodeKey>(loaded.keySet()));
+        TestCase.assertEquals(key3, loaded.get(key3).getKey());
+        TestCase.assertEquals(key1, loaded.get(key1).getKey());
+        TestCase.assertTrue(store.getNodes(Collections.<INodeKey> emptyList()).isEmpty());
+    }
+
     public void testNodeIsolation() {
         INode node = getCatalog().newNode("mypackage.MyClass1");
         Map<String, Object> values = new HashMap<String, Object>();
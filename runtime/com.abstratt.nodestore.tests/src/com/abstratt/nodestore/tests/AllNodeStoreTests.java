@@ -8,7 +8,8 @@ public class AllNodeStoreTests {
         TestSuite suite = new TestSuite(AllNodeStoreTests.class.getName());
         suite.addTest(InMemoryNodeStoreTests.suite());
         suite.addTest(JdbcNodeStoreTests.suite());
-        suite.addTest(SQLGeneratorTests.suite());
+        suite.addTest(SQLGeneratorTests.suite());
+        suite.addTest(ConnectionPoolTests.suite());
         return suite;
     }
 
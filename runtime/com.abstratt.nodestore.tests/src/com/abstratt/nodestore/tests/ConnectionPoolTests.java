@@ -0,0 +1,163 @@
+package com.abstratt.nodestore.tests;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.abstratt.nodestore.jdbc.ConnectionPool;
+
+public class ConnectionPoolTests extends TestCase {
+
+    /**
+     * A data source producing fake connections that can be made invalid.
+     */
+    static class FakeDataSource implements DataSource {
+        List<boolean[]> states = new ArrayList<boolean[]>();
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            // [valid, closed]
+            boolean[] state = { true, false };
+            states.add(state);
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Connection.class }, (proxy, method,
+                    args) -> {
+                switch (method.getName()) {
+                case "isValid":
+                    return state[0];
+                case "isClosed":
+                    return state[1];
+                case "close":
+                    state[1] = true;
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return getConnection();
+        }
+
+        @Override
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) {
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) {
+        }
+
+        @Override
+        public int getLoginTimeout() {
+            return 0;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            throw new SQLException();
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) {
+            return false;
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(ConnectionPoolTests.class);
+    }
+
+    public ConnectionPoolTests(String name) {
+        super(name);
+    }
+
+    public void testReuse() throws SQLException {
+        FakeDataSource dataSource = new FakeDataSource();
+        ConnectionPool pool = new ConnectionPool(dataSource, 1, 2, 60000, 100, 1);
+        Connection first = pool.borrow();
+        TestCase.assertEquals(1, pool.getActiveCount());
+        pool.giveBack(first, false);
+        TestCase.assertEquals(0, pool.getActiveCount());
+        TestCase.assertEquals(1, pool.getIdleCount());
+        Connection second = pool.borrow();
+        TestCase.assertSame(first, second);
+        TestCase.assertEquals(1, pool.getCreatedCount());
+        TestCase.assertEquals(2, pool.getBorrowedCount());
+    }
+
+    public void testBounded() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(new FakeDataSource(), 0, 2, 60000, 100, 1);
+        pool.borrow();
+        pool.borrow();
+        try {
+            pool.borrow();
+            TestCase.fail();
+        } catch (SQLException e) {
+            // expected
+        }
+        TestCase.assertEquals(1, pool.getTimeoutCount());
+        TestCase.assertEquals(2, pool.getActiveCount());
+    }
+
+    public void testValidationOnBorrow() throws SQLException {
+        FakeDataSource dataSource = new FakeDataSource();
+        ConnectionPool pool = new ConnectionPool(dataSource, 1, 2, 60000, 100, 1);
+        Connection first = pool.borrow();
+        pool.giveBack(first, false);
+        // connection goes stale while idle
+        dataSource.states.get(0)[0] = false;
+        Connection second = pool.borrow();
+        TestCase.assertNotSame(first, second);
+        TestCase.assertTrue(first.isClosed());
+        TestCase.assertEquals(1, pool.getValidationFailureCount());
+        TestCase.assertEquals(2, pool.getCreatedCount());
+    }
+
+    public void testBrokenConnectionsAreDiscarded() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(new FakeDataSource(), 1, 2, 60000, 100, 1);
+        Connection first = pool.borrow();
+        pool.giveBack(first, true);
+        TestCase.assertTrue(first.isClosed());
+        TestCase.assertEquals(0, pool.getIdleCount());
+        TestCase.assertEquals(1, pool.getDestroyedCount());
+    }
+
+    public void testIdleEviction() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(new FakeDataSource(), 1, 3, 0, 100, 1);
+        Connection first = pool.borrow();
+        Connection second = pool.borrow();
+        Connection third = pool.borrow();
+        pool.giveBack(first, false);
+        pool.giveBack(second, false);
+        pool.giveBack(third, false);
+        // anything above the minimum idle count expires immediately
+        TestCase.assertEquals(1, pool.getIdleCount());
+        TestCase.assertEquals(2, pool.getDestroyedCount());
+    }
+}
@@ -1,8 +1,26 @@
 package com.abstratt.nodestore.tests;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
 import junit.framework.Test;
+import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import com.abstratt.nodestore.INode;
+import com.abstratt.nodestore.INodeKey;
+import com.abstratt.nodestore.INodeStore;
+import com.abstratt.nodestore.NodeStoreConflictException;
+import com.abstratt.nodestore.NodeStoreException;
+import com.abstratt.nodestore.inmemory.InMemoryNodeStore;
+import com.abstratt.nodestore.inmemory.InMemoryNodeStoreCatalog;
+
 public class InMemoryNodeStoreTests extends AbstractNodeStoreTests {
 
     public static Test suite() {
@@ -18,6 +36,207 @@ public class InMemoryNodeStoreTests extends AbstractNodeStoreTests {
         super.setUp();
     }
 
+    public void testStateAcrossTransactions() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass1");
+        INode node1 = getCatalog().newNode("mypackage.MyClass1");
+        node1.setProperties(Collections.<String, Object> singletonMap("attr2", "foo"));
+        INodeKey key1 = store.createNode(node1);
+        INode node2 = getCatalog().newNode("mypackage.MyClass1");
+        INodeKey key2 = store.createNode(node2);
+        // first save writes a snapshot
+        getCatalog().commitTransaction();
+        node1 = store.getNode(key1);
+        node1.setProperties(Collections.<String, Object> singletonMap("attr2", "bar"));
+        store.updateNode(node1);
+        store.deleteNode(key2);
+        INodeKey key3 = store.createNode(getCatalog().newNode("mypackage.MyClass1"));
+        // later saves are journaled
+        getCatalog().commitTransaction();
+        // a new transaction sees the committed state
+        getCatalog().beginTransaction();
+        store = getCatalog().getStore("mypackage.MyClass1");
+        TestCase.assertEquals("bar", store.getNode(key1).getProperties().get("attr2"));
+        TestCase.assertNull(store.getNode(key2));
+        TestCase.assertNotNull(store.getNode(key3));
+        TestCase.assertFalse(key3.equals(store.generateKey()));
+    }
+
+    public void testReloadFromJournal() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass1");
+        INode node1 = getCatalog().newNode("mypackage.MyClass1");
+        node1.setProperties(Collections.<String, Object> singletonMap("attr2", "foo"));
+        INodeKey key1 = store.createNode(node1);
+        INodeKey key2 = store.createNode(getCatalog().newNode("mypackage.MyClass1"));
+        // first save writes a snapshot
+        getCatalog().commitTransaction();
+        getCatalog().beginTransaction();
+        store = getCatalog().getStore("mypackage.MyClass1");
+        node1 = store.getNode(key1);
+        node1.setProperties(Collections.<String, Object> singletonMap("attr2", "bar"));
+        store.updateNode(node1);
+        store.deleteNode(key2);
+        INodeKey key3 = store.createNode(getCatalog().newNode("mypackage.MyClass1"));
+        // later saves are journaled
+        getCatalog().commitTransaction();
+        File snapshot = ((InMemoryNodeStore) store).getStoreFile();
+        TestCase.assertTrue(new File(snapshot.getPath() + ".journal").isFile());
+        // as if another process had written the files, so they are read again
+        TestCase.assertTrue(snapshot.setLastModified(snapshot.lastModified() - 1000));
+        getCatalog().beginTransaction();
+        store = getCatalog().getStore("mypackage.MyClass1");
+        TestCase.assertEquals(2, store.getNodeKeys().size());
+        TestCase.assertEquals("bar", store.getNode(key1).getProperties().get("attr2"));
+        TestCase.assertNull(store.getNode(key2));
+        TestCase.assertNotNull(store.getNode(key3));
+        TestCase.assertFalse(key3.equals(store.generateKey()));
+    }
+
+    public void testIndexesAcrossTransactions() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass1");
+        List<INodeKey> keys = new ArrayList<INodeKey>();
+        for (String value : Arrays.asList("c", "a", "b")) {
+            INode node = getCatalog().newNode("mypackage.MyClass1");
+            node.setProperties(Collections.<String, Object> singletonMap("attr2", value));
+            keys.add(store.createNode(node));
+        }
+        getCatalog().commitTransaction();
+        Map<String, Collection<Object>> noCriteria = Collections.<String, Collection<Object>> emptyMap();
+        Map<String, Collection<Object>> criteria = Collections.<String, Collection<Object>> singletonMap("attr2",
+                Collections.<Object> singleton("a"));
+        getCatalog().beginTransaction();
+        store = getCatalog().getStore("mypackage.MyClass1");
+        // indexes of the committed store
+        TestCase.assertEquals(Arrays.asList(keys.get(1)), store.filter(criteria, null));
+        TestCase.assertEquals(Arrays.asList(keys.get(1), keys.get(2), keys.get(0)), store.filter(noCriteria, "attr2", true, 0, null));
+        // derived from them once there are changes
+        INode node = store.getNode(keys.get(0));
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "a"));
+        store.updateNode(node);
+        node = getCatalog().newNode("mypackage.MyClass1");
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "b"));
+        keys.add(store.createNode(node));
+        TestCase.assertEquals(new HashSet<INodeKey>(keys.subList(0, 2)), new HashSet<INodeKey>(store.filter(criteria, null)));
+        TestCase.assertEquals(keys, store.filter(noCriteria, "attr2", true, 0, null));
+        getCatalog().commitTransaction();
+        // and from those of the previous version once committed
+        getCatalog().beginTransaction();
+        store = getCatalog().getStore("mypackage.MyClass1");
+        TestCase.assertEquals(keys, store.filter(noCriteria, "attr2", true, 0, null));
+        store.deleteNode(keys.get(1));
+        TestCase.assertEquals(Arrays.asList(keys.get(0)), store.filter(criteria, null));
+        TestCase.assertEquals(Arrays.asList(keys.get(3), keys.get(2), keys.get(0)), store.filter(noCriteria, "attr2", false, 0, null));
+        getCatalog().abortTransaction();
+        getCatalog().beginTransaction();
+        store = getCatalog().getStore("mypackage.MyClass1");
+        TestCase.assertEquals(new HashSet<INodeKey>(keys.subList(0, 2)), new HashSet<INodeKey>(store.filter(criteria, null)));
+        TestCase.assertEquals(keys, store.filter(noCriteria, "attr2", true, 0, null));
+    }
+
+    public void testAbortDropsOnlyPrivateChanges() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass1");
+        INode node = getCatalog().newNode("mypackage.MyClass1");
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "foo"));
+        INodeKey key = store.createNode(node);
+        getCatalog().commitTransaction();
+        getCatalog().beginTransaction();
+        store = getCatalog().getStore("mypackage.MyClass1");
+        node = store.getNode(key);
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "bar"));
+        store.updateNode(node);
+        TestCase.assertEquals("bar", store.getNode(key).getProperties().get("attr2"));
+        getCatalog().abortTransaction();
+        getCatalog().beginTransaction();
+        store = getCatalog().getStore("mypackage.MyClass1");
+        TestCase.assertEquals("foo", store.getNode(key).getProperties().get("attr2"));
+    }
+
+    public void testConcurrentTransactions() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass1");
+        INode node = getCatalog().newNode("mypackage.MyClass1");
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "foo"));
+        INodeKey key1 = store.createNode(node);
+        INodeKey key2 = store.createNode(getCatalog().newNode("mypackage.MyClass1"));
+        getCatalog().commitTransaction();
+
+        InMemoryNodeStoreCatalog other = new InMemoryNodeStoreCatalog(getCatalog().getName(), getKirraSchema());
+        other.setEnvironment(((InMemoryNodeStoreCatalog) getCatalog()).getEnvironment());
+        getCatalog().beginTransaction();
+        other.beginTransaction();
+        store = getCatalog().getStore("mypackage.MyClass1");
+        INodeStore otherStore = other.getStore("mypackage.MyClass1");
+
+        node = otherStore.getNode(key1);
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "bar"));
+        otherStore.updateNode(node);
+        other.commitTransaction();
+        // the first transaction still sees the state as of when it started
+        TestCase.assertEquals("foo", store.getNode(key1).getProperties().get("attr2"));
+
+        // changes to other nodes can be committed
+        node = store.getNode(key2);
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "baz"));
+        store.updateNode(node);
+        getCatalog().commitTransaction();
+        getCatalog().beginTransaction();
+        store = getCatalog().getStore("mypackage.MyClass1");
+        TestCase.assertEquals("bar", store.getNode(key1).getProperties().get("attr2"));
+        TestCase.assertEquals("baz", store.getNode(key2).getProperties().get("attr2"));
+
+        // but not to nodes committed by another transaction in the meantime
+        other.beginTransaction();
+        otherStore = other.getStore("mypackage.MyClass1");
+        node = otherStore.getNode(key1);
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "qux"));
+        otherStore.updateNode(node);
+        other.commitTransaction();
+        node = store.getNode(key1);
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "quux"));
+        store.updateNode(node);
+        try {
+            getCatalog().commitTransaction();
+            TestCase.fail();
+        } catch (NodeStoreConflictException e) {
+            // expected
+        }
+        getCatalog().beginTransaction();
+        store = getCatalog().getStore("mypackage.MyClass1");
+        TestCase.assertEquals("qux", store.getNode(key1).getProperties().get("attr2"));
+    }
+
+    public void testFailedCommitPublishesNothing() {
+        INodeStore store1 = getCatalog().createStore("mypackage.MyClass1");
+        INode node = getCatalog().newNode("mypackage.MyClass1");
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "foo"));
+        INodeKey key = store1.createNode(node);
+        getCatalog().commitTransaction();
+
+        getCatalog().beginTransaction();
+        store1 = getCatalog().getStore("mypackage.MyClass1");
+        node = store1.getNode(key);
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "bar"));
+        store1.updateNode(node);
+        INodeStore store2 = getCatalog().createStore("mypackage.MyClass2");
+        INode node2 = getCatalog().newNode("mypackage.MyClass2");
+        node2.setProperties(Collections.<String, Object> singletonMap("code", "A"));
+        store2.createNode(node2);
+        // the second store cannot be saved
+        File blocker = new File(((InMemoryNodeStore) store2).getStoreFile().getPath() + ".tmp");
+        TestCase.assertTrue(blocker.mkdirs());
+        try {
+            getCatalog().commitTransaction();
+            TestCase.fail();
+        } catch (NodeStoreException e) {
+            // expected
+        } finally {
+            TestCase.assertTrue(blocker.delete());
+        }
+        // not even the changes to the first store are visible
+        getCatalog().beginTransaction();
+        store1 = getCatalog().getStore("mypackage.MyClass1");
+        TestCase.assertEquals("foo", store1.getNode(key).getProperties().get("attr2"));
+        TestCase.assertTrue(getCatalog().createStore("mypackage.MyClass2").getNodeKeys().isEmpty());
+    }
+
     @Override
     protected String getFactoryName() {
         return "inmemory";
@@ -1,8 +1,23 @@
 package com.abstratt.nodestore.tests;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
 import junit.framework.Test;
+import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import com.abstratt.nodestore.INode;
+import com.abstratt.nodestore.INodeKey;
+import com.abstratt.nodestore.INodeStore;
+import com.abstratt.nodestore.NodeReference;
+import com.abstratt.nodestore.NodeStoreCalls;
+
 public class JdbcNodeStoreTests extends AbstractNodeStoreTests {
 
     public static Test suite() {
@@ -18,6 +33,75 @@ public class JdbcNodeStoreTests extends AbstractNodeStoreTests {
         super.setUp();
     }
 
+    /**
+     * Relies on the node cache being enabled (see nodestore.jdbc.nodeCacheSize
+     * in the test configuration).
+     */
+    public void testCachedNodesDroppedOnCommit() {
+        INodeStore store = getCatalog().createStore("mypackage.MyClass1");
+        INode node = getCatalog().newNode("mypackage.MyClass1");
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "foo"));
+        INodeKey key = store.createNode(node);
+        getCatalog().validateConstraints();
+        getCatalog().commitTransaction();
+
+        // loaded into the cache
+        getCatalog().beginTransaction(true);
+        store = getCatalog().getStore("mypackage.MyClass1");
+        TestCase.assertEquals("foo", store.getNode(key).getProperties().get("attr2"));
+        getCatalog().commitTransaction();
+
+        getCatalog().beginTransaction(false);
+        store = getCatalog().getStore("mypackage.MyClass1");
+        node = store.getNode(key);
+        node.setProperties(Collections.<String, Object> singletonMap("attr2", "bar"));
+        store.updateNode(node);
+        // as done when saving the context, before committing
+        getCatalog().validateConstraints();
+        getCatalog().commitTransaction();
+
+        getCatalog().beginTransaction(true);
+        store = getCatalog().getStore("mypackage.MyClass1");
+        TestCase.assertEquals("bar", store.getNode(key).getProperties().get("attr2"));
+        getCatalog().commitTransaction();
+        getCatalog().beginTransaction();
+    }
+
+    public void testGetRelatedNodes() {
+        INodeStore parents = getCatalog().createStore("mypackage.MyClass3");
+        INodeStore children = getCatalog().createStore("mypackage.MyClass4");
+        INodeKey parent1 = createNamed(parents, "parent1");
+        INodeKey parent2 = createNamed(parents, "parent2");
+        INodeKey parent3 = createNamed(parents, "parent3");
+        INodeKey child1 = createNamed(children, "child1");
+        INodeKey child2 = createNamed(children, "child2");
+        INodeKey child3 = createNamed(children, "child3");
+        parents.linkMultipleNodes(parent1, "myClass4s", Arrays.asList(new NodeReference(children.getName(), child1),
+                new NodeReference(children.getName(), child2)), true);
+        parents.linkMultipleNodes(parent2, "myClass4s", Arrays.asList(new NodeReference(children.getName(), child3)), true);
+
+        NodeStoreCalls.start();
+        Map<INodeKey, Collection<INode>> related = parents.getRelatedNodes(Arrays.asList(parent3, parent2, parent1), "myClass4s",
+                children.getName());
+        // a single join, no matter how many nodes
+        TestCase.assertEquals(Collections.singletonMap("sql.query", 1L), NodeStoreCalls.stop());
+        // every node asked about is there, in the same order
+        TestCase.assertEquals(Arrays.asList(parent3, parent2, parent1), new ArrayList<INodeKey>(related.keySet()));
+        TestCase.assertTrue(related.get(parent3).isEmpty());
+        assertNodes(children.getName(), Arrays.asList(child3), Arrays.asList("child3"), related.get(parent2));
+        assertNodes(children.getName(), Arrays.asList(child1, child2), Arrays.asList("child1", "child2"), related.get(parent1));
+        assertNodes(children.getName(), Arrays.asList(child1, child2), Arrays.asList("child1", "child2"),
+                parents.getRelatedNodes(parent1, "myClass4s", children.getName()));
+
+        // the other way around
+        related = children.getRelatedNodes(Arrays.asList(child1, child2, child3), "myClass3", parents.getName());
+        assertNodes(parents.getName(), Arrays.asList(parent1), Arrays.asList("parent1"), related.get(child1));
+        assertNodes(parents.getName(), Arrays.asList(parent1), Arrays.asList("parent1"), related.get(child2));
+        assertNodes(parents.getName(), Arrays.asList(parent2), Arrays.asList("parent2"), related.get(child3));
+        assertNodes(parents.getName(), Arrays.asList(parent2), Arrays.asList("parent2"),
+                children.getRelatedNodes(child3, "myClass3", parents.getName()));
+    }
+
     @Override
     protected String getFactoryName() {
         return "jdbc";
@@ -27,4 +111,24 @@ public class JdbcNodeStoreTests extends AbstractNodeStoreTests {
     protected void tearDown() throws Exception {
         super.tearDown();
     }
+
+    private INodeKey createNamed(INodeStore store, String name) {
+        INode node = getCatalog().newNode(store.getName());
+        node.setProperties(Collections.<String, Object> singletonMap("name", name));
+        return store.createNode(node);
+    }
+
+    private void assertNodes(String storeName, List<INodeKey> expectedKeys, List<String> expectedNames, Collection<INode> actual) {
+        List<INodeKey> keys = new ArrayList<INodeKey>();
+        List<Object> names = new ArrayList<Object>();
+        for (INode node : actual) {
+            TestCase.assertEquals(storeName, node.getStoreName());
+            keys.add(node.getKey());
+            names.add(node.getProperties().get("name"));
+        }
+        // order is up to the store
+        TestCase.assertEquals(new HashSet<INodeKey>(expectedKeys), new HashSet<INodeKey>(keys));
+        TestCase.assertEquals(new HashSet<Object>(expectedNames), new HashSet<Object>(names));
+        TestCase.assertEquals(expectedKeys.size(), actual.size());
+    }
 }
@@ -35,6 +35,7 @@ import com.abstratt.mdd.core.IRepository;
 import com.abstratt.mdd.core.tests.harness.AbstractRepositoryBuildingTests;
 import com.abstratt.nodestore.jdbc.ConnectionProvider;
 import com.abstratt.nodestore.jdbc.SQLGenerator;
+import com.abstratt.nodestore.jdbc.SQLStatement;
 
 public class SQLGeneratorTests extends AbstractRepositoryBuildingTests {
     static public void compareStatements(boolean ignoreQuotes, String label, String expected, String actual) {
@@ -134,6 +135,18 @@ public class SQLGeneratorTests extends AbstractRepositoryBuildingTests {
                         + " on State_stateCities.stateCities = stateCities.id where State_stateCities.__self__ = 17;");
     }
 
+    public void testAssociation_oneToManyUniDi_getRelatedForMany() throws CoreException {
+        buildOneToManyUniDi();
+        Class state = getClass("custom::State");
+        Relationship relationship = schema.getEntity(ref(state)).getRelationship("stateCities");
+        SQLStatement statement = generator.generateSelectRelatedStatement(relationship, relationship.getTypeRef(), Arrays.asList(17L, 18L),
+                false, true);
+        SQLGeneratorTests.compareStatements("select State_stateCities.__self__ as __source__, stateCities.id, stateCities.cityName from "
+                + tablePrefix("custom") + "City as stateCities" + " join " + tablePrefix("custom") + "State_stateCities as State_stateCities"
+                + " on State_stateCities.stateCities = stateCities.id where State_stateCities.__self__ in (?, ?);", statement.getString());
+        TestCase.assertEquals(Arrays.<Object> asList(17L, 18L), statement.getParameters());
+    }
+
     public void testAssociation_oneToOneBiDi_CRUD() throws CoreException {
         buildOneToOneBiDi();
 
@@ -445,6 +458,56 @@ public class SQLGeneratorTests extends AbstractRepositoryBuildingTests {
         SQLGeneratorTests.compareStatements(expected1, stmts1.get(0));
     }
 
+    public void testGenerateSelectSomeStatement() throws CoreException {
+        Class myClass = getClass("mypackage::MyClass1");
+        Map<String, Collection<Object>> criteria = new LinkedHashMap<String, Collection<Object>>();
+        criteria.put("attr2", Arrays.<Object> asList("value1", "value2", "value3"));
+        criteria.put("myClass2", Arrays.<Object> asList(7L));
+        SQLStatement statement = generator.generateSelectSomeStatement(schema.getEntity(ref(myClass)), criteria, 1);
+        TestCase.assertTrue(statement.isParameterized());
+        String expected = "select id, attr1, attr2, attr3, myClass2, myClass3 from " + tablePrefix("mypackage")
+                + "MyClass1 where attr2 in (?, ?, ?) and myClass2 = ? LIMIT 1;";
+        SQLGeneratorTests.compareStatements(expected, statement.getString());
+        TestCase.assertEquals(Arrays.<Object> asList("value1", "value2", "value3", 7L), statement.getParameters());
+    }
+
+    public void testGenerateSelectPageStatement() throws CoreException {
+        Class myClass = getClass("mypackage::MyClass1");
+        Map<String, Collection<Object>> criteria = new LinkedHashMap<String, Collection<Object>>();
+        criteria.put("attr1", Arrays.<Object> asList(42));
+        SQLStatement statement = generator.generateSelectPageStatement(schema.getEntity(ref(myClass)), criteria, "attr2", false, 20, 10);
+        String expected = "select id from " + tablePrefix("mypackage")
+                + "MyClass1 where attr1 = ? order by attr2 desc nulls last, id desc LIMIT 10 OFFSET 20;";
+        SQLGeneratorTests.compareStatements(expected, statement.getString());
+        TestCase.assertEquals(Arrays.<Object> asList(42), statement.getParameters());
+        SQLStatement byId = generator.generateSelectPageStatement(schema.getEntity(ref(myClass)),
+                Collections.<String, Collection<Object>> emptyMap(), null, true, 0, null);
+        SQLGeneratorTests.compareStatements("select id from " + tablePrefix("mypackage") + "MyClass1 order by id;", byId.getString());
+    }
+
+    public void testGenerateCountStatement() throws CoreException {
+        Class myClass = getClass("mypackage::MyClass1");
+        Map<String, Collection<Object>> criteria = new LinkedHashMap<String, Collection<Object>>();
+        criteria.put("attr2", Arrays.<Object> asList("value1"));
+        SQLStatement statement = generator.generateCountStatement(schema.getEntity(ref(myClass)), criteria);
+        SQLGeneratorTests.compareStatements("select count(*) from " + tablePrefix("mypackage") + "MyClass1 where attr2 = ?;",
+                statement.getString());
+    }
+
+    public void testGenerateInsertStatement() throws CoreException, ParseException {
+        Class myClass = getClass("mypackage::MyClass1");
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("attr1", 45);
+        values.put("attr2", "it's");
+        SQLStatement statement = generator.generateInsertStatement(schema.getEntity(ref(myClass)), values,
+                Collections.<String, Collection<Long>> emptyMap(), 12L);
+        String expected = "insert into " + tablePrefix("mypackage")
+                + "MyClass1 (id, attr1, attr2, attr3, myClass2, myClass3) values (?, ?, ?, ?, ?, ?);";
+        SQLGeneratorTests.compareStatements(expected, statement.getString());
+        // values are sent as is, no quoting/escaping
+        TestCase.assertEquals(Arrays.<Object> asList(12L, 45, "it's", null, -1L, null), statement.getParameters());
+    }
+
     public void testGenerateSelectOne() throws CoreException {
         Class myClass = getClass("mypackage::MyClass1");
 
@@ -455,6 +518,16 @@ public class SQLGeneratorTests extends AbstractRepositoryBuildingTests {
         SQLGeneratorTests.compareStatements(expected1, stmts1.get(0));
     }
 
+    public void testGenerateSelectManyStatement() throws CoreException {
+        Class myClass = getClass("mypackage::MyClass1");
+
+        SQLStatement statement = generator.generateSelectManyStatement(schema.getEntity(ref(myClass)), Arrays.asList(43L, 44L));
+        String expected = "select id, attr1, attr2, attr3, myClass2, myClass3 from " + tablePrefix("mypackage")
+                + "MyClass1 where id in (?, ?);";
+        SQLGeneratorTests.compareStatements(expected, statement.getString());
+        TestCase.assertEquals(Arrays.<Object> asList(43L, 44L), statement.getParameters());
+    }
+
     public void testGenerateSelectRelated() throws CoreException {
         String model = "";
         model += "package custom;\n";
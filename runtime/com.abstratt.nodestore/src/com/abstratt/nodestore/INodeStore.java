@@ -1,9 +1,11 @@
 package com.abstratt.nodestore;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Storage for hierarchical nodes. Services:
@@ -53,6 +55,23 @@ public interface INodeStore {
      */
     public INode getNode(INodeKey key);
 
+    /**
+     * Returns the nodes with the given keys. Keys for which no node exists
+     * are left out. Stores should override this so all nodes are loaded at
+     * once. The default implementation loads one node at a time.
+     * 
+     * @return the nodes found, keyed by the given keys (in the same order)
+     */
+    public default Map<INodeKey, INode> getNodes(Collection<INodeKey> keys) {
+        Map<INodeKey, INode> result = new LinkedHashMap<INodeKey, INode>();
+        for (INodeKey key : keys) {
+            INode node = getNode(key);
+            if (node != null)
+                result.put(key, node);
+        }
+        return result;
+    }
+
     /**
      * Returns the keys of all root nodes.
      */
@@ -80,6 +99,37 @@ public interface INodeStore {
      */
     public Collection<INode> getRelatedNodes(INodeKey key, String relationship, String relatedNodeStoreName);
 
+    /**
+     * Returns references to the nodes related to each of the given nodes.
+     * Stores should override this so the whole set is loaded at once. The
+     * default implementation loads one node's relationships at a time.
+     * 
+     * @return the related node references, keyed by the given keys (in the
+     *         same order)
+     */
+    public default Map<INodeKey, Collection<NodeReference>> getRelatedNodeReferences(Collection<INodeKey> keys, String relationship,
+            String relatedNodeStoreName) {
+        Map<INodeKey, Collection<NodeReference>> result = new LinkedHashMap<INodeKey, Collection<NodeReference>>();
+        for (INodeKey key : keys)
+            result.put(key, getRelatedNodeReferences(key, relationship, relatedNodeStoreName));
+        return result;
+    }
+
+    /**
+     * Returns the nodes related to each of the given nodes. Stores should
+     * override this so the whole set is loaded at once. The default
+     * implementation loads one node's relationships at a time.
+     * 
+     * @return the related nodes, keyed by the given keys (in the same order)
+     */
+    public default Map<INodeKey, Collection<INode>> getRelatedNodes(Collection<INodeKey> keys, String relationship,
+            String relatedNodeStoreName) {
+        Map<INodeKey, Collection<INode>> result = new LinkedHashMap<INodeKey, Collection<INode>>();
+        for (INodeKey key : keys)
+            result.put(key, getRelatedNodes(key, relationship, relatedNodeStoreName));
+        return result;
+    }
+
     /**
      * Sets multiple related nodes.
      * 
@@ -104,6 +154,44 @@ public interface INodeStore {
     public void updateNode(INode node);
 
     public Collection<INodeKey> filter(Map<String, Collection<Object>> nodeCriteria, Integer limit);
+
+    /**
+     * Returns a page of the keys of the root nodes matching the given
+     * criteria (all root nodes if there are no criteria). Stores should
+     * override this so only the requested page is read. The default
+     * implementation reads (and, if sorting by a property, loads) all
+     * matching nodes.
+     * 
+     * @param sortKey
+     *            the property to order by, or <code>null</code> to order by
+     *            key
+     * @param offset
+     *            how many matching nodes to skip
+     * @param limit
+     *            the maximum number of keys to return, or <code>null</code>
+     *            for no limit
+     */
+    public default List<INodeKey> filter(Map<String, Collection<Object>> nodeCriteria, String sortKey, boolean ascending, long offset,
+            Integer limit) {
+        Collection<INodeKey> matching = nodeCriteria.isEmpty() ? getNodeKeys() : filter(nodeCriteria, null);
+        Stream<INodeKey> sorted;
+        if (sortKey == null)
+            sorted = matching.stream().sorted(NodeOrdering.byKey(ascending));
+        else
+            sorted = matching.stream().map(it -> getNode(it)).sorted(NodeOrdering.byProperty(sortKey, ascending)).map(it -> it.getKey());
+        sorted = sorted.skip(offset);
+        if (limit != null)
+            sorted = sorted.limit(limit);
+        return sorted.collect(Collectors.toList());
+    }
+
+    /**
+     * Counts the root nodes matching the given criteria (all root nodes if
+     * there are no criteria).
+     */
+    public default long count(Map<String, Collection<Object>> nodeCriteria) {
+        return (nodeCriteria.isEmpty() ? getNodeKeys() : filter(nodeCriteria, null)).size();
+    }
     
     public default NodeReference getReference(INodeKey key) {
     	return new NodeReference(getName(), key);
@@ -10,6 +10,33 @@ public interface INodeStoreCatalog {
 
     public void beginTransaction();
 
+    /**
+     * Starts a transaction, indicating whether it is going to make any
+     * changes. Read-only transactions may be served from data cached by
+     * other transactions.
+     */
+    public default void beginTransaction(boolean readOnly) {
+        beginTransaction();
+    }
+
+    /**
+     * Starts collecting node writes (creations and updates) on the current
+     * thread, so they can be sent to the underlying storage in bulk. Batches
+     * may be nested, only the outermost one takes effect.
+     *
+     * Stores that cannot batch writes just perform them as they come.
+     */
+    public default void beginBatch() {
+    }
+
+    /**
+     * Ends a batch started with {@link #beginBatch()}. If this is the
+     * outermost batch, pending writes are performed if <code>flush</code> is
+     * <code>true</code>, or dropped otherwise.
+     */
+    public default void endBatch(boolean flush) {
+    }
+
     public void commitTransaction();
 
     public boolean exists(NodeReference ref);
@@ -0,0 +1,38 @@
+package com.abstratt.nodestore;
+
+import java.util.Comparator;
+
+/**
+ * Orderings for nodes and node keys, used by stores that cannot sort nodes
+ * themselves. Nodes lacking a value for the sort property come last.
+ */
+public class NodeOrdering {
+    private NodeOrdering() {
+    }
+
+    public static Comparator<INodeKey> byKey(boolean ascending) {
+        Comparator<INodeKey> comparator = (key1, key2) -> compareValues(toComparable(key1), toComparable(key2));
+        return ascending ? comparator : comparator.reversed();
+    }
+
+    public static Comparator<INode> byProperty(String property, boolean ascending) {
+        Comparator<Object> values = ascending ? NodeOrdering::compareValues : (value1, value2) -> compareValues(value2, value1);
+        return Comparator.comparing((INode node) -> node.getProperties(true).get(property), Comparator.nullsLast(values))
+                .thenComparing(INode::getKey, byKey(ascending));
+    }
+
+    /**
+     * Compares two non-null property values. Values that are not comparable
+     * with each other are ordered by their string form.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static int compareValues(Object value1, Object value2) {
+        if (value1 instanceof Comparable && value1.getClass().isInstance(value2))
+            return ((Comparable) value1).compareTo(value2);
+        return value1.toString().compareTo(value2.toString());
+    }
+
+    private static Object toComparable(INodeKey key) {
+        return key instanceof IntegerKey ? (Object) ((IntegerKey) key).getValue() : key;
+    }
+}
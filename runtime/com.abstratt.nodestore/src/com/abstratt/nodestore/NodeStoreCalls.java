@@ -0,0 +1,44 @@
+package com.abstratt.nodestore;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the calls node stores make to their backing storage (say, SQL
+ * statements, or in-memory store operations), per thread, while counting is
+ * on. Lets callers tell how many calls serving a request took.
+ */
+public class NodeStoreCalls {
+    private static final ThreadLocal<Map<String, long[]>> counts = new ThreadLocal<Map<String, long[]>>();
+
+    /**
+     * Starts counting calls made by the current thread.
+     */
+    public static void start() {
+        counts.set(new LinkedHashMap<String, long[]>());
+    }
+
+    /**
+     * Stops counting calls made by the current thread, returning how many
+     * calls of each kind were made since counting started.
+     */
+    public static Map<String, Long> stop() {
+        Map<String, long[]> current = counts.get();
+        counts.remove();
+        if (current == null)
+            return Collections.emptyMap();
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        current.forEach((kind, count) -> result.put(kind, count[0]));
+        return result;
+    }
+
+    /**
+     * Records a call of the given kind, if counting is on.
+     */
+    public static void record(String kind) {
+        Map<String, long[]> current = counts.get();
+        if (current != null)
+            current.computeIfAbsent(kind, it -> new long[1])[0]++;
+    }
+}
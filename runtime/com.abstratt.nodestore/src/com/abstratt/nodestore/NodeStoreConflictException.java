@@ -0,0 +1,13 @@
+package com.abstratt.nodestore;
+
+/**
+ * Thrown when a transaction cannot be committed because some of the nodes it
+ * changed were changed by another transaction that committed first.
+ */
+public class NodeStoreConflictException extends NodeStoreException {
+    private static final long serialVersionUID = 1L;
+
+    public NodeStoreConflictException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package com.abstratt.kirra.auth;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class AllKirraAuthTests {
+    public static Test suite() {
+        TestSuite suite = new TestSuite(AllKirraAuthTests.class.getName());
+        suite.addTest(CachingAuthenticationServiceTests.suite());
+        return suite;
+    }
+}
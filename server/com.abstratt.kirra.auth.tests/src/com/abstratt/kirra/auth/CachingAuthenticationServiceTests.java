@@ -0,0 +1,182 @@
+package com.abstratt.kirra.auth;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class CachingAuthenticationServiceTests extends TestCase {
+
+    /**
+     * Knows a fixed set of users, and counts how often it is asked about
+     * them.
+     */
+    private static class CountingAuthenticationService implements AuthenticationService {
+        final Map<String, String> passwords = new HashMap<String, String>();
+        final Map<String, List<String>> roleNames = new HashMap<String, List<String>>();
+        int authentications;
+        int roleLookups;
+        /**
+         * Runs in the middle of every lookup, if set.
+         */
+        Runnable duringLookup;
+
+        @Override
+        public boolean authenticate(String username, String password) {
+            authentications++;
+            if (duringLookup != null)
+                duringLookup.run();
+            return password != null && password.equals(passwords.get(username));
+        }
+
+        @Override
+        public List<String> getRoleNames(String username) {
+            roleLookups++;
+            if (duringLookup != null)
+                duringLookup.run();
+            return roleNames.get(username);
+        }
+
+        @Override
+        public boolean createUser(String username, String password) {
+            passwords.put(username, password);
+            return true;
+        }
+
+        @Override
+        public boolean resetPassword(String username) {
+            return false;
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(CachingAuthenticationServiceTests.class);
+    }
+
+    private CountingAuthenticationService delegate;
+
+    private String scope;
+
+    public CachingAuthenticationServiceTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        delegate = new CountingAuthenticationService();
+        delegate.passwords.put("user1", "pass1");
+        delegate.passwords.put("user2", "pass2");
+        delegate.passwords.put("user3", "pass3");
+        delegate.roleNames.put("user1", Arrays.asList("mypackage.Role1"));
+        scope = "app1";
+    }
+
+    public void testHit() {
+        CachingAuthenticationService cache = newCache(60000, 10);
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        TestCase.assertEquals(1, delegate.authentications);
+        TestCase.assertEquals(Arrays.asList("mypackage.Role1"), cache.getRoleNames("user1"));
+        TestCase.assertEquals(Arrays.asList("mypackage.Role1"), cache.getRoleNames("user1"));
+        TestCase.assertEquals(1, delegate.roleLookups);
+    }
+
+    public void testWrongPassword() {
+        CachingAuthenticationService cache = newCache(60000, 10);
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        // a different password is checked by the delegate, and fails
+        TestCase.assertFalse(cache.authenticate("user1", "pass2"));
+        TestCase.assertEquals(2, delegate.authentications);
+        // failures are never cached
+        TestCase.assertFalse(cache.authenticate("user1", "pass2"));
+        TestCase.assertEquals(3, delegate.authentications);
+        TestCase.assertFalse(cache.authenticate("user1", null));
+        TestCase.assertEquals(4, delegate.authentications);
+    }
+
+    public void testExpiry() throws InterruptedException {
+        CachingAuthenticationService cache = newCache(50, 10);
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        cache.getRoleNames("user1");
+        Thread.sleep(100);
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        TestCase.assertEquals(2, delegate.authentications);
+        cache.getRoleNames("user1");
+        TestCase.assertEquals(2, delegate.roleLookups);
+    }
+
+    public void testSizeBound() {
+        CachingAuthenticationService cache = newCache(60000, 2);
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        TestCase.assertTrue(cache.authenticate("user2", "pass2"));
+        TestCase.assertTrue(cache.authenticate("user3", "pass3"));
+        TestCase.assertEquals(3, delegate.authentications);
+        // the most recent users are remembered
+        TestCase.assertTrue(cache.authenticate("user3", "pass3"));
+        TestCase.assertTrue(cache.authenticate("user2", "pass2"));
+        TestCase.assertEquals(3, delegate.authentications);
+        // but not the least recently used one
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        TestCase.assertEquals(4, delegate.authentications);
+    }
+
+    public void testScopes() {
+        CachingAuthenticationService cache = newCache(60000, 10);
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        scope = "app2";
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        TestCase.assertEquals(2, delegate.authentications);
+    }
+
+    public void testInvalidate() {
+        CachingAuthenticationService cache = newCache(60000, 10);
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        TestCase.assertEquals(Arrays.asList("mypackage.Role1"), cache.getRoleNames("user1"));
+        delegate.passwords.put("user1", "newPass");
+        delegate.roleNames.put("user1", Arrays.asList("mypackage.Role2"));
+        cache.invalidate();
+        TestCase.assertFalse(cache.authenticate("user1", "pass1"));
+        TestCase.assertTrue(cache.authenticate("user1", "newPass"));
+        TestCase.assertEquals(Arrays.asList("mypackage.Role2"), cache.getRoleNames("user1"));
+        TestCase.assertEquals(3, delegate.authentications);
+        TestCase.assertEquals(2, delegate.roleLookups);
+    }
+
+    public void testInvalidateDuringLookup() {
+        CachingAuthenticationService cache = newCache(60000, 10);
+        delegate.duringLookup = cache::invalidate;
+        // results of lookups started before an invalidation are returned...
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        TestCase.assertEquals(Arrays.asList("mypackage.Role1"), cache.getRoleNames("user1"));
+        delegate.duringLookup = null;
+        // ...but not remembered
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        TestCase.assertEquals(Arrays.asList("mypackage.Role1"), cache.getRoleNames("user1"));
+        TestCase.assertEquals(2, delegate.authentications);
+        TestCase.assertEquals(2, delegate.roleLookups);
+        // lookups after that are remembered again
+        TestCase.assertTrue(cache.authenticate("user1", "pass1"));
+        cache.getRoleNames("user1");
+        TestCase.assertEquals(2, delegate.authentications);
+        TestCase.assertEquals(2, delegate.roleLookups);
+    }
+
+    public void testUnknownUserRoles() {
+        CachingAuthenticationService cache = newCache(60000, 10);
+        TestCase.assertNull(cache.getRoleNames("user2"));
+        delegate.roleNames.put("user2", Collections.<String> emptyList());
+        // users with no profile are not remembered
+        TestCase.assertEquals(Collections.emptyList(), cache.getRoleNames("user2"));
+        TestCase.assertEquals(2, delegate.roleLookups);
+    }
+
+    private CachingAuthenticationService newCache(long timeToLive, int maxEntries) {
+        return new CachingAuthenticationService(delegate, () -> scope, timeToLive, maxEntries);
+    }
+}
@@ -0,0 +1,202 @@
+package com.abstratt.kirra.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * An authentication service that remembers, for a limited time, users
+ * recently authenticated by another service, and their roles, so every
+ * request does not require looking them up again.
+ *
+ * Passwords are not kept, only salted hashes of them. Failed attempts are
+ * never cached.
+ *
+ * Entries are kept per scope (say, the application and environment), as
+ * provided by the given supplier. Callers must {@link #invalidate()} the
+ * cache whenever user data changes. Users looked up before an invalidation
+ * but only known after it are not cached.
+ */
+public class CachingAuthenticationService implements AuthenticationService {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private static final int SALT_LENGTH = 16;
+
+    private static class Verified {
+        final byte[] salt;
+        final byte[] hash;
+        final long expiresAt;
+
+        Verified(byte[] salt, byte[] hash, long expiresAt) {
+            this.salt = salt;
+            this.hash = hash;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Roles {
+        final List<String> roleNames;
+        final long expiresAt;
+
+        Roles(List<String> roleNames, long expiresAt) {
+            this.roleNames = roleNames;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final AuthenticationService delegate;
+
+    private final Supplier<String> scope;
+
+    private final long timeToLive;
+
+    private final int maxEntries;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final Map<String, Verified> verified;
+
+    private final Map<String, Roles> roles;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param delegate
+     *            the service that actually authenticates users
+     * @param scope
+     *            provides the scope of the current request
+     * @param timeToLive
+     *            how long, in milliseconds, entries are valid for
+     * @param maxEntries
+     *            how many users are remembered, least recently used ones are
+     *            forgotten first
+     */
+    public CachingAuthenticationService(AuthenticationService delegate, Supplier<String> scope, long timeToLive, int maxEntries) {
+        this.delegate = delegate;
+        this.scope = scope;
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+        this.verified = newCache();
+        this.roles = newCache();
+    }
+
+    private <V> Map<String, V> newCache() {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public AuthenticationService getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public boolean authenticate(String username, String password) {
+        if (username == null || password == null)
+            return delegate.authenticate(username, password);
+        String key = getKey(username);
+        Verified cached;
+        synchronized (verified) {
+            cached = verified.get(key);
+        }
+        if (cached != null && cached.expiresAt > System.currentTimeMillis()
+                && MessageDigest.isEqual(cached.hash, hash(cached.salt, password)))
+            return true;
+        long current = generation.get();
+        boolean success = delegate.authenticate(username, password);
+        synchronized (verified) {
+            if (success && generation.get() == current) {
+                byte[] salt = new byte[SALT_LENGTH];
+                random.nextBytes(salt);
+                verified.put(key, new Verified(salt, hash(salt, password), System.currentTimeMillis() + timeToLive));
+            } else
+                verified.remove(key);
+        }
+        return success;
+    }
+
+    @Override
+    public List<String> getRoleNames(String username) {
+        String key = getKey(username);
+        Roles cached;
+        synchronized (roles) {
+            cached = roles.get(key);
+        }
+        if (cached != null && cached.expiresAt > System.currentTimeMillis())
+            return cached.roleNames;
+        long current = generation.get();
+        List<String> roleNames = delegate.getRoleNames(username);
+        if (roleNames != null)
+            synchronized (roles) {
+                if (generation.get() == current)
+                    roles.put(key, new Roles(Collections.unmodifiableList(roleNames), System.currentTimeMillis() + timeToLive));
+            }
+        return roleNames;
+    }
+
+    @Override
+    public boolean createUser(String username, String password) {
+        invalidate(username);
+        return delegate.createUser(username, password);
+    }
+
+    @Override
+    public boolean resetPassword(String username) {
+        invalidate(username);
+        return delegate.resetPassword(username);
+    }
+
+    /**
+     * Forgets the given user in the current scope.
+     */
+    public void invalidate(String username) {
+        String key = getKey(username);
+        generation.incrementAndGet();
+        synchronized (verified) {
+            verified.remove(key);
+        }
+        synchronized (roles) {
+            roles.remove(key);
+        }
+    }
+
+    /**
+     * Forgets all users, in all scopes.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        synchronized (verified) {
+            verified.clear();
+        }
+        synchronized (roles) {
+            roles.clear();
+        }
+    }
+
+    private String getKey(String username) {
+        return scope.get() + '/' + username;
+    }
+
+    private static byte[] hash(byte[] salt, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            digest.update(salt);
+            return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
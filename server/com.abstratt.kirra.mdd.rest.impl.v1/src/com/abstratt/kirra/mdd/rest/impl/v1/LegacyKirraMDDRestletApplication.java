@@ -22,9 +22,11 @@ import com.abstratt.kirra.mdd.rest.impl.v1.resources.EntityResource;
 import com.abstratt.kirra.mdd.rest.impl.v1.resources.FinderResultResource;
 import com.abstratt.kirra.mdd.rest.impl.v1.resources.IndexResource;
 import com.abstratt.kirra.mdd.rest.impl.v1.resources.InstanceActionResource;
+import com.abstratt.kirra.mdd.rest.impl.v1.resources.InstanceCapabilitiesResource;
 import com.abstratt.kirra.mdd.rest.impl.v1.resources.InstanceListResource;
 import com.abstratt.kirra.mdd.rest.impl.v1.resources.InstanceResource;
 import com.abstratt.kirra.mdd.rest.impl.v1.resources.LoginLogoutResource;
+import com.abstratt.kirra.mdd.rest.impl.v1.resources.MetricsResource;
 import com.abstratt.kirra.mdd.rest.impl.v1.resources.ParameterDomainResource;
 import com.abstratt.kirra.mdd.rest.impl.v1.resources.PasswordResetResource;
 import com.abstratt.kirra.mdd.rest.impl.v1.resources.ProfileResource;
@@ -60,11 +62,14 @@ public class LegacyKirraMDDRestletApplication extends Application {
     public Restlet createInboundRoot() {
         getMetadataService().addExtension("multipart", MediaType.MULTIPART_FORM_DATA, true);
         Router router = new Router(getContext());
+        // must come before the routes for workspaces
+        router.attach("/metrics", createFinder(MetricsResource.class));
         attachTo(router, "/{workspace}/", createRestlet(IndexResource.class, true, false));
         // takes path in query
         attachTo(router, "/", createFinder(IndexResource.class));
         attachTo(router, "/{workspace}/" + com.abstratt.mdd.frontend.web.Paths.DATA, createRestlet(DataResource.class, false, true));
-        attachTo(router, "/{workspace}/" + com.abstratt.mdd.frontend.web.Paths.TESTS, createRestlet(TestResource.class, false, true));
+        // test suites enter repository contexts as needed
+        attachTo(router, "/{workspace}/" + com.abstratt.mdd.frontend.web.Paths.TESTS, createRestlet(TestResource.class, false, false));
         attachTo(router, "/{workspace}/" + com.abstratt.mdd.frontend.web.Paths.TESTS + "/{testClassName}/{testCaseName}",
                 createRestlet(TestCaseRunnerResource.class, false, true, "tests"));
         attachTo(router, "/{workspace}/" + com.abstratt.mdd.frontend.web.Paths.SIGNUP, createRestlet(SignupResource.class, false, true));
@@ -88,6 +93,9 @@ public class LegacyKirraMDDRestletApplication extends Application {
                 + "/{entityNamespace}.{entityName}/{retrieverName}", createRestlet(ServiceInvocationResource.class));
         attachTo(router, "/{workspace}/" + com.abstratt.mdd.frontend.web.Paths.ACTIONS + "/{entityNamespace}.{entityName}/{actionName}",
                 createRestlet(StaticActionResource.class));
+        // must come before the route for single instances
+        attachTo(router, "/{workspace}/" + com.abstratt.mdd.frontend.web.Paths.INSTANCES + "/{entityNamespace}.{entityName}/"
+                + com.abstratt.mdd.frontend.web.Paths.CAPABILITIES, createRestlet(InstanceCapabilitiesResource.class));
         attachTo(router, "/{workspace}/" + com.abstratt.mdd.frontend.web.Paths.INSTANCES + "/{entityNamespace}.{entityName}/{objectId}",
                 createRestlet(InstanceResource.class));
         attachTo(router, "/{workspace}/" + com.abstratt.mdd.frontend.web.Paths.INSTANCES + "/{entityNamespace}.{entityName}/{objectId}/"
@@ -124,17 +132,15 @@ public class LegacyKirraMDDRestletApplication extends Application {
         if (authenticated) {
             created = new KirraCookieAuthenticator(created);
         }
-        if (LegacyKirraMDDRestletApplication.SHOW_TIMING) {
-            created = KirraTimingFilter.monitor(created);
-        }
         created = new KirraCORSFilter(created);
         return created;
     }
 
     private void attachTo(Router router, String pathTemplate, Restlet resource) {
-        router.attach(pathTemplate, resource);
+        Restlet monitored = KirraTimingFilter.monitor(resource, pathTemplate, LegacyKirraMDDRestletApplication.SHOW_TIMING);
+        router.attach(pathTemplate, monitored);
         if (pathTemplate.endsWith("/") && !"/".equals(pathTemplate))
             // so clients that omit the trailing slash don't get burned
-            router.attach(StringUtils.stripEnd(pathTemplate, "/"), resource);
+            router.attach(StringUtils.stripEnd(pathTemplate, "/"), monitored);
     }
 }
@@ -44,10 +44,13 @@ public abstract class AbstractKirraRepositoryResource extends ServerResource {
     }
 
     /**
-     * Builds a JSON representation that comprises a list of instances.
+     * Builds a JSON representation that comprises a list of instances. The
+     * instance representations are built right away (that may require the
+     * repository), but the JSON text is only produced as the response is
+     * written.
      */
     protected Representation buildInstanceList(Entity targetEntity, List<Instance> instances) {
-        List<InstanceJSONRepresentation> instanceReprs = new ArrayList<InstanceJSONRepresentation>();
+        List<InstanceJSONRepresentation> instanceReprs = new ArrayList<InstanceJSONRepresentation>(instances.size());
         for (Instance instance : instances)
             instanceReprs.add(getInstanceJSONRepresentation(instance, targetEntity));
         return jsonToStringRepresentation(instanceReprs);
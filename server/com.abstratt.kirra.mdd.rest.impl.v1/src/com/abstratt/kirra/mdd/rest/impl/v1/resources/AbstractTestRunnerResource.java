@@ -2,7 +2,18 @@ package com.abstratt.kirra.mdd.rest.impl.v1.resources;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import javax.ws.rs.core.Response.Status;
 
@@ -10,8 +21,11 @@ import org.apache.commons.lang.StringUtils;
 import org.eclipse.uml2.uml.NamedElement;
 import org.eclipse.uml2.uml.Operation;
 import org.eclipse.uml2.uml.UMLPackage;
+import org.restlet.data.Method;
 
+import com.abstratt.kirra.mdd.rest.KirraRESTUtils;
 import com.abstratt.kirra.mdd.rest.impl.v1.resources.AbstractTestRunnerResource.TestResult.SourceLocation;
+import com.abstratt.kirra.rest.common.KirraContext;
 import com.abstratt.kirra.rest.resources.ResourceHelper;
 import com.abstratt.mdd.core.IRepository;
 import com.abstratt.mdd.core.RepositoryService;
@@ -24,9 +38,54 @@ import com.abstratt.mdd.core.runtime.types.BasicType;
 import com.abstratt.mdd.core.util.FeatureUtils;
 import com.abstratt.mdd.core.util.MDDExtensionUtils;
 import com.abstratt.mdd.frontend.web.ResourceUtils;
+import com.abstratt.nodestore.INodeStoreCatalog;
+import com.abstratt.nodestore.inmemory.InMemoryNodeStoreCatalog;
+import com.abstratt.pluginutils.ISharedContextRunnable;
 
 public abstract class AbstractTestRunnerResource extends AbstractKirraRepositoryResource {
 
+    /**
+     * The property for how many test cases {@link #runTestCases(List)} runs
+     * at the same time.
+     */
+    static final String PARALLELISM = "kirra.tests.parallelism";
+
+    /**
+     * The environment test cases run in when they cannot be isolated.
+     */
+    protected static final String DEFAULT_ENVIRONMENT = "default";
+
+    /**
+     * The prefix for the environments test cases run in when isolated. Each
+     * worker of each run gets an environment of its own.
+     */
+    private static final String WORKER_ENVIRONMENT = "tests-";
+
+    private static final AtomicLong runs = new AtomicLong();
+
+    /**
+     * The threads workers run on, shared by all runs so concurrent runs
+     * cannot take more threads than processors (or than the configured
+     * parallelism).
+     */
+    private static final ExecutorService workerThreads = createWorkerThreads();
+
+    private static ExecutorService createWorkerThreads() {
+        int threads = Math.max(1, getParallelism());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "kirra-test-runner");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static int getParallelism() {
+        return Integer.getInteger(PARALLELISM, java.lang.Runtime.getRuntime().availableProcessors());
+    }
+
     static class TestResult {
         static class SourceLocation {
             public String filename;
@@ -74,6 +133,97 @@ public abstract class AbstractTestRunnerResource extends AbstractKirraRepository
         public String testCaseUri;
     }
     
+    /**
+     * Runs the given test cases, returning their results in the same order.
+     * Must be called outside of any repository context, as each test case
+     * runs in a context of its own (and so with its own runtime and
+     * execution context), and workers would otherwise compete with the
+     * caller for pooled resources.
+     * <p>
+     * Test cases are shared among as many workers as the {@link #PARALLELISM}
+     * property allows (by default, one per processor), each running test cases against stores in an environment no other worker
+     * (in this or any other run) uses. As usual, the stores are zapped after
+     * every test case, and the environments are dropped once the run ends.
+     * </p>
+     * <p>
+     * Only in-memory node stores are kept per environment, so test cases
+     * against any other kind of store (e.g. JDBC, where all environments
+     * share one schema) run one at a time, in the default environment.
+     * </p>
+     */
+    protected List<TestResult> runTestCases(List<TestCase> testCases) {
+        String workspace = KirraRESTUtils.getWorkspaceFromProjectPath(getRequest());
+        if (!runInEnvironment(DEFAULT_ENVIRONMENT, Method.GET, () -> isolatesEnvironments()))
+            return testCases.stream().map(testCase -> runTestCaseInEnvironment(workspace, DEFAULT_ENVIRONMENT, testCase))
+                    .collect(Collectors.toList());
+        int workers = Math.max(1, Math.min(getParallelism(), testCases.size()));
+        String runEnvironment = WORKER_ENVIRONMENT + runs.incrementAndGet() + "-";
+        TestResult[] results = new TestResult[testCases.size()];
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> running = new ArrayList<Future<?>>(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                String environment = runEnvironment + i;
+                running.add(workerThreads.submit(() -> {
+                    // workers that finish early take on more test cases
+                    for (int current; (current = next.getAndIncrement()) < results.length;)
+                        results[current] = runTestCaseInEnvironment(workspace, environment, testCases.get(current));
+                }));
+            }
+            for (Future<?> worker : running)
+                worker.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // stop handing out test cases, and wait for those under way
+            next.set(results.length);
+            for (Future<?> worker : running)
+                try {
+                    worker.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    // already reported
+                }
+            for (int i = 0; i < workers; i++)
+                InMemoryNodeStoreCatalog.dropEnvironment(runEnvironment + i);
+        }
+        return Arrays.asList(results);
+    }
+
+    private boolean isolatesEnvironments() {
+        return RepositoryService.DEFAULT.getFeature(INodeStoreCatalog.class) instanceof InMemoryNodeStoreCatalog;
+    }
+
+    private TestResult runTestCaseInEnvironment(String workspace, String environment, final TestCase testCase) {
+        return runInEnvironment(workspace, environment, Method.POST, () -> runTestCaseAndRollback(testCase));
+    }
+
+    /**
+     * Runs the given code in a repository context for the workspace of the
+     * current request, against stores in the given environment.
+     */
+    protected <R> R runInEnvironment(String environment, Method method, Supplier<R> toRun) {
+        return runInEnvironment(KirraRESTUtils.getWorkspaceFromProjectPath(getRequest()), environment, method, toRun);
+    }
+
+    private <R> R runInEnvironment(String workspace, String environment, Method method, Supplier<R> toRun) {
+        KirraContext.setEnvironment(environment);
+        try {
+            return KirraRESTUtils.runInKirraWorkspace(workspace, new ISharedContextRunnable<IRepository, R>() {
+                @Override
+                public R runInContext(IRepository context) {
+                    return toRun.get();
+                }
+            }, method);
+        } finally {
+            KirraContext.setEnvironment(null);
+        }
+    }
+
     protected TestResult runTestCaseAndRollback(final TestCase testCase) {
     	IRepository repository = RepositoryService.DEFAULT.getCurrentRepository();
         Operation testCaseOperation = repository.findNamedElement(testCase.testClass.replace(".", NamedElement.SEPARATOR) + NamedElement.SEPARATOR
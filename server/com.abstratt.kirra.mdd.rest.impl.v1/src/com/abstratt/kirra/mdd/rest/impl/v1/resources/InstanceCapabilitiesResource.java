@@ -0,0 +1,47 @@
+package com.abstratt.kirra.mdd.rest.impl.v1.resources;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+
+import com.abstratt.kirra.Entity;
+import com.abstratt.kirra.InstanceCapabilities;
+import com.abstratt.kirra.Repository;
+import com.abstratt.kirra.mdd.runtime.KirraOnMDDRuntime;
+import com.abstratt.mdd.frontend.web.ResourceUtils;
+
+/**
+ * The capabilities the current user has over several instances of an entity,
+ * given as a comma-separated list of object ids in the <code>ids</code>
+ * query parameter. Instances that do not exist are left out.
+ */
+public class InstanceCapabilitiesResource extends AbstractKirraRepositoryResource {
+
+    @Get("json")
+    public Representation getCapabilities() {
+        Entity targetEntity = getTargetEntity();
+        ResourceUtils.ensure(targetEntity != null, null, Status.CLIENT_ERROR_NOT_FOUND);
+        String ids = getQueryValue("ids");
+        ResourceUtils.ensure(ids != null, "Parameter is required: ids", Status.CLIENT_ERROR_BAD_REQUEST);
+        List<String> objectIds = Arrays.asList(StringUtils.split(ids, ','));
+        Repository repository = getRepository();
+        Map<String, InstanceCapabilities> capabilities;
+        if (repository instanceof KirraOnMDDRuntime)
+            capabilities = ((KirraOnMDDRuntime) repository).getInstanceCapabilities(targetEntity.getTypeRef(), objectIds);
+        else {
+            capabilities = new LinkedHashMap<String, InstanceCapabilities>();
+            for (String objectId : objectIds) {
+                InstanceCapabilities found = repository.getInstanceCapabilities(targetEntity.getTypeRef(), objectId);
+                if (found != null)
+                    capabilities.put(objectId, found);
+            }
+        }
+        return jsonToStringRepresentation(capabilities);
+    }
+}
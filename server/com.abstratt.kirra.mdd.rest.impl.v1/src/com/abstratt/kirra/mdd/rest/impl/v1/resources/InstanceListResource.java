@@ -31,4 +31,12 @@ public class InstanceListResource extends AbstractInstanceListResource {
     protected List<Instance> findInstances(String entityNamespace, String entityName) {
         return getRepository().getInstances(entityNamespace, entityName, false);
     }
+
+    /**
+     * The repository already returns instances ordered by id.
+     */
+    @Override
+    protected List<Instance> sort(List<Instance> instances) {
+        return instances;
+    }
 }
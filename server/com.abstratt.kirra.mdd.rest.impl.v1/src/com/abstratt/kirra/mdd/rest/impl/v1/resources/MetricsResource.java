@@ -0,0 +1,43 @@
+package com.abstratt.kirra.mdd.rest.impl.v1.resources;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+import com.abstratt.kirra.mdd.rest.KirraMetrics;
+import com.abstratt.mdd.frontend.web.ResourceUtils;
+
+/**
+ * Serves request metrics in the Prometheus text format. Only available if
+ * enabled (see {@link #ENABLED}), and then only to clients on the same host.
+ * Behind a reverse proxy on the same host every client looks local, so the
+ * proxy must not forward requests for metrics.
+ */
+public class MetricsResource extends ServerResource {
+    /**
+     * The system property that enables serving metrics (off by default).
+     */
+    static final String ENABLED = "kirra.metrics.enabled";
+
+    @Get
+    public Representation metrics() {
+        ResourceUtils.ensure(Boolean.getBoolean(ENABLED), "Metrics are not enabled", Status.CLIENT_ERROR_NOT_FOUND);
+        ResourceUtils.ensure(isLocalClient(), "Metrics are only available locally", Status.CLIENT_ERROR_FORBIDDEN);
+        return new StringRepresentation(KirraMetrics.getInstance().render(), MediaType.TEXT_PLAIN);
+    }
+
+    private boolean isLocalClient() {
+        String address = getClientInfo().getAddress();
+        try {
+            return address != null && InetAddress.getByName(address).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+}
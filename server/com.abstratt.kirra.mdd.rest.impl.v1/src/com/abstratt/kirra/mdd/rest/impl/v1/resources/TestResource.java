@@ -13,6 +13,7 @@ import org.eclipse.uml2.uml.NamedElement;
 import org.eclipse.uml2.uml.Operation;
 import org.eclipse.uml2.uml.Stereotype;
 import org.eclipse.uml2.uml.UMLPackage;
+import org.restlet.data.Method;
 import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 import org.restlet.resource.Post;
@@ -61,8 +62,8 @@ public class TestResource extends AbstractTestRunnerResource {
     public Representation runSuite(Representation noneExpected) {
         // first we enter a context to find all test cases
         List<TestCase> testCases = collectTestCases();
-        // now we run them one by one, using a (potentially) different context every time
-        List<TestResult> testCaseResults = testCases.stream().map(testCase -> runTestCaseAndRollback(testCase)).collect(Collectors.toList());
+        // now we run them, each in a context of its own
+        List<TestResult> testCaseResults = runTestCases(testCases);
         Map<String, Number> stats = new LinkedHashMap<>();
         long passed = testCaseResults.stream().filter(testCase -> testCase.testStatus == Status.Pass).count();
         stats.put("total", testCaseResults.size());
@@ -74,7 +75,15 @@ public class TestResource extends AbstractTestRunnerResource {
         return jsonToStringRepresentation(result);
     }
 
+    /**
+     * Finds all test cases, in a repository context of their own (this
+     * resource is not served in one, see {@link #runTestCases(List)}).
+     */
     private List<TestCase> collectTestCases() {
+        return runInEnvironment(DEFAULT_ENVIRONMENT, Method.GET, () -> basicCollectTestCases());
+    }
+
+    private List<TestCase> basicCollectTestCases() {
     	IRepository repository = RepositoryService.DEFAULT.getCurrentRepository();
         List<Operation> testCaseOperations = repository.findAll(new EObjectCondition() {
             @Override
@@ -1,5 +1,10 @@
 package com.abstratt.kirra.mdd.rest.impl.v2;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.restlet.Component;
 import org.restlet.Request;
 import org.restlet.Restlet;
@@ -15,11 +20,21 @@ import com.abstratt.kirra.mdd.rest.KirraCORSFilter;
 import com.abstratt.kirra.mdd.rest.KirraCookieAuthenticator;
 import com.abstratt.kirra.mdd.rest.KirraRepositoryFilter;
 import com.abstratt.kirra.mdd.rest.KirraStatusService;
+import com.abstratt.kirra.mdd.rest.KirraTimingFilter;
 import com.abstratt.kirra.mdd.rest.KirraUploadFilter;
-import com.abstratt.kirra.rest.common.Paths;
 import com.abstratt.kirra.rest.resources.KirraJaxRsApplication;
+import com.abstratt.mdd.frontend.web.Paths;
+import com.abstratt.mdd.frontend.web.WebFrontEnd;
 
 public class KirraOnMDDRestletApplication extends JaxRsApplication {
+    private static boolean SHOW_TIMING = Boolean.parseBoolean(System.getProperty("kirra.timing", "true"));
+
+    private static final String OTHER_ROUTE = "other";
+
+    private static final Set<String> RESOURCE_KINDS = new HashSet<String>(Arrays.asList(Paths.ENTITIES, Paths.INSTANCES, Paths.SERVICES,
+            Paths.FINDERS, Paths.RETRIEVERS, Paths.ACTIONS, Paths.EVENTS, Paths.PROFILE, Paths.LOGIN, Paths.LOGOUT, Paths.SIGNUP,
+            Paths.PASSWORD_RESET, Paths.DATA, Paths.TESTS));
+
     private KirraStatusService customStatusService;
     private LogService customLogService;
     private Component component;
@@ -52,6 +67,22 @@ public class KirraOnMDDRestletApplication extends JaxRsApplication {
         };
         KirraCORSFilter corsFilter = new KirraCORSFilter(repositoryFilter);
         KirraUploadFilter uploadFilter = new KirraUploadFilter(corsFilter);
-        return uploadFilter;
+        return KirraTimingFilter.monitor(uploadFilter, KirraOnMDDRestletApplication::getRoute, SHOW_TIMING);
+    }
+
+    /**
+     * Resources are matched by JAX-RS, so routes are approximated by the kind
+     * of resource requested (the segment after the application). Only known
+     * kinds are used, so requests cannot create arbitrary routes.
+     */
+    private static String getRoute(Request request) {
+        List<String> segments = request.getResourceRef().getSegments();
+        if (segments.size() < 3 || !WebFrontEnd.APP_API2_SEGMENT.equals("/" + segments.get(0) + "/" + segments.get(1) + "/"))
+            return OTHER_ROUTE;
+        String route = WebFrontEnd.APP_API2_SEGMENT + "{application}";
+        if (segments.size() == 3 || segments.get(3).isEmpty())
+            return route;
+        route += "/" + (RESOURCE_KINDS.contains(segments.get(3)) ? segments.get(3) : OTHER_ROUTE);
+        return segments.size() > 4 ? route + "/*" : route;
     }
 }
@@ -0,0 +1,12 @@
+package com.abstratt.kirra.mdd.rest;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class AllKirraRestTests {
+    public static Test suite() {
+        TestSuite suite = new TestSuite(AllKirraRestTests.class.getName());
+        suite.addTest(LatencyHistogramTests.suite());
+        return suite;
+    }
+}
@@ -0,0 +1,72 @@
+package com.abstratt.kirra.mdd.rest;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class LatencyHistogramTests extends TestCase {
+
+    public static Test suite() {
+        return new TestSuite(LatencyHistogramTests.class);
+    }
+
+    public LatencyHistogramTests(String name) {
+        super(name);
+    }
+
+    public void testExactValues() {
+        for (int value = 0; value < LatencyHistogram.SUB_BUCKETS; value++) {
+            TestCase.assertEquals(value, LatencyHistogram.indexOf(value));
+            TestCase.assertEquals(value, LatencyHistogram.highestValueAt(value));
+        }
+    }
+
+    public void testBucketBounds() {
+        int lastIndex = LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE);
+        for (int index = 1; index <= lastIndex; index++) {
+            // buckets follow one another with no gaps
+            long lowest = LatencyHistogram.highestValueAt(index - 1) + 1;
+            long highest = LatencyHistogram.highestValueAt(index);
+            String message = "bucket " + index + ": " + lowest + ".." + highest;
+            TestCase.assertTrue(message, lowest <= highest);
+            TestCase.assertEquals(message, index, LatencyHistogram.indexOf(lowest));
+            TestCase.assertEquals(message, index, LatencyHistogram.indexOf(highest));
+            // no value is off by more than 1/SUB_BUCKETS of itself
+            TestCase.assertTrue(message, highest - lowest <= lowest / LatencyHistogram.SUB_BUCKETS);
+        }
+        TestCase.assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValueAt(lastIndex));
+    }
+
+    public void testValuesOutOfRange() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(LatencyHistogram.MAX_VALUE - 1);
+        histogram.record(LatencyHistogram.MAX_VALUE + 1);
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-1);
+        TestCase.assertEquals(4, histogram.getCount());
+        TestCase.assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+        TestCase.assertEquals(LatencyHistogram.MAX_VALUE * 3 - 1, histogram.getSum());
+        long[] values = histogram.getValuesAt(0, 0.5, 1);
+        TestCase.assertEquals(0, values[0]);
+        TestCase.assertEquals(LatencyHistogram.MAX_VALUE, values[1]);
+        TestCase.assertEquals(LatencyHistogram.MAX_VALUE, values[2]);
+    }
+
+    public void testQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        TestCase.assertEquals(0, histogram.getValuesAt(0.5)[0]);
+        for (long value = 100; value >= 1; value--)
+            histogram.record(value);
+        TestCase.assertEquals(100, histogram.getCount());
+        TestCase.assertEquals(5050, histogram.getSum());
+        // values up to 63 are recorded exactly, then in buckets of 2
+        long[] values = histogram.getValuesAt(0, 0.01, 0.5, 0.9, 0.99, 1);
+        TestCase.assertEquals(1, values[0]);
+        TestCase.assertEquals(1, values[1]);
+        TestCase.assertEquals(50, values[2]);
+        TestCase.assertEquals(91, values[3]);
+        TestCase.assertEquals(99, values[4]);
+        // never beyond the highest value recorded
+        TestCase.assertEquals(100, values[5]);
+    }
+}
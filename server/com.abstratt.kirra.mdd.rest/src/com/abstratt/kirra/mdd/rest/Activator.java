@@ -1,18 +1,39 @@
 package com.abstratt.kirra.mdd.rest;
 
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.UMLPackage;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.util.tracker.ServiceTracker;
 
 import com.abstratt.kirra.auth.AuthenticationService;
+import com.abstratt.kirra.auth.CachingAuthenticationService;
 import com.abstratt.kirra.auth.EmailService;
 import com.abstratt.kirra.auth.TransientAuthenticationService;
+import com.abstratt.kirra.mdd.core.KirraHelper;
+import com.abstratt.mdd.core.runtime.Runtime;
+import com.abstratt.mdd.frontend.web.RepositoryWarmer;
 
 public class Activator implements BundleActivator {
 
     public static final String ID = Activator.class.getPackage().getName();
 
+    /**
+     * How long, in seconds, authenticated users and their roles are
+     * remembered for. Zero disables caching.
+     */
+    private static final int AUTHENTICATION_CACHE_TTL = Integer.getInteger("kirra.auth.cacheTtl", 60);
+
+    private static final int AUTHENTICATION_CACHE_SIZE = Integer.getInteger("kirra.auth.cacheSize", 1000);
+
+    private static final String USER_PROFILE_CLASS = "userprofile::UserProfile";
+
     public static Activator getInstance() {
         return Activator.instance;
     }
@@ -22,13 +43,62 @@ public class Activator implements BundleActivator {
     private ServiceTracker<AuthenticationService, AuthenticationService> authenticationTracker;
     private AuthenticationService transientAuthentication = new TransientAuthenticationService();
     private ServiceTracker<EmailService, EmailService> emailTracker;
+    private CachingAuthenticationService cachingAuthentication;
+    private Runtime.ChangeListener userProfileListener = this::userProfilesChanged;
+    private Consumer<URI> repositoryWarmUp = KirraRESTUtils::warmUp;
 
     private String applicationVersion;
 
     public AuthenticationService getAuthenticationService() {
         AuthenticationService boundService = Boolean.getBoolean("mdd.offlineAuthentication") ? transientAuthentication
                 : authenticationTracker.getService();
-        return boundService != null ? boundService : transientAuthentication;
+        if (boundService == null)
+            return transientAuthentication;
+        return getCachingAuthentication(boundService);
+    }
+
+    private synchronized AuthenticationService getCachingAuthentication(AuthenticationService boundService) {
+        if (boundService == transientAuthentication || AUTHENTICATION_CACHE_TTL <= 0 || AUTHENTICATION_CACHE_SIZE <= 0)
+            return boundService;
+        if (cachingAuthentication == null || cachingAuthentication.getDelegate() != boundService)
+            cachingAuthentication = new CachingAuthenticationService(boundService, Activator::getAuthenticationScope,
+                    AUTHENTICATION_CACHE_TTL * 1000L, AUTHENTICATION_CACHE_SIZE);
+        return cachingAuthentication;
+    }
+
+    /**
+     * Users are cached per application and environment, as each environment
+     * has user profiles of its own.
+     */
+    private static String getAuthenticationScope() {
+        return KirraAuthenticationContext.WORKSPACE_NAME.get() + '@'
+                + StringUtils.defaultString(KirraRESTTaskModeSelector.getTaskEnvironment(), "default");
+    }
+
+    private void userProfilesChanged(Runtime runtime, Set<String> changedClasses) {
+        CachingAuthenticationService current;
+        synchronized (this) {
+            current = cachingAuthentication;
+        }
+        if (current != null && affectsUsers(runtime, changedClasses))
+            current.invalidate();
+    }
+
+    /**
+     * Cached users may no longer be valid, or have different roles, once
+     * user profiles or roles (as users are linked to their roles) change.
+     * 
+     * @param changedClasses
+     *            as reported to a {@link Runtime.ChangeListener}
+     */
+    public static boolean affectsUsers(Runtime runtime, Set<String> changedClasses) {
+        return changedClasses == null || changedClasses.contains(USER_PROFILE_CLASS)
+                || changedClasses.stream().anyMatch(changed -> isRoleClass(runtime, changed));
+    }
+
+    private static boolean isRoleClass(Runtime runtime, String className) {
+        Classifier classifier = runtime.getRepository().findNamedElement(className, UMLPackage.Literals.CLASSIFIER, null);
+        return classifier != null && KirraHelper.isRole(classifier);
     }
 
     public BundleContext getContext() {
@@ -52,11 +122,15 @@ public class Activator implements BundleActivator {
         emailTracker = new ServiceTracker<EmailService, EmailService>(context, EmailService.class, null);
         emailTracker.open();
         this.applicationVersion = context.getBundle().getHeaders().get(Constants.BUNDLE_VERSION);
+        Runtime.addChangeListener(userProfileListener);
+        RepositoryWarmer.addParticipant(repositoryWarmUp);
         Activator.instance = this;
     }
 
     @Override
     public void stop(BundleContext context) throws Exception {
+        Runtime.removeChangeListener(userProfileListener);
+        RepositoryWarmer.removeParticipant(repositoryWarmUp);
         Activator.instance = null;
         this.context = null;
     }
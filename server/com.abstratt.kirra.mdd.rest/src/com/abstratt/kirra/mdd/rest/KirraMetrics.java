@@ -0,0 +1,129 @@
+package com.abstratt.kirra.mdd.rest;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and node store call counts for the requests served,
+ * per route template and method, rendered in the Prometheus text format.
+ *
+ * Besides the total time, requests are broken down into phases:
+ * <ul>
+ * <li>{@link #ACQUIRE} - obtaining the repository and beginning the
+ * transaction</li>
+ * <li>{@link #HANDLE} - running the resource, which includes the
+ * {@link com.abstratt.kirra.mdd.runtime.PhaseTimings#EXECUTION execution} of
+ * model behavior and the
+ * {@link com.abstratt.kirra.mdd.runtime.PhaseTimings#CONVERSION conversion}
+ * of instances</li>
+ * <li>{@link #COMMIT} - committing (or aborting) the transaction</li>
+ * <li>{@link #SERIALIZE} - writing the response</li>
+ * </ul>
+ * A phase is only recorded for requests that went through it.
+ */
+public class KirraMetrics {
+    public static final String ACQUIRE = "acquire";
+
+    public static final String HANDLE = "handle";
+
+    public static final String COMMIT = "commit";
+
+    public static final String SERIALIZE = "serialize";
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+    private static final KirraMetrics instance = new KirraMetrics();
+
+    public static KirraMetrics getInstance() {
+        return instance;
+    }
+
+    private final ConcurrentMap<String, LatencyHistogram> requests = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private final ConcurrentMap<String, LatencyHistogram> phases = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private final ConcurrentMap<String, LatencyHistogram> callsPerRequest = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private final ConcurrentMap<String, LongAdder> calls = new ConcurrentHashMap<String, LongAdder>();
+
+    /**
+     * Records a request.
+     *
+     * @param route
+     *            the template of the route that served the request
+     * @param method
+     *            the request method
+     * @param elapsed
+     *            how long, in nanoseconds, serving the request took
+     * @param phaseTimings
+     *            how long, in nanoseconds, each phase took
+     * @param nodeStoreCalls
+     *            how many node store calls of each kind were made
+     */
+    public void record(String route, String method, long elapsed, Map<String, Long> phaseTimings, Map<String, Long> nodeStoreCalls) {
+        String labels = label("route", route) + "," + label("method", method);
+        getHistogram(requests, labels).record(TimeUnit.NANOSECONDS.toMicros(elapsed));
+        phaseTimings.forEach((phase, phaseElapsed) -> getHistogram(phases, labels + "," + label("phase", phase)).record(
+                TimeUnit.NANOSECONDS.toMicros(phaseElapsed)));
+        long totalCalls = 0;
+        for (Map.Entry<String, Long> entry : nodeStoreCalls.entrySet()) {
+            calls.computeIfAbsent(labels + "," + label("kind", entry.getKey()), it -> new LongAdder()).add(entry.getValue());
+            totalCalls += entry.getValue();
+        }
+        getHistogram(callsPerRequest, labels).record(totalCalls);
+    }
+
+    private static LatencyHistogram getHistogram(ConcurrentMap<String, LatencyHistogram> histograms, String labels) {
+        return histograms.computeIfAbsent(labels, it -> new LatencyHistogram());
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text exposition format.
+     */
+    public String render() {
+        StringBuilder output = new StringBuilder();
+        renderSummary(output, "kirra_request_duration_seconds", "Time taken serving requests.", requests, true);
+        renderSummary(output, "kirra_request_phase_duration_seconds", "Time taken by each phase of serving requests.", phases, true);
+        renderSummary(output, "kirra_request_nodestore_calls", "Node store calls made serving requests.", callsPerRequest, false);
+        output.append("# HELP kirra_nodestore_calls_total Node store calls made serving requests, per kind.\n");
+        output.append("# TYPE kirra_nodestore_calls_total counter\n");
+        new TreeMap<String, LongAdder>(calls).forEach((labels, count) -> renderSample(output, "kirra_nodestore_calls_total", labels,
+                Long.toString(count.sum())));
+        return output.toString();
+    }
+
+    private static void renderSummary(StringBuilder output, String name, String help, Map<String, LatencyHistogram> histograms,
+            boolean inSeconds) {
+        Map<String, LatencyHistogram> sorted = new TreeMap<String, LatencyHistogram>(histograms);
+        output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        output.append("# TYPE ").append(name).append(" summary\n");
+        sorted.forEach((labels, histogram) -> {
+            long[] values = histogram.getValuesAt(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; i++)
+                renderSample(output, name, labels + "," + label("quantile", Double.toString(QUANTILES[i])), format(values[i], inSeconds));
+            renderSample(output, name + "_sum", labels, format(histogram.getSum(), inSeconds));
+            renderSample(output, name + "_count", labels, Long.toString(histogram.getCount()));
+        });
+        output.append("# HELP ").append(name).append("_max ").append(help).append(" Maximum.\n");
+        output.append("# TYPE ").append(name).append("_max gauge\n");
+        sorted.forEach((labels, histogram) -> renderSample(output, name + "_max", labels, format(histogram.getMax(), inSeconds)));
+    }
+
+    private static void renderSample(StringBuilder output, String name, String labels, String value) {
+        output.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String format(long value, boolean microsToSeconds) {
+        return microsToSeconds ? String.format(Locale.ROOT, "%.6f", value / 1e6) : Long.toString(value);
+    }
+
+    private static String label(String name, String value) {
+        String escaped = value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return name + "=\"" + escaped + "\"";
+    }
+}
@@ -8,23 +8,23 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.emf.common.util.URI;
 import org.restlet.Request;
 import org.restlet.Response;
-import org.restlet.data.MediaType;
 import org.restlet.data.Method;
 import org.restlet.data.Status;
 import org.restlet.representation.Representation;
-import org.restlet.representation.StringRepresentation;
 import org.restlet.security.User;
 
 import com.abstratt.kirra.KirraException;
 import com.abstratt.kirra.Repository;
+import com.abstratt.kirra.mdd.runtime.PhaseTimings;
+import com.abstratt.kirra.mdd.runtime.KirraOnMDDRuntime;
 import com.abstratt.kirra.rest.common.KirraContext;
 import com.abstratt.mdd.core.IRepository;
 import com.abstratt.mdd.core.RepositoryService;
 import com.abstratt.mdd.core.runtime.Runtime;
 import com.abstratt.mdd.core.util.MDDUtil;
-import com.abstratt.mdd.frontend.web.JsonHelper;
 import com.abstratt.mdd.frontend.web.ResourceUtils;
 import com.abstratt.mdd.frontend.web.ResourceUtils.ResourceRunnable;
+import com.abstratt.mdd.frontend.web.StreamingJsonRepresentation;
 import com.abstratt.pluginutils.ISharedContextRunnable;
 import com.abstratt.resman.TaskModeSelector.Mode;
 
@@ -81,8 +81,12 @@ public class KirraRESTUtils {
         return KirraRESTUtils.jsonToStringRepresentation(error);
     }
 
+    /**
+     * Returns a representation that writes the given object as JSON directly
+     * to the response (see {@link StreamingJsonRepresentation}).
+     */
     public static Representation jsonToStringRepresentation(Object jsonObject) {
-        return new StringRepresentation(JsonHelper.renderAsJson(jsonObject).toString(), MediaType.APPLICATION_JSON);
+        return new StreamingJsonRepresentation(jsonObject);
     }
 
     public static <R> R runInKirraRepository(final Request request, final ISharedContextRunnable<IRepository, R> runnable) {
@@ -96,7 +100,9 @@ public class KirraRESTUtils {
             KirraRESTTaskModeSelector.setTaskMode(safe ? Mode.ReadOnly : Mode.ReadWrite);
             String environment = KirraContext.getEnvironment();
             KirraRESTTaskModeSelector.setTaskEnvironment(environment);
-            return RepositoryService.DEFAULT.runInRepository(ResourceUtils.getRepositoryURI(workspace), runnable);
+            if (!PhaseTimings.isTracking())
+                return RepositoryService.DEFAULT.runInRepository(ResourceUtils.getRepositoryURI(workspace), runnable);
+            return runTimingPhases(workspace, runnable);
         } catch (KirraException e) {
             ResourceUtils.fail(e, org.restlet.data.Status.CLIENT_ERROR_BAD_REQUEST);
             // never runs
@@ -110,6 +116,35 @@ public class KirraRESTUtils {
         }
     }
 
+    /**
+     * Breaks the time spent running the given runnable in the workspace
+     * repository down into acquiring the repository (which includes
+     * beginning the transaction), handling the request, and committing (or
+     * aborting) the transaction.
+     */
+    private static <R> R runTimingPhases(String workspace, final ISharedContextRunnable<IRepository, R> runnable) throws CoreException {
+        final long[] handled = { 0 };
+        final long acquiring = System.nanoTime();
+        try {
+            return RepositoryService.DEFAULT.runInRepository(ResourceUtils.getRepositoryURI(workspace), new ISharedContextRunnable<IRepository, R>() {
+                @Override
+                public R runInContext(IRepository context) {
+                    long handling = System.nanoTime();
+                    PhaseTimings.add(KirraMetrics.ACQUIRE, handling - acquiring);
+                    try {
+                        return runnable.runInContext(context);
+                    } finally {
+                        handled[0] = System.nanoTime();
+                        PhaseTimings.add(KirraMetrics.HANDLE, handled[0] - handling);
+                    }
+                }
+            });
+        } finally {
+            if (handled[0] != 0)
+                PhaseTimings.add(KirraMetrics.COMMIT, System.nanoTime() - handled[0]);
+        }
+    }
+
     public static Representation serveInResource(Request request, final ResourceRunnable runnable) {
         return ResourceUtils.serveInResource(request, new ResourceRunnable() {
             @Override
@@ -119,6 +154,28 @@ public class KirraRESTUtils {
         });
     }
 
+    /**
+     * Loads the repository at the given location and prepares it for serving
+     * requests (see {@link KirraOnMDDRuntime#warmUp()}). Only the pooled
+     * resource the warm-up runs on gets prepared.
+     */
+    public static void warmUp(URI repositoryURI) {
+        try {
+            KirraRESTTaskModeSelector.setTaskMode(Mode.ReadOnly);
+            RepositoryService.DEFAULT.runInRepository(repositoryURI, new ISharedContextRunnable<IRepository, Object>() {
+                @Override
+                public Object runInContext(IRepository context) {
+                    ((KirraOnMDDRuntime) getRepository()).warmUp();
+                    return null;
+                }
+            });
+        } catch (CoreException e) {
+            throw new RuntimeException(e);
+        } finally {
+            KirraRESTTaskModeSelector.setTaskMode(null);
+        }
+    }
+
     protected static org.eclipse.emf.common.util.URI getRepositoryURI(String workspace) {
         return ResourceUtils.getRepositoryURI(workspace);
     }
@@ -7,8 +7,6 @@ import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.time.StopWatch;
-import org.eclipse.core.runtime.IStatus;
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.Restlet;
@@ -45,8 +43,6 @@ public class KirraRepositoryFilter extends Filter {
 
     @Override
     protected int doHandle(final Request request, final Response response) {
-        StopWatch watch = new StopWatch();
-        watch.start();
         KirraContext.setEnvironment(environment);
         String workspace = getWorkspace(request);
         try {
@@ -74,9 +70,6 @@ public class KirraRepositoryFilter extends Filter {
                     }
                 }
             }, request.getMethod());
-            watch.stop();
-            LogUtils.log(IStatus.INFO, Activator.ID, request.toString(), null);
-            LogUtils.log(IStatus.INFO, Activator.ID, "Time: " + watch.getTime(), null);
             return result;
         } catch (ResourceException e) {
             if (e.getCause() != null) {
@@ -1,31 +1,138 @@
 package com.abstratt.kirra.mdd.rest;
 
-import org.apache.commons.lang3.time.StopWatch;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
 import org.eclipse.core.runtime.IStatus;
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.Restlet;
+import org.restlet.representation.Representation;
 import org.restlet.routing.Filter;
+import org.restlet.util.WrapperRepresentation;
 
+import com.abstratt.kirra.mdd.runtime.PhaseTimings;
+import com.abstratt.nodestore.NodeStoreCalls;
 import com.abstratt.pluginutils.LogUtils;
 
 /**
- * A filter that times requests.
+ * A filter that times requests, recording them into {@link KirraMetrics}
+ * under the given route, and optionally logging them.
+ *
+ * As responses are written only after the filter returns, the time spent
+ * serializing the response is measured by wrapping its entity, and the
+ * request is recorded once the entity has been written.
  */
 public class KirraTimingFilter extends Filter {
-    public static Restlet monitor(Restlet toMonitor) {
-        KirraTimingFilter monitor = new KirraTimingFilter();
+    private final Function<Request, String> route;
+
+    private final boolean log;
+
+    public static Restlet monitor(Restlet toMonitor, String route, boolean log) {
+        return monitor(toMonitor, request -> route, log);
+    }
+
+    public static Restlet monitor(Restlet toMonitor, Function<Request, String> route, boolean log) {
+        KirraTimingFilter monitor = new KirraTimingFilter(route, log);
         monitor.setNext(toMonitor);
         return monitor;
     }
-    
+
+    public KirraTimingFilter(Function<Request, String> route, boolean log) {
+        this.route = route;
+        this.log = log;
+    }
+
     @Override
     protected int doHandle(final Request request, final Response response) {
-        StopWatch watch = new StopWatch();
-        watch.start();
-        int result = super.doHandle(request, response);
-        watch.stop();
-        LogUtils.log(IStatus.INFO, Activator.ID, request.toString() + " - " + watch.getTime() + "ms", null);
+        long start = System.nanoTime();
+        NodeStoreCalls.start();
+        PhaseTimings.start();
+        Map<String, Long> phases;
+        Map<String, Long> calls;
+        int result;
+        try {
+            result = super.doHandle(request, response);
+        } finally {
+            phases = new LinkedHashMap<String, Long>(PhaseTimings.stop());
+            calls = NodeStoreCalls.stop();
+        }
+        if (log)
+            LogUtils.log(IStatus.INFO, Activator.ID, request.toString() + " - " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                    + "ms", null);
+        Runnable record = () -> KirraMetrics.getInstance().record(route.apply(request), request.getMethod().getName(),
+                System.nanoTime() - start, phases, calls);
+        Representation entity = response.getEntity();
+        if (entity == null || !entity.isAvailable())
+            record.run();
+        else
+            response.setEntity(new TimedRepresentation(entity, phases, record));
         return result;
     }
+
+    /**
+     * Times writing the wrapped entity as the serialization phase, and
+     * records the request once it is written (or released without being
+     * written).
+     */
+    private static class TimedRepresentation extends WrapperRepresentation {
+        private interface Write {
+            void run() throws IOException;
+        }
+
+        private final Map<String, Long> phases;
+
+        private final Runnable record;
+
+        private final AtomicBoolean recorded = new AtomicBoolean();
+
+        public TimedRepresentation(Representation wrapped, Map<String, Long> phases, Runnable record) {
+            super(wrapped);
+            this.phases = phases;
+            this.record = record;
+        }
+
+        @Override
+        public void write(OutputStream outputStream) throws IOException {
+            timed(() -> super.write(outputStream));
+        }
+
+        @Override
+        public void write(Writer writer) throws IOException {
+            timed(() -> super.write(writer));
+        }
+
+        @Override
+        public void write(WritableByteChannel writableChannel) throws IOException {
+            timed(() -> super.write(writableChannel));
+        }
+
+        @Override
+        public void release() {
+            super.release();
+            record();
+        }
+
+        private void timed(Write write) throws IOException {
+            long start = System.nanoTime();
+            try {
+                write.run();
+            } finally {
+                phases.merge(KirraMetrics.SERIALIZE, System.nanoTime() - start, Long::sum);
+                record();
+            }
+        }
+
+        private void record() {
+            if (recorded.compareAndSet(false, true))
+                record.run();
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package com.abstratt.kirra.mdd.rest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values (say, latencies in microseconds) with
+ * bounded relative error, in the spirit of HdrHistogram.
+ *
+ * Each power of two range is split into {@link #SUB_BUCKETS} linear
+ * buckets, so a recorded value is off by at most 1/{@link #SUB_BUCKETS} of
+ * itself. Values up to {@link #SUB_BUCKETS} are recorded exactly, and values
+ * beyond {@link #MAX_VALUE} are recorded as {@link #MAX_VALUE}.
+ *
+ * Recording is lock-free, and quantiles may be computed while values are
+ * being recorded.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_MAGNITUDE = 36;
+
+    static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS * (shift + 1) + subBucket;
+    }
+
+    /**
+     * Returns the highest value that is recorded in the bucket with the given
+     * index.
+     */
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public void record(long value) {
+        long clamped = Math.min(Math.max(value, 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(clamped));
+        count.increment();
+        sum.add(clamped);
+        max.accumulateAndGet(clamped, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the values at the given quantiles (between 0 and 1, in
+     * ascending order), as of a single pass over the buckets.
+     */
+    public long[] getValuesAt(double... quantiles) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++)
+            total += snapshot[i] = counts.get(i);
+        long[] values = new long[quantiles.length];
+        if (total == 0)
+            return values;
+        long highest = getMax();
+        int next = 0;
+        long seen = 0;
+        for (int i = 0; i < snapshot.length && next < quantiles.length; i++) {
+            seen += snapshot[i];
+            while (next < quantiles.length && seen >= Math.max(1, (long) Math.ceil(quantiles[next] * total)))
+                values[next++] = Math.min(highestValueAt(i), highest);
+        }
+        while (next < quantiles.length)
+            values[next++] = highest;
+        return values;
+    }
+}
@@ -12,6 +12,7 @@ import java.util.Properties;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.eclipse.emf.common.util.URI;
 import org.eclipse.core.filesystem.IFileStore;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
@@ -50,8 +51,12 @@ public class DeployerResource extends AbstractBuildDirectoryResource {
                     return new StringRepresentation(ResourceUtils.buildJSONResponse(results), MediaType.APPLICATION_JSON);
                 }
             File deployDirectory = BuildDirectoryUtils.getDeployDirectory(userPath);
-            RepositoryService.DEFAULT.unregisterRepository(MDDUtil.fromJavaToEMF(deployDirectory.toURI()));
+            URI repositoryURI = MDDUtil.fromJavaToEMF(deployDirectory.toURI());
             BuildDirectoryUtils.replaceDirectory(tmpProjectDir, deployDirectory);
+            // only now, or requests made while replacing could load the old repository again
+            RepositoryService.DEFAULT.unregisterRepository(repositoryURI);
+            // so the first requests against the new version do not have to load it
+            RepositoryWarmer.warmUp(repositoryURI);
             return new StringRepresentation(ResourceUtils.buildJSONResponse(results), MediaType.APPLICATION_JSON);
         } catch (IOException e) {
             setStatus(Status.SERVER_ERROR_INTERNAL);
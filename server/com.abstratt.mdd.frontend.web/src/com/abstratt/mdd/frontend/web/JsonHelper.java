@@ -1,10 +1,12 @@
 package com.abstratt.mdd.frontend.web;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.text.SimpleDateFormat;
 
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
@@ -12,6 +14,7 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -23,14 +26,34 @@ public class JsonHelper {
     }
 
     public static String renderAsJson(Object toRender) {
+        return renderAsJson(toRender, true);
+    }
+
+    public static String renderAsJson(Object toRender, boolean pretty) {
         try {
             StringWriter writer = new StringWriter();
-            ((ObjectMapper) JsonHelper.jsonFactory.getCodec()).writerWithDefaultPrettyPrinter().writeValue(writer, toRender);
+            getWriter(pretty).writeValue(writer, toRender);
             return writer.toString();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Writes the given object as JSON (UTF-8 encoded) directly to the given
+     * stream, instead of rendering it into a string first. The stream is
+     * left open.
+     */
+    public static void writeAsJson(Object toRender, OutputStream out, boolean pretty) throws IOException {
+        JsonGenerator generator = JsonHelper.jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+        getWriter(pretty).writeValue(generator, toRender);
+        generator.flush();
+    }
+
+    private static ObjectWriter getWriter(boolean pretty) {
+        ObjectMapper mapper = (ObjectMapper) JsonHelper.jsonFactory.getCodec();
+        return pretty ? mapper.writerWithDefaultPrettyPrinter() : mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    }
     
     public static JsonNode traverse(JsonNode node, String... path) {
         JsonNode result = node;
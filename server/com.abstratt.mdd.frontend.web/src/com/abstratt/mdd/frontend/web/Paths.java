@@ -21,4 +21,5 @@ public interface Paths {
     String PASSWORD_RESET = "passwordReset";
     String PARAMETERS = "parameters";
     String DOMAIN = "domain";
+    String CAPABILITIES = "capabilities";
 }
@@ -0,0 +1,65 @@
+package com.abstratt.mdd.frontend.web;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.eclipse.emf.common.util.URI;
+
+import com.abstratt.mdd.core.RepositoryService;
+import com.abstratt.pluginutils.LogUtils;
+import com.abstratt.resman.Resource;
+import com.abstratt.resman.Task;
+
+/**
+ * Loads freshly deployed repositories before any requests are made against
+ * them, so those requests are not slowed down by it.
+ *
+ * By default, a repository is just loaded. Other bundles can contribute
+ * participants that do more (e.g. build schemas or prepare execution plans).
+ * A participant gets the repository URI and is responsible for entering
+ * the repository context the way it requires.
+ *
+ * Only the first resource created for the repository is warmed up. If
+ * concurrent requests later make the resource pool load more copies of the
+ * repository, those are loaded and prepared on demand.
+ */
+public class RepositoryWarmer {
+    private static final boolean ENABLED = !Boolean.getBoolean("mdd.deploy.skipWarmUp");
+
+    private static final List<Consumer<URI>> participants = new CopyOnWriteArrayList<Consumer<URI>>();
+
+    public static void addParticipant(Consumer<URI> participant) {
+        participants.add(participant);
+    }
+
+    public static void removeParticipant(Consumer<URI> participant) {
+        participants.remove(participant);
+    }
+
+    /**
+     * Warms up the repository at the given location. Failures are only
+     * logged, the repository will be loaded again when needed.
+     */
+    public static void warmUp(URI repositoryURI) {
+        if (!ENABLED)
+            return;
+        long start = System.currentTimeMillis();
+        try {
+            if (participants.isEmpty())
+                RepositoryService.DEFAULT.runTask(repositoryURI, new Task<Object>() {
+                    @Override
+                    public Object run(Resource<?> resource) {
+                        // entering the context is enough to load the repository
+                        return null;
+                    }
+                });
+            else
+                for (Consumer<URI> participant : participants)
+                    participant.accept(repositoryURI);
+            LogUtils.logInfo(WebFrontEnd.ID, "Warmed up " + repositoryURI + " in " + (System.currentTimeMillis() - start) + "ms", null);
+        } catch (RuntimeException e) {
+            LogUtils.logWarning(WebFrontEnd.ID, "Error warming up " + repositoryURI, e);
+        }
+    }
+}
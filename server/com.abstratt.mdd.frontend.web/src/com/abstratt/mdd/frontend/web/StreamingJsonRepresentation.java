@@ -0,0 +1,50 @@
+package com.abstratt.mdd.frontend.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.restlet.Request;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.data.Parameter;
+import org.restlet.representation.OutputRepresentation;
+
+/**
+ * A JSON representation that is written directly to the response stream
+ * when the response is sent, so the text never has to be held in memory in
+ * full.
+ * 
+ * Output is compact, unless pretty printing is requested with the
+ * <code>pretty</code> query parameter (as in <code>?pretty</code> or
+ * <code>?pretty=true</code>).
+ */
+public class StreamingJsonRepresentation extends OutputRepresentation {
+    public static final String PRETTY_PARAMETER = "pretty";
+
+    private final Object toRender;
+
+    private final boolean pretty;
+
+    public StreamingJsonRepresentation(Object toRender) {
+        this(toRender, isPrettyPrintRequested(Request.getCurrent()));
+    }
+
+    public StreamingJsonRepresentation(Object toRender, boolean pretty) {
+        super(MediaType.APPLICATION_JSON);
+        setCharacterSet(CharacterSet.UTF_8);
+        this.toRender = toRender;
+        this.pretty = pretty;
+    }
+
+    public static boolean isPrettyPrintRequested(Request request) {
+        if (request == null || request.getResourceRef() == null)
+            return false;
+        Parameter parameter = request.getResourceRef().getQueryAsForm().getFirst(PRETTY_PARAMETER);
+        return parameter != null && !"false".equalsIgnoreCase(parameter.getValue());
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        JsonHelper.writeAsJson(toRender, outputStream, pretty);
+    }
+}